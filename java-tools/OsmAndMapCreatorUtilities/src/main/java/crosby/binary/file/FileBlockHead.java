@@ -72,9 +72,17 @@ public class FileBlockHead extends FileBlockReference {
      * @throws IOException
      */
     FileBlock readContents(InputStream input) throws IOException {
+        return parseData(readRawContents(input));
+    }
+
+    /**
+     * Reads serialized Blob without decompressing it, so it could be parsed
+     * later with parseData on another thread
+     */
+    byte[] readRawContents(InputStream input) throws IOException {
         DataInputStream datinput = new DataInputStream(input);
         byte buf[] = new byte[getDatasize()];
         datinput.readFully(buf);
-        return parseData(buf);
+        return buf;
     }
 }
@@ -0,0 +1,116 @@
+package crosby.binary.file;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Pipelined reader of fileblocks: one thread reads raw blobs from the stream,
+ * a pool of workers decompresses and decodes them, and decoded results are
+ * delivered to the consumer on the calling thread in file order.
+ */
+public class ParallelBlockInputStream<T> {
+
+    public interface BlockDecoder<T> {
+        /** Called on the reader thread, see BlockReaderAdapter.skipBlock */
+        boolean skipBlock(FileBlockPosition message);
+
+        /** Called on worker threads, must not share mutable state between calls */
+        T decode(FileBlock message) throws IOException;
+    }
+
+    public interface BlockConsumer<T> {
+        /** Called on the calling thread in file order */
+        void accept(T decoded) throws IOException;
+    }
+
+    private static final CompletableFuture<Object> END = CompletableFuture.completedFuture(null);
+
+    private final InputStream input;
+    private final int threads;
+
+    public ParallelBlockInputStream(InputStream input, int threads) {
+        this.input = input;
+        this.threads = Math.max(1, threads);
+    }
+
+    public void process(BlockDecoder<T> decoder, BlockConsumer<T> consumer) throws IOException {
+        // bounds number of blocks kept in memory
+        BlockingQueue<CompletableFuture<?>> pending = new ArrayBlockingQueue<>(threads * 2);
+        ExecutorService workers = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "pbf-decoder");
+            t.setDaemon(true);
+            return t;
+        });
+        Thread reader = new Thread(() -> read(decoder, workers, pending), "pbf-reader");
+        reader.setDaemon(true);
+        reader.start();
+        try {
+            while (true) {
+                CompletableFuture<?> f = pending.take();
+                if (f == END) {
+                    break;
+                }
+                @SuppressWarnings("unchecked")
+                T decoded = (T) f.get();
+                consumer.accept(decoded);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted reading blocks", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        } finally {
+            reader.interrupt();
+            workers.shutdownNow();
+        }
+    }
+
+    private void read(BlockDecoder<T> decoder, ExecutorService workers, BlockingQueue<CompletableFuture<?>> pending) {
+        try {
+            try {
+                while (input.available() > 0) {
+                    FileBlockHead head = FileBlockHead.readHead(input);
+                    if (decoder.skipBlock(head)) {
+                        head.skipContents(input);
+                        continue;
+                    }
+                    byte[] raw = head.readRawContents(input);
+                    CompletableFuture<T> f = new CompletableFuture<>();
+                    workers.execute(() -> {
+                        try {
+                            f.complete(decoder.decode(head.parseData(raw)));
+                        } catch (Throwable e) {
+                            f.completeExceptionally(e);
+                        }
+                    });
+                    pending.put(f);
+                }
+                pending.put(END);
+            } catch (IOException | RuntimeException | Error e) {
+                CompletableFuture<T> f = new CompletableFuture<>();
+                f.completeExceptionally(e);
+                pending.put(f);
+            }
+        } catch (InterruptedException e) {
+            // consumer stopped reading
+        }
+    }
+
+    public void close() throws IOException {
+        input.close();
+    }
+}
@@ -27,10 +27,15 @@ import org.xmlpull.v1.XmlPullParserException;
 import rtree.RTreeException;
 
 import java.io.*;
+import java.nio.channels.FileChannel;
 import java.sql.SQLException;
 import java.text.Collator;
 import java.text.MessageFormat;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
@@ -40,9 +45,10 @@ public class BinaryMerger {
 
 	public static final int BUFFER_SIZE = 1 << 20;
 	private final static Log log = PlatformUtil.getLog(BinaryMerger.class);
-	public static final String helpMessage = "output_file.obf [--address] [--poi] [input_file.obf] ...: merges all obf files and merges poi & address structure into 1";
+	public static final String helpMessage = "output_file.obf [--address] [--poi] [--threads=N] [input_file.obf] ...: merges all obf files and merges poi & address structure into 1";
 	private static final Map<String, Integer> COMBINE_ARGS = new HashMap<String, Integer>();
 	private BinaryMapIndexReader.OsmAndOwner osmAndOwner;
+	private int threads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
 
 	static {
 		COMBINE_ARGS.put("--address", OsmandOdb.OsmAndStructure.ADDRESSINDEX_FIELD_NUMBER);
@@ -649,50 +655,166 @@ public class BinaryMerger {
 		}
 
 		// write files
-		RandomAccessFile rafToExtract = new RandomAccessFile(fileToExtract, "rw");
-		BinaryMapIndexWriter writer = new BinaryMapIndexWriter(rafToExtract, dateCreated);
-		CodedOutputStream ous = writer.getCodedOutStream();
-		byte[] BUFFER_TO_READ = new byte[BUFFER_SIZE];
-		AddressRegion[] addressRegions = new AddressRegion[combineFiles ? files.size() : readers.size()];
-		PoiRegion[] poiRegions = new PoiRegion[combineFiles ? files.size() : readers.size()];
-		for (int k = 0; k < indexes.length; k++) {
-			BinaryMapIndexReader index = indexes[k];
-			RandomAccessFile raf = rafs != null ? rafs[k] : null;
-			for (int i = 0; i < index.getIndexes().size(); i++) {
-				BinaryIndexPart part = index.getIndexes().get(i);
-				if (combineParts.contains(part.getFieldNumber())) {
-					if (part.getFieldNumber() == OsmandOdb.OsmAndStructure.ADDRESSINDEX_FIELD_NUMBER) {
-						addressRegions[k] = (AddressRegion) part;
-					} else if (part.getFieldNumber() == OsmandOdb.OsmAndStructure.POIINDEX_FIELD_NUMBER) {
-						poiRegions[k] = (PoiRegion) part;
-					} else if (part.getFieldNumber() == OsmandOdb.OsmAndStructure.HHROUTINGINDEX_FIELD_NUMBER) {
-						// ignore as we don't know how to merge
-					}
-				} else if (raf != null) {
-					ous.writeTag(part.getFieldNumber(), WireFormat.WIRETYPE_FIXED32_LENGTH_DELIMITED);
-					writeInt(ous, part.getLength());
-					copyBinaryPart(ous, BUFFER_TO_READ, raf, part.getFilePointer(), part.getLength());
-					System.out.println(MessageFormat.format("{2} part {0} is extracted {1} bytes",
-							new Object[]{part.getName(), part.getLength(), part.getPartName()}));
-				}
-			}
-		}
 		String nm = fileToExtract.getName();
 		int i = nm.indexOf('_');
 		if (i > 0) {
 			nm = nm.substring(0, i);
 		}
+		final String name = nm;
+		final long date = dateCreated;
+		List<SectionEncoder> encoders = new ArrayList<SectionEncoder>();
 		if (combineParts.contains(OsmandOdb.OsmAndStructure.ADDRESSINDEX_FIELD_NUMBER)) {
-			combineAddressIndex(nm, writer, addressRegions, indexes);
+			encoders.add((w, idx) -> combineAddressIndex(name, w,
+					getParts(idx, OsmandOdb.OsmAndStructure.ADDRESSINDEX_FIELD_NUMBER, new AddressRegion[idx.length]), idx));
 		}
 		if (combineParts.contains(OsmandOdb.OsmAndStructure.POIINDEX_FIELD_NUMBER)) {
-			combinePoiIndex(nm, writer, dateCreated, poiRegions, indexes);
+			encoders.add((w, idx) -> combinePoiIndex(name, w, date,
+					getParts(idx, OsmandOdb.OsmAndStructure.POIINDEX_FIELD_NUMBER, new PoiRegion[idx.length]), idx));
+		}
+		// combined address and poi are still rebuilt from all files (poi goes through searchPoi and poi db),
+		// only these two sections are encoded in parallel into temporary files with own readers
+		// while other parts are copied verbatim
+		boolean parallel = combineFiles && threads > 1 && encoders.size() > 0;
+		ExecutorService service = null;
+		List<Future<SectionSegment>> segments = new ArrayList<Future<SectionSegment>>();
+		if (parallel) {
+			service = Executors.newFixedThreadPool(Math.min(threads, encoders.size()));
+			for (int k = 0; k < encoders.size(); k++) {
+				SectionEncoder encoder = encoders.get(k);
+				File segment = new File(fileToExtract.getAbsoluteFile().getParentFile(), fileToExtract.getName() + "." + k + ".tmp");
+				segments.add(service.submit(() -> encodeSection(segment, files, date, encoder)));
+			}
+			service.shutdown();
+		}
+
+		try {
+			RandomAccessFile rafToExtract = new RandomAccessFile(fileToExtract, "rw");
+			BinaryMapIndexWriter writer = new BinaryMapIndexWriter(rafToExtract, dateCreated);
+			CodedOutputStream ous = writer.getCodedOutStream();
+			for (int k = 0; k < indexes.length; k++) {
+				BinaryMapIndexReader index = indexes[k];
+				RandomAccessFile raf = rafs != null ? rafs[k] : null;
+				for (BinaryIndexPart part : index.getIndexes()) {
+					if (combineParts.contains(part.getFieldNumber())) {
+						// address & poi are combined below, hh index is ignored as we don't know how to merge
+					} else if (raf != null) {
+						ous.writeTag(part.getFieldNumber(), WireFormat.WIRETYPE_FIXED32_LENGTH_DELIMITED);
+						writeInt(ous, part.getLength());
+						ous.flush();
+						transferBinaryPart(raf.getChannel(), part.getFilePointer(), part.getLength(), rafToExtract.getChannel());
+						System.out.println(MessageFormat.format("{2} part {0} is extracted {1} bytes",
+								new Object[]{part.getName(), part.getLength(), part.getPartName()}));
+					}
+				}
+			}
+			for (int k = 0; k < encoders.size(); k++) {
+				if (parallel) {
+					appendSegment(getSegment(segments.get(k)), rafToExtract);
+				} else {
+					encoders.get(k).encode(writer, indexes);
+				}
+			}
+			if (combineParts.contains(OsmandOdb.OsmAndStructure.OWNER_FIELD_NUMBER) && osmAndOwner != null) {
+				writer.writeOsmAndOwner(osmAndOwner);
+			}
+			ous.writeInt32(OsmandOdb.OsmAndStructure.VERSIONCONFIRM_FIELD_NUMBER, version);
+			ous.flush();
+		} finally {
+			if (service != null) {
+				service.shutdownNow();
+			}
+		}
+	}
+
+	private interface SectionEncoder {
+		void encode(BinaryMapIndexWriter writer, BinaryMapIndexReader[] indexes) throws IOException, SQLException;
+	}
+
+	private static class SectionSegment {
+		final File file;
+		final long start;
+
+		SectionSegment(File file, long start) {
+			this.file = file;
+			this.start = start;
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T extends BinaryIndexPart> T[] getParts(BinaryMapIndexReader[] indexes, int fieldNumber, T[] parts) {
+		for (int k = 0; k < indexes.length; k++) {
+			for (BinaryIndexPart part : indexes[k].getIndexes()) {
+				if (part.getFieldNumber() == fieldNumber) {
+					parts[k] = (T) part;
+				}
+			}
+		}
+		return parts;
+	}
+
+	private SectionSegment encodeSection(File segment, List<File> files, long dateCreated, SectionEncoder encoder)
+			throws IOException, SQLException {
+		long time = System.currentTimeMillis();
+		// readers are not thread safe, so every section reads files by itself
+		BinaryMapIndexReader[] indexes = new BinaryMapIndexReader[files.size()];
+		try (RandomAccessFile raf = new RandomAccessFile(segment, "rw")) {
+			for (int k = 0; k < files.size(); k++) {
+				indexes[k] = new BinaryMapIndexReader(new RandomAccessFile(files.get(k), "r"), files.get(k));
+			}
+			raf.setLength(0);
+			BinaryMapIndexWriter writer = new BinaryMapIndexWriter(raf, dateCreated);
+			// skip header written by writer
+			long start = writer.getFilePointer();
+			encoder.encode(writer, indexes);
+			writer.getCodedOutStream().flush();
+			log.info(String.format("Section %s is encoded %,d bytes in %d ms", segment.getName(), raf.length() - start,
+					System.currentTimeMillis() - time));
+			return new SectionSegment(segment, start);
+		} finally {
+			for (BinaryMapIndexReader index : indexes) {
+				if (index != null) {
+					index.close();
+				}
+			}
+		}
+	}
+
+	private SectionSegment getSegment(Future<SectionSegment> future) throws IOException, SQLException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			throw new IOException(e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			} else if (e.getCause() instanceof SQLException) {
+				throw (SQLException) e.getCause();
+			}
+			throw new IllegalStateException(e.getCause());
+		}
+	}
+
+	private void appendSegment(SectionSegment segment, RandomAccessFile rafToExtract) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(segment.file, "r")) {
+			transferBinaryPart(raf.getChannel(), segment.start, raf.length() - segment.start, rafToExtract.getChannel());
+		}
+		if (!segment.file.delete()) {
+			log.warn("Cannot delete file " + segment.file);
+		}
+	}
+
+	/**
+	 * Copies part of the file to the current position of dst without reading it into heap.
+	 */
+	public static void transferBinaryPart(FileChannel src, long fp, long length, FileChannel dst) throws IOException {
+		if (fp + length > src.size()) {
+			throw new IllegalArgumentException("Unexpected end of file");
 		}
-		if (combineParts.contains(OsmandOdb.OsmAndStructure.OWNER_FIELD_NUMBER) && osmAndOwner != null) {
-			writer.writeOsmAndOwner(osmAndOwner);
+		long pos = fp;
+		long end = fp + length;
+		while (pos < end) {
+			pos += src.transferTo(pos, end - pos, dst);
 		}
-		ous.writeInt32(OsmandOdb.OsmAndStructure.VERSIONCONFIRM_FIELD_NUMBER, version);
-		ous.flush();
 	}
 
 	public void merger(String[] args) throws IOException, SQLException {
@@ -705,7 +827,9 @@ public class BinaryMerger {
 		List<File> toDelete = new ArrayList<File>();
 		Set<Integer> combineParts = new HashSet<Integer>();
 		for (int i = 0; i < args.length; i++) {
-			if (args[i].startsWith("--")) {
+			if (args[i].startsWith("--threads=")) {
+				threads = Integer.parseInt(args[i].substring("--threads=".length()));
+			} else if (args[i].startsWith("--")) {
 				combineParts.add(COMBINE_ARGS.get(args[i]));
 			} else if (outputFile == null) {
 				outputFile = new File(args[i]);
@@ -1,26 +1,39 @@
 package net.osmand.obf.diff;
 
+import net.osmand.ResultMatcher;
+import net.osmand.binary.BinaryIndexPart;
 import net.osmand.binary.BinaryMapDataObject;
+import net.osmand.binary.BinaryMapIndexReader;
 import net.osmand.binary.BinaryMapIndexReader.MapIndex;
+import net.osmand.binary.BinaryMapIndexReader.MapRoot;
+import net.osmand.binary.BinaryMapIndexReader.SearchFilter;
+import net.osmand.binary.BinaryMapIndexReader.SearchRequest;
+import net.osmand.binary.BinaryMapPoiReaderAdapter.PoiRegion;
 import net.osmand.binary.BinaryMapRouteReaderAdapter.RouteRegion;
+import net.osmand.binary.BinaryMapRouteReaderAdapter.RouteSubregion;
+import net.osmand.binary.BinaryMapTransportReaderAdapter.TransportIndex;
 import net.osmand.binary.MapZooms.MapZoomPair;
 import net.osmand.binary.RouteDataObject;
 import net.osmand.data.Amenity;
+import net.osmand.data.LatLon;
 import net.osmand.data.MapObject;
 import net.osmand.data.TransportRoute;
 import net.osmand.data.TransportStop;
 import net.osmand.obf.BinaryInspector;
 import net.osmand.osm.edit.Entity.EntityId;
 import net.osmand.osm.edit.Entity.EntityType;
+import net.osmand.util.MapUtils;
 import org.xmlpull.v1.XmlPullParserException;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.sql.SQLException;
 import java.util.*;
 import java.util.Map.Entry;
 
 import gnu.trove.iterator.TLongObjectIterator;
+import gnu.trove.list.array.TIntArrayList;
 import gnu.trove.map.hash.TLongObjectHashMap;
 import gnu.trove.set.hash.TLongHashSet;
 import rtree.RTreeException;
@@ -33,8 +46,21 @@ public class ObfDiffGenerator {
 	private static final String OSMAND_CHANGE_VALUE = "delete";
 	private static final String OSMAND_CHANGE_TAG = "osmand_change";
 	public static boolean COMPARE_TRANSPORT = true;
+	// compare files tile by tile without loading them into memory
+	public static boolean STREAMING = false;
+	public static int STREAMING_TILE_ZOOM = 9;
+	private static final int STREAMING_TILE_MARGIN_31 = 1 << 10;
 
 	public static void main(String[] args) throws IOException, RTreeException {
+		List<String> argsList = new ArrayList<>();
+		for (String a : args) {
+			if (a.equals("--streaming")) {
+				STREAMING = true;
+			} else {
+				argsList.add(a);
+			}
+		}
+		args = argsList.toArray(new String[argsList.size()]);
 		if(args.length == 1 && args[0].equals("test")) {
 			args = new String[3];
 			args[0] = System.getProperty("maps.dir") + "Andorra_europe_2.obf";
@@ -44,7 +70,7 @@ public class ObfDiffGenerator {
 //			args[3] = "19_07_29_20_30_diff.osm.gz";
 		}
 		if (args.length < 3) {
-			System.out.println("Usage: <path to old obf> <path to new obf> <[result file name] or [stdout]> <path to diff file (optional)>");
+			System.out.println("Usage: <path to old obf> <path to new obf> <[result file name] or [stdout]> <path to diff file (optional)> [--streaming]");
 			System.exit(1);
 			return;
 		}
@@ -72,15 +98,14 @@ public class ObfDiffGenerator {
 			System.exit(1);
 			return;
 		}
-		generateDiff(start, end, result, diff);
+		if (STREAMING && !start.getName().endsWith(".gz") && !end.getName().endsWith(".gz")) {
+			generateDiffStreaming(start, end, result, diff);
+		} else {
+			generateDiff(start, end, result, diff);
+		}
 	}
 
-	private void generateDiff(File start, File end, File result, File diff) throws IOException, RTreeException, SQLException {
-		ObfFileInMemory fStart = new ObfFileInMemory();
-		fStart.readObfFiles(Collections.singletonList(start));
-		ObfFileInMemory fEnd = new ObfFileInMemory();
-		fEnd.readObfFiles(Collections.singletonList(end));
-
+	private Set<EntityId> fetchModifiedIds(File diff) {
 		Set<EntityId> allModifiedObjIds = new HashSet<>();
 		if (diff != null) {
 			try {
@@ -89,6 +114,16 @@ public class ObfDiffGenerator {
 				e.printStackTrace();
 			}
 		}
+		return allModifiedObjIds;
+	}
+
+	void generateDiff(File start, File end, File result, File diff) throws IOException, RTreeException, SQLException {
+		ObfFileInMemory fStart = new ObfFileInMemory();
+		fStart.readObfFiles(Collections.singletonList(start));
+		ObfFileInMemory fEnd = new ObfFileInMemory();
+		fEnd.readObfFiles(Collections.singletonList(end));
+
+		Set<EntityId> allModifiedObjIds = fetchModifiedIds(diff);
 
 		System.out.println("Comparing the files...");
 		compareMapData(fStart, fEnd, result == null, allModifiedObjIds);
@@ -360,15 +395,7 @@ public class ObfDiffGenerator {
 	private void compareMapData(ObfFileInMemory fStart, ObfFileInMemory fEnd, boolean print, Set<EntityId> modifiedObjIds) {
 		fStart.filterAllZoomsBelow(13);
 		fEnd.filterAllZoomsBelow(13);
-		MapIndex mi = fEnd.getMapIndex();
-		int deleteId;
-		Integer rl = mi.getRule(OSMAND_CHANGE_TAG, OSMAND_CHANGE_VALUE);
-		if(rl != null) {
-			deleteId = rl;
-		} else {
-			deleteId = mi.decodingRules.size() + 1;
-			mi.initMapEncodingRule(0, deleteId, OSMAND_CHANGE_TAG, OSMAND_CHANGE_VALUE);
-		}
+		int deleteId = getMapDeleteRule(fEnd.getMapIndex());
 		for (MapZoomPair mz : fStart.getZooms()) {
 			TLongObjectHashMap<BinaryMapDataObject> startData = fStart.get(mz);
 			TLongObjectHashMap<BinaryMapDataObject> endData = fEnd.get(mz);
@@ -454,14 +481,7 @@ public class ObfDiffGenerator {
 
 	private void compareRouteData(ObfFileInMemory fStart, ObfFileInMemory fEnd, boolean print, Set<EntityId> modifiedObjIds) {
 		RouteRegion ri = fEnd.getRouteIndex();
-		int deleteId = ri.searchRouteEncodingRule(OSMAND_CHANGE_TAG, OSMAND_CHANGE_VALUE);
-		if (deleteId == -1) {
-			deleteId = ri.routeEncodingRules.size();
-			if(deleteId == 0) {
-				deleteId = 1;
-			}
-			ri.initRouteEncodingRule(deleteId, OSMAND_CHANGE_TAG, OSMAND_CHANGE_VALUE);
-		}
+		int deleteId = getRouteDeleteRule(ri);
 
 		TLongObjectHashMap<RouteDataObject> startData = fStart.getRoutingData();
 		TLongObjectHashMap<RouteDataObject> endData = fEnd.getRoutingData();
@@ -502,6 +522,28 @@ public class ObfDiffGenerator {
 		}
 	}
 
+	private int getMapDeleteRule(MapIndex mi) {
+		Integer rl = mi.getRule(OSMAND_CHANGE_TAG, OSMAND_CHANGE_VALUE);
+		if (rl != null) {
+			return rl;
+		}
+		int deleteId = mi.decodingRules.size() + 1;
+		mi.initMapEncodingRule(0, deleteId, OSMAND_CHANGE_TAG, OSMAND_CHANGE_VALUE);
+		return deleteId;
+	}
+
+	private int getRouteDeleteRule(RouteRegion ri) {
+		int deleteId = ri.searchRouteEncodingRule(OSMAND_CHANGE_TAG, OSMAND_CHANGE_VALUE);
+		if (deleteId == -1) {
+			deleteId = ri.routeEncodingRules.size();
+			if (deleteId == 0) {
+				deleteId = 1;
+			}
+			ri.initRouteEncodingRule(deleteId, OSMAND_CHANGE_TAG, OSMAND_CHANGE_VALUE);
+		}
+		return deleteId;
+	}
+
 	private RouteDataObject generateDeletedRouteObject(RouteRegion ri, int deleteId, RouteDataObject objS) {
 		RouteDataObject rdo = new RouteDataObject(ri);
 		rdo.id = objS.id;
@@ -510,4 +552,522 @@ public class ObfDiffGenerator {
 		rdo.types = new int[] { deleteId };
 		return rdo;
 	}
+
+	void generateDiffStreaming(File start, File end, File result, File diff)
+			throws IOException, RTreeException, SQLException {
+		Set<EntityId> modifiedObjIds = fetchModifiedIds(diff);
+		boolean print = result == null;
+		ObfFileInMemory fDiff = new ObfFileInMemory();
+		try (RandomAccessFile rafStart = new RandomAccessFile(start, "r");
+				RandomAccessFile rafEnd = new RandomAccessFile(end, "r")) {
+			BinaryMapIndexReader startReader = new BinaryMapIndexReader(rafStart, start);
+			BinaryMapIndexReader endReader = new BinaryMapIndexReader(rafEnd, end);
+			fDiff.updateTimestamp(endReader.getDateCreated());
+			fDiff.setOsmAndOwner(endReader.getOwner());
+
+			List<TileDiff<?, ?>> diffs = new ArrayList<>();
+			int mapDeleteId = getMapDeleteRule(fDiff.getMapIndex());
+			Set<MapZoomPair> zooms = new LinkedHashSet<>();
+			collectMapZooms(startReader, zooms);
+			collectMapZooms(endReader, zooms);
+			for (MapZoomPair mz : zooms) {
+				fDiff.get(mz);
+				diffs.add(new MapTileDiff(startReader, endReader, mz, fDiff, mapDeleteId, print, modifiedObjIds));
+			}
+			if (hasIndex(endReader, RouteRegion.class)) {
+				int routeDeleteId = getRouteDeleteRule(fDiff.getRouteIndex());
+				diffs.add(new RouteTileDiff(startReader, endReader, fDiff, routeDeleteId, print, modifiedObjIds));
+			}
+			if (hasIndex(endReader, PoiRegion.class)) {
+				diffs.add(new PoiTileDiff(startReader, endReader, fDiff, print, modifiedObjIds));
+			}
+
+			int[] bbox31 = new int[] { Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MIN_VALUE, Integer.MIN_VALUE };
+			expandBbox(startReader, bbox31);
+			expandBbox(endReader, bbox31);
+			if (bbox31[0] > bbox31[2]) {
+				bbox31 = new int[] { 0, 0, Integer.MAX_VALUE, Integer.MAX_VALUE };
+			}
+			int shift = 31 - STREAMING_TILE_ZOOM;
+			StreamingTile tile = new StreamingTile(shift, bbox31[0] >> shift, bbox31[1] >> shift, bbox31[2] >> shift,
+					bbox31[3] >> shift);
+			int tiles = (tile.maxX - tile.minX + 1) * (tile.maxY - tile.minY + 1);
+			System.out.println("Comparing the files by " + tiles + " tiles...");
+			for (tile.x = tile.minX; tile.x <= tile.maxX; tile.x++) {
+				for (tile.y = tile.minY; tile.y <= tile.maxY; tile.y++) {
+					for (TileDiff<?, ?> d : diffs) {
+						d.compareTile(tile);
+					}
+				}
+			}
+			for (TileDiff<?, ?> d : diffs) {
+				d.finish();
+				System.out.println(String.format("%s: %d changed, max %d objects per tile", d.name, d.changed,
+						d.maxTileSize));
+			}
+
+			if (COMPARE_TRANSPORT && hasIndex(endReader, TransportIndex.class)) {
+				// transport stops and routes reference each other so they are compared in memory
+				ObfFileInMemory fStart = readTransportData(startReader);
+				ObfFileInMemory fEnd = readTransportData(endReader);
+				compareTransport(fStart, fEnd, print, modifiedObjIds);
+				fDiff.getTransportStops().putAll(fEnd.getTransportStops());
+				fDiff.setTransportRoutes(fEnd.getTransportRoutes());
+			}
+			startReader.close();
+			endReader.close();
+		}
+		System.out.println("Finished comparing.");
+		if (result != null) {
+			if (result.exists()) {
+				result.delete();
+			}
+			fDiff.writeFile(result, false);
+		}
+	}
+
+	private ObfFileInMemory readTransportData(BinaryMapIndexReader reader) throws IOException {
+		ObfFileInMemory f = new ObfFileInMemory();
+		for (BinaryIndexPart p : reader.getIndexes()) {
+			if (p instanceof TransportIndex) {
+				f.readTransportData(reader, (TransportIndex) p, true);
+			}
+		}
+		return f;
+	}
+
+	private boolean hasIndex(BinaryMapIndexReader reader, Class<? extends BinaryIndexPart> cl) {
+		for (BinaryIndexPart p : reader.getIndexes()) {
+			if (cl.isInstance(p)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void collectMapZooms(BinaryMapIndexReader reader, Set<MapZoomPair> zooms) {
+		for (MapIndex mi : reader.getMapIndexes()) {
+			for (MapRoot mr : mi.getRoots()) {
+				// same as filterAllZoomsBelow(13)
+				if (mr.getMaxZoom() >= 13) {
+					zooms.add(new MapZoomPair(mr.getMinZoom(), mr.getMaxZoom()));
+				}
+			}
+		}
+	}
+
+	private void expandBbox(BinaryMapIndexReader reader, int[] bbox31) {
+		for (BinaryIndexPart p : reader.getIndexes()) {
+			if (p instanceof MapIndex) {
+				for (MapRoot mr : ((MapIndex) p).getRoots()) {
+					expandBbox(bbox31, mr.getLeft(), mr.getTop(), mr.getRight(), mr.getBottom());
+				}
+			} else if (p instanceof RouteRegion) {
+				RouteRegion rr = (RouteRegion) p;
+				expandBbox(bbox31, MapUtils.get31TileNumberX(rr.getLeftLongitude()),
+						MapUtils.get31TileNumberY(rr.getTopLatitude()),
+						MapUtils.get31TileNumberX(rr.getRightLongitude()),
+						MapUtils.get31TileNumberY(rr.getBottomLatitude()));
+			}
+		}
+	}
+
+	private void expandBbox(int[] bbox31, int left, int top, int right, int bottom) {
+		bbox31[0] = Math.max(0, Math.min(bbox31[0], left));
+		bbox31[1] = Math.max(0, Math.min(bbox31[1], top));
+		bbox31[2] = Math.max(bbox31[2], right);
+		bbox31[3] = Math.max(bbox31[3], bottom);
+	}
+
+	private static class StreamingTile {
+		final int shift;
+		final int minX, minY, maxX, maxY;
+		int x, y;
+
+		StreamingTile(int shift, int minX, int minY, int maxX, int maxY) {
+			this.shift = shift;
+			this.minX = minX;
+			this.minY = minY;
+			this.maxX = maxX;
+			this.maxY = maxY;
+		}
+
+		// object belongs to the tile of its first point, points out of the files bbox belong to the border tiles
+		boolean owns(int x31, int y31) {
+			int tx = Math.min(maxX, Math.max(minX, x31 >> shift));
+			int ty = Math.min(maxY, Math.max(minY, y31 >> shift));
+			return tx == x && ty == y;
+		}
+
+		// search area has margin to find objects with rounded coordinates on the tile border
+		int left() {
+			return x == minX ? 0 : Math.max(0, (x << shift) - STREAMING_TILE_MARGIN_31);
+		}
+
+		int top() {
+			return y == minY ? 0 : Math.max(0, (y << shift) - STREAMING_TILE_MARGIN_31);
+		}
+
+		int right() {
+			return x == maxX ? Integer.MAX_VALUE : (int) Math.min(Integer.MAX_VALUE, ((long) (x + 1) << shift) + STREAMING_TILE_MARGIN_31);
+		}
+
+		int bottom() {
+			return y == maxY ? Integer.MAX_VALUE : (int) Math.min(Integer.MAX_VALUE, ((long) (y + 1) << shift) + STREAMING_TILE_MARGIN_31);
+		}
+	}
+
+	/**
+	 * Compares objects of one type tile by tile. Objects which are found only in one file are kept until the end
+	 * cause they could be moved to another tile.
+	 */
+	private abstract static class TileDiff<K, T> {
+		final String name;
+		final boolean print;
+		final Set<EntityId> modifiedObjIds;
+		private Map<K, T> pendingStart = new HashMap<>();
+		private Map<K, T> pendingEnd = new HashMap<>();
+		int changed;
+		int maxTileSize;
+
+		TileDiff(String name, boolean print, Set<EntityId> modifiedObjIds) {
+			this.name = name;
+			this.print = print;
+			this.modifiedObjIds = modifiedObjIds;
+		}
+
+		abstract Map<K, T> readTile(BinaryMapIndexReader reader, StreamingTile tile) throws IOException;
+
+		abstract boolean isEqual(T objS, T objE);
+
+		abstract void printDiff(K key, T objS, T objE);
+
+		abstract void deleted(K key, T objS);
+
+		abstract void changed(K key, T objE);
+
+		abstract BinaryMapIndexReader startReader();
+
+		abstract BinaryMapIndexReader endReader();
+
+		void compareTile(StreamingTile tile) throws IOException {
+			Map<K, T> startTile = readTile(startReader(), tile);
+			Map<K, T> endTile = readTile(endReader(), tile);
+			maxTileSize = Math.max(maxTileSize, Math.max(startTile.size(), endTile.size()));
+			for (Entry<K, T> e : startTile.entrySet()) {
+				T objE = endTile.remove(e.getKey());
+				if (objE == null) {
+					objE = pendingEnd.remove(e.getKey());
+				}
+				if (objE == null) {
+					pendingStart.put(e.getKey(), e.getValue());
+				} else {
+					compare(e.getKey(), e.getValue(), objE);
+				}
+			}
+			for (Entry<K, T> e : endTile.entrySet()) {
+				T objS = pendingStart.remove(e.getKey());
+				if (objS == null) {
+					pendingEnd.put(e.getKey(), e.getValue());
+				} else {
+					compare(e.getKey(), objS, e.getValue());
+				}
+			}
+		}
+
+		void finish() {
+			for (Entry<K, T> e : pendingStart.entrySet()) {
+				compare(e.getKey(), e.getValue(), null);
+			}
+			for (Entry<K, T> e : pendingEnd.entrySet()) {
+				compare(e.getKey(), null, e.getValue());
+			}
+			pendingStart = new HashMap<>();
+			pendingEnd = new HashMap<>();
+		}
+
+		private void compare(K key, T objS, T objE) {
+			if (objS != null && objE != null && isEqual(objS, objE)) {
+				return;
+			}
+			changed++;
+			if (print) {
+				printDiff(key, objS, objE);
+			} else if (objE == null) {
+				deleted(key, objS);
+			} else {
+				changed(key, objE);
+			}
+		}
+	}
+
+	private class MapTileDiff extends TileDiff<Long, BinaryMapDataObject> {
+		private final BinaryMapIndexReader startReader;
+		private final BinaryMapIndexReader endReader;
+		private final MapZoomPair mz;
+		private final ObfFileInMemory fDiff;
+		private final int deleteId;
+
+		MapTileDiff(BinaryMapIndexReader startReader, BinaryMapIndexReader endReader, MapZoomPair mz,
+				ObfFileInMemory fDiff, int deleteId, boolean print, Set<EntityId> modifiedObjIds) {
+			super("Map " + mz, print, modifiedObjIds);
+			this.startReader = startReader;
+			this.endReader = endReader;
+			this.mz = mz;
+			this.fDiff = fDiff;
+			this.deleteId = deleteId;
+		}
+
+		@Override
+		BinaryMapIndexReader startReader() {
+			return startReader;
+		}
+
+		@Override
+		BinaryMapIndexReader endReader() {
+			return endReader;
+		}
+
+		@Override
+		Map<Long, BinaryMapDataObject> readTile(BinaryMapIndexReader reader, StreamingTile tile) throws IOException {
+			Map<Long, BinaryMapDataObject> res = new HashMap<>();
+			for (MapIndex mi : reader.getMapIndexes()) {
+				boolean zoomExists = false;
+				for (MapRoot mr : mi.getRoots()) {
+					zoomExists |= mr.getMinZoom() == mz.getMinZoom() && mr.getMaxZoom() == mz.getMaxZoom();
+				}
+				if (!zoomExists) {
+					continue;
+				}
+				SearchRequest<BinaryMapDataObject> req = BinaryMapIndexReader.buildSearchRequest(tile.left(),
+						tile.right(), tile.top(), tile.bottom(), mz.getMinZoom(), new SearchFilter() {
+							@Override
+							public boolean accept(TIntArrayList types, MapIndex index) {
+								return true;
+							}
+						}, new ResultMatcher<BinaryMapDataObject>() {
+							@Override
+							public boolean publish(BinaryMapDataObject obj) {
+								if (obj.getPointsLength() > 0 && tile.owns(obj.getPoint31XTile(0), obj.getPoint31YTile(0))) {
+									res.put(obj.getId(), obj);
+								}
+								return false;
+							}
+
+							@Override
+							public boolean isCancelled() {
+								return false;
+							}
+						});
+				reader.searchMapIndex(req, mi);
+			}
+			return res;
+		}
+
+		@Override
+		boolean isEqual(BinaryMapDataObject objS, BinaryMapDataObject objE) {
+			return objE.compareBinary(objS, COORDINATES_PRECISION_COMPARE);
+		}
+
+		@Override
+		void printDiff(Long idx, BinaryMapDataObject objS, BinaryMapDataObject objE) {
+			if (objE == null) {
+				System.out.println("Map " + idx + " is missing in (2): " + ObfDiffGenerator.this.toString(objS));
+			} else if (objS == null) {
+				System.out.println("Map " + idx + " is missing in (1): " + ObfDiffGenerator.this.toString(objE));
+			} else {
+				System.out.println("Map " + idx + " is not equal: " + ObfDiffGenerator.this.toString(objS) + " != "
+						+ ObfDiffGenerator.this.toString(objE));
+			}
+		}
+
+		@Override
+		void deleted(Long idx, BinaryMapDataObject objS) {
+			EntityId thisEntityId = getMapEntityId(objS.getId());
+			if (modifiedObjIds.size() == 0 || modifiedObjIds.contains(thisEntityId) || thisEntityId == null) {
+				BinaryMapDataObject obj = new BinaryMapDataObject(idx, objS.getCoordinates(), null,
+						objS.getObjectType(), objS.isArea(), new int[] { deleteId }, null, 0, 0);
+				fDiff.get(mz).put(idx, obj);
+			}
+		}
+
+		@Override
+		void changed(Long idx, BinaryMapDataObject objE) {
+			fDiff.putMapObjects(mz, Collections.singletonList(objE), true);
+		}
+	}
+
+	private class RouteTileDiff extends TileDiff<Long, RouteDataObject> {
+		private final BinaryMapIndexReader startReader;
+		private final BinaryMapIndexReader endReader;
+		private final ObfFileInMemory fDiff;
+		private final int deleteId;
+
+		RouteTileDiff(BinaryMapIndexReader startReader, BinaryMapIndexReader endReader, ObfFileInMemory fDiff,
+				int deleteId, boolean print, Set<EntityId> modifiedObjIds) {
+			super("Route", print, modifiedObjIds);
+			this.startReader = startReader;
+			this.endReader = endReader;
+			this.fDiff = fDiff;
+			this.deleteId = deleteId;
+		}
+
+		@Override
+		BinaryMapIndexReader startReader() {
+			return startReader;
+		}
+
+		@Override
+		BinaryMapIndexReader endReader() {
+			return endReader;
+		}
+
+		@Override
+		Map<Long, RouteDataObject> readTile(BinaryMapIndexReader reader, StreamingTile tile) throws IOException {
+			Map<Long, RouteDataObject> res = new HashMap<>();
+			for (RouteRegion rr : reader.getRoutingIndexes()) {
+				List<RouteSubregion> regions = reader.searchRouteIndexTree(BinaryMapIndexReader.buildSearchRequest(
+						tile.left(), tile.right(), tile.top(), tile.bottom(), ObfFileInMemory.ZOOM_LEVEL_ROUTING, null), rr.getSubregions());
+				reader.loadRouteIndexData(regions, new ResultMatcher<RouteDataObject>() {
+					@Override
+					public boolean publish(RouteDataObject obj) {
+						if (obj.getPointsLength() > 0 && tile.owns(obj.getPoint31XTile(0), obj.getPoint31YTile(0))) {
+							res.put(obj.getId(), obj);
+						}
+						return false;
+					}
+
+					@Override
+					public boolean isCancelled() {
+						return false;
+					}
+				});
+			}
+			return res;
+		}
+
+		@Override
+		boolean isEqual(RouteDataObject objS, RouteDataObject objE) {
+			return objE.compareRoute(objS);
+		}
+
+		@Override
+		void printDiff(Long idx, RouteDataObject objS, RouteDataObject objE) {
+			if (objE == null) {
+				System.out.println("Route " + idx + " is missing in (2): " + objS);
+			} else if (objS == null) {
+				System.out.println("Route " + idx + " is missing in (1): " + objE);
+			} else {
+				System.out.println("Route " + idx + " is not equal: " + objS + " != " + objE);
+			}
+		}
+
+		@Override
+		void deleted(Long idx, RouteDataObject objS) {
+			EntityId wayId = new EntityId(EntityType.WAY, idx >> (BinaryInspector.SHIFT_ID));
+			if (modifiedObjIds.size() == 0 || modifiedObjIds.contains(wayId)) {
+				fDiff.getRoutingData().put(idx, generateDeletedRouteObject(fDiff.getRouteIndex(), deleteId, objS));
+			}
+		}
+
+		@Override
+		void changed(Long idx, RouteDataObject objE) {
+			fDiff.getRoutingData().put(idx, fDiff.getRouteIndex().adopt(objE));
+		}
+	}
+
+	private class PoiTileDiff extends TileDiff<String, Amenity> {
+		private final BinaryMapIndexReader startReader;
+		private final BinaryMapIndexReader endReader;
+		private final ObfFileInMemory fDiff;
+
+		PoiTileDiff(BinaryMapIndexReader startReader, BinaryMapIndexReader endReader, ObfFileInMemory fDiff,
+				boolean print, Set<EntityId> modifiedObjIds) throws IOException {
+			super("POI", print, modifiedObjIds);
+			this.startReader = startReader;
+			this.endReader = endReader;
+			this.fDiff = fDiff;
+			for (PoiRegion pr : startReader.getPoiIndexes()) {
+				startReader.initCategories(pr);
+			}
+			for (PoiRegion pr : endReader.getPoiIndexes()) {
+				endReader.initCategories(pr);
+			}
+		}
+
+		@Override
+		BinaryMapIndexReader startReader() {
+			return startReader;
+		}
+
+		@Override
+		BinaryMapIndexReader endReader() {
+			return endReader;
+		}
+
+		@Override
+		Map<String, Amenity> readTile(BinaryMapIndexReader reader, StreamingTile tile) throws IOException {
+			Map<String, Amenity> res = new HashMap<>();
+			SearchRequest<Amenity> req = BinaryMapIndexReader.buildSearchPoiRequest(tile.left(), tile.right(),
+					tile.top(), tile.bottom(), ObfFileInMemory.ZOOM_LEVEL_POI, BinaryMapIndexReader.ACCEPT_ALL_POI_TYPE_FILTER,
+					new ResultMatcher<Amenity>() {
+						@Override
+						public boolean publish(Amenity object) {
+							LatLon l = object.getLocation();
+							if (l != null && tile.owns(MapUtils.get31TileNumberX(l.getLongitude()),
+									MapUtils.get31TileNumberY(l.getLatitude()))) {
+								res.put(object.getId() + ":" + object.getType().getKeyName(), object);
+							}
+							return false;
+						}
+
+						@Override
+						public boolean isCancelled() {
+							return false;
+						}
+					});
+			for (PoiRegion pr : reader.getPoiIndexes()) {
+				reader.searchPoi(pr, req);
+			}
+			return res;
+		}
+
+		@Override
+		boolean isEqual(Amenity objS, Amenity objE) {
+			return objS.comparePoi(objE);
+		}
+
+		@Override
+		void printDiff(String idx, Amenity objS, Amenity objE) {
+			if (objE == null) {
+				System.out.println("POI " + idx + " is missing in (2): " + objS);
+			} else if (objS == null) {
+				System.out.println("POI " + idx + " is missing in (1): " + objE);
+			} else {
+				System.out.println("POI " + idx + " is not equal: " + objS + " != " + objE);
+			}
+		}
+
+		@Override
+		void deleted(String idx, Amenity objS) {
+			EntityId aid = getMapObjectId(objS);
+			if (modifiedObjIds.size() == 0 || modifiedObjIds.contains(aid) || aid == null) {
+				objS.setAdditionalInfo(OSMAND_CHANGE_TAG, OSMAND_CHANGE_VALUE);
+				put(objS);
+			}
+		}
+
+		@Override
+		void changed(String idx, Amenity objE) {
+			put(objE);
+		}
+
+		private void put(Amenity a) {
+			TLongObjectHashMap<Map<String, Amenity>> poi = fDiff.getPoiObjects();
+			if (poi.get(a.getId()) == null) {
+				poi.put(a.getId(), new LinkedHashMap<String, Amenity>());
+			}
+			poi.get(a.getId()).put(a.getType().getKeyName(), a);
+		}
+	}
 }
@@ -44,8 +44,8 @@ import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
 public class ObfFileInMemory {
-	private static final int ZOOM_LEVEL_POI = 15;
-	private static final int ZOOM_LEVEL_ROUTING = 15;
+	static final int ZOOM_LEVEL_POI = 15;
+	static final int ZOOM_LEVEL_ROUTING = 15;
 	private double lattop = 85;
 	private double latbottom = -85;
 	private double lonleft = -179.9;
@@ -11,6 +11,7 @@ import java.util.Map;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import rtree.BulkLoader;
 import rtree.Element;
 import rtree.Pack;
 import rtree.RTree;
@@ -118,6 +119,15 @@ public class AbstractIndexPartCreator {
 		}
 		return tree;
 	}
+
+	public static RTree packRtreeFile(BulkLoader loader, String packFileName) throws IOException {
+		try {
+			return loader.pack(packFileName);
+		} catch (RTreeException e) {
+			log.error("Error packing", e); //$NON-NLS-1$
+			throw new IOException(e);
+		}
+	}
 	
 	
 }
@@ -56,9 +56,11 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.Map.Entry;
@@ -1905,6 +1907,23 @@ public class BinaryMapIndexWriter {
 		codedOutStream.flush();
 	}
 
+	/**
+	 * Appends top level index section encoded by another writer into separate file (from start pointer till the end
+	 * of file). All references inside sections are relative so bytes are copied as is.
+	 */
+	public void appendEncodedSection(File section, long start) throws IOException {
+		checkPeekState(OSMAND_STRUCTURE_INIT);
+		codedOutStream.flush();
+		try (RandomAccessFile sraf = new RandomAccessFile(section, "r")) {
+			FileChannel src = sraf.getChannel();
+			long pos = start;
+			long end = src.size();
+			while (pos < end) {
+				pos += src.transferTo(pos, end - pos, raf.getChannel());
+			}
+		}
+	}
+
 	public void writeOsmAndOwner(BinaryMapIndexReader.OsmAndOwner owner) throws IOException {
 		OsmandOdb.OsmAndOwner.Builder b = OsmandOdb.OsmAndOwner.newBuilder();
 		b.setName(owner.getName());
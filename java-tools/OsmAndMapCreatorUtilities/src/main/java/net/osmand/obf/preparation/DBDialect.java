@@ -10,6 +10,7 @@ import java.sql.Statement;
 import net.osmand.util.Algorithms;
 
 import org.apache.commons.logging.Log;
+import org.sqlite.SQLiteConfig;
 import org.sqlite.SQLiteJDBCLoader;
 
 
@@ -49,15 +50,7 @@ public enum DBDialect {
 
     public Connection getDatabaseConnection(String fileName, Log log) throws SQLException {
 		if (DBDialect.SQLITE == this || DBDialect.SQLITE_IN_MEMORY == this) {
-			if (System.getProperty("os.name").toLowerCase().contains("mac")) {
-				System.setProperty("org.sqlite.lib.name", "libsqlitejdbc.jnilib");
-			}
-			try {
-				Class.forName("org.sqlite.JDBC");
-			} catch (ClassNotFoundException e) {
-				log.error("Illegal configuration", e);
-				throw new IllegalStateException(e);
-			}
+			loadSqliteDriver(log);
 			Connection connection = DriverManager.getConnection("jdbc:sqlite:" + (DBDialect.SQLITE_IN_MEMORY == this? ":memory:": fileName));
 			Statement statement = connection.createStatement();
 			statement.executeUpdate("PRAGMA synchronous = 0");
@@ -82,4 +75,51 @@ public enum DBDialect {
 		}
 
 	}
+
+	/**
+	 * Read only connection to sqlite file in normal locking mode, so concurrent readers don't block each other
+	 */
+	public Connection getReadOnlyDatabaseConnection(String fileName, Log log) throws SQLException {
+		if (DBDialect.SQLITE != this) {
+			throw new UnsupportedOperationException();
+		}
+		loadSqliteDriver(log);
+		SQLiteConfig config = new SQLiteConfig();
+		config.setReadOnly(true);
+		Connection connection = DriverManager.getConnection("jdbc:sqlite:" + fileName, config.toProperties());
+		Statement statement = connection.createStatement();
+		statement.executeQuery("PRAGMA locking_mode = NORMAL").close();
+		statement.close();
+		return connection;
+	}
+
+	/**
+	 * Sqlite connection in WAL mode with normal locking, single writer and readers should use own connections
+	 * of this kind to the same file
+	 */
+	public Connection getConcurrentDatabaseConnection(String fileName, Log log) throws SQLException {
+		if (DBDialect.SQLITE != this) {
+			throw new UnsupportedOperationException();
+		}
+		loadSqliteDriver(log);
+		Connection connection = DriverManager.getConnection("jdbc:sqlite:" + fileName);
+		Statement statement = connection.createStatement();
+		statement.executeUpdate("PRAGMA synchronous = 0");
+		// readers don't wait for writer and writer commits don't wait for readers
+		statement.executeQuery("PRAGMA journal_mode = WAL").close();
+		statement.close();
+		return connection;
+	}
+
+	private static void loadSqliteDriver(Log log) {
+		if (System.getProperty("os.name").toLowerCase().contains("mac")) {
+			System.setProperty("org.sqlite.lib.name", "libsqlitejdbc.jnilib");
+		}
+		try {
+			Class.forName("org.sqlite.JDBC");
+		} catch (ClassNotFoundException e) {
+			log.error("Illegal configuration", e);
+			throw new IllegalStateException(e);
+		}
+	}
 }
@@ -21,6 +21,7 @@ import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.xmlpull.v1.XmlPullParserException;
+import rtree.RTree;
 import rtree.RTreeException;
 
 import javax.imageio.ImageIO;
@@ -28,7 +29,18 @@ import javax.imageio.ImageReader;
 import java.io.*;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.zip.GZIPInputStream;
 
 /**
@@ -52,6 +64,7 @@ public class IndexCreator {
 	public static final int BATCH_SIZE = 5000;
 	public static final int BATCH_SIZE_OSM = 10000;
 	public static final String TEMP_NODES_DB = "nodes.tmp.odb";
+	public static final String NODE_LOCATIONS_EXT = ".locations";
 
 	public static final int STEP_MAIN = 4;
 
@@ -290,7 +303,12 @@ public class IndexCreator {
 		if (!this.settings.ignorePropagate) {
 			dbCreator.setPropagateToNodes(propagateToNodes);
 		}
+		dbCreator.setNodeLocations(accessor.getNodeLocations());
+		if (settings.idTablesMemoryMapped) {
+			dbCreator.setIdTablesFolder(workingDir);
+		}
 
+		boolean loaded = false;
 		try {
 			setGeneralProgress(progress, "[15 / 100]"); //$NON-NLS-1$
 			progress.startTask(settings.getString("IndexCreator.LOADING_FILE") + readFile.getAbsolutePath(), -1); //$NON-NLS-1$
@@ -309,8 +327,12 @@ public class IndexCreator {
 				log.info("File parsed : " + (System.currentTimeMillis() - st)); //$NON-NLS-1$
 			}
 			progress.finishTask();
+			loaded = true;
 			return dbCreator;
 		} finally {
+			if (!loaded) {
+				dbCreator.closeIdTables();
+			}
 			if (log.isInfoEnabled()) {
 				log.info("File indexed : " + (System.currentTimeMillis() - st)); //$NON-NLS-1$
 			}
@@ -329,6 +351,10 @@ public class IndexCreator {
 
 		Connection dbConn = (Connection) getDatabaseConnection(dbFile.getAbsolutePath(), osmDBdialect);
 		accessor.setDbConn(dbConn, osmDBdialect);
+		accessor.setParallelThreads(settings.osmDbParallelThreads);
+		if (settings.storeNodeLocationsOffHeap) {
+			accessor.setNodeLocations(new NodeLocationStore(getNodeLocationsFile()));
+		}
 		OsmDbCreator dbCreator = null;
 		int idShift = readFile.length < 16 ? 4 : (readFile.length < 64 ? 6 : 11);
 		if (readFile.length > (1 << 11)) {
@@ -338,6 +364,8 @@ public class IndexCreator {
 		for (File read : readFile) {
 			dbCreator = extractOsmToNodesDB(accessor, read, progress, addFilter, idSourceMapInd, idShift, generateUniqueIdsForEachFile, null);
 			accessor.updateCounts(dbCreator);
+			// no previous creator is passed, so every creator is last in its chain
+			dbCreator.closeIdTables();
 			if (readFile.length > 1) {
 				log.info("Processing " + (idSourceMapInd + 1) + " file out of " + readFile.length);
 			}
@@ -348,6 +376,10 @@ public class IndexCreator {
 		return accessor;
 	}
 
+	private File getNodeLocationsFile() {
+		return new File(dbFile.getParentFile(), dbFile.getName() + NODE_LOCATIONS_EXT);
+	}
+
 	private void createDatabaseIndexesStructure() throws SQLException, IOException {
 		// 2.1 create temporary sqlite database to put temporary results to it
 		mapFile = new File(workingDir, getMapFileName());
@@ -576,6 +608,7 @@ public class IndexCreator {
 				}
 				if (deleteOsmDB) {
 					osmDBdialect.removeDatabase(dbFile);
+					getNodeLocationsFile().delete();
 				}
 
 				// 3.4 combine all low level ways and simplify them
@@ -618,36 +651,36 @@ public class IndexCreator {
 				if (mapFile.exists()) {
 					mapFile.delete();
 				}
+				long timestamp = lastModifiedDate == null ? System.currentTimeMillis() : lastModifiedDate.longValue();
 				mapRAFile = new RandomAccessFile(mapFile, "rw");
-				BinaryMapIndexWriter writer = new BinaryMapIndexWriter(mapRAFile,
-						lastModifiedDate == null ? System.currentTimeMillis() : lastModifiedDate.longValue());
+				BinaryMapIndexWriter writer = new BinaryMapIndexWriter(mapRAFile, timestamp);
+				Map<String, BinarySectionWriter> sections = new LinkedHashMap<String, BinarySectionWriter>();
 				if (settings.indexMap) {
-					setGeneralProgress(progress, "[95 of 100]");
-					progress.startTask("Writing map index to binary file...", -1);
-					indexMapCreator.writeBinaryMapIndex(writer, regionName);
+					sections.put("map", (w, f, p) -> indexMapCreator.writeBinaryMapIndex(w, regionName));
 				}
 				if (settings.indexRouting) {
-					setGeneralProgress(progress, "[95 of 100]");
-					progress.startTask("Writing route index to binary file...", -1);
-					indexRouteCreator.writeBinaryRouteIndex(mapFile, writer, regionName, settings.generateLowLevel);
+					sections.put("route", (w, f, p) -> indexRouteCreator.writeBinaryRouteIndex(f, w, regionName,
+							settings.generateLowLevel));
 				}
-
 				if (settings.indexAddress) {
-					setGeneralProgress(progress, "[95 of 100]");
-					progress.startTask("Writing address index to binary file...", -1);
-					indexAddressCreator.writeBinaryAddressIndex(writer, regionName, progress);
+					sections.put("address", (w, f, p) -> indexAddressCreator.writeBinaryAddressIndex(w, regionName, p));
 				}
-
 				if (settings.indexPOI) {
-					setGeneralProgress(progress, "[95 of 100]");
-					progress.startTask("Writing poi index to binary file...", -1);
-					indexPoiCreator.writeBinaryPoiIndex(writer, regionName, progress);
+					sections.put("poi", (w, f, p) -> indexPoiCreator.writeBinaryPoiIndex(w, regionName, p));
 				}
-
 				if (settings.indexTransport) {
-					setGeneralProgress(progress, "[95 of 100]");
-					progress.startTask("Writing transport index to binary file...", -1);
-					indexTransportCreator.writeBinaryTransportIndex(writer, regionName, mapConnection);
+					sections.put("transport", (w, f, p) -> indexTransportCreator.writeBinaryTransportIndex(w, regionName,
+							mapConnection));
+				}
+				setGeneralProgress(progress, "[95 of 100]");
+				if (settings.binaryWriteThreads > 1 && settings.indexPOI && sections.size() > 1) {
+					progress.startTask("Writing " + sections.keySet() + " indexes to binary file in parallel...", -1);
+					writeBinarySectionsInParallel(writer, sections, "poi", timestamp);
+				} else {
+					for (Entry<String, BinarySectionWriter> section : sections.entrySet()) {
+						progress.startTask("Writing " + section.getKey() + " index to binary file...", -1);
+						section.getValue().write(writer, mapFile, progress);
+					}
 				}
 				progress.finishTask();
 				writer.close();
@@ -680,6 +713,8 @@ public class IndexCreator {
 						deleteDatabaseIndexes);
 				indexRouteCreator.commitAndCloseFiles(getRTreeRouteIndexNonPackFileName(),
 						getRTreeRouteIndexPackFileName(), deleteDatabaseIndexes);
+				// rtree node cache is shared with other generations running in parallel
+				RTree.releaseFiles(mapFile.getAbsolutePath() + ".");
 
 				if (mapConnection != null) {
 					mapConnection.commit();
@@ -694,6 +729,8 @@ public class IndexCreator {
 
 			} catch (SQLException e) {
 				e.printStackTrace();
+			} catch (RTreeException e) {
+				e.printStackTrace();
 			} catch (RuntimeException e) {
 				e.printStackTrace();
 			}
@@ -701,6 +738,81 @@ public class IndexCreator {
 		return mapFile;
 	}
 
+	private interface BinarySectionWriter {
+		void write(BinaryMapIndexWriter writer, File file, IProgress progress) throws IOException, SQLException;
+	}
+
+	private void writeBinarySectionsInParallel(BinaryMapIndexWriter writer, Map<String, BinarySectionWriter> sections,
+			String ownDbSection, long timestamp) throws IOException, SQLException {
+		// map, route, address and transport sections use map db connection and rtree files, they commit and
+		// update db while writing, so they are written one by one on the same thread as sequentially.
+		// Only section with own db (poi) is written beside them.
+		mapConnection.commit();
+		List<String> mapDbSections = new ArrayList<String>(sections.keySet());
+		mapDbSections.remove(ownDbSection);
+		ExecutorService service = Executors.newFixedThreadPool(2);
+		Map<String, Future<Map<String, Long>>> results = new HashMap<String, Future<Map<String, Long>>>();
+		try {
+			Future<Map<String, Long>> mapDbResult = service.submit(() -> writeBinarySections(mapDbSections, sections,
+					timestamp));
+			for (String section : mapDbSections) {
+				results.put(section, mapDbResult);
+			}
+			results.put(ownDbSection, service.submit(() -> writeBinarySections(
+					Collections.singletonList(ownDbSection), sections, timestamp)));
+			// sections are appended in the same order as they are written sequentially
+			for (String section : sections.keySet()) {
+				long start;
+				try {
+					start = results.get(section).get().get(section);
+				} catch (InterruptedException e) {
+					throw new IOException(e);
+				} catch (ExecutionException e) {
+					if (e.getCause() instanceof IOException) {
+						throw (IOException) e.getCause();
+					} else if (e.getCause() instanceof SQLException) {
+						throw (SQLException) e.getCause();
+					}
+					throw new IllegalStateException(e.getCause());
+				}
+				File sectionFile = getBinarySectionFile(section);
+				writer.appendEncodedSection(sectionFile, start);
+				sectionFile.delete();
+			}
+		} finally {
+			service.shutdownNow();
+		}
+	}
+
+	private Map<String, Long> writeBinarySections(List<String> names, Map<String, BinarySectionWriter> sections,
+			long timestamp) throws IOException, SQLException {
+		Map<String, Long> starts = new HashMap<String, Long>();
+		for (String name : names) {
+			starts.put(name, writeBinarySection(getBinarySectionFile(name), timestamp, sections.get(name)));
+		}
+		return starts;
+	}
+
+	private File getBinarySectionFile(String section) {
+		return new File(mapFile.getAbsolutePath() + "." + section + ".tmp");
+	}
+
+	private long writeBinarySection(File sectionFile, long timestamp, BinarySectionWriter section)
+			throws IOException, SQLException {
+		long time = System.currentTimeMillis();
+		try (RandomAccessFile raf = new RandomAccessFile(sectionFile, "rw")) {
+			raf.setLength(0);
+			// file has own header, so route section could read it back as a binary file
+			BinaryMapIndexWriter writer = new BinaryMapIndexWriter(raf, timestamp);
+			long start = writer.getFilePointer();
+			section.write(writer, sectionFile, IProgress.EMPTY_PROGRESS);
+			writer.flush();
+			log.info(String.format("Index section %s is written %,d bytes in %d ms", sectionFile.getName(),
+					raf.length() - start, System.currentTimeMillis() - time));
+			return start;
+		}
+	}
+
 	private void iterateMainEntities(OsmDbAccessor accessor, IProgress progress, IndexCreationContext icc)
 			throws SQLException, InterruptedException {
 		setGeneralProgress(progress, "[50 / 100]");
@@ -18,6 +18,18 @@ public class IndexCreatorSettings {
 	// use Sqlite in RAM instead of normal Sqlite (speeds up process but takes a lot of RAM)  
 	public boolean processInRam;
 	
+	// keep untagged nodes in memory mapped file instead of sqlite (only tagged nodes are stored in db)
+	public boolean storeNodeLocationsOffHeap = true;
+
+	// keep id translation tables of osm db in memory mapped files (working dir) instead of direct memory
+	public boolean idTablesMemoryMapped = false;
+
+	// threads to iterate over osm db entities (used only by visitors declared as thread safe)
+	public int osmDbParallelThreads = 1;
+
+	// > 1 writes poi section (own db) beside sections sharing map db, into temporary files appended to binary file
+	public int binaryWriteThreads = 1;
+
 	// maximum tiles to use in RAM
 	public int maxHeightTilesInRam = -1;
 
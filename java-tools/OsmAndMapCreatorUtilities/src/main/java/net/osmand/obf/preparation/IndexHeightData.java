@@ -6,16 +6,22 @@ import java.awt.image.DataBufferFloat;
 import java.awt.image.DataBufferShort;
 import java.io.*;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.imageio.ImageIO;
 import javax.imageio.ImageReader;
@@ -48,12 +54,16 @@ import software.amazon.awssdk.services.s3.model.GetObjectResponse;
 
 public class IndexHeightData {
 	public static int MAXIMUM_LOADED_DATA = 150; 
+	public static long MAXIMUM_LOADED_BYTES = 4L << 30;
+	private static final String RAW_TILE_EXT = ".raw";
+	private static final int RAW_TILE_HEADER_SIZE = 8;
 	private static final double MINIMAL_DISTANCE = 0;
 	private static final int HEIGHT_ACCURACY = 4;
 	private static boolean USE_BILINEAR_INTERPOLATION = false;
 
 	private String srtmDataUrl;
 	private File srtmWorkingDir;
+	private File rawTilesDir;
 	
 	public static final String ELE_ASC_START = "osmand_ele_start";
 	public static final String ELE_ASC_END = "osmand_ele_end";
@@ -66,7 +76,9 @@ public class IndexHeightData {
 	public static final double INEXISTENT_HEIGHT = Double.MIN_VALUE;
 
 	public static final int MAX_SRTM_COUNT_DOWNLOAD = 20000;
-	private int srtmCountDownload;
+	private final AtomicInteger srtmCountDownload = new AtomicInteger();
+	private final AtomicInteger loadedTiles = new AtomicInteger();
+	private final AtomicLong loadedBytes = new AtomicLong();
 	public static final double MAX_LAT_LON_DIST = 500 * 1000; // 500 km
 	
 	public static final Set<String> ELEVATION_TAGS = new TreeSet<>(); 
@@ -83,26 +95,30 @@ public class IndexHeightData {
 	}
 
 	
-	private Map<Integer, TileData> map = new HashMap<Integer, TileData>();
+	private final Map<Integer, TileData> map = new ConcurrentHashMap<Integer, TileData>();
 
 	private static final Log log = PlatformUtil.getLog(IndexHeightData.class);
 	
 	private static class TileData {
-		DataBufferShort data;
-		private int id;
-		private boolean dataLoaded;
+		// width, height and data are published by volatile write of dataLoaded and never change after it,
+		// unloaded tile is removed from map, so readers which already got it keep using its data
+		ShortBuffer data;
+		private final int id;
+		private volatile boolean dataLoaded;
 		private int height;
 		private int width;
-		public int accessed;
-		public int loaded;
+		public volatile long lastAccess;
 		
 		private TileData(int id) {
 			this.id = id;
 			
 		}
 		
-		public File loadData(String srtmDataUrl, File workDir) throws IOException {
-			dataLoaded = true;
+		public File loadData(String srtmDataUrl, File workDir, File rawDir) throws IOException {
+			File raw = rawDir == null ? null : new File(rawDir, getFileName() + RAW_TILE_EXT);
+			if (raw != null && raw.exists() && mapRawData(raw)) {
+				return null;
+			}
 			File f = loadFile(getFileName() + ".tif", srtmDataUrl, workDir);
 			BufferedImage img;
 			if (f.exists()) {
@@ -117,10 +133,53 @@ public class IndexHeightData {
 				if (!srtmDataUrl.startsWith("/") && !srtmDataUrl.startsWith(".")) {
 					f.delete();
 				}
+				if (raw != null && data != null) {
+					writeRawData(raw);
+					mapRawData(raw);
+				}
 				return null;
 			}
 			return f;
 		}
+
+		// raw tile: int width, int height, short[width * height] heights
+		private boolean mapRawData(File raw) throws IOException {
+			try (RandomAccessFile rf = new RandomAccessFile(raw, "r"); FileChannel channel = rf.getChannel()) {
+				long size = channel.size();
+				if (size < RAW_TILE_HEADER_SIZE) {
+					return false;
+				}
+				MappedByteBuffer mapped = channel.map(MapMode.READ_ONLY, 0, size);
+				int w = mapped.getInt(0);
+				int h = mapped.getInt(4);
+				if (w <= 0 || h <= 0 || RAW_TILE_HEADER_SIZE + 2L * w * h != size) {
+					return false;
+				}
+				width = w;
+				height = h;
+				data = mapped.slice(RAW_TILE_HEADER_SIZE, (int) (size - RAW_TILE_HEADER_SIZE)).asShortBuffer();
+				return true;
+			}
+		}
+
+		private void writeRawData(File raw) throws IOException {
+			raw.getParentFile().mkdirs();
+			File tmp = new File(raw.getParentFile(), raw.getName() + "." + Thread.currentThread().getId() + ".tmp");
+			ByteBuffer bb = ByteBuffer.allocate(RAW_TILE_HEADER_SIZE + data.capacity() * 2);
+			bb.putInt(width).putInt(height);
+			bb.asShortBuffer().put(data.duplicate().rewind());
+			try (FileOutputStream fous = new FileOutputStream(tmp)) {
+				fous.write(bb.array());
+			}
+			if (!tmp.renameTo(raw)) {
+				tmp.delete();
+			}
+		}
+
+		public long getDataBytes() {
+			ShortBuffer d = data;
+			return d == null ? 0 : d.capacity() * 2L;
+		}
 		
 		private BufferedImage iterativeReadData(File file) {
 			boolean readSuccess = false;
@@ -161,7 +220,7 @@ public class IndexHeightData {
 			if (img != null) {
 				width = img.getWidth();
 				height = img.getHeight();
-				data = (DataBufferShort) img.getRaster().getDataBuffer();
+				data = ShortBuffer.wrap(((DataBufferShort) img.getRaster().getDataBuffer()).getData());
 			}
 		}
 		
@@ -174,18 +233,19 @@ public class IndexHeightData {
 		}
 		
 		public double getHeight(double x, double y, double[] array) {
+			ShortBuffer data = this.data;
 			if (data == null) {
 				return INEXISTENT_HEIGHT;
 			}
 			if(USE_BILINEAR_INTERPOLATION) {
-				return bilinearInterpolation(x, y, array);
+				return bilinearInterpolation(data, x, y, array);
 			} else {
-				return bicubicInterpolation(x, y, array);
+				return bicubicInterpolation(data, x, y, array);
 			}
 //			System.out.println(" --- " + (h1 - h2) + " " + h1 + " " + h2);
 		}
 		
-		protected double bicubicInterpolation(double ix, double iy, double[] cf) {
+		protected double bicubicInterpolation(ShortBuffer data, double ix, double iy, double[] cf) {
 			double pdx = (width - 2) * ix + 1;
 			double pdy = (height - 2) * (1 - iy) + 1;
 			int px = (int) Math.round(pdx);
@@ -212,22 +272,22 @@ public class IndexHeightData {
 			double tx = y;
 			y = x;
 			x = tx;
-			cf[0] = (x-1)*(x-2)*(x+1)*(y-1)*(y-2)*(y+1) / 4 * getElem(px, py);
-			cf[1] = -(x)*(x-2)*(x+1)*(y-1)*(y-2)*(y+1) / 4 * getElem(px, py + 1);
-			cf[2] = -(x-1)*(x-2)*(x+1)*(y)*(y-2)*(y+1) / 4 * getElem(px + 1, py);
-			cf[3] = (x)*(x-2)*(x+1)*(y)*(y-2)*(y+1) / 4 * getElem(px + 1, py + 1);
-			cf[4] = -(x)*(x-2)*(x-1)*(y-1)*(y-2)*(y+1) / 12 * getElem(px, py - 1);
-			cf[5] = -(x+1)*(x-2)*(x-1)*(y-1)*(y-2)*(y) / 12 * getElem(px - 1, py);
-			cf[6] = (x)*(x-2)*(x-1)*(y+1)*(y-2)*(y) / 12 * getElem(px + 1, py - 1);
-			cf[7] = (x)*(x-2)*(x+1)*(y-1)*(y-2)*(y) / 12 * getElem(px - 1, py + 1);
-			cf[8] = (x)*(x-1)*(x+1)*(y-1)*(y-2)*(y+1) / 12 * getElem(px, py + 2);
-			cf[9] = (x-2)*(x-1)*(x+1)*(y-1)*(y)*(y+1) / 12 * getElem(px + 2, py);
-			cf[10] = (x)*(x-1)*(x-2)*(y)*(y-1)*(y-2) / 36 * getElem(px - 1, py - 1);
-			cf[11] = -(x)*(x-1)*(x+1)*(y)*(y+1)*(y-2) / 12 * getElem(px + 1, py + 2);
-			cf[12] = -(x)*(x+1)*(x-2)*(y)*(y-1)*(y+1) / 12 * getElem(px + 2, py + 1);
-			cf[13] = -(x)*(x-1)*(x+1)*(y)*(y-1)*(y-2) / 36 * getElem(px - 1, py + 2);
-			cf[14] = -(x)*(x-1)*(x-2)*(y)*(y-1)*(y+1) / 36 * getElem(px + 2, py - 1);
-			cf[15] =  (x)*(x-1)*(x+1)*(y)*(y-1)*(y+1) / 36 * getElem(px + 2, py + 2);
+			cf[0] = (x-1)*(x-2)*(x+1)*(y-1)*(y-2)*(y+1) / 4 * getElem(data, px, py);
+			cf[1] = -(x)*(x-2)*(x+1)*(y-1)*(y-2)*(y+1) / 4 * getElem(data, px, py + 1);
+			cf[2] = -(x-1)*(x-2)*(x+1)*(y)*(y-2)*(y+1) / 4 * getElem(data, px + 1, py);
+			cf[3] = (x)*(x-2)*(x+1)*(y)*(y-2)*(y+1) / 4 * getElem(data, px + 1, py + 1);
+			cf[4] = -(x)*(x-2)*(x-1)*(y-1)*(y-2)*(y+1) / 12 * getElem(data, px, py - 1);
+			cf[5] = -(x+1)*(x-2)*(x-1)*(y-1)*(y-2)*(y) / 12 * getElem(data, px - 1, py);
+			cf[6] = (x)*(x-2)*(x-1)*(y+1)*(y-2)*(y) / 12 * getElem(data, px + 1, py - 1);
+			cf[7] = (x)*(x-2)*(x+1)*(y-1)*(y-2)*(y) / 12 * getElem(data, px - 1, py + 1);
+			cf[8] = (x)*(x-1)*(x+1)*(y-1)*(y-2)*(y+1) / 12 * getElem(data, px, py + 2);
+			cf[9] = (x-2)*(x-1)*(x+1)*(y-1)*(y)*(y+1) / 12 * getElem(data, px + 2, py);
+			cf[10] = (x)*(x-1)*(x-2)*(y)*(y-1)*(y-2) / 36 * getElem(data, px - 1, py - 1);
+			cf[11] = -(x)*(x-1)*(x+1)*(y)*(y+1)*(y-2) / 12 * getElem(data, px + 1, py + 2);
+			cf[12] = -(x)*(x+1)*(x-2)*(y)*(y-1)*(y+1) / 12 * getElem(data, px + 2, py + 1);
+			cf[13] = -(x)*(x-1)*(x+1)*(y)*(y-1)*(y-2) / 36 * getElem(data, px - 1, py + 2);
+			cf[14] = -(x)*(x-1)*(x-2)*(y)*(y-1)*(y+1) / 36 * getElem(data, px + 2, py - 1);
+			cf[15] =  (x)*(x-1)*(x+1)*(y)*(y-1)*(y+1) / 36 * getElem(data, px + 2, py + 2);
 			double h = 0;
 			for(int i = 0; i < cf.length; i++) {
 				h += cf[i];
@@ -235,7 +295,7 @@ public class IndexHeightData {
 			return h;
 		}
 
-		protected double bilinearInterpolation(double x, double y, double[] array) {
+		protected double bilinearInterpolation(ShortBuffer data, double x, double y, double[] array) {
 			double pdx = (width - 2) * x + 1;
 			double pdy = (height - 2) * (1 - y) + 1;
 			int px = (int) Math.round(pdx);
@@ -243,10 +303,10 @@ public class IndexHeightData {
 			if(array == null) {
 				array = new double[4]; 
 			}
-			array[0] = getElem(px - 1, py - 1);
-			array[1] = getElem(px, py - 1);
-			array[2] = getElem(px - 1, py);
-			array[3] = getElem(px, py);
+			array[0] = getElem(data, px - 1, py - 1);
+			array[1] = getElem(data, px, py - 1);
+			array[2] = getElem(data, px - 1, py);
+			array[3] = getElem(data, px, py);
 			double cx = 0.5 + pdx - px;
 			double cy = 0.5 + pdy - py;
 			// 1.3 pdx ->  px = 1, px - 1 = 0, cx = 0.8, 1 - cx = 0.2,
@@ -259,7 +319,7 @@ public class IndexHeightData {
 			return h;
 		}
 
-		private double getElem(int px, int py) {
+		private double getElem(ShortBuffer data, int px, int py) {
 			if (px <= 0) {
 				px = 1;
 			}
@@ -274,11 +334,11 @@ public class IndexHeightData {
 			}
 			
 			int ind = px + py * width;
-			if (ind >= data.getSize()) {
+			if (ind >= data.capacity()) {
 				throw new IllegalArgumentException("Illegal access (" + px + ", " + py + ") " + ind + " - "
 						+ getFileName());
 			}
-			int h = data.getElem(ind) & 0xffff;
+			int h = data.get(ind) & 0xffff;
 			if(h > 0x7fff) {
 				return h - (0xffff);
 			}
@@ -551,6 +611,13 @@ public class IndexHeightData {
 		this.srtmDataUrl = srtmData;
 		this.srtmWorkingDir = workingDir;
 	}
+
+	/**
+	 * Decoded tiles are stored in this folder as raw files and memory mapped on next load
+	 */
+	public void setRawTilesDir(File rawTilesDir) {
+		this.rawTilesDir = rawTilesDir;
+	}
 	
 	public double getPointHeight(double lat, double lon) {
 		return getPointHeight(lat, lon, null, null);
@@ -573,66 +640,111 @@ public class IndexHeightData {
 			latDelta += 1;
 			lt -= 1;
 		}
-		int id = getTileId(lt, ln);
-		TileData tileData = map.get(id);
-		if (tileData == null) {
-			tileData = new TileData(id);
-			map.put(id, tileData);
+		TileData tileData = getLoadedTile(lt, ln, fileName);
+		return tileData.getHeight(lonDelta, latDelta, neighboors);
+	}
+
+	/**
+	 * Fills heights of points (INEXISTENT_HEIGHT if unknown). Points are grouped by tile,
+	 * so every tile is looked up and loaded once for the whole track.
+	 */
+	public void getPointHeights(double[] lats, double[] lons, double[] heights, File[] fileName) {
+		int n = lats.length;
+		// tile id (positive, < 2^19) in high bits, point index in low bits
+		long[] order = new long[n];
+		for (int i = 0; i < n; i++) {
+			order[i] = ((long) getTileId((int) Math.floor(lats[i]), (int) Math.floor(lons[i])) << 32) | i;
 		}
+		Arrays.sort(order);
+		int start = 0;
+		while (start < n) {
+			int i = (int) order[start];
+			int lt = (int) Math.floor(lats[i]);
+			int ln = (int) Math.floor(lons[i]);
+			TileData tileData = getLoadedTile(lt, ln, fileName);
+			long tileId = order[start] >>> 32;
+			int end = start;
+			while (end < n && (order[end] >>> 32) == tileId) {
+				int ind = (int) order[end];
+				heights[ind] = tileData.getHeight(lons[ind] - ln, lats[ind] - lt, null);
+				end++;
+			}
+			start = end;
+		}
+	}
+
+	private TileData getLoadedTile(int lt, int ln, File[] fileName) {
+		int id = getTileId(lt, ln);
+		TileData tileData = map.computeIfAbsent(id, TileData::new);
 		if (!tileData.dataLoaded) {
-			gcTiles();
-			try {
-				tileData.loaded++;
-				log.info(String.format("SRTM: Load srtm data %d: %d %d", id, (int) lt, (int) ln));
-				File missingFile = tileData.loadData(srtmDataUrl, srtmWorkingDir);
-				if (fileName != null && fileName.length > 0) {
-					fileName[0] = missingFile;
+			boolean loaded = false;
+			synchronized (tileData) {
+				if (!tileData.dataLoaded) {
+					try {
+						log.info(String.format("SRTM: Load srtm data %d: %d %d", id, (int) lt, (int) ln));
+						File missingFile = tileData.loadData(srtmDataUrl, srtmWorkingDir, rawTilesDir);
+						if (fileName != null && fileName.length > 0) {
+							fileName[0] = missingFile;
+						}
+					} catch (IOException e) {
+						log.error(e.getMessage(), e);
+					}
+					loadedBytes.addAndGet(tileData.getDataBytes());
+					loadedTiles.incrementAndGet();
+					tileData.dataLoaded = true;
+					loaded = true;
 				}
-				srtmCountDownload++;
-				if (srtmCountDownload > MAX_SRTM_COUNT_DOWNLOAD) {
+			}
+			if (loaded) {
+				// long running processes (server) reload tiles from local folder, only downloads are limited
+				boolean download = srtmDataUrl.startsWith("http://") || srtmDataUrl.startsWith("https://")
+						|| srtmDataUrl.startsWith("s3://");
+				if (download && srtmCountDownload.incrementAndGet() > MAX_SRTM_COUNT_DOWNLOAD) {
 					throw new RuntimeException("Max count of download SRTM data " + MAX_SRTM_COUNT_DOWNLOAD);
 				}
-			} catch (IOException e) {
-				log.error(e.getMessage(), e);
+				gcTiles(tileData);
 			}
 		}
-		tileData.accessed++;
-		
-		return tileData.getHeight(lonDelta, latDelta, neighboors);
+		tileData.lastAccess = System.nanoTime();
+		return tileData;
 	}
 
 
 
-	private void gcTiles() {
-		List<TileData> lst = new ArrayList<>(map.values());
-		Iterator<TileData> it = lst.iterator();
-		while (it.hasNext()) {
-			if (it.next().data == null) {
-				it.remove();
+	// unloads least recently used tiles exceeding count or memory limit, next access loads a new tile instance
+	private void gcTiles(TileData current) {
+		if (!exceedsLimits()) {
+			return;
+		}
+		List<TileData> lst = new ArrayList<>();
+		for (TileData tile : map.values()) {
+			if (tile.dataLoaded && tile != current) {
+				lst.add(tile);
 			}
 		}
-		if (MAXIMUM_LOADED_DATA != -1 && lst.size() >= MAXIMUM_LOADED_DATA) {
-			int toGC = MAXIMUM_LOADED_DATA / 2;
-			log.info(String.format("SRTM: GC srtm data %d of %d (total %d).", toGC, lst.size(), map.size()));
-			// sort that more accessed are not gc
-			Collections.sort(lst, new Comparator<TileData>() {
-
-				@Override
-				public int compare(TileData o1, TileData o2) {
-					return -Integer.compare(o1.accessed + 100 * o1.loaded, o2.accessed + 100 * o2.loaded);
-				}
-			});
-			for (int i = 0; i < lst.size(); i++) {
-				TileData tile = lst.get(i);
-				if (i > toGC) {
-					// unload
-					tile.dataLoaded = false;
-					tile.data = null;
+		lst.sort(Comparator.comparingLong(t -> t.lastAccess));
+		int unloaded = 0;
+		for (TileData tile : lst) {
+			if (!exceedsLimits()) {
+				break;
+			}
+			synchronized (tile) {
+				if (tile.dataLoaded && map.remove(tile.id, tile)) {
+					loadedBytes.addAndGet(-tile.getDataBytes());
+					loadedTiles.decrementAndGet();
+					unloaded++;
 				}
-				tile.accessed = 0;
 			}
-			System.gc();
 		}
+		if (unloaded > 0) {
+			log.info(String.format("SRTM: unloaded %d tiles, %d loaded (%d MB)", unloaded, loadedTiles.get(),
+					loadedBytes.get() >> 20));
+		}
+	}
+
+	private boolean exceedsLimits() {
+		return (MAXIMUM_LOADED_DATA != -1 && loadedTiles.get() > MAXIMUM_LOADED_DATA)
+				|| loadedBytes.get() > MAXIMUM_LOADED_BYTES;
 	}
 	
 	private static File loadFile(String fl, String folderURL, File workDir) {
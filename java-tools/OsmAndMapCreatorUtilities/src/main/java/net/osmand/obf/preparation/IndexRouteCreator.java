@@ -58,6 +58,8 @@ public class IndexRouteCreator extends AbstractIndexPartCreator {
 	private final static String CONFLICT_NAME = "#CONFLICT";
 	private RTree routeTree = null;
 	private RTree baserouteTree = null;
+	private BulkLoader routeTreeLoader = null;
+	private BulkLoader baserouteTreeLoader = null;
 	private MapRoutingTypes routeTypes;
 	RelationTagsPropagation tagsTransformer = new RelationTagsPropagation();
 
@@ -246,7 +248,7 @@ public class IndexRouteCreator extends AbstractIndexPartCreator {
 					propagateToNodes.propagateTagsToWayNodesNoBorderRule(e);
 				}
 				routeTypes.encodePointTypes(e, pointTypes, pointNames, tagsTransformer, renderingTypes, false);
-				addWayToIndex(e.getId(), e.getNodes(), mapRouteInsertStat, routeTree, outTypes, pointTypes, pointNames, names);
+				addWayToIndex(e.getId(), e.getNodes(), mapRouteInsertStat, routeTreeLoader, outTypes, pointTypes, pointNames, names);
 			}
 			if (settings.generateLowLevel) {
 				encoded = routeTypes.encodeBaseEntity(tags, outTypes, names) && e.getNodes().size() >= 2;
@@ -256,7 +258,7 @@ public class IndexRouteCreator extends AbstractIndexPartCreator {
 					long id = e.getId();
 					List<Node> result = simplifyRouteForBaseSection(source, id);
 					routeTypes.encodePointTypes(e, pointTypes, pointNames, tagsTransformer, renderingTypes, true);
-					addWayToIndex(e.getId(), result, basemapRouteInsertStat, baserouteTree, outTypes, pointTypes,
+					addWayToIndex(e.getId(), result, basemapRouteInsertStat, baserouteTreeLoader, outTypes, pointTypes,
 							pointNames, names);
 					// generalizeWay(e);
 				}
@@ -330,7 +332,7 @@ public class IndexRouteCreator extends AbstractIndexPartCreator {
 		return false;
 	}
 
-	private void addWayToIndex(long id, List<Node> nodes, PreparedStatement insertStat, RTree rTree,
+	private void addWayToIndex(long id, List<Node> nodes, PreparedStatement insertStat, BulkLoader rTree,
 			TIntArrayList outTypes,	TLongObjectHashMap<TIntArrayList> pointTypes,
 			TLongObjectHashMap<TIntObjectHashMap<String>> pointNamesRaw, Map<MapRoutingTypes.MapRouteType, String> names ) throws SQLException {
 		boolean init = false;
@@ -404,11 +406,9 @@ public class IndexRouteCreator extends AbstractIndexPartCreator {
 
 			addBatch(insertStat, false);
 			try {
-				rTree.insert(new LeafElement(new Rect(minX, minY, maxX, maxY), id));
-			} catch (RTreeInsertException e1) {
-				throw new IllegalArgumentException(e1);
-			} catch (IllegalValueException e1) {
-				throw new IllegalArgumentException(e1);
+				rTree.insert(minX, minY, maxX, maxY, id);
+			} catch (IOException e1) {
+				throw new IllegalStateException(e1);
 			}
 		}
 	}
@@ -530,19 +530,13 @@ public class IndexRouteCreator extends AbstractIndexPartCreator {
 		stat.executeUpdate("create index " +TABLE_BASEROUTE + CREATE_IND);
 		stat.close();
 		mapRouteInsertStat = createStatementRouteObjInsert(mapConnection, false);
-		try {
-			routeTree = new RTree(rtreeMapIndexNonPackFileName);
-		} catch (RTreeException e) {
-			throw new IOException(e);
-		}
+		// trees are packed directly, non pack file name is only used to place temporary files
+		File tmpDir = new File(rtreeMapIndexNonPackFileName).getParentFile();
+		routeTreeLoader = new BulkLoader(tmpDir);
 		pStatements.put(mapRouteInsertStat, 0);
 		if (settings.generateLowLevel) {
 			basemapRouteInsertStat = createStatementRouteObjInsert(mapConnection, true);
-			try {
-				baserouteTree = new RTree(rtreeMapIndexNonPackFileName + "b");
-			} catch (RTreeException e) {
-				throw new IOException(e);
-			}
+			baserouteTreeLoader = new BulkLoader(tmpDir);
 			pStatements.put(basemapRouteInsertStat, 0);
 		}
 	}
@@ -555,6 +549,12 @@ public class IndexRouteCreator extends AbstractIndexPartCreator {
 
 	public void commitAndCloseFiles(String rTreeMapIndexNonPackFileName, String rTreeMapIndexPackFileName, boolean deleteDatabaseIndexes)
 			throws IOException, SQLException {
+		if (routeTreeLoader != null) {
+			routeTreeLoader.close();
+		}
+		if (baserouteTreeLoader != null) {
+			baserouteTreeLoader.close();
+		}
 		// delete map rtree files
 		deleteRouteTreeFiles(rTreeMapIndexNonPackFileName, rTreeMapIndexPackFileName, deleteDatabaseIndexes, routeTree);
 		if(settings.generateLowLevel) {
@@ -651,10 +651,11 @@ public class IndexRouteCreator extends AbstractIndexPartCreator {
 	}
 
 	public void packRtreeFiles(String rTreeRouteIndexNonPackFileName, String rTreeRouteIndexPackFileName) throws IOException {
-		routeTree = packRtreeFile(routeTree, rTreeRouteIndexNonPackFileName, rTreeRouteIndexPackFileName);
+		routeTree = packRtreeFile(routeTreeLoader, rTreeRouteIndexPackFileName);
+		routeTreeLoader = null;
 		if (settings.generateLowLevel) {
-			baserouteTree = packRtreeFile(baserouteTree, rTreeRouteIndexNonPackFileName + "b",
-					rTreeRouteIndexPackFileName + "b");
+			baserouteTree = packRtreeFile(baserouteTreeLoader, rTreeRouteIndexPackFileName + "b");
+			baserouteTreeLoader = null;
 		}
 	}
 
@@ -895,7 +896,7 @@ public class IndexRouteCreator extends AbstractIndexPartCreator {
 				outTypes.add(gw.mainType);
 				outTypes.addAll(gw.addtypes);
 				try {
-					addWayToIndex(gw.id, nodes, basemapRouteInsertStat, baserouteTree, outTypes, pointTypes,
+					addWayToIndex(gw.id, nodes, basemapRouteInsertStat, baserouteTreeLoader, outTypes, pointTypes,
 							pointNames, names);
 				} catch (SQLException e) {
 					throw new IllegalStateException(e);
@@ -50,12 +50,10 @@ import net.osmand.osm.edit.Way;
 import net.osmand.util.Algorithms;
 import net.osmand.util.MapUtils;
 import net.sf.junidecode.Junidecode;
+import rtree.BulkLoader;
 import rtree.Element;
-import rtree.IllegalValueException;
-import rtree.LeafElement;
 import rtree.RTree;
 import rtree.RTreeException;
-import rtree.RTreeInsertException;
 import rtree.Rect;
 
 
@@ -73,6 +71,7 @@ public class IndexTransportCreator extends AbstractIndexPartCreator {
 	private PreparedStatement transStopsStat;
 	private PreparedStatement transRouteGeometryStat;
 	private RTree transportStopsTree;
+	private BulkLoader transportStopsTreeLoader;
 	private Map<Long, Relation> masterRoutes = new HashMap<Long, Relation>();
 	private Connection gtfsConnection;
 
@@ -254,7 +253,8 @@ public class IndexTransportCreator extends AbstractIndexPartCreator {
 	}
 
 	public void packRTree(String rtreeTransportStopsFileName, String rtreeTransportStopsPackFileName) throws IOException {
-		transportStopsTree = packRtreeFile(transportStopsTree, rtreeTransportStopsFileName, rtreeTransportStopsPackFileName);
+		transportStopsTree = packRtreeFile(transportStopsTreeLoader, rtreeTransportStopsPackFileName);
+		transportStopsTreeLoader = null;
 	}
 
 	public void indexRelations(Relation e, OsmDbAccessorContext ctx) throws SQLException {
@@ -339,15 +339,8 @@ public class IndexTransportCreator extends AbstractIndexPartCreator {
 //        }
 		stat.close();
 
-		try {
-			File file = new File(rtreeStopsFileName);
-			if (file.exists()) {
-				file.delete();
-			}
-			transportStopsTree = new RTree(file.getAbsolutePath());
-		} catch (RTreeException e) {
-			throw new IOException(e);
-		}
+		// tree is packed directly, non pack file name is only used to place temporary files
+		transportStopsTreeLoader = new BulkLoader(new File(rtreeStopsFileName).getAbsoluteFile().getParentFile());
 		transRouteStat = conn.prepareStatement("insert into transport_route(id, type, operator, ref, name, name_en, dist, color) values(?, ?, ?, ?, ?, ?, ?, ?)");
 		transRouteStopsStat = conn.prepareStatement("insert into transport_route_stop(route, stop, ord) values(?, ?, ?)");
 		transStopsStat = conn.prepareStatement("insert into transport_stop(id, latitude, longitude, name, name_en, names, deleted_routes) values(?, ?, ?, ?, ?, ?, ?)");
@@ -523,11 +516,9 @@ public class IndexTransportCreator extends AbstractIndexPartCreator {
 				int y = (int) MapUtils.getTileNumberY(24, s.getLocation().getLatitude());
 				addBatch(transStopsStat);
 				try {
-					transportStopsTree.insert(new LeafElement(new Rect(x, y, x, y), s.getId()));
-				} catch (RTreeInsertException e) {
-					throw new IllegalArgumentException(e);
-				} catch (IllegalValueException e) {
-					throw new IllegalArgumentException(e);
+					transportStopsTreeLoader.insert(x, y, x, y, s.getId());
+				} catch (IOException e) {
+					throw new IllegalStateException(e);
 				}
 				visitedStops.add(s.getId());
 			}
@@ -694,6 +685,9 @@ public class IndexTransportCreator extends AbstractIndexPartCreator {
 
 
 	public void commitAndCloseFiles(String rtreeStopsFileName, String rtreeStopsPackFileName, boolean deleteDatabaseIndexes) throws IOException, SQLException {
+		if (transportStopsTreeLoader != null) {
+			transportStopsTreeLoader.close();
+		}
 		// delete transport rtree files
 		if (transportStopsTree != null) {
 			transportStopsTree.getFileHdr().getFile().close();
@@ -76,6 +76,7 @@ public class IndexVectorMapCreator extends AbstractIndexPartCreator {
     private PreparedStatement mapLowLevelBinaryStat;
     private int lowLevelWays = -1;
     private RTree[] mapTree = null;
+    private BulkLoader[] mapTreeLoaders = null;
     private Connection mapConnection;
 
     private static int DUPLICATE_SPLIT = 5;
@@ -329,7 +330,7 @@ public class IndexVectorMapCreator extends AbstractIndexPartCreator {
                 }
                 innerWays = newinnerWays;
             }
-            insertBinaryMapRenderObjectIndex(mapTree[level], outerWay, innerWays, namesUse, id, true, typeUse,
+            insertBinaryMapRenderObjectIndex(mapTreeLoaders[level], outerWay, innerWays, namesUse, id, true, typeUse,
                     addtypeUse, true, true);
 
         }
@@ -577,7 +578,7 @@ public class IndexVectorMapCreator extends AbstractIndexPartCreator {
                 List<Node> res = new ArrayList<Node>();
                 OsmMapUtils.simplifyDouglasPeucker(wNodes, zoom - 1 + 8 + settings.zoomWaySmoothness, 3, res, false);
                 if (res.size() > 0) {
-                    insertBinaryMapRenderObjectIndex(mapTree[level], res, null, namesUse, id, false, typeUse,
+                    insertBinaryMapRenderObjectIndex(mapTreeLoaders[level], res, null, namesUse, id, false, typeUse,
                             addtypeUse, false, cycle);
                 }
             }
@@ -790,7 +791,7 @@ public class IndexVectorMapCreator extends AbstractIndexPartCreator {
         }
         if (res != null) {
             validateDuplicate(originalId, id);
-            insertBinaryMapRenderObjectIndex(mapTree[level], res, null, namesUse, id, area, typeUse, addtypeUse, true,
+            insertBinaryMapRenderObjectIndex(mapTreeLoaders[level], res, null, namesUse, id, area, typeUse, addtypeUse, true,
                     cycle);
         }
     }
@@ -1098,19 +1099,12 @@ public class IndexVectorMapCreator extends AbstractIndexPartCreator {
         this.mapConnection = mapConnection;
         mapBinaryStat = createStatementMapBinaryInsert(mapConnection);
         mapLowLevelBinaryStat = createStatementLowLevelMapBinaryInsert(mapConnection);
-        try {
-            mapTree = new RTree[mapZooms.size()];
-            for (int i = 0; i < mapZooms.size(); i++) {
-                File file = new File(rtreeMapIndexNonPackFileName + i);
-                if (file.exists()) {
-                    file.delete();
-                }
-                mapTree[i] = new RTree(rtreeMapIndexNonPackFileName + i);
-                // very slow
-                // mapTree[i].getFileHdr().setBufferPolicy(true);
-            }
-        } catch (RTreeException e) {
-            throw new IOException(e);
+        // leaves are collected and packed directly, non pack file name is only used to place temporary files
+        File tmpDir = new File(rtreeMapIndexNonPackFileName).getParentFile();
+        mapTree = new RTree[mapZooms.size()];
+        mapTreeLoaders = new BulkLoader[mapZooms.size()];
+        for (int i = 0; i < mapZooms.size(); i++) {
+            mapTreeLoaders[i] = new BulkLoader(tmpDir);
         }
         pStatements.put(mapBinaryStat, 0);
         pStatements.put(mapLowLevelBinaryStat, 0);
@@ -1199,7 +1193,7 @@ public class IndexVectorMapCreator extends AbstractIndexPartCreator {
         addBatch(mapLowLevelBinaryStat);
     }
 
-    private void insertBinaryMapRenderObjectIndex(RTree mapTree, Collection<Node> nodes, List<List<Node>> innerWays,
+    private void insertBinaryMapRenderObjectIndex(BulkLoader mapTree, Collection<Node> nodes, List<List<Node>> innerWays,
             Map<MapRulType, String> names, long id, boolean area, TIntArrayList types, TIntArrayList addTypes,
             boolean commit, boolean cycle)
             throws SQLException {
@@ -1279,11 +1273,9 @@ public class IndexVectorMapCreator extends AbstractIndexPartCreator {
             mapBinaryStat.setBytes(8, blabelCoordinates.toByteArray());
             addBatch(mapBinaryStat, commit);
             try {
-                mapTree.insert(new LeafElement(new Rect(minX, minY, maxX, maxY), id));
-            } catch (RTreeInsertException e1) {
-                throw new IllegalArgumentException(e1);
-            } catch (IllegalValueException e1) {
-                throw new IllegalArgumentException(e1);
+                mapTree.insert(minX, minY, maxX, maxY, id);
+            } catch (IOException e1) {
+                throw new IllegalStateException(e1);
             }
         }
     }
@@ -1299,13 +1291,19 @@ public class IndexVectorMapCreator extends AbstractIndexPartCreator {
     public void packRtreeFiles(String rTreeMapIndexNonPackFileName, String rTreeMapIndexPackFileName)
             throws IOException {
         for (int i = 0; i < mapZooms.size(); i++) {
-            mapTree[i] = packRtreeFile(mapTree[i], rTreeMapIndexNonPackFileName + i, rTreeMapIndexPackFileName + i);
+            mapTree[i] = packRtreeFile(mapTreeLoaders[i], rTreeMapIndexPackFileName + i);
         }
+        mapTreeLoaders = null;
     }
 
     public void commitAndCloseFiles(String rTreeMapIndexNonPackFileName, String rTreeMapIndexPackFileName,
             boolean deleteDatabaseIndexes)
             throws IOException, SQLException {
+        if (mapTreeLoaders != null) {
+            for (BulkLoader loader : mapTreeLoaders) {
+                loader.close();
+            }
+        }
         // delete map rtree files
         if (mapTree != null) {
             for (int i = 0; i < mapTree.length; i++) {
@@ -4,6 +4,7 @@ import net.osmand.PlatformUtil;
 import org.apache.commons.logging.Log;
 
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
 import java.awt.image.DataBufferFloat;
 import java.io.File;
 import java.io.FileInputStream;
@@ -44,7 +45,7 @@ public class IndexWeatherData {
 		public double ECMWF_PX_SIZE_LAT = -0.28;
 
 		public final File file;
-		private DataBufferFloat data;
+		private DataBuffer data;
 		private int height;
 		private int width;
 		private int bands;
@@ -53,10 +54,30 @@ public class IndexWeatherData {
 			this.file = file;
 			readFile(file);
 		}
+
+		public WeatherTiff(File file, DataBuffer data, int width, int height, int bands) {
+			this.file = file;
+			this.data = data;
+			this.width = width;
+			this.height = height;
+			this.bands = bands;
+		}
 		
 		public int getBands() {
 			return bands;
 		}
+
+		public int getWidth() {
+			return width;
+		}
+
+		public int getHeight() {
+			return height;
+		}
+
+		public DataBuffer getData() {
+			return data;
+		}
 		
 		
 		private BufferedImage readFile(File file) {
@@ -0,0 +1,231 @@
+package net.osmand.obf.preparation;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import gnu.trove.list.array.TLongArrayList;
+import gnu.trove.set.hash.TLongHashSet;
+import net.osmand.osm.edit.Node;
+
+/**
+ * Off-heap storage of untagged node locations used instead of sqlite "node" table.
+ * Records (id, lat, lon) are appended to a file in sorted runs (osm files are sorted by id,
+ * every new input file or unsorted id starts a new run) and accessed through memory mapped buffers
+ * with binary search, so ways are resolved without sql queries.
+ */
+public class NodeLocationStore implements Closeable {
+
+	private static final Log log = LogFactory.getLog(NodeLocationStore.class);
+
+	public static final long MISSING_LOCATION = Long.MIN_VALUE;
+
+	private static final int RECORD_SIZE = 16;
+	// 1 GB per mapped buffer
+	private static final int CHUNK_RECORDS_SHIFT = 26;
+	private static final long CHUNK_RECORDS_MASK = (1L << CHUNK_RECORDS_SHIFT) - 1;
+	private static final int MAX_RUNS = 64;
+	private static final double COORDINATE_PRECISION = 1e7;
+
+	private final File file;
+	private final RandomAccessFile raf;
+	private final FileChannel channel;
+	private final ByteBuffer writeBuffer = ByteBuffer.allocateDirect(RECORD_SIZE << 16);
+
+	private long size;
+	private long lastId;
+	// for each run: first record index, min id and max id
+	private final TLongArrayList runStarts = new TLongArrayList();
+	private final TLongArrayList runMinIds = new TLongArrayList();
+	private final TLongArrayList runMaxIds = new TLongArrayList();
+	// deleted or replaced nodes which could still have records in runs
+	private final TLongHashSet removedIds = new TLongHashSet();
+
+	private volatile MappedByteBuffer[] chunks = new MappedByteBuffer[0];
+	private volatile long mappedSize;
+
+	public NodeLocationStore(File file) throws IOException {
+		this.file = file;
+		if (file.exists()) {
+			file.delete();
+		}
+		this.raf = new RandomAccessFile(file, "rw");
+		this.channel = raf.getChannel();
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public long size() {
+		return size;
+	}
+
+	public int getRunsCount() {
+		return runStarts.size();
+	}
+
+	/**
+	 * @return false if location can't be stored (too many unsorted runs) and should be stored elsewhere
+	 */
+	public boolean put(long id, double lat, double lon) throws IOException {
+		if (size > 0 && id == lastId) {
+			// replace last location
+			writeRecord(id, lat, lon, size - 1);
+			removedIds.remove(id);
+			return true;
+		}
+		if (size == 0 || id < lastId) {
+			if (runStarts.size() >= MAX_RUNS) {
+				return false;
+			}
+			runStarts.add(size);
+			runMinIds.add(id);
+			runMaxIds.add(id);
+		} else {
+			runMaxIds.set(runMaxIds.size() - 1, id);
+		}
+		if (writeBuffer.remaining() < RECORD_SIZE) {
+			flush();
+		}
+		writeBuffer.putLong(id);
+		writeBuffer.putInt(encode(lat));
+		writeBuffer.putInt(encode(lon));
+		lastId = id;
+		size++;
+		removedIds.remove(id);
+		return true;
+	}
+
+	/**
+	 * Hides stored location (node is deleted or replaced), location put later is visible again
+	 */
+	public void remove(long id) {
+		removedIds.add(id);
+	}
+
+	private void writeRecord(long id, double lat, double lon, long index) throws IOException {
+		long written = channel.size() / RECORD_SIZE;
+		if (index >= written) {
+			int pos = (int) ((index - written) * RECORD_SIZE);
+			writeBuffer.putLong(pos, id);
+			writeBuffer.putInt(pos + 8, encode(lat));
+			writeBuffer.putInt(pos + 12, encode(lon));
+		} else {
+			ByteBuffer bb = ByteBuffer.allocate(RECORD_SIZE);
+			bb.putLong(id).putInt(encode(lat)).putInt(encode(lon));
+			bb.flip();
+			channel.write(bb, index * RECORD_SIZE);
+			mappedSize = -1;
+		}
+	}
+
+	public void flush() throws IOException {
+		writeBuffer.flip();
+		long pos = channel.size();
+		while (writeBuffer.hasRemaining()) {
+			pos += channel.write(writeBuffer, pos);
+		}
+		writeBuffer.clear();
+	}
+
+	public boolean contains(long id) {
+		return getLocation(id) != MISSING_LOCATION;
+	}
+
+	public Node getNode(long id) {
+		long loc = getLocation(id);
+		if (loc == MISSING_LOCATION) {
+			return null;
+		}
+		return new Node(getLatitude(loc), getLongitude(loc), id);
+	}
+
+	/**
+	 * Thread safe once all locations are written
+	 * @return packed location or MISSING_LOCATION
+	 */
+	public long getLocation(long id) {
+		if (removedIds.contains(id)) {
+			return MISSING_LOCATION;
+		}
+		MappedByteBuffer[] chunks = ensureMapped();
+		// latest runs override previous
+		for (int r = runStarts.size() - 1; r >= 0; r--) {
+			if (id < runMinIds.get(r) || id > runMaxIds.get(r)) {
+				continue;
+			}
+			long lo = runStarts.get(r);
+			long hi = (r == runStarts.size() - 1 ? size : runStarts.get(r + 1)) - 1;
+			while (lo <= hi) {
+				long mid = (lo + hi) >>> 1;
+				MappedByteBuffer chunk = chunks[(int) (mid >> CHUNK_RECORDS_SHIFT)];
+				int offset = (int) ((mid & CHUNK_RECORDS_MASK) * RECORD_SIZE);
+				long midId = chunk.getLong(offset);
+				if (midId < id) {
+					lo = mid + 1;
+				} else if (midId > id) {
+					hi = mid - 1;
+				} else {
+					return chunk.getLong(offset + 8);
+				}
+			}
+		}
+		return MISSING_LOCATION;
+	}
+
+	private MappedByteBuffer[] ensureMapped() {
+		if (mappedSize == size) {
+			return chunks;
+		}
+		synchronized (this) {
+			if (mappedSize != size) {
+				try {
+					flush();
+					int cnt = (int) ((size + CHUNK_RECORDS_MASK) >> CHUNK_RECORDS_SHIFT);
+					MappedByteBuffer[] newChunks = new MappedByteBuffer[cnt];
+					for (int i = 0; i < cnt; i++) {
+						long start = ((long) i << CHUNK_RECORDS_SHIFT) * RECORD_SIZE;
+						long len = Math.min((CHUNK_RECORDS_MASK + 1) * RECORD_SIZE, size * RECORD_SIZE - start);
+						newChunks[i] = channel.map(MapMode.READ_ONLY, start, len);
+					}
+					chunks = newChunks;
+					mappedSize = size;
+				} catch (IOException e) {
+					throw new IllegalStateException(e);
+				}
+			}
+			return chunks;
+		}
+	}
+
+	public static int encode(double coordinate) {
+		return (int) Math.round(coordinate * COORDINATE_PRECISION);
+	}
+
+	public static double getLatitude(long location) {
+		return ((int) (location >> 32)) / COORDINATE_PRECISION;
+	}
+
+	public static double getLongitude(long location) {
+		return ((int) location) / COORDINATE_PRECISION;
+	}
+
+	@Override
+	public void close() throws IOException {
+		log.info(String.format("Node locations store %s: %d nodes in %d runs, %d MB", file.getName(), size,
+				runStarts.size(), (size * RECORD_SIZE) >> 20));
+		chunks = new MappedByteBuffer[0];
+		mappedSize = -1;
+		channel.close();
+		raf.close();
+	}
+}
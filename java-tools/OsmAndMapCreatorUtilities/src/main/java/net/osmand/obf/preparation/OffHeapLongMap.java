@@ -0,0 +1,227 @@
+package net.osmand.obf.preparation;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+/**
+ * Open addressing hash table with long keys and fixed number of long values per key (0 values - set of ids).
+ * Entries are kept off-heap in direct buffers or in memory mapped temporary file (if folder is specified),
+ * so heap usage doesn't depend on number of entries. Values of new entry are 0.
+ * Not thread safe.
+ */
+public class OffHeapLongMap implements Closeable {
+
+	public static final long NO_VALUE = Long.MIN_VALUE;
+
+	// 128 MB per buffer
+	private static final int CHUNK_LONGS_SHIFT = 24;
+	private static final int CHUNK_LONGS_MASK = (1 << CHUNK_LONGS_SHIFT) - 1;
+	private static final int INITIAL_CAPACITY_BITS = 10;
+	private static final double LOAD_FACTOR = 0.6;
+	private static final long EMPTY = 0;
+
+	private final File folder;
+	private final int valuesCount;
+	private final int stride;
+
+	private ByteBuffer[] chunks;
+	private File file;
+	// mapped table alternates between 2 files on rehash, so only 2 paths are registered to delete on exit
+	private File[] files;
+	private int capacityBits;
+	private long size;
+	private long threshold;
+
+	// key 0 marks empty slot so it's stored separately
+	private boolean zeroKey;
+	private final long[] zeroKeyValues;
+
+	public OffHeapLongMap(File folder, int valuesCount) throws IOException {
+		this.folder = folder;
+		this.valuesCount = valuesCount;
+		// stride is power of 2 so entry never crosses chunk border
+		this.stride = valuesCount == 0 ? 1 : Integer.highestOneBit(valuesCount) << 1;
+		this.zeroKeyValues = new long[valuesCount];
+		allocate(INITIAL_CAPACITY_BITS);
+	}
+
+	public long size() {
+		return size;
+	}
+
+	public long getMemoryUsage() {
+		return (stride * 8L) << capacityBits;
+	}
+
+	public boolean isMemoryMapped() {
+		return folder != null;
+	}
+
+	public boolean containsKey(long key) {
+		return key == EMPTY ? zeroKey : find(key) >= 0;
+	}
+
+	/**
+	 * @return true if key was added
+	 */
+	public boolean add(long key) {
+		if (key == EMPTY) {
+			boolean added = !zeroKey;
+			if (added) {
+				zeroKey = true;
+				size++;
+			}
+			return added;
+		}
+		long slot = find(key);
+		if (slot >= 0) {
+			return false;
+		}
+		insert(-slot - 1, key);
+		return true;
+	}
+
+	/**
+	 * @return value or NO_VALUE if key is not present
+	 */
+	public long get(long key, int valueInd) {
+		if (key == EMPTY) {
+			return zeroKey ? zeroKeyValues[valueInd] : NO_VALUE;
+		}
+		long slot = find(key);
+		if (slot < 0) {
+			return NO_VALUE;
+		}
+		return getLong(slot * stride + 1 + valueInd);
+	}
+
+	public void put(long key, int valueInd, long value) {
+		if (valueInd >= valuesCount) {
+			throw new IllegalArgumentException("Value index " + valueInd + " >= " + valuesCount);
+		}
+		if (key == EMPTY) {
+			add(key);
+			zeroKeyValues[valueInd] = value;
+			return;
+		}
+		long slot = find(key);
+		if (slot < 0) {
+			slot = insert(-slot - 1, key);
+		}
+		putLong(slot * stride + 1 + valueInd, value);
+	}
+
+	// returns slot of the key or (-insertion slot - 1)
+	private long find(long key) {
+		long mask = (1L << capacityBits) - 1;
+		long slot = (key * 0x9E3779B97F4A7C15L) >>> (64 - capacityBits);
+		while (true) {
+			long k = getLong(slot * stride);
+			if (k == key) {
+				return slot;
+			} else if (k == EMPTY) {
+				return -slot - 1;
+			}
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	private long insert(long slot, long key) {
+		putLong(slot * stride, key);
+		size++;
+		if (size >= threshold) {
+			rehash();
+			return find(key);
+		}
+		return slot;
+	}
+
+	private void rehash() {
+		ByteBuffer[] oldChunks = chunks;
+		File oldFile = file;
+		long oldCapacity = 1L << capacityBits;
+		long sz = size;
+		try {
+			allocate(capacityBits + 1);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		for (long oldSlot = 0; oldSlot < oldCapacity; oldSlot++) {
+			long ind = oldSlot * stride;
+			ByteBuffer chunk = oldChunks[(int) (ind >> CHUNK_LONGS_SHIFT)];
+			int offset = (int) (ind & CHUNK_LONGS_MASK) << 3;
+			long key = chunk.getLong(offset);
+			if (key != EMPTY) {
+				long slot = -find(key) - 1;
+				for (int i = 0; i < stride; i++) {
+					putLong(slot * stride + i, chunk.getLong(offset + (i << 3)));
+				}
+			}
+		}
+		size = sz;
+		if (oldFile != null) {
+			oldFile.delete();
+		}
+	}
+
+	private void allocate(int bits) throws IOException {
+		long longs = (long) stride << bits;
+		int cnt = (int) ((longs + CHUNK_LONGS_MASK) >> CHUNK_LONGS_SHIFT);
+		ByteBuffer[] newChunks = new ByteBuffer[cnt];
+		if (folder == null) {
+			for (int i = 0; i < cnt; i++) {
+				int len = (int) Math.min(CHUNK_LONGS_MASK + 1, longs - ((long) i << CHUNK_LONGS_SHIFT));
+				newChunks[i] = ByteBuffer.allocateDirect(len << 3);
+			}
+			file = null;
+		} else {
+			if (files == null) {
+				File first = File.createTempFile("ids", ".map", folder);
+				files = new File[] { first, new File(folder, first.getName() + ".1") };
+				files[0].deleteOnExit();
+				files[1].deleteOnExit();
+			}
+			file = files[0].equals(file) ? files[1] : files[0];
+			// mapped region of new file is filled with zeros
+			try (RandomAccessFile raf = new RandomAccessFile(file, "rw"); FileChannel channel = raf.getChannel()) {
+				raf.setLength(0);
+				for (int i = 0; i < cnt; i++) {
+					long start = (long) i << CHUNK_LONGS_SHIFT;
+					long len = Math.min(CHUNK_LONGS_MASK + 1, longs - start);
+					newChunks[i] = channel.map(MapMode.READ_WRITE, start << 3, len << 3);
+				}
+			}
+		}
+		chunks = newChunks;
+		capacityBits = bits;
+		threshold = (long) (LOAD_FACTOR * (1L << bits));
+		size = zeroKey ? 1 : 0;
+	}
+
+	private long getLong(long ind) {
+		return chunks[(int) (ind >> CHUNK_LONGS_SHIFT)].getLong((int) (ind & CHUNK_LONGS_MASK) << 3);
+	}
+
+	private void putLong(long ind, long value) {
+		chunks[(int) (ind >> CHUNK_LONGS_SHIFT)].putLong((int) (ind & CHUNK_LONGS_MASK) << 3, value);
+	}
+
+	@Override
+	public void close() {
+		chunks = new ByteBuffer[0];
+		capacityBits = 0;
+		size = 0;
+		zeroKey = false;
+		if (files != null) {
+			files[0].delete();
+			files[1].delete();
+			files = null;
+			file = null;
+		}
+	}
+}
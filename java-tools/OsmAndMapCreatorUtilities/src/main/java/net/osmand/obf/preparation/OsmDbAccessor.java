@@ -1,6 +1,7 @@
 package net.osmand.obf.preparation;
 
 
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
@@ -14,6 +15,15 @@ import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 
 import net.osmand.IProgress;
 import net.osmand.osm.edit.Entity;
@@ -27,7 +37,9 @@ import net.osmand.osm.edit.Way;
 
 public class OsmDbAccessor implements OsmDbAccessorContext {
 
-	//private static final Log log = LogFactory.getLog(OsmDbAccessor.class);
+	private static final Log log = LogFactory.getLog(OsmDbAccessor.class);
+	private static final int PARTITIONS_PER_THREAD = 4;
+	private static final int PARALLEL_PROGRESS_STEP = 1000;
 
 	protected PreparedStatement pselectNode;
 	protected PreparedStatement pselectWay;
@@ -40,6 +52,9 @@ public class OsmDbAccessor implements OsmDbAccessorContext {
 	 
 	protected Connection dbConn;
 	protected DBDialect dialect;
+	protected NodeLocationStore nodeLocations;
+	private int parallelThreads = 1;
+	private boolean sharedReading = false;
 
 	private PreparedStatement iterateNodes;
 	private PreparedStatement iterateWays;
@@ -48,6 +63,18 @@ public class OsmDbAccessor implements OsmDbAccessorContext {
 
 	public interface OsmDbVisitor {
 		public void iterateEntity(Entity e, OsmDbAccessorContext ctx) throws SQLException;
+
+		/**
+		 * Thread safe visitors are called concurrently from several threads (see setParallelThreads),
+		 * entities are visited in id order only within one partition
+		 */
+		public default boolean isThreadSafe() {
+			return false;
+		}
+	}
+
+	private interface EntityCallback {
+		public void accept(Entity e) throws SQLException, InterruptedException;
 	}
 
 
@@ -110,7 +137,7 @@ public class OsmDbAccessor implements OsmDbAccessorContext {
 						((Way) e).addNode(n);
 						readTags(n, rs.getBytes(6));
 					} else {
-						((Way) e).addNode(rs.getLong(1));
+						addStoredNode(e, rs.getLong(1));
 					}
 				}
 				rs.close();
@@ -156,6 +183,9 @@ public class OsmDbAccessor implements OsmDbAccessorContext {
 								readTags(n, rs.getBytes(3));
 							}
 						}
+						if (n == null && nodeLocations != null) {
+							n = nodeLocations.getNode(i.getEntityId().getId());
+						}
 						map.put(i.getEntityId(), n);
 						rs.close();
 					}
@@ -175,6 +205,15 @@ public class OsmDbAccessor implements OsmDbAccessorContext {
 		}
 	}
 
+	private void addStoredNode(Way w, long nodeId) {
+		Node n = nodeLocations == null ? null : nodeLocations.getNode(nodeId);
+		if (n != null) {
+			w.addNode(n);
+		} else {
+			w.addNode(nodeId);
+		}
+	}
+
 	public void readTags(Entity e, byte[] tags){
 		if (tags != null) {
 			try {
@@ -223,16 +262,15 @@ public class OsmDbAccessor implements OsmDbAccessorContext {
 			select = iterateRelations;
 			count = allRelations;
 		}
-		entityProducer = new EntityProducer(toProcess, type, select);
 		progress.startWork(count);
+		if (parallelThreads > 1 && visitor.isThreadSafe() && dialect != DBDialect.SQLITE_IN_MEMORY) {
+			iterateOverEntitiesInParallel(progress, type, visitor);
+			return count;
+		}
+		entityProducer = new EntityProducer(toProcess, type, select);
 
 		//produce
 		entityProducer.start();
-		try {
-			// wait a little before starting taking entities from queue
-			Thread.sleep(150);
-		} catch (InterruptedException e) {
-		}
 
 		Entity entityToProcess = null;
 		Entity endEntity = entityProducer.getEndingEntity();
@@ -246,6 +284,118 @@ public class OsmDbAccessor implements OsmDbAccessorContext {
 	}
 
 
+	private void iterateOverEntitiesInParallel(IProgress progress, EntityType type, OsmDbVisitor visitor)
+			throws SQLException, InterruptedException {
+		String table = type == EntityType.NODE ? "node" : (type == EntityType.RELATION ? "relations" : "ways");
+		Statement stat = dbConn.createStatement();
+		ResultSet rs = stat.executeQuery("select min(id), max(id) from " + table); //$NON-NLS-1$
+		boolean empty = !rs.next() || rs.getObject(1) == null;
+		long minId = empty ? 0 : rs.getLong(1);
+		long maxId = empty ? 0 : rs.getLong(2);
+		rs.close();
+		stat.close();
+		if (empty) {
+			return;
+		}
+		switchToSharedReading();
+		String dbFile = dbConn.getMetaData().getURL().substring("jdbc:sqlite:".length());
+		String query = getPartitionQuery(type);
+		// id ranges are not equally filled, so there are more partitions than threads
+		int partitions = parallelThreads * PARTITIONS_PER_THREAD;
+		long step = maxId / partitions - minId / partitions + 1;
+		final List<long[]> ranges = new ArrayList<long[]>();
+		for (long start = minId; start <= maxId && start >= minId; start += step) {
+			ranges.add(new long[] { start, Math.min(maxId, start + step - 1) });
+		}
+		AtomicInteger nextRange = new AtomicInteger();
+		long st = System.currentTimeMillis();
+		ExecutorService service = Executors.newFixedThreadPool(parallelThreads);
+		List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+		for (int i = 0; i < parallelThreads; i++) {
+			results.add(service.submit(new Callable<Integer>() {
+
+				@Override
+				public Integer call() throws Exception {
+					Connection conn = dialect.getReadOnlyDatabaseConnection(dbFile, log);
+					OsmDbAccessor ctx = new OsmDbAccessor();
+					try {
+						ctx.setDbConn(conn, dialect);
+						ctx.setNodeLocations(nodeLocations);
+						ctx.initDatabase();
+						PreparedStatement select = conn.prepareStatement(query);
+						int[] processed = new int[1];
+						int r;
+						while ((r = nextRange.getAndIncrement()) < ranges.size()) {
+							select.setLong(1, ranges.get(r)[0]);
+							select.setLong(2, ranges.get(r)[1]);
+							ResultSet rs = select.executeQuery();
+							readEntities(rs, type, new EntityCallback() {
+
+								@Override
+								public void accept(Entity e) throws SQLException {
+									visitor.iterateEntity(e, ctx);
+									if (++processed[0] % PARALLEL_PROGRESS_STEP == 0 && progress != null) {
+										synchronized (progress) {
+											progress.progress(PARALLEL_PROGRESS_STEP);
+										}
+									}
+								}
+							});
+							rs.close();
+						}
+						select.close();
+						return processed[0];
+					} finally {
+						// node locations are shared and closed by main accessor
+						ctx.setNodeLocations(null);
+						ctx.closeReadingConnection();
+						conn.close();
+					}
+				}
+			}));
+		}
+		service.shutdown();
+		int total = 0;
+		try {
+			for (Future<Integer> f : results) {
+				total += f.get();
+			}
+		} catch (ExecutionException e) {
+			service.shutdownNow();
+			if (e.getCause() instanceof SQLException) {
+				throw (SQLException) e.getCause();
+			}
+			throw new IllegalStateException(e.getCause());
+		}
+		log.info(String.format("Iterated %d %s in %d partitions with %d threads: %d ms", total, type, ranges.size(),
+				parallelThreads, System.currentTimeMillis() - st));
+	}
+
+	private String getPartitionQuery(EntityType type) {
+		if (type == EntityType.NODE) {
+			return "select n.id, n.latitude, n.longitude, n.tags from node n " + //$NON-NLS-1$
+					"where (length(n.tags) > 0 or n.propagate = 1) and n.id between ? and ?"; //$NON-NLS-1$
+		} else if (type == EntityType.WAY || type == EntityType.WAY_BOUNDARY) {
+			return "select w.id, w.node, w.ord, w.tags, n.latitude, n.longitude, n.tags " + //$NON-NLS-1$
+					"from ways w left join node n on w.node = n.id where w.id between ? and ? " + //$NON-NLS-1$
+					(type == EntityType.WAY_BOUNDARY ? "and w.boundary > 0 " : "") + "order by w.id, w.ord"; //$NON-NLS-1$
+		}
+		return "select r.id, r.tags from relations r where length(r.tags) > 0 and r.id between ? and ?"; //$NON-NLS-1$
+	}
+
+	private void switchToSharedReading() throws SQLException {
+		if (!sharedReading) {
+			// connection keeps exclusive lock after writing, it is released only on next access to db
+			dialect.commitDatabase(dbConn);
+			Statement stat = dbConn.createStatement();
+			stat.executeQuery("PRAGMA locking_mode = NORMAL").close(); //$NON-NLS-1$
+			stat.executeQuery("select count(*) from sqlite_master").close(); //$NON-NLS-1$
+			stat.close();
+			dialect.commitDatabase(dbConn);
+			sharedReading = true;
+		}
+	}
+
 	private void computeRealCounts() throws SQLException {
 		if (!realCounts) {
 			Statement statement = dbConn.createStatement();
@@ -283,6 +433,14 @@ public class OsmDbAccessor implements OsmDbAccessorContext {
 		if (iterateWayBoundaries != null) {
 			iterateWayBoundaries.close();
 		}
+		if (nodeLocations != null) {
+			try {
+				nodeLocations.close();
+			} catch (IOException e) {
+				throw new SQLException(e);
+			}
+			nodeLocations = null;
+		}
 
 	}
 
@@ -322,45 +480,13 @@ public class OsmDbAccessor implements OsmDbAccessorContext {
 				select.execute();
 				rs = select.getResultSet();
 				// rs.setFetchSize(1000); !! not working for SQLite would case troubles probably
-				Entity prevEntity = null;
-				long prevId = Long.MIN_VALUE;
-				while (rs.next()) {
-					long curId = rs.getLong(1);
-					boolean newEntity = curId != prevId;
-					Entity e = prevEntity;
-					if (type == EntityType.NODE) {
-						e = new Node(rs.getDouble(2), rs.getDouble(3), curId);
-						readTags(e, rs.getBytes(4));
-					} else if (type == EntityType.WAY || type == EntityType.WAY_BOUNDARY) {
-						if (newEntity) {
-							e = new Way(curId);
-						}
-						int ord = rs.getInt(3);
-						if (ord == 0) {
-							readTags(e, rs.getBytes(4));
-						}
-						if (rs.getObject(6) == null) {
-							((Way) e).addNode(rs.getLong(2));
-						} else {
-							Node n = new Node(rs.getDouble(5), rs.getDouble(6), rs.getLong(2));
-							readTags(n, rs.getBytes(7));
-							((Way) e).addNode(n);
-						}
-					} else {
-						e = new Relation(curId);
-						readTags(e, rs.getBytes(2));
-					}
-					if (newEntity) {
-						if (prevEntity != null) {
-							toProcess.put(prevEntity);
-						}
-						prevEntity = e;
+				readEntities(rs, type, new EntityCallback() {
+
+					@Override
+					public void accept(Entity e) throws InterruptedException {
+						toProcess.put(e);
 					}
-					prevId = curId;
-				}
-				if (prevEntity != null) {
-					toProcess.put(prevEntity);
-				}
+				});
 				rs.close();
 			} catch (SQLException e1) {
 				e1.printStackTrace();
@@ -379,10 +505,65 @@ public class OsmDbAccessor implements OsmDbAccessorContext {
 
 	}
 
+	private void readEntities(ResultSet rs, EntityType type, EntityCallback callback)
+			throws SQLException, InterruptedException {
+		Entity prevEntity = null;
+		long prevId = Long.MIN_VALUE;
+		while (rs.next()) {
+			long curId = rs.getLong(1);
+			boolean newEntity = curId != prevId;
+			Entity e = prevEntity;
+			if (type == EntityType.NODE) {
+				e = new Node(rs.getDouble(2), rs.getDouble(3), curId);
+				readTags(e, rs.getBytes(4));
+			} else if (type == EntityType.WAY || type == EntityType.WAY_BOUNDARY) {
+				if (newEntity) {
+					e = new Way(curId);
+				}
+				int ord = rs.getInt(3);
+				if (ord == 0) {
+					readTags(e, rs.getBytes(4));
+				}
+				if (rs.getObject(6) == null) {
+					addStoredNode((Way) e, rs.getLong(2));
+				} else {
+					Node n = new Node(rs.getDouble(5), rs.getDouble(6), rs.getLong(2));
+					readTags(n, rs.getBytes(7));
+					((Way) e).addNode(n);
+				}
+			} else {
+				e = new Relation(curId);
+				readTags(e, rs.getBytes(2));
+			}
+			if (newEntity) {
+				if (prevEntity != null) {
+					callback.accept(prevEntity);
+				}
+				prevEntity = e;
+			}
+			prevId = curId;
+		}
+		if (prevEntity != null) {
+			callback.accept(prevEntity);
+		}
+	}
+
 	public void setDbConn(Connection dbConnection, DBDialect dialect) {
 		this.dbConn = dbConnection;
 		this.dialect = dialect;
 	}
 
+	public void setParallelThreads(int parallelThreads) {
+		this.parallelThreads = parallelThreads;
+	}
+
+	public void setNodeLocations(NodeLocationStore nodeLocations) {
+		this.nodeLocations = nodeLocations;
+	}
+
+	public NodeLocationStore getNodeLocations() {
+		return nodeLocations;
+	}
+
 
 }
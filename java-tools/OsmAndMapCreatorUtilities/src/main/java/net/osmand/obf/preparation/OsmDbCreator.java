@@ -1,9 +1,6 @@
 package net.osmand.obf.preparation;
 
 import gnu.trove.list.array.TLongArrayList;
-import gnu.trove.map.hash.TLongObjectHashMap;
-import gnu.trove.set.TLongSet;
-import gnu.trove.set.hash.TLongHashSet;
 import net.osmand.binary.ObfConstants;
 import net.osmand.data.City.CityType;
 import net.osmand.data.LatLon;
@@ -24,6 +21,7 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.sql.*;
 import java.util.HashMap;
@@ -65,17 +63,21 @@ public class OsmDbCreator implements IOsmStorageFilter {
 	private PreparedStatement delNode;
 	private PreparedStatement delRelations;
 	private PreparedStatement delWays;
-	private TLongHashSet nodeIds = new TLongHashSet();
-	private TLongHashSet wayIds = new TLongHashSet();
-	private TLongHashSet relationIds = new TLongHashSet();;
+	private OffHeapLongMap nodeIds;
+	private OffHeapLongMap wayIds;
+	private OffHeapLongMap relationIds;
 
 	private Connection dbConn;
 
 	
 	private static boolean VALIDATE_DUPLICATES = false;
-	private TLongObjectHashMap<Long> generatedIds = new TLongObjectHashMap<Long>();
-	private TLongObjectHashMap<Long> hashes = new TLongObjectHashMap<Long>();
-	private TLongSet idSetToValidateDuplicates = new TLongHashSet();
+	// generated id and hash by (id << 2) + type
+	private static final int GENERATED_ID = 0;
+	private static final int HASH = 1;
+	private OffHeapLongMap generatedIds;
+	private OffHeapLongMap idSetToValidateDuplicates;
+	// null - keep id tables in direct memory
+	private File idTablesFolder;
 	
 
 	private final int shiftId;
@@ -87,6 +89,7 @@ public class OsmDbCreator implements IOsmStorageFilter {
 
 	private PropagateToNodes propagateToNodes;
 
+	private NodeLocationStore nodeLocations;
 
 
 	public OsmDbCreator(int additionId, int shiftId) {
@@ -172,11 +175,11 @@ public class OsmDbCreator implements IOsmStorageFilter {
 	private long getSimpleConvertId(long id, EntityType type, boolean newId) {
 		if (generateNewIds) {
 			long key = (id << 2) + type.ordinal();
-			if (!generatedIds.contains(key) || newId) {
+			if (!generatedIds.containsKey(key) || newId) {
 				id = generatedId--;
-				generatedIds.put(key, id);
+				generatedIds.put(key, GENERATED_ID, id);
 			} else {
-				id = generatedIds.get(key);
+				id = generatedIds.get(key, GENERATED_ID);
 			}
 		}
 		if (id < 0) {
@@ -198,36 +201,38 @@ public class OsmDbCreator implements IOsmStorageFilter {
 	
 	
 	private Long getHash(long l, int ord) {
-		if(l < 0) {
-			long lid = (l << shiftId) + additionId;
-			long fid = (lid << 2) + ord;
-			return hashes.get(fid);
-		}
-		return hashes.get((l << 2) + ord);
+		return getIdTableValue(l, ord, HASH);
 	}
 
 	private Long getGeneratedId(long l, int ord) {
-		if(l < 0) {
+		return getIdTableValue(l, ord, GENERATED_ID);
+	}
+
+	private Long getIdTableValue(long l, int ord, int valueInd) {
+		long fid;
+		if (l < 0) {
 			long lid = (l << shiftId) + additionId;
-			long fid = (lid << 2) + ord;
-			return generatedIds.get(fid);
+			fid = (lid << 2) + ord;
+		} else {
+			fid = (l << 2) + ord;
 		}
-		return generatedIds.get((l << 2) + ord);
+		long v = generatedIds.get(fid, valueInd);
+		return v == OffHeapLongMap.NO_VALUE ? null : v;
 	}
 
 	private long getConvertId(long id, int ord, long hash) {
 		if(id < 0 && (shiftId > 0 || additionId > 0)) {
 			long lid = (id << shiftId) + additionId;
 			long fid = (lid << 2) + ord;
-			generatedIds.put(fid, lid);
-			hashes.put(fid, hash);
+			generatedIds.put(fid, GENERATED_ID, lid);
+			generatedIds.put(fid, HASH, hash);
 			return lid;
 		}
 		int l = (int) (hash & ((1 << (SHIFT_ID - 1)) - 1));
 		long cid = (id << SHIFT_ID) + (ord % 2) + (l << 1);
 		long fid = (id << 2) + ord;
-		generatedIds.put(fid, cid);
-		hashes.put(fid, hash);
+		generatedIds.put(fid, GENERATED_ID, cid);
+		generatedIds.put(fid, HASH, hash);
 		return cid;
 	}
 	
@@ -236,6 +241,19 @@ public class OsmDbCreator implements IOsmStorageFilter {
 
 		this.dialect = dialect;
 		this.dbConn = (Connection) databaseConn;
+		try {
+			generatedIds = new OffHeapLongMap(idTablesFolder, 2);
+			if (VALIDATE_DUPLICATES) {
+				idSetToValidateDuplicates = new OffHeapLongMap(idTablesFolder, 0);
+			}
+		} catch (IOException e) {
+			throw new SQLException(e);
+		}
+		if (previous != null) {
+			nodeIds = previous.nodeIds;
+			wayIds = previous.wayIds;
+			relationIds = previous.relationIds;
+		}
 		// prepare tables
 		Statement stat = dbConn.createStatement();
 		if (create) {
@@ -249,17 +267,11 @@ public class OsmDbCreator implements IOsmStorageFilter {
 			stat.executeUpdate("create table relations (id bigint, member bigint, type smallint, role varchar(1024), ord smallint, tags blob, primary key (id, ord))"); //$NON-NLS-1$
 			stat.executeUpdate("create index IdRIndex ON relations (id)"); //$NON-NLS-1$
 			stat.close();
-		} else {
-			if (previous != null) {
-				nodeIds = previous.nodeIds;
-				wayIds = previous.wayIds;
-				relationIds = previous.relationIds;
-			} else {
-				// not used
-//				initIds("node", nodeIds);
-//				initIds("ways", wayIds);
-//				initRelationIds("relations", relationIds);
-			}
+		} else if (previous == null) {
+			// not used
+//			initIds("node", nodeIds);
+//			initIds("ways", wayIds);
+//			initRelationIds("relations", relationIds);
 		}
 		prepNode = dbConn.prepareStatement("replace into node(id, latitude, longitude, tags, propagate) values (?, ?, ?, ?, ?)"); //$NON-NLS-1$
 		prepWays = dbConn.prepareStatement("replace into ways(id, node, ord, tags, boundary) values (?, ?, ?, ?, ?)"); //$NON-NLS-1$
@@ -269,8 +281,8 @@ public class OsmDbCreator implements IOsmStorageFilter {
 		dbConn.setAutoCommit(false);
 	}
 
-	protected void initIds(String table, TLongHashSet col) throws SQLException {
-		if(col.isEmpty()) {
+	protected void initIds(String table, OffHeapLongMap col) throws SQLException {
+		if(col.size() == 0) {
 			Statement s = dbConn.createStatement();
 			ResultSet rs = s.executeQuery("select id from " + table);
 			while(rs.next()) {
@@ -311,6 +323,31 @@ public class OsmDbCreator implements IOsmStorageFilter {
 		if (delRelations != null) {
 			delRelations.close();
 		}
+		Runtime rt = Runtime.getRuntime();
+		long offHeap = generatedIds.getMemoryUsage();
+		if (nodeIds != null) {
+			offHeap += nodeIds.getMemoryUsage() + wayIds.getMemoryUsage() + relationIds.getMemoryUsage();
+		}
+		log.info(String.format("Id tables: %,d ids, %d MB %s, heap used %d MB", generatedIds.size(), offHeap >> 20,
+				generatedIds.isMemoryMapped() ? "memory mapped" : "off-heap", (rt.totalMemory() - rt.freeMemory()) >> 20));
+		generatedIds.close();
+		if (idSetToValidateDuplicates != null) {
+			idSetToValidateDuplicates.close();
+		}
+	}
+
+	/**
+	 * Entity id tables are passed to next creator (see initDatabase), so they are closed by the last creator in chain
+	 */
+	public void closeIdTables() {
+		if (nodeIds != null) {
+			nodeIds.close();
+			wayIds.close();
+			relationIds.close();
+			nodeIds = null;
+			wayIds = null;
+			relationIds = null;
+		}
 	}
 	
 	
@@ -321,6 +358,15 @@ public class OsmDbCreator implements IOsmStorageFilter {
 			delWays = dbConn.prepareStatement("delete from ways where id = ?"); //$NON-NLS-1$
 			delRelations = dbConn.prepareStatement("delete from relations where id = ? "); //$NON-NLS-1$
 		}
+		if (nodeIds == null) {
+			try {
+				nodeIds = new OffHeapLongMap(idTablesFolder, 0);
+				wayIds = new OffHeapLongMap(idTablesFolder, 0);
+				relationIds = new OffHeapLongMap(idTablesFolder, 0);
+			} catch (IOException ex) {
+				throw new SQLException(ex);
+			}
+		}
 		boolean present = false;
 		if (e instanceof Node) {
 			present = !nodeIds.add(id);
@@ -343,6 +389,9 @@ public class OsmDbCreator implements IOsmStorageFilter {
 		if (e instanceof Node) {
 			delNode.setLong(1, id);
 			delNode.execute();
+			if (nodeLocations != null) {
+				nodeLocations.remove(id);
+			}
 		} else if (e instanceof Way) {
 			delWays.setLong(1, id);
 			delWays.execute();
@@ -393,9 +442,16 @@ public class OsmDbCreator implements IOsmStorageFilter {
 						if (i % 2 == 0) {
 							nodeIds.add(oldNodeIds.get(i / 2));
 							if (pn != null) {
-								prepPropagateNode.setLong(1, pn.id);
-								prepPropagateNode.addBatch();
-								propagateCount++;
+								Node stored = nodeLocations == null ? null : nodeLocations.getNode(pn.id);
+								if (stored != null) {
+									// untagged node is not present in db
+									insertNode(pn.id, stored.getLatitude(), stored.getLongitude(), new byte[0], true);
+									executeNodesBatch(false);
+								} else {
+									prepPropagateNode.setLong(1, pn.id);
+									prepPropagateNode.addBatch();
+									propagateCount++;
+								}
 								propagateToNodes.registerNode(pn);
 							}
 						} else if (pnodes.points[i] != null) { // in between points
@@ -414,13 +470,7 @@ public class OsmDbCreator implements IOsmStorageFilter {
 								nodeIds.addAll(oldNodeIds);
 								break;
 							}
-							currentCountNode++;
-							prepNode.setLong(1, pn.id);
-							prepNode.setDouble(2, latLon.getLatitude());
-							prepNode.setDouble(3, latLon.getLongitude());
-							prepNode.setBytes(4, new ByteArrayOutputStream().toByteArray());
-							prepNode.setBoolean(5, true);
-							prepNode.addBatch();
+							insertNode(pn.id, latLon.getLatitude(), latLon.getLongitude(), new byte[0], true);
 
 							nodeIds.add(pn.id);
 							propagateToNodes.registerNode(pn);
@@ -435,17 +485,16 @@ public class OsmDbCreator implements IOsmStorageFilter {
 				}
 			}
 			if (e instanceof Node) {
-				currentCountNode++;
+				double lat = ((Node) e).getLatitude();
+				double lon = ((Node) e).getLongitude();
 				if (!e.getTags().isEmpty()) {
 					allNodes++;
 				}
-				prepNode.setLong(1, id);
-				prepNode.setDouble(2, ((Node) e).getLatitude());
-				prepNode.setDouble(3, ((Node) e).getLongitude());
-				prepNode.setBytes(4, tags.toByteArray());
-				prepNode.setBoolean(5, false);
-				prepNode.addBatch();
-				executeNodesBatch(false);
+				// untagged nodes are needed only for coordinates
+				if (!e.getTags().isEmpty() || nodeLocations == null || !nodeLocations.put(id, lat, lon)) {
+					insertNode(id, lat, lon, tags.toByteArray(), false);
+					executeNodesBatch(false);
+				}
 			} else if (e instanceof Way) {
 				allWays++;
 				int ord = 0;
@@ -494,11 +543,23 @@ public class OsmDbCreator implements IOsmStorageFilter {
 
 		} catch (SQLException ex) {
 			log.error("TODO FIX: Could not save in db (entity " + entityId + ") ", ex); //$NON-NLS-1$
+		} catch (IOException ex) {
+			throw new IllegalStateException("Could not save node locations (entity " + entityId + ") ", ex); //$NON-NLS-1$
 		}
 		// do not add to storage
 		return false;
 	}
 
+	private void insertNode(long id, double lat, double lon, byte[] tags, boolean propagate) throws SQLException {
+		currentCountNode++;
+		prepNode.setLong(1, id);
+		prepNode.setDouble(2, lat);
+		prepNode.setDouble(3, lon);
+		prepNode.setBytes(4, tags);
+		prepNode.setBoolean(5, propagate);
+		prepNode.addBatch();
+	}
+
 	private void executeNodesBatch(boolean force) throws SQLException {
 		if (currentCountNode >= BATCH_SIZE_OSM || force) {
 			prepNode.executeBatch();
@@ -510,6 +571,12 @@ public class OsmDbCreator implements IOsmStorageFilter {
 
 
 	private Node getNode(long l) throws SQLException {
+		if (nodeLocations != null) {
+			Node n = nodeLocations.getNode(l);
+			if (n != null) {
+				return n;
+			}
+		}
 		selectNode.setLong(1, l);
 		ResultSet q = selectNode.executeQuery();
 		if (q.next()) {
@@ -533,6 +600,14 @@ public class OsmDbCreator implements IOsmStorageFilter {
 	public void setPropagateToNodes(PropagateToNodes propagateToNodes) {
 		this.propagateToNodes = propagateToNodes;
 	}
+
+	public void setNodeLocations(NodeLocationStore nodeLocations) {
+		this.nodeLocations = nodeLocations;
+	}
+
+	public void setIdTablesFolder(File idTablesFolder) {
+		this.idTablesFolder = idTablesFolder;
+	}
 	
 
 }
@@ -4,6 +4,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 
@@ -21,188 +22,194 @@ import crosby.binary.Osmformat.HeaderBlock;
 import crosby.binary.Osmformat.Info;
 import crosby.binary.Osmformat.Relation.MemberType;
 import crosby.binary.file.BlockInputStream;
+import crosby.binary.file.FileBlock;
+import crosby.binary.file.FileBlockPosition;
+import crosby.binary.file.ParallelBlockInputStream;
+import crosby.binary.file.ParallelBlockInputStream.BlockDecoder;
 
 public class OsmBaseStoragePbf extends OsmBaseStorage {
 
-	public synchronized void parseOSMPbf(final InputStream stream, final IProgress progress, final boolean entityInfo) throws IOException {
-		BinaryParser parser = new BinaryParser() {
-			public void updateProgress(int count) {
-				progressEntity += count;
-				if (progress != null && progressEntity > moduleProgress && !progress.isIndeterminate()) {
-					try {
-						progressEntity = 0;
-						progress.remaining(stream.available());
-					} catch (IOException e) {
-						progress.startWork(-1);
-					}
-				}
-			}
+	private static class PbfBatch {
+		final List<EntityType> types = new ArrayList<>();
+		final List<Entity> entities = new ArrayList<>();
+		final List<EntityInfo> infos = new ArrayList<>();
 
-			public void registerEntity(EntityType type, Entity e, EntityInfo info) {
-				EntityId entityId = new EntityId(type, e.getId());
-				if (acceptEntityToLoad(entityId, e)) {
-					Entity oldEntity = entities.put(entityId, e);
-					if (info != null) {
-						OsmBaseStoragePbf.this.entityInfo.put(entityId, info);
-					}
-					if (!supressWarnings && oldEntity != null) {
-						throw new UnsupportedOperationException("Entity with id=" + oldEntity.getId() + " is duplicated in osm map"); //$NON-NLS-1$ //$NON-NLS-2$
-					}
-				}
-			}
+		void add(EntityType type, Entity e, EntityInfo info) {
+			types.add(type);
+			entities.add(e);
+			infos.add(info);
+		}
+	}
 
-			@Override
-			protected void parse(HeaderBlock header) {
-			}
+	// decodes one block into batch of entities, string table and offsets are per block so every block has own decoder
+	private static class PbfBlockDecoder extends BinaryParser {
+		private final boolean entityInfo;
+		private final DateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'"); //$NON-NLS-1$
+		private PbfBatch batch = new PbfBatch();
+
+		PbfBlockDecoder(boolean entityInfo) {
+			this.entityInfo = entityInfo;
+		}
 
-			private DateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'"); //$NON-NLS-1$
+		PbfBatch takeBatch() {
+			PbfBatch res = batch;
+			batch = new PbfBatch();
+			return res;
+		}
 
-			@Override
-			protected void parseDense(DenseNodes n) {
-				EntityInfo info = null;
-				long changeset = 0;
-				long timestamp = 0;
-				int uid = 0;
-				int user = 0;
-				long id = 0;
-				long lat = 0;
-				long lon = 0;
-				int keyInd = 0;
-				boolean tagsEmpty = n.getKeysValsCount() == 0;
-				for (int i = 0; i < n.getIdCount(); i++) {
-					id += n.getId(i);
-					lat += n.getLat(i);
-					lon += n.getLon(i);
-					Node node = new Node(parseLat(lat), parseLon(lon), id);
-
-					if (entityInfo && n.getDenseinfo() != null) {
-						info = new EntityInfo();
-						changeset += n.getDenseinfo().getChangeset(i);
-						timestamp += n.getDenseinfo().getTimestamp(i);
-						uid += n.getDenseinfo().getUid(i);
-						user += n.getDenseinfo().getUserSid(i);
-						info.setChangeset(String.valueOf(changeset)); //$NON-NLS-1$
-						info.setTimestamp(format.format(new Date(date_granularity * (timestamp))));
-						info.setUser(getStringById(user));
-						info.setUid(String.valueOf(uid)); //$NON-NLS-1$
-						info.setVersion(String.valueOf(n.getDenseinfo().getVersion(i))); //$NON-NLS-1$
-						info.setVisible("true"); //$NON-NLS-1$
-					}
-					if (!tagsEmpty) {
-						while (n.getKeysVals(keyInd) != 0) {
-							String key = getStringById(n.getKeysVals(keyInd));
-							String val = getStringById(n.getKeysVals(keyInd + 1));
-							node.putTag(key, val);
-							keyInd += 2;
-						}
-						keyInd++;
+		@Override
+		protected void parse(HeaderBlock header) {
+		}
+
+		@Override
+		protected void parseDense(DenseNodes n) {
+			EntityInfo info = null;
+			long changeset = 0;
+			long timestamp = 0;
+			int uid = 0;
+			int user = 0;
+			long id = 0;
+			long lat = 0;
+			long lon = 0;
+			int keyInd = 0;
+			boolean tagsEmpty = n.getKeysValsCount() == 0;
+			for (int i = 0; i < n.getIdCount(); i++) {
+				id += n.getId(i);
+				lat += n.getLat(i);
+				lon += n.getLon(i);
+				Node node = new Node(parseLat(lat), parseLon(lon), id);
+
+				if (entityInfo && n.getDenseinfo() != null) {
+					info = new EntityInfo();
+					changeset += n.getDenseinfo().getChangeset(i);
+					timestamp += n.getDenseinfo().getTimestamp(i);
+					uid += n.getDenseinfo().getUid(i);
+					user += n.getDenseinfo().getUserSid(i);
+					info.setChangeset(String.valueOf(changeset)); //$NON-NLS-1$
+					info.setTimestamp(format.format(new Date(date_granularity * (timestamp))));
+					info.setUser(getStringById(user));
+					info.setUid(String.valueOf(uid)); //$NON-NLS-1$
+					info.setVersion(String.valueOf(n.getDenseinfo().getVersion(i))); //$NON-NLS-1$
+					info.setVisible("true"); //$NON-NLS-1$
+				}
+				if (!tagsEmpty) {
+					while (n.getKeysVals(keyInd) != 0) {
+						String key = getStringById(n.getKeysVals(keyInd));
+						String val = getStringById(n.getKeysVals(keyInd + 1));
+						node.putTag(key, val);
+						keyInd += 2;
 					}
-					registerEntity(EntityType.NODE, node, info);
+					keyInd++;
 				}
-				updateProgress(n.getIdCount());
+				batch.add(EntityType.NODE, node, info);
 			}
+		}
 
-			protected EntityInfo parseEntityInfo(Info i) {
-				EntityInfo info = new EntityInfo();
-				info.setChangeset(String.valueOf(i.getChangeset())); //$NON-NLS-1$
-				info.setTimestamp(format.format(getDate(i)));
-				info.setUser(getStringById(i.getUserSid()));
-				info.setUid(String.valueOf(i.getUid())); //$NON-NLS-1$
-				info.setVersion(String.valueOf(i.getVersion())); //$NON-NLS-1$
-				info.setVisible("true"); //$NON-NLS-1$
-				return info;
-			}
+		protected EntityInfo parseEntityInfo(Info i) {
+			EntityInfo info = new EntityInfo();
+			info.setChangeset(String.valueOf(i.getChangeset())); //$NON-NLS-1$
+			info.setTimestamp(format.format(getDate(i)));
+			info.setUser(getStringById(i.getUserSid()));
+			info.setUid(String.valueOf(i.getUid())); //$NON-NLS-1$
+			info.setVersion(String.valueOf(i.getVersion())); //$NON-NLS-1$
+			info.setVisible("true"); //$NON-NLS-1$
+			return info;
+		}
 
-			@Override
-			protected void parseNodes(List<crosby.binary.Osmformat.Node> n) {
-				EntityInfo info = null;
-				int nsize = n.size();
-				for (int i = 0; i < nsize; i++) {
-					crosby.binary.Osmformat.Node nod = n.get(i);
-					Node e = new Node(parseLat(nod.getLat()), parseLon(nod.getLon()), nod.getId());
-					for (int j = 0; j < nod.getKeysCount(); j++) {
-						String key = getStringById(nod.getKeys(j));
-						String val = getStringById(nod.getVals(j));
-						e.putTag(key, val);
-					}
-					if (entityInfo) {
-						info = parseEntityInfo(nod.getInfo());
-					}
-					registerEntity(EntityType.NODE, e, info);
+		@Override
+		protected void parseNodes(List<crosby.binary.Osmformat.Node> n) {
+			EntityInfo info = null;
+			int nsize = n.size();
+			for (int i = 0; i < nsize; i++) {
+				crosby.binary.Osmformat.Node nod = n.get(i);
+				Node e = new Node(parseLat(nod.getLat()), parseLon(nod.getLon()), nod.getId());
+				for (int j = 0; j < nod.getKeysCount(); j++) {
+					String key = getStringById(nod.getKeys(j));
+					String val = getStringById(nod.getVals(j));
+					e.putTag(key, val);
+				}
+				if (entityInfo) {
+					info = parseEntityInfo(nod.getInfo());
 				}
-				updateProgress(nsize);
+				batch.add(EntityType.NODE, e, info);
 			}
+		}
 
-			@Override
-			protected void parseRelations(List<crosby.binary.Osmformat.Relation> r) {
-				EntityInfo info = null;
-				int rsize = r.size();
-				for (int i = 0; i < rsize; i++) {
-					crosby.binary.Osmformat.Relation rel = r.get(i);
-					Relation e = new Relation(rel.getId());
-					long id = 0;
-					for (int j = 0; j < rel.getMemidsCount(); j++) {
-						id += rel.getMemids(j);
-						String role = getStringById(rel.getRolesSid(j));
-						MemberType t = rel.getTypes(j);
-						EntityType ts = EntityType.NODE;
-						switch (t) {
-						case NODE:
-							ts = EntityType.NODE;
-							break;
-						case WAY:
-							ts = EntityType.WAY;
-							break;
-						case RELATION:
-							ts = EntityType.RELATION;
-							break;
-						}
-						e.addMember(id, ts, role);
-					}
-					for (int j = 0; j < rel.getKeysCount(); j++) {
-						String key = getStringById(rel.getKeys(j));
-						String val = getStringById(rel.getVals(j));
-						e.putTag(key, val);
-					}
-					if (entityInfo) {
-						info = parseEntityInfo(rel.getInfo());
+		@Override
+		protected void parseRelations(List<crosby.binary.Osmformat.Relation> r) {
+			EntityInfo info = null;
+			int rsize = r.size();
+			for (int i = 0; i < rsize; i++) {
+				crosby.binary.Osmformat.Relation rel = r.get(i);
+				Relation e = new Relation(rel.getId());
+				long id = 0;
+				for (int j = 0; j < rel.getMemidsCount(); j++) {
+					id += rel.getMemids(j);
+					String role = getStringById(rel.getRolesSid(j));
+					MemberType t = rel.getTypes(j);
+					EntityType ts = EntityType.NODE;
+					switch (t) {
+					case NODE:
+						ts = EntityType.NODE;
+						break;
+					case WAY:
+						ts = EntityType.WAY;
+						break;
+					case RELATION:
+						ts = EntityType.RELATION;
+						break;
 					}
-					registerEntity(EntityType.RELATION, e, info);
+					e.addMember(id, ts, role);
+				}
+				for (int j = 0; j < rel.getKeysCount(); j++) {
+					String key = getStringById(rel.getKeys(j));
+					String val = getStringById(rel.getVals(j));
+					e.putTag(key, val);
+				}
+				if (entityInfo) {
+					info = parseEntityInfo(rel.getInfo());
 				}
-				updateProgress(rsize);
+				batch.add(EntityType.RELATION, e, info);
 			}
+		}
 
-			@Override
-			protected void parseWays(List<crosby.binary.Osmformat.Way> w) {
-				EntityInfo info = null;
-				int wsize = w.size();
-				for (int i = 0; i < wsize; i++) {
-					crosby.binary.Osmformat.Way way = w.get(i);
-					Way e = new Way(way.getId());
-					long id = 0;
-					for (int j = 0; j < way.getRefsCount(); j++) {
-						id += way.getRefs(j);
-						e.addNode(id);
-					}
-					for (int j = 0; j < way.getKeysCount(); j++) {
-						String key = getStringById(way.getKeys(j));
-						String val = getStringById(way.getVals(j));
-						e.putTag(key, val);
-					}
-					if (entityInfo) {
-						info = parseEntityInfo(way.getInfo());
-					}
-					registerEntity(EntityType.WAY, e, info);
+		@Override
+		protected void parseWays(List<crosby.binary.Osmformat.Way> w) {
+			EntityInfo info = null;
+			int wsize = w.size();
+			for (int i = 0; i < wsize; i++) {
+				crosby.binary.Osmformat.Way way = w.get(i);
+				Way e = new Way(way.getId());
+				long id = 0;
+				for (int j = 0; j < way.getRefsCount(); j++) {
+					id += way.getRefs(j);
+					e.addNode(id);
+				}
+				for (int j = 0; j < way.getKeysCount(); j++) {
+					String key = getStringById(way.getKeys(j));
+					String val = getStringById(way.getVals(j));
+					e.putTag(key, val);
 				}
-				updateProgress(wsize);
+				if (entityInfo) {
+					info = parseEntityInfo(way.getInfo());
+				}
+				batch.add(EntityType.WAY, e, info);
 			}
+		}
 
-			@Override
-			public void complete() {
-			}
 
-		};
+		@Override
+		public void complete() {
+		}
+	}
+
+	private int parseThreads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
 
+	public void setParseThreads(int parseThreads) {
+		this.parseThreads = parseThreads;
+	}
+
+	public synchronized void parseOSMPbf(final InputStream stream, final IProgress progress, final boolean entityInfo) throws IOException {
 		this.progressEntity = 0;
 		this.entities.clear();
 		this.entityInfo.clear();
@@ -210,12 +217,70 @@ public class OsmBaseStoragePbf extends OsmBaseStorage {
 			progress.startWork(stream.available());
 		}
 
-		BlockInputStream bis = new BlockInputStream(stream, parser);
-		bis.process();
+		if (parseThreads <= 1) {
+			BlockInputStream bis = new BlockInputStream(stream, new PbfBlockDecoder(entityInfo) {
+				@Override
+				public void handleBlock(FileBlock message) {
+					super.handleBlock(message);
+					registerBatch(stream, progress, takeBatch());
+				}
+			});
+			bis.process();
+		} else {
+			// blocks are decoded in parallel, entities are registered on this thread in file order
+			final PbfBlockDecoder blockTypes = new PbfBlockDecoder(entityInfo);
+			ParallelBlockInputStream<PbfBatch> pbis = new ParallelBlockInputStream<>(stream, parseThreads);
+			pbis.process(new BlockDecoder<PbfBatch>() {
+				@Override
+				public boolean skipBlock(FileBlockPosition message) {
+					return blockTypes.skipBlock(message);
+				}
+
+				@Override
+				public PbfBatch decode(FileBlock message) {
+					PbfBlockDecoder decoder = new PbfBlockDecoder(entityInfo);
+					decoder.handleBlock(message);
+					return decoder.takeBatch();
+				}
+			}, batch -> registerBatch(stream, progress, batch));
+		}
 
 		if(progress != null){
 			progress.finishTask();
 		}
 		completeReading();
 	}
+
+	private void registerBatch(InputStream stream, IProgress progress, PbfBatch batch) {
+		int size = batch.entities.size();
+		for (int i = 0; i < size; i++) {
+			registerEntity(batch.types.get(i), batch.entities.get(i), batch.infos.get(i));
+		}
+		updateProgress(stream, progress, size);
+	}
+
+	private void updateProgress(InputStream stream, IProgress progress, int count) {
+		progressEntity += count;
+		if (progress != null && progressEntity > moduleProgress && !progress.isIndeterminate()) {
+			try {
+				progressEntity = 0;
+				progress.remaining(stream.available());
+			} catch (IOException e) {
+				progress.startWork(-1);
+			}
+		}
+	}
+
+	private void registerEntity(EntityType type, Entity e, EntityInfo info) {
+		EntityId entityId = new EntityId(type, e.getId());
+		if (acceptEntityToLoad(entityId, e)) {
+			Entity oldEntity = entities.put(entityId, e);
+			if (info != null) {
+				this.entityInfo.put(entityId, info);
+			}
+			if (!supressWarnings && oldEntity != null) {
+				throw new UnsupportedOperationException("Entity with id=" + oldEntity.getId() + " is duplicated in osm map"); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+		}
+	}
 }
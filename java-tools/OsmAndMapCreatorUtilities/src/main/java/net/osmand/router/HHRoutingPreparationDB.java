@@ -608,7 +608,7 @@ public class HHRoutingPreparationDB extends HHRoutingDB {
 		ps.executeBatch();
 	}
 
-	public int prepareBorderPointsToInsert(int fileId, List<RouteSegmentBorderPoint> borderPoints, TLongObjectHashMap<NetworkBorderPoint> pointDbInd) {
+	public synchronized int prepareBorderPointsToInsert(int fileId, List<RouteSegmentBorderPoint> borderPoints, TLongObjectHashMap<NetworkBorderPoint> pointDbInd) {
 		int clusterIndex = ++maxClusterID;
 		for (RouteSegmentBorderPoint obj : borderPoints) {
 			if (!pointDbInd.containsKey(obj.unidirId)) {
@@ -783,7 +783,7 @@ public class HHRoutingPreparationDB extends HHRoutingDB {
 			}
 		}
 
-		public int getPoints() {
+		public synchronized int getPoints() {
 			return points < 0 ? visitedVertices.size() : points;
 		}
 
@@ -793,14 +793,14 @@ public class HHRoutingPreparationDB extends HHRoutingDB {
 			return QuadRect.intersects(qr, nrouteRegion.rect);
 		}
 
-		public void unload() {
+		public synchronized void unload() {
 			if (this.visitedVertices != null && this.visitedVertices.size() > 100000) {
 				this.points = this.visitedVertices.size();
 				this.visitedVertices = null;
 			}
 		}
 
-		public TLongIntHashMap loadVisitedVertices(HHRoutingPreparationDB networkDB) throws SQLException {
+		public synchronized TLongIntHashMap loadVisitedVertices(HHRoutingPreparationDB networkDB) throws SQLException {
 			if (points >= 0) {
 				if (visitedVertices != null && visitedVertices.size() > 0) {
 					throw new IllegalStateException();
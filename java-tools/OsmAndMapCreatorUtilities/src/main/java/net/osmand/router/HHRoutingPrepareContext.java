@@ -28,12 +28,16 @@ public class HHRoutingPrepareContext {
 	static final int ROUTING_MEMORY_LIMIT = 3000;
 	static int MEMORY_RELOAD_TIMEOUT_SECONDS = 120;
 	static int MEMORY_RELOAD_MB = 1000; //
-	static long MEMEORY_LAST_RELOAD = System.currentTimeMillis();
-	static long MEMORY_LAST_USED_MB;
+
+	// context is shared by worker threads, reload bookkeeping is guarded by this
+	private long memoryLastReload = System.currentTimeMillis();
+	private long memoryLastUsedMB;
+	private int memoryReloadTimeoutSeconds = MEMORY_RELOAD_TIMEOUT_SECONDS;
 
 	private String ROUTING_PROFILE = "car";
 	private Map<String, String> PROFILE_SETTINGS = new TreeMap<>();
 	private List<File> FILE_SOURCES = new ArrayList<File>();
+	private int memoryLimit = ROUTING_MEMORY_LIMIT;
 
 	public static final Map<String, String> ambiguousConditionalTags = Map.of(
 			"oneway:conditional", "no",
@@ -78,38 +82,51 @@ public class HHRoutingPrepareContext {
 	
 	RoutingContext gcMemoryLimitToUnloadAll(RoutingContext ctx, List<NetworkRouteRegion> subRegions,
 			boolean force) throws IOException {
-		long usedMemory = (Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory()) >> 20;
-		if (force || ((usedMemory - MEMORY_LAST_USED_MB) > MEMORY_RELOAD_MB
-				&& (System.currentTimeMillis() - MEMEORY_LAST_RELOAD) > MEMORY_RELOAD_TIMEOUT_SECONDS * 1000)) {
-			long nt = System.nanoTime();
+		long usedMemory, ntusedMemory;
+		long nt = System.nanoTime();
+		synchronized (this) {
+			usedMemory = getUsedMemoryMB();
+			if (!force && ((usedMemory - memoryLastUsedMB) <= MEMORY_RELOAD_MB
+					|| (System.currentTimeMillis() - memoryLastReload) <= memoryReloadTimeoutSeconds * 1000L)) {
+				return ctx;
+			}
 			System.gc();
-			long ntusedMemory = (Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory()) >> 20;
-			if (!force && (ntusedMemory - MEMORY_LAST_USED_MB) < MEMORY_RELOAD_MB) {
+			ntusedMemory = getUsedMemoryMB();
+			if (!force && (ntusedMemory - memoryLastUsedMB) < MEMORY_RELOAD_MB) {
 				return ctx;
 			}
-			Set<File> fls = null;
-			if (subRegions != null) {
-				fls = new LinkedHashSet<>();
-				for (NetworkRouteRegion r : subRegions) {
-					fls.add(r.file);
-				}
+			// other workers don't start reload while this one is reloading
+			memoryLastReload = System.currentTimeMillis();
+		}
+		Set<File> fls = null;
+		if (subRegions != null) {
+			fls = new LinkedHashSet<>();
+			for (NetworkRouteRegion r : subRegions) {
+				fls.add(r.file);
 			}
-			ctx = prepareContext(fls, ctx);
-			ctx.calculationProgress = new RouteCalculationProgress();
-			System.gc();
-			MEMORY_LAST_USED_MB = (Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory()) >> 20;
-			MEMEORY_LAST_RELOAD = System.currentTimeMillis();
-			double reloadTimeSeconds = (System.nanoTime() - nt) / 1e9;
-			logf("***** Reload memory used before %d MB -> GC %d MB -> reload ctx %d MB (%.1f s) *****\n", usedMemory,
-					ntusedMemory, MEMORY_LAST_USED_MB, reloadTimeSeconds);
-			if (reloadTimeSeconds * 8 > MEMORY_RELOAD_TIMEOUT_SECONDS) {
-				MEMORY_RELOAD_TIMEOUT_SECONDS = (int) (reloadTimeSeconds * 16);
-				logf("New reload memory time %d seconds", MEMORY_RELOAD_TIMEOUT_SECONDS);
+		}
+		ctx = prepareContext(fls, ctx);
+		ctx.calculationProgress = new RouteCalculationProgress();
+		System.gc();
+		long reloadedMemory = getUsedMemoryMB();
+		double reloadTimeSeconds = (System.nanoTime() - nt) / 1e9;
+		logf("***** Reload memory used before %d MB -> GC %d MB -> reload ctx %d MB (%.1f s) *****\n", usedMemory,
+				ntusedMemory, reloadedMemory, reloadTimeSeconds);
+		synchronized (this) {
+			memoryLastUsedMB = reloadedMemory;
+			memoryLastReload = System.currentTimeMillis();
+			if (reloadTimeSeconds * 8 > memoryReloadTimeoutSeconds) {
+				memoryReloadTimeoutSeconds = (int) (reloadTimeSeconds * 16);
+				logf("New reload memory time %d seconds", memoryReloadTimeoutSeconds);
 			}
 		}
 		return ctx;
 	}
 
+	private static long getUsedMemoryMB() {
+		return (Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory()) >> 20;
+	}
+
 	RoutingContext prepareContext(Collection<File> fileSources, RoutingContext oldCtx) throws IOException {
 		List<BinaryMapIndexReader> readers = initReaders(fileSources);
 		if (oldCtx != null) {
@@ -125,10 +142,14 @@ public class HHRoutingPrepareContext {
 
 
 
+	public void setMemoryLimit(int memoryLimit) {
+		this.memoryLimit = memoryLimit;
+	}
+
 	public RoutingConfiguration getRoutingConfig() {
 		Builder builder = RoutingConfiguration.parseDefault();
-		RoutingMemoryLimits memoryLimit = new RoutingMemoryLimits(ROUTING_MEMORY_LIMIT, ROUTING_MEMORY_LIMIT);
-		RoutingConfiguration config = builder.build(ROUTING_PROFILE, memoryLimit, PROFILE_SETTINGS);
+		RoutingMemoryLimits memoryLimits = new RoutingMemoryLimits(memoryLimit, memoryLimit);
+		RoutingConfiguration config = builder.build(ROUTING_PROFILE, memoryLimits, PROFILE_SETTINGS);
 		config.planRoadDirection = 1;
 		config.heuristicCoefficient = 0; // dijkstra
 		config.ambiguousConditionalTags = ambiguousConditionalTags; // resolveAmbiguousConditionalTags
@@ -14,10 +14,13 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
@@ -294,11 +297,77 @@ public class HHRoutingShortcutCreator {
 
 	}
 
+	private static class BuildNetworkShortcutWriter implements Callable<BuildNetworkShortcutWriter> {
+
+		static final BuildNetworkShortcutResult FINISH = new BuildNetworkShortcutResult();
+
+		private final HHRoutingPreparationDB networkDB;
+		private final int routingProfile;
+		private final BlockingQueue<BuildNetworkShortcutResult> queue;
+		private final TLongObjectHashMap<Entity> osmObjects;
+		private final double sz;
+
+		int ind = 1, prevPrintInd = 0;
+		int maxDirectedPointsGraph = 0;
+		int maxFinalSegmentsFound = 0;
+		int totalFinalSegmentsFound = 0;
+		int totalVisitedDirectSegments = 0;
+
+		public BuildNetworkShortcutWriter(HHRoutingPreparationDB networkDB, int routingProfile,
+				BlockingQueue<BuildNetworkShortcutResult> queue, TLongObjectHashMap<Entity> osmObjects, double sz) {
+			this.networkDB = networkDB;
+			this.routingProfile = routingProfile;
+			this.queue = queue;
+			this.osmObjects = osmObjects;
+			this.sz = sz;
+		}
+
+		@Override
+		public BuildNetworkShortcutWriter call() throws Exception {
+			BuildNetworkShortcutResult res;
+			while ((res = queue.take()) != FINISH) {
+				long nt = System.nanoTime();
+				List<NetworkDBSegment> segments = new ArrayList<>();
+				for (int k = 0; k < res.points.size(); k++) {
+					NetworkDBPoint rpnt = res.points.get(k);
+					RouteCalculationProgress calculationProgress = res.progress.get(k);
+					ind++;
+					if (DEBUG_VERBOSE_LEVEL >= 1 || ind - prevPrintInd > 200) {
+						prevPrintInd = ind;
+						logf("%.2f%% Process %d (%d shortcuts) - %.1f ms", ind / sz, rpnt.roadId / 64,
+								res.shortcuts.get(k), rpnt.rt(false).rtDistanceFromStart);
+					}
+					segments.addAll(rpnt.connected);
+					if (DEBUG_VERBOSE_LEVEL >= 2) {
+						System.out.println(calculationProgress.getInfo(null));
+					}
+
+					maxDirectedPointsGraph = Math.max(maxDirectedPointsGraph,
+							calculationProgress.visitedDirectSegments);
+					totalVisitedDirectSegments += calculationProgress.visitedDirectSegments;
+					maxFinalSegmentsFound = Math.max(maxFinalSegmentsFound,
+							calculationProgress.finalSegmentsFound);
+					totalFinalSegmentsFound += calculationProgress.finalSegmentsFound;
+				}
+				networkDB.insertSegments(segments, routingProfile);
+				for (NetworkDBPoint rpnt : res.points) {
+					// clean up for gc
+					rpnt.connected.clear();
+					rpnt.connectedReverse.clear();
+				}
+				osmObjects.putAll(res.osmObjects);
+				logf("Task id %d saved %d shortcuts in %.1f ms - %d tasks waiting for db", res.taskId,
+						segments.size(), (System.nanoTime() - nt) / 1e6, queue.size());
+			}
+			return this;
+		}
+	}
+
 	private Collection<Entity> buildNetworkShortcuts(TLongObjectHashMap<NetworkDBPoint> pnts, HHRoutingPreparationDB networkDB, int routingProfile)
 			throws InterruptedException, IOException, SQLException, ExecutionException {
 		TLongObjectHashMap<Entity> osmObjects = new TLongObjectHashMap<>();
 		double sz = pnts.size() / 100.0;
-		int ind = 0, prevPrintInd = 0;
+		int ind = 0;
 		TLongObjectHashMap<RouteSegment> segments = new TLongObjectHashMap<>();
 		for (NetworkDBPoint pnt : pnts.valueCollection()) {
 			RouteSegment s = new RouteSegment(null, pnt.start, pnt.end);
@@ -306,8 +375,6 @@ public class HHRoutingShortcutCreator {
 			HHRoutingUtilities.addNode(osmObjects, pnt, null, "highway", "stop");
 		}
 
-		ExecutorService service = Executors.newFixedThreadPool(THREAD_POOL);
-		List<Future<BuildNetworkShortcutResult>> results = new ArrayList<>();
 		List<NetworkDBPoint> batch = new ArrayList<>();
 		int taskId = 0;
 		int total = 0;
@@ -329,93 +396,86 @@ public class HHRoutingShortcutCreator {
 				return Integer.compare(o1.index, o2.index);
 			}
 		});
-		for (NetworkDBPoint pnt : lst) {
-			ind++;
-			if (pnt.connectedReverse.size() > 0) {
-				pnt.connectedReverse.clear();
-			}
-			if (pnt.connected.size() > 0) {
-				pnt.connected.clear(); // for gc
-				continue;
-			}
-			if (ind < DEBUG_LIMIT_START_OFFSET) {
-				continue;
-			}
-			batch.add(pnt);
-			if (ind > DEBUG_LIMIT_PROCESS && DEBUG_LIMIT_PROCESS != -1) {
-				break;
-			}
-			if (batch.size() == batchSize) {
-				results.add(service.submit(new BuildNetworkShortcutTask(this, batch, segments, networkPointsByGeoId, taskId++)));
-				total += batch.size();
-				batch = new ArrayList<>();
-			}
-		}
-		System.gc();
-		total += batch.size();
-		results.add(service.submit(new BuildNetworkShortcutTask(this, batch, segments, networkPointsByGeoId, taskId++)));
-		logf("Scheduled %d tasks, %d total points", taskId, total);
-		int maxDirectedPointsGraph = 0;
-		int maxFinalSegmentsFound = 0;
-		int totalFinalSegmentsFound = 0;
-		int totalVisitedDirectSegments = 0;
-		ind = 1;
-		service.shutdown();
+		ExecutorService service = Executors.newFixedThreadPool(THREAD_POOL);
+		CompletionService<BuildNetworkShortcutResult> completion = new ExecutorCompletionService<>(service);
+		// results are written by single thread, calculation is blocked while db writer is behind
+		BlockingQueue<BuildNetworkShortcutResult> writeQueue = new ArrayBlockingQueue<>(THREAD_POOL);
+		ExecutorService writerService = Executors.newSingleThreadExecutor();
+		Future<BuildNetworkShortcutWriter> writerFuture = writerService.submit(
+				new BuildNetworkShortcutWriter(networkDB, routingProfile, writeQueue, osmObjects, sz));
+		int maxTasksInProgress = THREAD_POOL * 2;
+		int tasksInProgress = 0;
 		try {
-			while (!results.isEmpty()) {
-				Thread.sleep(5000);
-				Iterator<Future<BuildNetworkShortcutResult>> it = results.iterator();
-				while (it.hasNext()) {
-					Future<BuildNetworkShortcutResult> future = it.next();
-					if (future.isDone()) {
-						BuildNetworkShortcutResult res = future.get();
-						for (int k = 0; k < res.points.size(); k++) {
-							NetworkDBPoint rpnt = res.points.get(k);
-							RouteCalculationProgress calculationProgress = res.progress.get(k);
-							ind++;
-							if (DEBUG_VERBOSE_LEVEL >= 1 || ind - prevPrintInd > 200) {
-								prevPrintInd = ind;
-								logf("%.2f%% Process %d (%d shortcuts) - %.1f ms", ind / sz, rpnt.roadId / 64,
-										res.shortcuts.get(k), rpnt.rt(false).rtDistanceFromStart);
-							}
-							networkDB.insertSegments(rpnt.connected, routingProfile);
-							if (DEBUG_VERBOSE_LEVEL >= 2) {
-								System.out.println(calculationProgress.getInfo(null));
-							}
-
-							maxDirectedPointsGraph = Math.max(maxDirectedPointsGraph,
-									calculationProgress.visitedDirectSegments);
-							totalVisitedDirectSegments += calculationProgress.visitedDirectSegments;
-							maxFinalSegmentsFound = Math.max(maxFinalSegmentsFound,
-									calculationProgress.finalSegmentsFound);
-							totalFinalSegmentsFound += calculationProgress.finalSegmentsFound;
-
-							// clean up for gc
-							rpnt.connected.clear();
-							rpnt.connectedReverse.clear();
-						}
-						osmObjects.putAll(res.osmObjects);
-						it.remove();
-						logf("Task id %d executed %.1f seconds - %d (of %d) waiting completion", res.taskId,
-								res.totalTime, results.size(), taskId);
+			for (NetworkDBPoint pnt : lst) {
+				ind++;
+				if (pnt.connectedReverse.size() > 0) {
+					pnt.connectedReverse.clear();
+				}
+				if (pnt.connected.size() > 0) {
+					pnt.connected.clear(); // for gc
+					continue;
+				}
+				if (ind < DEBUG_LIMIT_START_OFFSET) {
+					continue;
+				}
+				batch.add(pnt);
+				if (ind > DEBUG_LIMIT_PROCESS && DEBUG_LIMIT_PROCESS != -1) {
+					break;
+				}
+				if (batch.size() == batchSize) {
+					completion.submit(new BuildNetworkShortcutTask(this, batch, segments, networkPointsByGeoId, taskId++));
+					tasksInProgress++;
+					total += batch.size();
+					batch = new ArrayList<>();
+					if (tasksInProgress >= maxTasksInProgress) {
+						writeResult(completion.take().get(), --tasksInProgress, writeQueue, writerFuture);
 					}
 				}
 			}
+			total += batch.size();
+			completion.submit(new BuildNetworkShortcutTask(this, batch, segments, networkPointsByGeoId, taskId++));
+			tasksInProgress++;
+			logf("Scheduled %d tasks, %d total points", taskId, total);
+			System.gc();
+			while (tasksInProgress > 0) {
+				writeResult(completion.take().get(), --tasksInProgress, writeQueue, writerFuture);
+			}
+			writeResult(BuildNetworkShortcutWriter.FINISH, 0, writeQueue, writerFuture);
+			BuildNetworkShortcutWriter writer = writerFuture.get();
+			ind = writer.ind;
+			System.out.println(String.format(
+					"Total segments %d: %d total shorcuts, per border point max %d, average %d shortcuts (routing sub graph max %d, avg %d segments)",
+					segments.size(), writer.totalFinalSegmentsFound, writer.maxFinalSegmentsFound,
+					writer.totalFinalSegmentsFound / ind, writer.maxDirectedPointsGraph,
+					writer.totalVisitedDirectSegments / ind));
 		} finally {
 			List<Runnable> runnable = service.shutdownNow();
-			if (!results.isEmpty()) {
+			if (tasksInProgress > 0) {
 				logf("!!! %d runnable were not executed: exception occurred", runnable == null ? 0 : runnable.size());
 			}
+			writerService.shutdownNow();
 			service.awaitTermination(5, TimeUnit.MINUTES);
+			writerService.awaitTermination(5, TimeUnit.MINUTES);
 		}
-
-		System.out.println(String.format(
-				"Total segments %d: %d total shorcuts, per border point max %d, average %d shortcuts (routing sub graph max %d, avg %d segments)",
-				segments.size(), totalFinalSegmentsFound, maxFinalSegmentsFound, totalFinalSegmentsFound / ind,
-				maxDirectedPointsGraph, totalVisitedDirectSegments / ind));
 		return osmObjects.valueCollection();
 	}
 
+	private void writeResult(BuildNetworkShortcutResult res, int tasksInProgress,
+			BlockingQueue<BuildNetworkShortcutResult> writeQueue, Future<BuildNetworkShortcutWriter> writerFuture)
+			throws InterruptedException, ExecutionException {
+		if (res != BuildNetworkShortcutWriter.FINISH) {
+			logf("Task id %d calculated %d points in %.1f seconds (%.1f ms per point) - %d tasks in progress, %d tasks waiting for db",
+					res.taskId, res.points.size(), res.totalTime, res.totalTime * 1000 / Math.max(1, res.points.size()),
+					tasksInProgress, writeQueue.size());
+		}
+		while (!writeQueue.offer(res, 1, TimeUnit.SECONDS)) {
+			if (writerFuture.isDone()) {
+				writerFuture.get();
+				throw new IllegalStateException("Shortcuts writer stopped unexpectedly");
+			}
+		}
+	}
+
 	private List<RouteSegment> runDijsktra(RoutingContext ctx, BinaryRoutePlanner routePlanner, RouteSegmentPoint s, TLongObjectMap<RouteSegment> segments)
 			throws InterruptedException, IOException {
 		long pnt = calculateRoutePointInternalId(s.getRoad().getId(), s.getSegmentEnd(), s.getSegmentStart());
@@ -19,14 +19,28 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.PriorityQueue;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import javax.xml.stream.XMLStreamException;
 
@@ -36,6 +50,7 @@ import gnu.trove.iterator.TIntIntIterator;
 import gnu.trove.map.hash.TIntIntHashMap;
 import gnu.trove.map.hash.TLongIntHashMap;
 import gnu.trove.map.hash.TLongObjectHashMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
 import net.osmand.PlatformUtil;
 import net.osmand.ResultMatcher;
 import net.osmand.binary.BinaryMapIndexReader;
@@ -133,6 +148,7 @@ public class HHRoutingSubGraphCreator {
 	static boolean CLEAN = false;
 	static String ROUTING_PROFILE = "car";
 	static String ROUTING_PARAMS = "allow_private";
+	static int THREAD_POOL = 1; // regions far from each other are processed in parallel
 	
 	private static File testData() {
 		DEBUG_VERBOSE_LEVEL = 1;
@@ -162,6 +178,8 @@ public class HHRoutingSubGraphCreator {
 				ALG_BY_DEPTH_REACH_POINTS = true;
 			} else if (a.equals("--network_by_limits")) {
 				ALG_BY_DEPTH_REACH_POINTS = false;
+			} else if (a.startsWith("--threads=")) {
+				THREAD_POOL = Integer.parseInt(a.substring("--threads=".length()));
 			} else if (a.equals("--clean")) {
 				CLEAN = true;
 			} else if (a.equals("--merge")) {
@@ -271,62 +289,20 @@ public class HHRoutingSubGraphCreator {
 			}
 		});
 		ctx.networkDB.insertRegions(ctx.routeRegions);
-		int procInd = 0;
-		for (NetworkRouteRegion nrouteRegion : ctx.routeRegions) {
-			System.out.println("------------------------");
-			procInd++;
-			logf("Region bbox %s %d of %d (l,t - r,b): %.5f, %.5f x %.5f, %.5f", nrouteRegion.region.getName(), procInd, ctx.routeRegions.size(),
-					nrouteRegion.rect.left, nrouteRegion.rect.top, nrouteRegion.rect.right, nrouteRegion.rect.bottom);
-			if (ctx.networkDB.hasVisitedPoints(nrouteRegion)) {
-				System.out.println("Already processed");
-				continue;
-			}
-			if (nrouteRegion.region.getLeftLongitude() > nrouteRegion.region.getRightLongitude()) {
-				if (nrouteRegion.region.getLength() < 1000) {
-					System.out.printf("Skip region  %s - %d bytes\n", nrouteRegion.region.getName(),
-							nrouteRegion.region.getLength());
+		if (THREAD_POOL > 1) {
+			collectNetworkPointsParallel(ctx);
+		} else {
+			int procInd = 0;
+			for (NetworkRouteRegion nrouteRegion : ctx.routeRegions) {
+				System.out.println("------------------------");
+				procInd++;
+				if (skipRegion(ctx, nrouteRegion, procInd)) {
 					continue;
 				}
-				throw new IllegalStateException();
-			}
-
-			double overlapBbox = OVERLAP_FOR_ROUTING;
-			boolean notProcessed = true;
-			while (notProcessed) {
-				ctx.startRegionProcess(nrouteRegion, overlapBbox);
-				RouteRegion routeRegion = null;
-				for (RouteRegion rr : ctx.rctx.reverseMap.keySet()) {
-					if (rr.getFilePointer() == nrouteRegion.region.getFilePointer()
-							&& nrouteRegion.region.getName().equals(rr.getName())) {
-						routeRegion = rr;
-						break;
-					}
-				}
-				BinaryMapIndexReader reader = ctx.rctx.reverseMap.get(routeRegion);
-				logf("Region %s %d of %d %s", nrouteRegion.region.getName(), procInd, ctx.routeRegions.size(),
-						new Date().toString());
-
-				List<RouteSubregion> regions = reader.searchRouteIndexTree(
-						BinaryMapIndexReader.buildSearchRequest(
-								MapUtils.get31TileNumberX(nrouteRegion.region.getLeftLongitude()),
-								MapUtils.get31TileNumberX(nrouteRegion.region.getRightLongitude()),
-								MapUtils.get31TileNumberY(nrouteRegion.region.getTopLatitude()),
-								MapUtils.get31TileNumberY(nrouteRegion.region.getBottomLatitude()), 16, null),
-						routeRegion.getSubregions());
-
-				final long estimatedRoads = 1 + routeRegion.getLength() / 150; // 5 000 / 1 MB - 1 per 200 Byte
-				RouteDataObjectProcessor proc = new RouteDataObjectProcessor(ctx, estimatedRoads);
-				reader.loadRouteIndexData(regions, proc);
-				boolean ok = ctx.finishRegionProcess(overlapBbox);
-				if (!ok) {
+				double overlapBbox = OVERLAP_FOR_ROUTING;
+				while (!processRegion(ctx, nrouteRegion, procInd, overlapBbox)) {
 					overlapBbox *= 2;
-					// clean up for reprocessing
-					ctx.networkDB.cleanupRegionForReprocessing(nrouteRegion, ctx.networkPointToDbInd, ctx.longRoads);
-					
-				} else {
-					notProcessed = false;
 				}
-				ctx.printStatsNetworks();
 			}
 		}
 		if (ctx.longRoads.size() > 0) {
@@ -336,6 +312,144 @@ public class HHRoutingSubGraphCreator {
 		return ctx;
 	}
 
+	private boolean skipRegion(NetworkCollectPointCtx ctx, NetworkRouteRegion nrouteRegion, int procInd) throws SQLException {
+		logf("Region bbox %s %d of %d (l,t - r,b): %.5f, %.5f x %.5f, %.5f", nrouteRegion.region.getName(), procInd, ctx.routeRegions.size(),
+				nrouteRegion.rect.left, nrouteRegion.rect.top, nrouteRegion.rect.right, nrouteRegion.rect.bottom);
+		if (ctx.networkDB.hasVisitedPoints(nrouteRegion)) {
+			System.out.println("Already processed");
+			return true;
+		}
+		if (nrouteRegion.region.getLeftLongitude() > nrouteRegion.region.getRightLongitude()) {
+			if (nrouteRegion.region.getLength() < 1000) {
+				System.out.printf("Skip region  %s - %d bytes\n", nrouteRegion.region.getName(),
+						nrouteRegion.region.getLength());
+				return true;
+			}
+			throw new IllegalStateException();
+		}
+		return false;
+	}
+
+	private boolean processRegion(NetworkCollectPointCtx ctx, NetworkRouteRegion nrouteRegion, int procInd,
+			double overlapBbox) throws IOException, SQLException {
+		ctx.startRegionProcess(nrouteRegion, overlapBbox);
+		RouteRegion routeRegion = null;
+		for (RouteRegion rr : ctx.rctx.reverseMap.keySet()) {
+			if (rr.getFilePointer() == nrouteRegion.region.getFilePointer()
+					&& nrouteRegion.region.getName().equals(rr.getName())) {
+				routeRegion = rr;
+				break;
+			}
+		}
+		BinaryMapIndexReader reader = ctx.rctx.reverseMap.get(routeRegion);
+		logf("Region %s %d of %d %s", nrouteRegion.region.getName(), procInd, ctx.routeRegions.size(),
+				new Date().toString());
+
+		List<RouteSubregion> regions = reader.searchRouteIndexTree(
+				BinaryMapIndexReader.buildSearchRequest(
+						MapUtils.get31TileNumberX(nrouteRegion.region.getLeftLongitude()),
+						MapUtils.get31TileNumberX(nrouteRegion.region.getRightLongitude()),
+						MapUtils.get31TileNumberY(nrouteRegion.region.getTopLatitude()),
+						MapUtils.get31TileNumberY(nrouteRegion.region.getBottomLatitude()), 16, null),
+				routeRegion.getSubregions());
+
+		final long estimatedRoads = 1 + routeRegion.getLength() / 150; // 5 000 / 1 MB - 1 per 200 Byte
+		RouteDataObjectProcessor proc = new RouteDataObjectProcessor(ctx, estimatedRoads);
+		reader.loadRouteIndexData(regions, proc);
+		boolean ok = ctx.finishRegionProcess(overlapBbox);
+		if (!ok) {
+			// clean up for reprocessing
+			ctx.networkDB.cleanupRegionForReprocessing(nrouteRegion, ctx.regionPoints, ctx.regionLongRoads);
+		}
+		ctx.printStatsNetworks();
+		return ok;
+	}
+
+	private void collectNetworkPointsParallel(NetworkCollectPointCtx ctx) throws IOException, SQLException {
+		List<NetworkRouteRegion> queue = new ArrayList<>();
+		Map<NetworkRouteRegion, Double> overlaps = new HashMap<>();
+		TObjectIntHashMap<NetworkRouteRegion> order = new TObjectIntHashMap<>();
+		int procInd = 0;
+		for (NetworkRouteRegion nrouteRegion : ctx.routeRegions) {
+			procInd++;
+			if (!skipRegion(ctx, nrouteRegion, procInd)) {
+				queue.add(nrouteRegion);
+				overlaps.put(nrouteRegion, OVERLAP_FOR_ROUTING);
+				order.put(nrouteRegion, procInd);
+			}
+		}
+		logf("Process %d regions using %d threads", queue.size(), THREAD_POOL);
+		ctx.prepareContext.setMemoryLimit(HHRoutingPrepareContext.ROUTING_MEMORY_LIMIT / THREAD_POOL);
+		ctx.dbWriter = Executors.newSingleThreadExecutor();
+		ExecutorService service = Executors.newFixedThreadPool(THREAD_POOL);
+		try {
+			BlockingQueue<NetworkCollectPointCtx> workers = new ArrayBlockingQueue<>(THREAD_POOL);
+			for (int i = 0; i < THREAD_POOL; i++) {
+				workers.add(new NetworkCollectPointCtx(ctx));
+			}
+			CompletionService<Boolean> completion = new ExecutorCompletionService<>(service);
+			Map<Future<Boolean>, NetworkRouteRegion> running = new HashMap<>();
+			while (!queue.isEmpty() || !running.isEmpty()) {
+				// region could start only when all previous regions and running regions are far enough
+				for (int i = 0; i < queue.size() && running.size() < THREAD_POOL; i++) {
+					NetworkRouteRegion nrouteRegion = queue.get(i);
+					double overlapBbox = overlaps.get(nrouteRegion);
+					if (intersectsAny(nrouteRegion, overlapBbox, queue.subList(0, i), overlaps)
+							|| intersectsAny(nrouteRegion, overlapBbox, running.values(), overlaps)) {
+						continue;
+					}
+					queue.remove(i--);
+					ctx.runningRegions.add(nrouteRegion);
+					int ind = order.get(nrouteRegion);
+					Future<Boolean> f = completion.submit(() -> {
+						NetworkCollectPointCtx worker = workers.take();
+						try {
+							return processRegion(worker, nrouteRegion, ind, overlapBbox);
+						} finally {
+							workers.add(worker);
+						}
+					});
+					running.put(f, nrouteRegion);
+				}
+				Future<Boolean> f = completion.take();
+				NetworkRouteRegion nrouteRegion = running.remove(f);
+				ctx.runningRegions.remove(nrouteRegion);
+				if (!f.get()) {
+					overlaps.put(nrouteRegion, overlaps.get(nrouteRegion) * 2);
+					int pos = 0;
+					while (pos < queue.size() && order.get(queue.get(pos)) < order.get(nrouteRegion)) {
+						pos++;
+					}
+					queue.add(pos, nrouteRegion);
+				}
+			}
+		} catch (InterruptedException e) {
+			throw new IllegalStateException(e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof SQLException) {
+				throw (SQLException) e.getCause();
+			} else if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IllegalStateException(e.getCause());
+		} finally {
+			service.shutdownNow();
+			ctx.dbWriter.shutdown();
+			ctx.dbWriter = null;
+		}
+	}
+
+	private boolean intersectsAny(NetworkRouteRegion nrouteRegion, double overlapBbox,
+			Collection<NetworkRouteRegion> regions, Map<NetworkRouteRegion, Double> overlaps) {
+		// vertices visited by both regions should not intersect including routing overlap
+		for (NetworkRouteRegion r : regions) {
+			if (r.intersects(nrouteRegion, overlapBbox + overlaps.get(r))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
 	private void processLongRoads(NetworkCollectPointCtx ctx) throws IOException, SQLException {
 		int size = ctx.longRoads.size();
 		if (size == 0) {
@@ -1142,7 +1256,7 @@ public class HHRoutingSubGraphCreator {
 		int shortcuts = 0;
 		
 
-		public void printStatsNetworks(long totalPoints, int clusterSize) {
+		public synchronized void printStatsNetworks(long totalPoints, int clusterSize) {
 			int borderPointsSize = borderPntsCluster.size();
 			TIntIntHashMap borderClusterDistr = new TIntIntHashMap();
 			for (int a : this.borderPntsCluster.values()) {
@@ -1161,7 +1275,7 @@ public class HHRoutingSubGraphCreator {
 		}
 
 
-		public void addCluster(NetworkIsland cluster) {
+		public synchronized void addCluster(NetworkIsland cluster) {
 			for (long k : cluster.toVisitVertices.keys()) {
 				borderPntsCluster.adjustOrPutValue(k, 1, 1);
 			}
@@ -1202,9 +1316,15 @@ public class HHRoutingSubGraphCreator {
 		
 		List<NetworkLongRoad> longRoads = new ArrayList<>();
 		TLongObjectHashMap<NetworkBorderPoint> networkPointToDbInd = new TLongObjectHashMap<>();
+		ReadWriteLock networkPointsLock = new ReentrantReadWriteLock();
 		List<NetworkRouteRegion> validateIntersectionRegions = new ArrayList<>();
+		List<TLongIntHashMap> validateVisitedVertices = new ArrayList<>();
+		Set<NetworkRouteRegion> runningRegions = ConcurrentHashMap.newKeySet();
+		ExecutorService dbWriter;
 		
-		
+		// points and long roads of processing region, they are merged to global on finish
+		TLongObjectHashMap<NetworkBorderPoint> regionPoints = new TLongObjectHashMap<>();
+		List<NetworkLongRoad> regionLongRoads = new ArrayList<>();
 
 		public NetworkCollectPointCtx(HHRoutingPrepareContext prepareContext, HHRoutingPreparationDB networkDB) throws IOException {
 			this.prepareContext = prepareContext;
@@ -1212,6 +1332,37 @@ public class HHRoutingSubGraphCreator {
 			this.networkDB = networkDB;
 		}
 
+		// worker context with own routing context which shares global points and db writer
+		public NetworkCollectPointCtx(NetworkCollectPointCtx shared) throws IOException {
+			this(shared.prepareContext, shared.networkDB);
+			this.stats = shared.stats;
+			this.routeRegions = shared.routeRegions;
+			this.visualClusters = shared.visualClusters;
+			this.longRoads = shared.longRoads;
+			this.networkPointToDbInd = shared.networkPointToDbInd;
+			this.networkPointsLock = shared.networkPointsLock;
+			this.runningRegions = shared.runningRegions;
+			this.dbWriter = shared.dbWriter;
+		}
+
+		<T> T runDB(Callable<T> task) throws SQLException {
+			try {
+				if (dbWriter == null) {
+					return task.call();
+				}
+				return dbWriter.submit(task).get();
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof SQLException) {
+					throw (SQLException) e.getCause();
+				}
+				throw new IllegalStateException(e.getCause());
+			} catch (SQLException | RuntimeException e) {
+				throw e;
+			} catch (Exception e) {
+				throw new IllegalStateException(e);
+			}
+		}
+
 		public long getTotalPoints() {
 			long totalPoints = 0;
 			for (NetworkRouteRegion r : routeRegions) {
@@ -1221,24 +1372,26 @@ public class HHRoutingSubGraphCreator {
 		}
 
 		public int borderPointsSize() {
-			return networkPointToDbInd.size();
+			networkPointsLock.readLock().lock();
+			try {
+				return networkPointToDbInd.size() + regionPoints.size();
+			} finally {
+				networkPointsLock.readLock().unlock();
+			}
 		}
 		
 		public String globalVisitedMessage(long k) {
-			NetworkRouteRegion r = null;
 			if (currentProcessingRegion != null && currentProcessingRegion.visitedVertices.containsKey(k)) {
-				r = currentProcessingRegion;
-			} else {
-				for (NetworkRouteRegion n : validateIntersectionRegions) {
-					if (n.visitedVertices.containsKey(k)) {
-						r = n;
-						break;
-					}
+				return String.format("%s region %d cluster", currentProcessingRegion.getName(),
+						currentProcessingRegion.visitedVertices.get(k));
+			}
+			for (int i = 0; i < validateIntersectionRegions.size(); i++) {
+				TLongIntHashMap visited = validateVisitedVertices.get(i);
+				if (visited.containsKey(k)) {
+					return String.format("%s region %d cluster", validateIntersectionRegions.get(i).getName(),
+							visited.get(k));
 				}
 			}
-			if (r != null) {
-				return String.format("%s region %d cluster", r.getName(), r.visitedVertices.get(k));
-			}
 			return "";
 		}
 		
@@ -1246,8 +1399,8 @@ public class HHRoutingSubGraphCreator {
 			if (currentProcessingRegion != null && currentProcessingRegion.visitedVertices.containsKey(k)) {
 				return true;
 			}
-			for (NetworkRouteRegion n : validateIntersectionRegions) {
-				if (n.visitedVertices.containsKey(k)) {
+			for (TLongIntHashMap visited : validateVisitedVertices) {
+				if (visited.containsKey(k)) {
 					return true;
 				}
 			}
@@ -1256,10 +1409,13 @@ public class HHRoutingSubGraphCreator {
 
 		public void startRegionProcess(NetworkRouteRegion nrouteRegion, double overlapBbox) throws IOException, SQLException {
 			currentProcessingRegion = nrouteRegion;
-			currentProcessingRegion.visitedVertices = new TLongIntHashMap();
-			currentProcessingRegion.calcRect = null;
-			currentProcessingRegion.points = -1;
+			synchronized (nrouteRegion) {
+				nrouteRegion.visitedVertices = new TLongIntHashMap();
+				nrouteRegion.calcRect = null;
+				nrouteRegion.points = -1;
+			}
 			validateIntersectionRegions = new ArrayList<>();
+			validateVisitedVertices = new ArrayList<>();
 			allVerticesCache = new TLongObjectHashMap<>();
 			List<NetworkRouteRegion> regionsForRouting = new ArrayList<>();
 			for (NetworkRouteRegion nr : routeRegions) {
@@ -1268,12 +1424,13 @@ public class HHRoutingSubGraphCreator {
 				}
 				if (nr.intersects(nrouteRegion, OVERLAP_FOR_VISITED)) {
 					logf("Intersects with %s %s.", nr.getName(), nr.rect.toString());
-					nr.loadVisitedVertices(networkDB);
+					// keep own reference as region could be unloaded by other worker
+					validateVisitedVertices.add(runDB(() -> nr.loadVisitedVertices(networkDB)));
 					validateIntersectionRegions.add(nr);
 					regionsForRouting.add(nr);
 				} else if (nr.intersects(nrouteRegion, overlapBbox)) {
 					regionsForRouting.add(nr);
-				} else {
+				} else if (!runningRegions.contains(nr)) {
 					nr.unload();
 				}
 			}
@@ -1287,7 +1444,7 @@ public class HHRoutingSubGraphCreator {
 
 		public void addCluster(NetworkIsland cluster) {
 			cluster.dbIndex = networkDB.prepareBorderPointsToInsert(currentProcessingRegion == null ? 0 : currentProcessingRegion.id, 
-					cluster.borderVertices, networkPointToDbInd);
+					cluster.borderVertices, regionPoints);
 			lastClusterInd = cluster.dbIndex;
 			stats.addCluster(cluster);
 			if (cluster.visitedVertices.size() > TOTAL_MAX_POINTS * 1.5) {
@@ -1306,7 +1463,9 @@ public class HHRoutingSubGraphCreator {
 			}
 				
 			if (DEBUG_STORE_ALL_ROADS > 0) {
-				visualClusters.add(cluster);
+				synchronized (visualClusters) {
+					visualClusters.add(cluster);
+				}
 				// preserve cluster.borderVertices
 				if (DEBUG_STORE_ALL_ROADS <= 2) {
 					long[] keys = cluster.visitedVertices.keys();
@@ -1351,25 +1510,26 @@ public class HHRoutingSubGraphCreator {
 				}
 				currentProcessingRegion.rect = n;
 			}
-			int ins = 0, tl = 0;
-			for (NetworkBorderPoint npnt : networkPointToDbInd.valueCollection()) {
+			int ins = 0;
+			for (NetworkBorderPoint npnt : regionPoints.valueCollection()) {
 				if (npnt.positiveObj != null) {
-					if (!npnt.positiveObj.inserted) {
-						ins++;
-					}
-					tl++;
+					ins++;
 				}
 				if (npnt.negativeObj != null) {
-					if (!npnt.negativeObj.inserted) {
-						ins++;
-					}
-					tl++;
+					ins++;
 				}
 			}
 			logf("Saving visited %,d points (%,d border points) from %s to db...", currentProcessingRegion.getPoints(), ins,
 					currentProcessingRegion.getName());
-			networkDB.insertProcessedRegion(currentProcessingRegion, networkPointToDbInd, longRoads);
-			logf("     saved - total %,d points (%,d border points), ", getTotalPoints(), tl);
+			NetworkRouteRegion region = currentProcessingRegion;
+			runDB(() -> {
+				TLongObjectHashMap<NetworkBorderPoint> borderPoints = mergeRegionPoints();
+				longRoads.addAll(regionLongRoads);
+				networkDB.insertProcessedRegion(region, borderPoints, longRoads);
+				return null;
+			});
+			regionLongRoads = new ArrayList<>();
+			logf("     saved - total %,d points (%,d border points), ", getTotalPoints(), borderPointsSize());
 			
 			currentProcessingRegion.unload();
 			currentProcessingRegion = null;
@@ -1377,11 +1537,43 @@ public class HHRoutingSubGraphCreator {
 
 		}
 		
+		private TLongObjectHashMap<NetworkBorderPoint> mergeRegionPoints() {
+			TLongObjectHashMap<NetworkBorderPoint> merged = new TLongObjectHashMap<>();
+			networkPointsLock.writeLock().lock();
+			try {
+				for (NetworkBorderPoint npnt : regionPoints.valueCollection()) {
+					NetworkBorderPoint existing = networkPointToDbInd.get(npnt.unidirId);
+					if (existing == null) {
+						networkPointToDbInd.put(npnt.unidirId, npnt);
+						existing = npnt;
+					} else {
+						// other direction of the point belongs to previously processed region
+						if (npnt.positiveObj != null) {
+							existing.set(npnt.unidirId, npnt.positiveObj);
+						}
+						if (npnt.negativeObj != null) {
+							existing.set(npnt.unidirId, npnt.negativeObj);
+						}
+					}
+					merged.put(npnt.unidirId, existing);
+				}
+			} finally {
+				networkPointsLock.writeLock().unlock();
+			}
+			regionPoints = new TLongObjectHashMap<>();
+			return merged;
+		}
+		
 		public boolean testIfNetworkPoint(long pntId) {
-			if (networkPointToDbInd.contains(pntId)) {
+			if (regionPoints.contains(pntId)) {
 				return true;
 			}
-			return false;
+			networkPointsLock.readLock().lock();
+			try {
+				return networkPointToDbInd.contains(pntId);
+			} finally {
+				networkPointsLock.readLock().unlock();
+			}
 		}
 
 		
@@ -1419,14 +1611,14 @@ public class HHRoutingSubGraphCreator {
 						String msg = String.format("Skip long road to process later %s (length %d) %d <-> %d - %.1f", 
 								object, object.getPointsLength(), pos, pos + 1, dst / 1000);
 						System.out.println(msg);
-						ctx.longRoads.add(new NetworkLongRoad(object.getId(), pos, object.pointsX, object.pointsY));
+						ctx.regionLongRoads.add(new NetworkLongRoad(object.getId(), pos, object.pointsX, object.pointsY));
 						return false;
 					}
 				}
 				for (int pos = 0; pos < object.getPointsLength() - 1; pos++) {
 					RouteSegmentPoint pntAround = new RouteSegmentPoint(object, pos, 0);
 					long mainPoint = calcUniDirRoutePointInternalId(pntAround);
-					if (ctx.testGlobalVisited(mainPoint) || ctx.networkPointToDbInd.containsKey(mainPoint)) {
+					if (ctx.testGlobalVisited(mainPoint) || ctx.testIfNetworkPoint(mainPoint)) {
 						// already existing cluster
 						continue;
 					}
@@ -12,11 +12,18 @@ import java.util.List;
 import java.util.PriorityQueue;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.commons.logging.Log;
 
+import gnu.trove.list.array.TIntArrayList;
 import gnu.trove.map.hash.TIntIntHashMap;
 import gnu.trove.map.hash.TLongObjectHashMap;
+import gnu.trove.set.hash.TIntHashSet;
 import net.osmand.PlatformUtil;
 import net.osmand.router.HHRouteDataStructure.HHRoutingConfig;
 import net.osmand.router.HHRouteDataStructure.HHRoutingContext;
@@ -40,17 +47,23 @@ public class HHRoutingTopGraphCreator {
 	static int LOG_STAT_THRESHOLD = 10;
 	static int LOG_STAT_MAX_DEPTH = 30;
 	static int PROCESS = PROC_CH;
+	// > 1 contracts independent sets of points in parallel, every thread keeps own copy of the graph
+	static int THREAD_POOL = 1;
+	static int CH_ROUND_POINTS_PER_THREAD = 256;
 
 	static long DEBUG_START_TIME = 0;
 	
 	private HHRoutingPreparationDB networkDB;
 	private HHRoutePlanner<NetworkDBPointPrep> routePlanner;
+	private String routingProfile;
 //	private RoutingStats routingStats;
 //	private HHRoutingContext hctx;
 	
-	public HHRoutingTopGraphCreator(HHRoutePlanner<NetworkDBPointPrep> routePlanner, HHRoutingPreparationDB networkDB) throws SQLException {
+	public HHRoutingTopGraphCreator(HHRoutePlanner<NetworkDBPointPrep> routePlanner, HHRoutingPreparationDB networkDB,
+			String routingProfile) throws SQLException {
 		this.routePlanner = routePlanner;
 		this.networkDB = networkDB;
+		this.routingProfile = routingProfile;
 	}
 	
 	
@@ -93,6 +106,8 @@ public class HHRoutingTopGraphCreator {
 				PERCENT_CH = Integer.parseInt(a.substring("--percent=".length()));
 			} else if (a.startsWith("--maxdepth=")) {
 				MAX_DEPTH = Integer.parseInt(a.substring("--maxdepth=".length()));
+			} else if (a.startsWith("--threads=")) {
+				THREAD_POOL = Integer.parseInt(a.substring("--threads=".length()));
 			}
 		}
 		File folder = obfFile.isDirectory() ? obfFile : obfFile.getParentFile();
@@ -101,11 +116,13 @@ public class HHRoutingTopGraphCreator {
 		HHRoutingPreparationDB networkDB = new HHRoutingPreparationDB(new File(folder, name + HHRoutingDB.EXT));
 		HHRoutePlanner<NetworkDBPointPrep> routePlanner = HHRoutePlanner.createDB(
 				HHRoutePlanner.prepareContext(ROUTING_PROFILE), networkDB, NetworkDBPointPrep.class);
-		HHRoutingTopGraphCreator planner = new HHRoutingTopGraphCreator(routePlanner, networkDB);
+		HHRoutingTopGraphCreator planner = new HHRoutingTopGraphCreator(routePlanner, networkDB, ROUTING_PROFILE);
 		
 		if (PROCESS == PROC_MIDPOINTS) {
 			planner.calculateMidPoints(MAX_DEPTH, MAX_ITERATIONS);
-		} else if (PROCESS == PROC_CH) { 
+		} else if (PROCESS == PROC_CH && THREAD_POOL > 1) {
+			planner.runParallelContractionHierarchy(MAX_DEPTH, PERCENT_CH / 100.0);
+		} else if (PROCESS == PROC_CH) {
 			planner.runContractionHierarchy(MAX_DEPTH, PERCENT_CH / 100.0);
 		}
 		planner.networkDB.close();
@@ -308,7 +325,7 @@ public class HHRoutingTopGraphCreator {
 			if (++prog % 1000 == 0) {
 				logf("Preparing %d...", prog);
 			}
-			calculateCHEdgeDiff(hctx, p, null);
+			calculateCHEdgeDiff(routePlanner, hctx, p, null);
 			pq.add(p);
 			if (!edgeDiffMap.containsKey(p.chIndexEdgeDiff)) {
 				edgeDiffMap.put(p.chIndexEdgeDiff, 0);
@@ -339,33 +356,14 @@ public class HHRoutingTopGraphCreator {
 			NetworkDBPointPrep pnt = pq.poll();
 			int oldIndex = pnt.chIndexEdgeDiff;
 			shortcuts.clear();
-			calculateCHEdgeDiff(hctx, pnt, shortcuts);
+			calculateCHEdgeDiff(routePlanner, hctx, pnt, shortcuts);
 			if (oldIndex < pnt.chIndexEdgeDiff) {
 				pq.add(pnt);
 				reindex++;
 				continue;
 			}
 			for (NetworkDBSegment sh : shortcuts) {
-				NetworkDBSegment dup = sh.start.getSegment(sh.end, true);
-				if (dup != null) {
-					if (dup.dist < sh.dist) {
-						// skip shortcut (not needed) - not enough depth for Dijkstra
-						continue;
-					} else {
-						if (!dup.shortcut) {
-							// possible situation due triangle inequality not guaranteed  
-						} else {
-							allShortcuts.remove(dup);
-							sh.start.connected.remove(dup);
-							sh.end.connectedReverse.remove(sh.end.getSegment(sh.start, false));
-						}
-					}
-				}
-				allShortcuts.add(sh);
-				sh.start.connected.add(sh);
-				NetworkDBSegment rev = new NetworkDBSegment(sh.start, sh.end, sh.dist, !sh.direction, sh.shortcut);
-				rev.getGeometry().addAll(sh.getGeometry());
-				sh.end.connectedReverse.add(rev);
+				addShortcut(sh, allShortcuts);
 			}
 			pnt.chFinalInd = contracted++;
 			pnt.rtExclude = true;
@@ -384,6 +382,252 @@ public class HHRoutingTopGraphCreator {
 	}
 
 
+	private static void addShortcut(NetworkDBSegment sh, List<NetworkDBSegment> allShortcuts) {
+		NetworkDBSegment dup = sh.start.getSegment(sh.end, true);
+		if (dup != null) {
+			if (dup.dist < sh.dist) {
+				// skip shortcut (not needed) - not enough depth for Dijkstra
+				return;
+			} else {
+				if (!dup.shortcut) {
+					// possible situation due triangle inequality not guaranteed  
+				} else {
+					if (allShortcuts != null) {
+						allShortcuts.remove(dup);
+					}
+					sh.start.connected.remove(dup);
+					sh.end.connectedReverse.remove(sh.end.getSegment(sh.start, false));
+				}
+			}
+		}
+		if (allShortcuts != null) {
+			allShortcuts.add(sh);
+		}
+		sh.start.connected.add(sh);
+		NetworkDBSegment rev = new NetworkDBSegment(sh.start, sh.end, sh.dist, !sh.direction, sh.shortcut);
+		rev.getGeometry().addAll(sh.getGeometry());
+		sh.end.connectedReverse.add(rev);
+	}
+
+	private static NetworkDBSegmentPrep copyShortcut(NetworkDBSegment sh, TLongObjectHashMap<NetworkDBPointPrep> pointsById) {
+		NetworkDBSegmentPrep c = new NetworkDBSegmentPrep(pointsById.get(sh.start.index), pointsById.get(sh.end.index),
+				sh.dist, sh.direction, sh.shortcut);
+		c.segmentsStartEnd.addAll(((NetworkDBSegmentPrep) sh).segmentsStartEnd);
+		c.getGeometry().addAll(sh.getGeometry());
+		return c;
+	}
+
+	private static class ContractionWorker {
+		final HHRoutePlanner<NetworkDBPointPrep> planner;
+		final HHRoutingContext<NetworkDBPointPrep> hctx;
+
+		ContractionWorker(HHRoutePlanner<NetworkDBPointPrep> planner, HHRoutingContext<NetworkDBPointPrep> hctx) {
+			this.planner = planner;
+			this.hctx = hctx;
+		}
+	}
+
+	private static class ContractionResult {
+		int edgeDiff;
+		int cnt;
+		// segments of the worker graph
+		List<NetworkDBSegment> shortcuts;
+	}
+
+	private void runParallelContractionHierarchy(int maxPoints, double percent) throws SQLException, IOException {
+		long time = System.nanoTime(), startTime = System.nanoTime();
+		HHRoutingContext<NetworkDBPointPrep> hctx = routePlanner.initHCtx(
+				HHRoutingConfig.dijkstra(1).maxSettlePoints(maxPoints).preloadSegments(), null, null);
+		// master graph is only modified, witness searches run on the copies of the graph
+		List<ContractionWorker> workers = new ArrayList<>();
+		for (int i = 0; i < THREAD_POOL; i++) {
+			HHRoutePlanner<NetworkDBPointPrep> planner = HHRoutePlanner.createDB(
+					HHRoutePlanner.prepareContext(routingProfile), networkDB, NetworkDBPointPrep.class);
+			HHRoutingConfig config = HHRoutingConfig.dijkstra(1).maxSettlePoints(maxPoints).preloadSegments();
+			workers.add(new ContractionWorker(planner, planner.initHCtx(config, null, null)));
+		}
+		List<NetworkDBPointPrep> list = new ArrayList<>(hctx.pointsById.valueCollection());
+		System.out.printf(" %,d - %.2fms, %d threads\nContracting nodes..\n", hctx.stats.loadEdgesCnt,
+				(System.nanoTime() - time) / 1e6, THREAD_POOL);
+		calculateAndPrintVertexDegree(list);
+
+		time = System.nanoTime();
+		ExecutorService service = Executors.newFixedThreadPool(THREAD_POOL);
+		try {
+			calculateCHEdgeDiffParallel(service, workers, list, false);
+			PriorityQueue<NetworkDBPointPrep> pq = new PriorityQueue<>(new Comparator<NetworkDBPointPrep>() {
+
+				@Override
+				public int compare(NetworkDBPointPrep o1, NetworkDBPointPrep o2) {
+					return Integer.compare(o1.chIndexEdgeDiff, o2.chIndexEdgeDiff);
+				}
+			});
+			pq.addAll(list);
+			logf("Prepared %d points - %.2f ms", list.size(), (System.nanoTime() - time) / 1e6);
+
+			int reindex = 0;
+			int contracted = 0;
+			int rounds = 0;
+			List<NetworkDBSegment> allShortcuts = new ArrayList<>();
+			double toContract = list.size() * percent;
+			while (!pq.isEmpty() && contracted <= toContract) {
+				long timeR = System.nanoTime();
+				int maxRound = Math.min(THREAD_POOL * CH_ROUND_POINTS_PER_THREAD, (int) (toContract - contracted) + 1);
+				List<NetworkDBPointPrep> round = pollIndependentPoints(pq, maxRound);
+				ContractionResult[] res = calculateCHEdgeDiffParallel(service, workers, round, true);
+				List<NetworkDBPointPrep> roundContracted = new ArrayList<>();
+				List<NetworkDBSegment> roundShortcuts = new ArrayList<>();
+				for (int i = 0; i < round.size(); i++) {
+					NetworkDBPointPrep pnt = round.get(i);
+					int oldIndex = pnt.chIndexEdgeDiff;
+					pnt.chIndexEdgeDiff = res[i].edgeDiff;
+					pnt.chIndexCnt = res[i].cnt;
+					if (oldIndex < pnt.chIndexEdgeDiff) {
+						pq.add(pnt);
+						reindex++;
+						continue;
+					}
+					for (NetworkDBSegment sh : res[i].shortcuts) {
+						roundShortcuts.add(sh);
+						addShortcut(copyShortcut(sh, hctx.pointsById), allShortcuts);
+					}
+					roundContracted.add(pnt);
+					pnt.chFinalInd = contracted++;
+					pnt.rtExclude = true;
+				}
+				applyRound(service, workers, round, roundContracted, roundShortcuts);
+				rounds++;
+				double ms = (System.nanoTime() - timeR) / 1e6;
+				logf("Round %d: contracted %d of %d points - %.2f ms (%.0f points/s), total %d %.1f%% (reindexing %d, shortcuts %d)",
+						rounds, roundContracted.size(), round.size(), ms, roundContracted.size() * 1e3 / ms, contracted,
+						contracted / toContract * 100.0, reindex, allShortcuts.size());
+			}
+			networkDB.updatePointsCHInd(list);
+			networkDB.deleteShortcuts();
+			networkDB.insertSegments(allShortcuts, hctx.regions.get(0).routingProfile);
+			System.out.printf("Added %d shortcuts, reindexed %d in %d rounds\n", allShortcuts.size(), reindex, rounds);
+		} finally {
+			service.shutdownNow();
+		}
+		RoutingStats stats = new RoutingStats();
+		for (ContractionWorker w : workers) {
+			stats.visitedVertices += w.hctx.stats.visitedVertices;
+			stats.uniqueVisitedVertices += w.hctx.stats.uniqueVisitedVertices;
+			stats.addedVertices += w.hctx.stats.addedVertices;
+		}
+		printStat("Contraction ", stats, time, list.size());
+		System.out.printf("Contraction finished %.2f ms\n", (System.nanoTime() - startTime) / 1e6);
+	}
+
+	// points of the set are not connected and don't have common neighbors
+	private List<NetworkDBPointPrep> pollIndependentPoints(PriorityQueue<NetworkDBPointPrep> pq, int max) {
+		List<NetworkDBPointPrep> res = new ArrayList<>();
+		List<NetworkDBPointPrep> skipped = new ArrayList<>();
+		TIntHashSet touched = new TIntHashSet();
+		while (!pq.isEmpty() && res.size() < max && skipped.size() < max) {
+			NetworkDBPointPrep p = pq.poll();
+			TIntArrayList neighbors = new TIntArrayList();
+			neighbors.add(p.index);
+			for (NetworkDBSegment s : p.connected) {
+				if (!s.end.rtExclude) {
+					neighbors.add(s.end.index);
+				}
+			}
+			for (NetworkDBSegment s : p.connectedReverse) {
+				if (!s.start.rtExclude) {
+					neighbors.add(s.start.index);
+				}
+			}
+			boolean independent = true;
+			for (int i = 0; i < neighbors.size() && independent; i++) {
+				independent = !touched.contains(neighbors.get(i));
+			}
+			if (!independent) {
+				skipped.add(p);
+			} else {
+				res.add(p);
+				touched.addAll(neighbors);
+			}
+		}
+		pq.addAll(skipped);
+		return res;
+	}
+
+	// points are split between workers, excluded points are not used by witness searches
+	private ContractionResult[] calculateCHEdgeDiffParallel(ExecutorService service, List<ContractionWorker> workers,
+			List<NetworkDBPointPrep> points, boolean exclude) throws IOException {
+		ContractionResult[] res = new ContractionResult[points.size()];
+		List<Callable<Void>> tasks = new ArrayList<>();
+		for (int t = 0; t < workers.size(); t++) {
+			final int start = t;
+			final ContractionWorker w = workers.get(t);
+			tasks.add(() -> {
+				TLongObjectHashMap<NetworkDBPointPrep> pnts = w.hctx.pointsById;
+				if (exclude) {
+					for (NetworkDBPointPrep p : points) {
+						pnts.get(p.index).rtExclude = true;
+					}
+				}
+				for (int i = start; i < points.size(); i += workers.size()) {
+					NetworkDBPointPrep p = points.get(i);
+					NetworkDBPointPrep wp = pnts.get(p.index);
+					ContractionResult r = new ContractionResult();
+					r.shortcuts = exclude ? new ArrayList<>() : null;
+					calculateCHEdgeDiff(w.planner, w.hctx, wp, r.shortcuts);
+					wp.rtExclude = exclude;
+					r.edgeDiff = wp.chIndexEdgeDiff;
+					r.cnt = wp.chIndexCnt;
+					res[i] = r;
+					if (!exclude) {
+						p.chIndexEdgeDiff = r.edgeDiff;
+						p.chIndexCnt = r.cnt;
+					}
+				}
+				return null;
+			});
+		}
+		invokeAll(service, tasks);
+		return res;
+	}
+
+	// applies contraction of the round to the graphs of the workers
+	private void applyRound(ExecutorService service, List<ContractionWorker> workers, List<NetworkDBPointPrep> round,
+			List<NetworkDBPointPrep> contracted, List<NetworkDBSegment> shortcuts) throws IOException {
+		List<Callable<Void>> tasks = new ArrayList<>();
+		for (ContractionWorker w : workers) {
+			tasks.add(() -> {
+				TLongObjectHashMap<NetworkDBPointPrep> pnts = w.hctx.pointsById;
+				for (NetworkDBPointPrep p : round) {
+					pnts.get(p.index).rtExclude = false;
+				}
+				for (NetworkDBSegment sh : shortcuts) {
+					addShortcut(copyShortcut(sh, pnts), null);
+				}
+				for (NetworkDBPointPrep p : contracted) {
+					pnts.get(p.index).rtExclude = true;
+				}
+				return null;
+			});
+		}
+		invokeAll(service, tasks);
+	}
+
+	private static void invokeAll(ExecutorService service, List<Callable<Void>> tasks) throws IOException {
+		try {
+			for (Future<Void> f : service.invokeAll(tasks)) {
+				f.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IllegalStateException(e.getCause());
+		}
+	}
+
 	private void calculateAndPrintVertexDegree(List<NetworkDBPointPrep> list) {
 		TIntIntHashMap degreeIn = new TIntIntHashMap();
 		TIntIntHashMap degreeOut = new TIntIntHashMap();
@@ -432,7 +676,8 @@ public class HHRoutingTopGraphCreator {
 	}
 
 
-	private void calculateCHEdgeDiff(HHRoutingContext<NetworkDBPointPrep> hctx, NetworkDBPointPrep p, List<NetworkDBSegment> shortcuts) throws SQLException, IOException {
+	private static void calculateCHEdgeDiff(HHRoutePlanner<NetworkDBPointPrep> routePlanner, HHRoutingContext<NetworkDBPointPrep> hctx,
+			NetworkDBPointPrep p, List<NetworkDBSegment> shortcuts) throws SQLException, IOException {
 		hctx.config.MAX_COST = 0;
 		for (NetworkDBSegment out : p.connected) {
 			hctx.config.MAX_COST = Math.max(out.dist, hctx.config.MAX_COST);
@@ -15,6 +15,7 @@ import java.text.MessageFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.Iterator;
@@ -26,6 +27,8 @@ import java.util.Map.Entry;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.logging.FileHandler;
 import java.util.logging.Level;
 import java.util.logging.LogManager;
@@ -79,6 +82,11 @@ public class IndexBatchCreator {
 	private static final int INMEM_LIMIT = 2000;
 	private static final long TIMEOUT_TO_CHECK_AWS = 15000;
 	private static final long TIMEOUT_TO_CHECK_DOCKER = 15000;
+	// rough footprint of local generation per MB of pbf input (xml inputs are counted as 2 times smaller)
+	private static final long LOCAL_HEAP_BASE_MB = 1024;
+	private static final int LOCAL_HEAP_PER_INPUT_MB = 3;
+	private static final int LOCAL_DISK_PER_INPUT_MB = 12;
+	private static final String LOCAL_SUMMARY_FILE = "local_generation_summary.csv";
 
 	protected static final Log log = PlatformUtil.getLog(IndexBatchCreator.class);
 
@@ -143,6 +151,14 @@ public class IndexBatchCreator {
 		public File file;
 		public String regionName;
 		public RegionSpecificData rdata;
+		// estimated footprint
+		public long memoryMB;
+		public long diskMB;
+		// summary
+		public long wallTime;
+		public volatile long peakHeapMB;
+		public long outputSize;
+		public boolean generated;
 	}
 
 
@@ -158,6 +174,11 @@ public class IndexBatchCreator {
 	
 
 	List<LocalPendingGeneration> localPendingGenerations = new ArrayList<>();
+	// local jobs running in parallel within memory / disk budgets (0 - max heap / usable space of work dir)
+	int localThreads = 1;
+	long localMemoryLimitMB = 0;
+	long localDiskLimitMB = 0;
+	private final List<LocalPendingGeneration> localRunning = new ArrayList<>();
 	List<ExternalJobDefinition> externalJobQueues = new ArrayList<>();
 	
 	
@@ -412,6 +433,16 @@ public class IndexBatchCreator {
 		}
 		renderingTypesFile = process.getAttribute("renderingTypesFile");
 
+		if (!Algorithms.isEmpty(process.getAttribute("localThreads"))) {
+			localThreads = Integer.parseInt(process.getAttribute("localThreads"));
+		}
+		if (!Algorithms.isEmpty(process.getAttribute("localMemoryLimitMB"))) {
+			localMemoryLimitMB = Long.parseLong(process.getAttribute("localMemoryLimitMB"));
+		}
+		if (!Algorithms.isEmpty(process.getAttribute("localDiskLimitMB"))) {
+			localDiskLimitMB = Long.parseLong(process.getAttribute("localDiskLimitMB"));
+		}
+
 		String osmDbDialect = process.getAttribute("osmDbDialect");
 		if(osmDbDialect != null && osmDbDialect.length() > 0){
 			try {
@@ -441,10 +472,7 @@ public class IndexBatchCreator {
 				waitDockerJobsToFinish(TIMEOUT_TO_CHECK_DOCKER * 2);
 			}
 		}).start();
-		log.info("Generate local " + localPendingGenerations.size() + " maps");
-		for (LocalPendingGeneration lp : localPendingGenerations) {
-			generateLocalIndex(lp.file, lp.regionName, lp.mapFileName, lp.rdata, alreadyGeneratedFiles);
-		}
+		generateLocalIndexes(alreadyGeneratedFiles);
 		waitAwsJobsToFinish(TIMEOUT_TO_CHECK_AWS);
 		waitDockerJobsToFinish(TIMEOUT_TO_CHECK_DOCKER);
 		log.info("GENERATING INDEXES FINISHED ");
@@ -457,6 +485,163 @@ public class IndexBatchCreator {
 	}
 
 
+	private void generateLocalIndexes(Set<String> alreadyGeneratedFiles) {
+		log.info("Generate local " + localPendingGenerations.size() + " maps with " + localThreads + " threads");
+		for (LocalPendingGeneration lp : localPendingGenerations) {
+			long inputMB = lp.file.length() >> 20;
+			if (!lp.file.getName().endsWith(".pbf")) {
+				inputMB /= 2;
+			}
+			lp.memoryMB = LOCAL_HEAP_BASE_MB + inputMB * LOCAL_HEAP_PER_INPUT_MB;
+			lp.diskMB = inputMB * LOCAL_DISK_PER_INPUT_MB;
+		}
+		Thread heapSampler = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				while (!Thread.currentThread().isInterrupted()) {
+					long used = (Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory()) >> 20;
+					synchronized (localRunning) {
+						for (LocalPendingGeneration lp : localRunning) {
+							lp.peakHeapMB = Math.max(lp.peakHeapMB, used);
+						}
+					}
+					try {
+						Thread.sleep(1000);
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+			}
+		}, "local-gen-heap");
+		heapSampler.setDaemon(true);
+		heapSampler.start();
+		try {
+			if (localThreads <= 1) {
+				for (LocalPendingGeneration lp : localPendingGenerations) {
+					runLocalGeneration(lp, alreadyGeneratedFiles);
+				}
+			} else {
+				generateLocalIndexesInParallel(Collections.synchronizedSet(alreadyGeneratedFiles));
+			}
+		} finally {
+			heapSampler.interrupt();
+		}
+		writeLocalSummary();
+	}
+
+	private void generateLocalIndexesInParallel(final Set<String> alreadyGeneratedFiles) {
+		long memoryLimit = localMemoryLimitMB > 0 ? localMemoryLimitMB : Runtime.getRuntime().maxMemory() >> 20;
+		long diskLimit = localDiskLimitMB > 0 ? localDiskLimitMB : workDir.getUsableSpace() >> 20;
+		List<LocalPendingGeneration> queue = new ArrayList<>(localPendingGenerations);
+		// larger regions first, smaller ones fill the rest of budgets
+		Collections.sort(queue, new Comparator<LocalPendingGeneration>() {
+			@Override
+			public int compare(LocalPendingGeneration o1, LocalPendingGeneration o2) {
+				return -Long.compare(o1.file.length(), o2.file.length());
+			}
+		});
+		// rtree cache is shared by all running jobs, so it is cleared once and every job releases own files
+		RTree.clearCache();
+		ExecutorService service = Executors.newFixedThreadPool(localThreads);
+		try {
+			synchronized (localRunning) {
+				while (!queue.isEmpty()) {
+					long memory = 0;
+					long disk = 0;
+					for (LocalPendingGeneration lp : localRunning) {
+						memory += lp.memoryMB;
+						disk += lp.diskMB;
+					}
+					LocalPendingGeneration next = null;
+					for (LocalPendingGeneration lp : queue) {
+						// job that doesn't fit into budgets runs alone
+						if (localRunning.isEmpty() || (localRunning.size() < localThreads
+								&& memory + lp.memoryMB <= memoryLimit && disk + lp.diskMB <= diskLimit)) {
+							next = lp;
+							break;
+						}
+					}
+					if (next == null) {
+						localRunning.wait();
+						continue;
+					}
+					queue.remove(next);
+					localRunning.add(next);
+					log.info(String.format("Start local generation %s (estimated %d MB heap, %d MB disk, %d running)",
+							next.file.getName(), next.memoryMB, next.diskMB, localRunning.size()));
+					final LocalPendingGeneration lp = next;
+					service.submit(new Runnable() {
+						@Override
+						public void run() {
+							try {
+								runLocalGeneration(lp, alreadyGeneratedFiles);
+							} finally {
+								synchronized (localRunning) {
+									localRunning.remove(lp);
+									localRunning.notifyAll();
+								}
+							}
+						}
+					});
+				}
+				while (!localRunning.isEmpty()) {
+					localRunning.wait();
+				}
+			}
+		} catch (InterruptedException e) {
+			log.error("Local generation is interrupted", e);
+			Thread.currentThread().interrupt();
+		} finally {
+			service.shutdown();
+		}
+	}
+
+	private void runLocalGeneration(LocalPendingGeneration lp, Set<String> alreadyGeneratedFiles) {
+		long start = System.currentTimeMillis();
+		if (localThreads <= 1) {
+			synchronized (localRunning) {
+				localRunning.add(lp);
+			}
+		}
+		try {
+			generateLocalIndex(lp.file, lp.regionName, lp.mapFileName, lp.rdata, alreadyGeneratedFiles);
+		} finally {
+			if (localThreads <= 1) {
+				synchronized (localRunning) {
+					localRunning.remove(lp);
+				}
+			}
+		}
+		lp.wallTime = System.currentTimeMillis() - start;
+		File output = new File(indexDirFiles, lp.mapFileName);
+		lp.generated = output.exists() && output.lastModified() >= start - 1000;
+		lp.outputSize = lp.generated ? output.length() : 0;
+	}
+
+	private void writeLocalSummary() {
+		if (localPendingGenerations.isEmpty()) {
+			return;
+		}
+		StringBuilder sb = new StringBuilder();
+		sb.append("region,status,input_mb,estimated_heap_mb,estimated_disk_mb,wall_time_sec,peak_heap_mb,output_mb\n");
+		long total = 0;
+		for (LocalPendingGeneration lp : localPendingGenerations) {
+			total += lp.wallTime;
+			sb.append(String.format("%s,%s,%d,%d,%d,%d,%d,%.1f\n", lp.file.getName(), lp.generated ? "OK" : "FAILED",
+					lp.file.length() >> 20, lp.memoryMB, lp.diskMB, lp.wallTime / 1000, lp.peakHeapMB,
+					lp.outputSize / (1024.0 * 1024.0)));
+		}
+		log.info("Local generation summary (peak heap is measured for whole process, total job time "
+				+ total / 1000 + " sec):\n" + sb);
+		try {
+			FileOutputStream fout = new FileOutputStream(new File(workDir, LOCAL_SUMMARY_FILE));
+			fout.write(sb.toString().getBytes());
+			fout.close();
+		} catch (IOException e) {
+			log.error("Error writing local generation summary", e);
+		}
+	}
+
 	private void waitDockerJobsToFinish(long timeout) {
 		while (true) {
 			int total = 0;
@@ -964,8 +1149,10 @@ public class IndexBatchCreator {
 
 	protected void generateLocalIndex(File file, String regionName, String mapFileName, RegionSpecificData rdata, Set<String> alreadyGeneratedFiles) {
 		try {
-			// be independent of previous results
-			RTree.clearCache();
+			if (localThreads <= 1) {
+				// be independent of previous results
+				RTree.clearCache();
+			}
 
 			DBDialect osmDb = this.osmDbDialect;
 			if (file.length() / 1024 / 1024 > INMEM_LIMIT && osmDb == DBDialect.SQLITE_IN_MEMORY) {
@@ -1013,6 +1200,9 @@ public class IndexBatchCreator {
 			indexCreator.setLastModifiedDate(file.lastModified());
 			indexCreator.setRegionName(regionName);
 			indexCreator.setMapFileName(mapFileName);
+			if (localThreads > 1) {
+				indexCreator.setNodesDBFile(new File(workDir, mapFileName + "." + IndexCreator.TEMP_NODES_DB));
+			}
 			try {
 				alreadyGeneratedFiles.add(file.getName());
 				Log warningsAboutMapData = null;
@@ -1028,7 +1218,8 @@ public class IndexBatchCreator {
 					fh = new FileHandler(logFileName.getAbsolutePath(), 10*1000*1000, 1, true);
 					fh.setFormatter(new SimpleFormatter());
 					fh.setLevel(Level.ALL);
-					Jdk14Logger jdk14Logger = new Jdk14Logger("tempLogger");
+					// every parallel job needs own logger for its handler
+					Jdk14Logger jdk14Logger = new Jdk14Logger(localThreads <= 1 ? "tempLogger" : "tempLogger." + mapFileName);
 					jdk14Logger.getLogger().setLevel(Level.ALL);
 					jdk14Logger.getLogger().setUseParentHandlers(false);
 					jdk14Logger.getLogger().addHandler(fh);
@@ -1038,7 +1229,8 @@ public class IndexBatchCreator {
 				} catch (IOException e1) {
 					e1.printStackTrace();
 				}
-				if (fh != null) {
+				// root logger is shared by parallel jobs, so only single job logs everything into its file
+				if (fh != null && localThreads <= 1) {
 					LogManager.getLogManager().getLogger("").addHandler(fh);
 				}
 				try {
@@ -1047,7 +1239,9 @@ public class IndexBatchCreator {
 				} finally {
 					if (fh != null) {
 						fh.close();
-						LogManager.getLogManager().getLogger("").removeHandler(fh);
+						if (localThreads <= 1) {
+							LogManager.getLogManager().getLogger("").removeHandler(fh);
+						}
 					}
 				}
 				File generated = new File(workDir, mapFileName);
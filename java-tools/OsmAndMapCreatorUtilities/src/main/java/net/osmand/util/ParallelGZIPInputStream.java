@@ -0,0 +1,364 @@
+package net.osmand.util;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Gzip input stream which inflates ahead of the consumer on a separate thread. Members with BGZF block size (bgzip
+ * "BC" extra subfield) are inflated in parallel by thread pool, other members are inflated sequentially by reader
+ * thread. Concatenated (multi-member) gzip files are supported in both cases.
+ */
+public class ParallelGZIPInputStream extends InputStream {
+
+	private static final Future<byte[]> EOF = CompletableFuture.completedFuture(null);
+	private static final int BUFFER_SIZE = 1 << 16;
+	private static final int FHCRC = 2;
+	private static final int FEXTRA = 4;
+	private static final int FNAME = 8;
+	private static final int FCOMMENT = 16;
+
+	private final InputStream in;
+	private final ExecutorService inflateService;
+	private final BlockingQueue<Future<byte[]>> queue;
+	private final Thread readerThread;
+
+	private final byte[] buf = new byte[BUFFER_SIZE];
+	private int bufPos;
+	private int bufLimit;
+
+	private byte[] current = new byte[0];
+	private int currentPos;
+	private boolean eof;
+	private int members;
+	private int parallelMembers;
+
+	public ParallelGZIPInputStream(InputStream in, int threads) {
+		this.in = in;
+		this.inflateService = Executors.newFixedThreadPool(Math.max(1, threads), r -> {
+			Thread t = new Thread(r, "gzip-inflate");
+			t.setDaemon(true);
+			return t;
+		});
+		this.queue = new ArrayBlockingQueue<>(Math.max(1, threads) * 4);
+		this.readerThread = new Thread(this::readMembers, "gzip-reader");
+		this.readerThread.setDaemon(true);
+		this.readerThread.start();
+	}
+
+	public int getMembers() {
+		return members;
+	}
+
+	public int getParallelMembers() {
+		return parallelMembers;
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (!fillCurrent()) {
+			return -1;
+		}
+		return current[currentPos++] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		if (!fillCurrent()) {
+			return -1;
+		}
+		int rd = Math.min(len, current.length - currentPos);
+		System.arraycopy(current, currentPos, b, off, rd);
+		currentPos += rd;
+		return rd;
+	}
+
+	@Override
+	public int available() {
+		return current.length - currentPos;
+	}
+
+	@Override
+	public void close() throws IOException {
+		eof = true;
+		readerThread.interrupt();
+		inflateService.shutdownNow();
+		in.close();
+	}
+
+	private boolean fillCurrent() throws IOException {
+		while (currentPos >= current.length) {
+			if (eof) {
+				return false;
+			}
+			try {
+				byte[] next = queue.take().get();
+				if (next == null) {
+					eof = true;
+					inflateService.shutdown();
+					return false;
+				}
+				current = next;
+				currentPos = 0;
+			} catch (InterruptedException e) {
+				throw new IOException(e);
+			} catch (ExecutionException e) {
+				eof = true;
+				if (e.getCause() instanceof IOException) {
+					throw (IOException) e.getCause();
+				}
+				throw new IOException(e.getCause());
+			}
+		}
+		return true;
+	}
+
+	private void readMembers() {
+		try {
+			while (readMember()) {
+				members++;
+			}
+			queue.put(EOF);
+		} catch (InterruptedException e) {
+			// stream is closed
+		} catch (Exception e) {
+			CompletableFuture<byte[]> err = new CompletableFuture<>();
+			err.completeExceptionally(e);
+			try {
+				queue.put(err);
+			} catch (InterruptedException ie) {
+				// stream is closed
+			}
+		}
+	}
+
+	private boolean readMember() throws IOException, InterruptedException {
+		int id1 = readByte();
+		if (id1 < 0) {
+			return false;
+		}
+		int id2 = readByte();
+		if (id1 != 0x1f || id2 != 0x8b) {
+			if (members == 0) {
+				throw new ZipException("Not in GZIP format");
+			}
+			// trailing garbage is ignored same as GZIPInputStream does
+			return false;
+		}
+		if (readByte() != 8) {
+			throw new ZipException("Unsupported compression method");
+		}
+		int flg = readByte();
+		// mtime, xfl, os
+		skipBytes(6);
+		int headerLength = 10;
+		int blockSize = -1;
+		if ((flg & FEXTRA) != 0) {
+			int xlen = readShort();
+			headerLength += 2 + xlen;
+			byte[] extra = readBytes(xlen);
+			blockSize = getBgzfBlockSize(extra);
+		}
+		if ((flg & FNAME) != 0) {
+			headerLength += skipZeroTerminated();
+		}
+		if ((flg & FCOMMENT) != 0) {
+			headerLength += skipZeroTerminated();
+		}
+		if ((flg & FHCRC) != 0) {
+			headerLength += 2;
+			skipBytes(2);
+		}
+		if (blockSize > 0) {
+			int compressedLength = blockSize - headerLength - 8;
+			if (compressedLength < 0) {
+				throw new ZipException("Corrupt BGZF block size " + blockSize);
+			}
+			byte[] compressed = readBytes(compressedLength + 8);
+			parallelMembers++;
+			queue.put(inflateService.submit(() -> inflateBlock(compressed, compressedLength)));
+		} else {
+			inflateMember();
+		}
+		return true;
+	}
+
+	private static byte[] inflateBlock(byte[] compressed, int compressedLength) throws IOException {
+		int crc = readInt(compressed, compressedLength);
+		int size = readInt(compressed, compressedLength + 4);
+		byte[] res = new byte[size];
+		Inflater inflater = new Inflater(true);
+		try {
+			inflater.setInput(compressed, 0, compressedLength);
+			int len = 0;
+			while (!inflater.finished()) {
+				if (len == size) {
+					// only end of deflate stream could be left (empty EOF block)
+					if (inflater.inflate(new byte[1]) > 0) {
+						throw new ZipException("Corrupt BGZF block size");
+					}
+					break;
+				}
+				int r = inflater.inflate(res, len, size - len);
+				if (r == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+					break;
+				}
+				len += r;
+			}
+			if (len != size || !inflater.finished()) {
+				throw new ZipException("Corrupt BGZF block");
+			}
+		} catch (DataFormatException e) {
+			throw new ZipException(e.getMessage());
+		} finally {
+			inflater.end();
+		}
+		checkCrc(res, res.length, crc);
+		return res;
+	}
+
+	private void inflateMember() throws IOException, InterruptedException {
+		Inflater inflater = new Inflater(true);
+		CRC32 crc = new CRC32();
+		long size = 0;
+		try {
+			byte[] out = new byte[BUFFER_SIZE];
+			int outLen = 0;
+			while (!inflater.finished()) {
+				if (inflater.needsInput()) {
+					if (bufPos >= bufLimit && !fill()) {
+						throw new EOFException("Unexpected end of ZLIB input stream");
+					}
+					inflater.setInput(buf, bufPos, bufLimit - bufPos);
+					bufPos = bufLimit;
+				}
+				int r = inflater.inflate(out, outLen, out.length - outLen);
+				if (r == 0 && inflater.needsDictionary()) {
+					throw new ZipException("Preset dictionary is not supported");
+				}
+				outLen += r;
+				if (outLen == out.length) {
+					crc.update(out, 0, outLen);
+					size += outLen;
+					queue.put(CompletableFuture.completedFuture(out));
+					out = new byte[BUFFER_SIZE];
+					outLen = 0;
+				}
+			}
+			if (outLen > 0) {
+				crc.update(out, 0, outLen);
+				size += outLen;
+				byte[] last = new byte[outLen];
+				System.arraycopy(out, 0, last, 0, outLen);
+				queue.put(CompletableFuture.completedFuture(last));
+			}
+			// return bytes which inflater didn't consume
+			bufPos -= inflater.getRemaining();
+		} catch (DataFormatException e) {
+			throw new ZipException(e.getMessage());
+		} finally {
+			inflater.end();
+		}
+		byte[] trailer = readBytes(8);
+		if (readInt(trailer, 0) != (int) crc.getValue() || readInt(trailer, 4) != (int) size) {
+			throw new ZipException("Corrupt GZIP trailer");
+		}
+	}
+
+	private static int getBgzfBlockSize(byte[] extra) {
+		int i = 0;
+		while (i + 4 <= extra.length) {
+			int slen = (extra[i + 2] & 0xff) | ((extra[i + 3] & 0xff) << 8);
+			if (extra[i] == 'B' && extra[i + 1] == 'C' && slen == 2 && i + 6 <= extra.length) {
+				return ((extra[i + 4] & 0xff) | ((extra[i + 5] & 0xff) << 8)) + 1;
+			}
+			i += 4 + slen;
+		}
+		return -1;
+	}
+
+	private static void checkCrc(byte[] b, int len, int expected) throws ZipException {
+		CRC32 crc = new CRC32();
+		crc.update(b, 0, len);
+		if ((int) crc.getValue() != expected) {
+			throw new ZipException("Corrupt GZIP trailer");
+		}
+	}
+
+	private static int readInt(byte[] b, int off) {
+		return (b[off] & 0xff) | ((b[off + 1] & 0xff) << 8) | ((b[off + 2] & 0xff) << 16) | ((b[off + 3] & 0xff) << 24);
+	}
+
+	private boolean fill() throws IOException {
+		int rd = in.read(buf, 0, buf.length);
+		if (rd <= 0) {
+			bufPos = bufLimit = 0;
+			return false;
+		}
+		bufPos = 0;
+		bufLimit = rd;
+		return true;
+	}
+
+	private int readByte() throws IOException {
+		if (bufPos >= bufLimit && !fill()) {
+			return -1;
+		}
+		return buf[bufPos++] & 0xff;
+	}
+
+	private int readShort() throws IOException {
+		int b1 = readByte();
+		int b2 = readByte();
+		if (b2 < 0) {
+			throw new EOFException();
+		}
+		return b1 | (b2 << 8);
+	}
+
+	private byte[] readBytes(int len) throws IOException {
+		byte[] res = new byte[len];
+		int off = 0;
+		while (off < len) {
+			if (bufPos >= bufLimit && !fill()) {
+				throw new EOFException();
+			}
+			int cnt = Math.min(len - off, bufLimit - bufPos);
+			System.arraycopy(buf, bufPos, res, off, cnt);
+			bufPos += cnt;
+			off += cnt;
+		}
+		return res;
+	}
+
+	private void skipBytes(int len) throws IOException {
+		readBytes(len);
+	}
+
+	private int skipZeroTerminated() throws IOException {
+		int len = 0;
+		int b;
+		do {
+			b = readByte();
+			if (b < 0) {
+				throw new EOFException();
+			}
+			len++;
+		} while (b != 0);
+		return len;
+	}
+}
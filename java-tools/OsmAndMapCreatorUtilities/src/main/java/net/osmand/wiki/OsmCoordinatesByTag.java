@@ -64,8 +64,9 @@ public class OsmCoordinatesByTag {
 	private int registeredNodes = 0;
 	private int registeredWays = 0;
 	private int registeredRelations = 0;
+	private int parallelThreads = 1;
 	private Gson gson;
-	private MapRenderingTypesEncoder renderingTypes;
+	private ThreadLocal<MapRenderingTypesEncoder> renderingTypes;
 	private MapPoiTypes poiTypes;
 
 	public static class OsmLatLonId {
@@ -94,11 +95,20 @@ public class OsmCoordinatesByTag {
 		gson = new Gson();
 		this.filterExactTags = new TreeSet<>(Arrays.asList(filterExactTags));
 		this.filterStartsWithTags = filterStartsWithTags;
-		renderingTypes = new MapRenderingTypesEncoder("basemap");
+		// encoder is not thread safe, so every thread which registers entities has own
+		renderingTypes = ThreadLocal.withInitial(() -> new MapRenderingTypesEncoder("basemap"));
 		poiTypes = MapPoiTypes.getDefault();
 		
 	}
 	
+	/**
+	 * Ways and relations are loaded from osm db by several threads, tags are converted in parallel and
+	 * only update of coordinates map is synchronized
+	 */
+	public void setParallelThreads(int parallelThreads) {
+		this.parallelThreads = parallelThreads;
+	}
+
 	public OsmCoordinatesByTag parse(File folderWithSql) throws SQLException {
 		File[] listFiles = folderWithSql.listFiles();
 		if (listFiles != null) {
@@ -181,35 +191,71 @@ public class OsmCoordinatesByTag {
 		if(center == null) {
 			return;
 		}
-		List<Amenity> alist = new ArrayList<>(); 
+		List<String> keys = new ArrayList<>();
+		List<OsmLatLonId> values = new ArrayList<>();
+		String tagsJson = null;
+		Amenity amenity = null;
 		for (String t : entity.getTagKeySet()) {
 			if (checkTagSuitable(t)) {
-				if (entity instanceof Node) {
-					registeredNodes++;
-				} else if (entity instanceof Way) {
-					registeredWays++;
-				} else if (entity instanceof Relation) {
-					registeredRelations++;
+				if (tagsJson == null) {
+					Map<String, String> etags = renderingTypes.get().transformTags(entity.getTags(),
+							EntityType.valueOf(entity), EntityConvertApplyType.POI);
+					tagsJson = gson.toJson(etags);
+					List<Amenity> alist = EntityParser.parseAmenities(poiTypes, entity, etags, new ArrayList<>());
+					if (alist.size() > 0) {
+						amenity = alist.get(0);
+					}
 				}
-				String key = combineTagValue(t, entity.getTag(t));
 				OsmLatLonId osmLatLonId = new OsmLatLonId();
 				osmLatLonId.lat = center.getLatitude();
 				osmLatLonId.lon = center.getLongitude();
 				osmLatLonId.id = entity.getId();
 				osmLatLonId.type = EntityType.valueOf(entity).ordinal();
-				Map<String, String> etags = renderingTypes.transformTags(entity.getTags(), EntityType.valueOf(entity), EntityConvertApplyType.POI);
-				osmLatLonId.tagsJson = gson.toJson(etags);
-				alist.clear();
-				alist = EntityParser.parseAmenities(poiTypes, entity, etags, alist);
-				if (alist.size() > 0) {
-					osmLatLonId.amenity = alist.get(0);
-				}
-				OsmLatLonId oldValue = coordinates.put(key, osmLatLonId);
-				osmLatLonId.next = oldValue;
-//				System.out.println(OsmMapUtils.getCenter(entity) + " " + entity.getTags());
+				osmLatLonId.tagsJson = tagsJson;
+				osmLatLonId.amenity = amenity;
+				keys.add(combineTagValue(t, entity.getTag(t)));
+				values.add(osmLatLonId);
+			}
+		}
+		if (keys.isEmpty()) {
+			return;
+		}
+		synchronized (coordinates) {
+			if (entity instanceof Node) {
+				registeredNodes += keys.size();
+			} else if (entity instanceof Way) {
+				registeredWays += keys.size();
+			} else if (entity instanceof Relation) {
+				registeredRelations += keys.size();
+			}
+			for (int i = 0; i < keys.size(); i++) {
+				linkCoordinates(keys.get(i), values.get(i));
 			}
 		}
+	}
 
+	// chain is ordered by type and id descending, as sequential registration of sorted osm data puts it,
+	// so head returned by getCoordinates doesn't depend on timing of parallel threads
+	private void linkCoordinates(String key, OsmLatLonId value) {
+		OsmLatLonId head = coordinates.get(key);
+		if (head == null || compareTypeId(value, head) > 0) {
+			value.next = head;
+			coordinates.put(key, value);
+			return;
+		}
+		OsmLatLonId prev = head;
+		while (prev.next != null && compareTypeId(value, prev.next) < 0) {
+			prev = prev.next;
+		}
+		value.next = prev.next;
+		prev.next = value;
+	}
+
+	private static int compareTypeId(OsmLatLonId o1, OsmLatLonId o2) {
+		if (o1.type != o2.type) {
+			return Integer.compare(o1.type, o2.type);
+		}
+		return Long.compare(o1.id, o2.id);
 	}
 
 	public void parseOSMCoordinates(File readFile, ConsoleProgressImplementation progress, boolean parseRelations) throws IOException, SQLException, XmlPullParserException, InterruptedException {
@@ -272,6 +318,7 @@ public class OsmCoordinatesByTag {
 			}
 			dbCreator.finishLoading();
 			osmDBdialect.commitDatabase(accessor.getDbConn());
+			accessor.setParallelThreads(parallelThreads);
 			accessor.initDatabase();
 			if (!hasRelations[0] || parseRelations) {
 				progress.startTask("Iterate over ways", -1);
@@ -284,6 +331,11 @@ public class OsmCoordinatesByTag {
 							registerEntity(e);
 						}
 					}
+
+					@Override
+					public boolean isThreadSafe() {
+						return true;
+					}
 				});
 				progress.finishTask();
 				if (parseRelations) {
@@ -297,6 +349,11 @@ public class OsmCoordinatesByTag {
 								registerEntity(e);
 							}
 						}
+
+						@Override
+						public boolean isThreadSafe() {
+							return true;
+						}
 					});
 					progress.finishTask();
 				}
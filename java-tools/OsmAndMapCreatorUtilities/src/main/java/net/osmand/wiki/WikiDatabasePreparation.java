@@ -31,6 +31,13 @@ import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.zip.GZIPInputStream;
@@ -62,6 +69,7 @@ import net.osmand.obf.preparation.DBDialect;
 import net.osmand.travel.WikivoyageLangPreparation.WikivoyageTemplates;
 import net.osmand.util.Algorithms;
 import net.osmand.util.LocationParser;
+import net.osmand.util.ParallelGZIPInputStream;
 import net.osmand.wiki.OsmCoordinatesByTag.OsmLatLonId;
 import net.osmand.wiki.wikidata.WikiDataHandler;
 
@@ -1460,6 +1468,8 @@ public class WikiDatabasePreparation {
 		String wikidataFolder = "";
 		String mode = "";
 		long testArticleID = 0;
+		int threads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+		boolean resume = false;
 		String resultDB = "";
 		String wikipediaSqliteName = "";
 		String wikidataSqliteName = "";
@@ -1477,6 +1487,10 @@ public class WikiDatabasePreparation {
 				testArticleID = Long.parseLong(val);
 			} else if (arg.startsWith("--result_db=")) {
 				resultDB = val;
+			} else if (arg.startsWith("--threads=")) {
+				threads = Integer.parseInt(val);
+			} else if (arg.equals("--resume")) {
+				resume = true;
 			}
 		}
 
@@ -1505,6 +1519,7 @@ public class WikiDatabasePreparation {
 		final String pathToWikiData = wikidataFolder + WIKIDATA_ARTICLES_GZ;
 		OsmCoordinatesByTag osmCoordinates = new OsmCoordinatesByTag(new String[] { "wikipedia", "wikidata" },
 				new String[] { "wikipedia:" });
+		osmCoordinates.setParallelThreads(threads);
 		File wikidataDB;
 
 		switch (mode) {
@@ -1524,7 +1539,7 @@ public class WikiDatabasePreparation {
 			log.info("Process OSM coordinates...");
 			osmCoordinates.parse(wikidataDB.getParentFile());
 			log.info("Create wikidata...");
-			processWikidata(wikidataDB, wikidataFile, osmCoordinates, 0);
+			processWikidata(wikidataDB, wikidataFile, osmCoordinates, 0, threads);
 			createOSMWikidataTable(wikidataDB, osmCoordinates);
 			break;
 		case "create-osm-wikidata":
@@ -1544,17 +1559,17 @@ public class WikiDatabasePreparation {
 			log.info("Updating wikidata...");
 			for (String f : downloadedPages) {
 				log.info("Updating " + f);
-				processWikidata(wikidataDB, f, osmCoordinates, maxQId);
+				processWikidata(wikidataDB, f, osmCoordinates, maxQId, threads);
 			}
 			wdu.removeDownloadedPages();
 			createOSMWikidataTable(wikidataDB, osmCoordinates);
 			break;
 		case "process-wikipedia":
 			log.info("Processing wikipedia...");
-			processWikipedia(wikipediaFolder, wikipediaSqliteName, lang, 0);
+			processWikipedia(wikipediaFolder, wikipediaSqliteName, lang, 0, threads, resume);
 			break;
 		case "test-wikipedia":
-			processWikipedia(wikipediaFolder, wikipediaSqliteName, lang, testArticleID);
+			processWikipedia(wikipediaFolder, wikipediaSqliteName, lang, testArticleID, threads, false);
 			break;
 		}
 	}
@@ -1687,46 +1702,58 @@ public class WikiDatabasePreparation {
 	}
 
 	public static void processWikipedia(final String wikipediaFolder, final String wikipediaSqliteFileName, String lang,
-			long testArticleId) throws ParserConfigurationException, SAXException, IOException, SQLException {
+			long testArticleId, int threads, boolean resume)
+			throws ParserConfigurationException, SAXException, IOException, SQLException {
 		File wikipediaSqlite = new File(wikipediaSqliteFileName);
 		String wikiFile = wikipediaFolder + lang + WIKI_ARTICLES_GZ;
 		SAXParser sx = SAXParserFactory.newInstance().newSAXParser();
 		FileProgressImplementation progress = new FileProgressImplementation("Read wikipedia file", new File(wikiFile));
 		InputStream streamFile = progress.openFileInputStream();
-		InputSource is = getInputSource(streamFile);
-		final WikipediaHandler handler = new WikipediaHandler(sx, progress, lang, wikipediaSqlite, testArticleId);
-		sx.parse(is, handler);
-		handler.finish();
+		InputSource is = getInputSource(streamFile, threads);
+		final WikipediaHandler handler = new WikipediaHandler(sx, progress, lang, wikipediaSqlite, testArticleId,
+				threads, resume);
+		try {
+			sx.parse(is, handler);
+			handler.finish();
+		} finally {
+			handler.shutdown();
+		}
 	}
 
 	public static void processWikidata(File wikidataSqlite, final String wikidataFile,
-			OsmCoordinatesByTag osmCoordinates, long lastProcessedId)
+			OsmCoordinatesByTag osmCoordinates, long lastProcessedId, int threads)
 			throws ParserConfigurationException, SAXException, IOException, SQLException {
 		SAXParser sx = SAXParserFactory.newInstance().newSAXParser();
 		FileProgressImplementation progress = new FileProgressImplementation("Read wikidata file",
 				new File(wikidataFile));
 		InputStream streamFile = progress.openFileInputStream();
-		InputSource is = getInputSource(streamFile);
+		InputSource is = getInputSource(streamFile, threads);
 		OsmandRegions regions = new OsmandRegions();
 		regions.prepareFile();
 		regions.cacheAllCountries();
 		final WikiDataHandler handler = new WikiDataHandler(sx, progress, wikidataSqlite, osmCoordinates, regions,
-				lastProcessedId);
+				lastProcessedId, threads);
 		sx.parse(is, handler);
 		handler.finish();
 		osmCoordinates.closeConnection();
 	}
 
-	private static InputSource getInputSource(InputStream streamFile) throws IOException {
-		GZIPInputStream zis = new GZIPInputStream(streamFile);
+	private static InputSource getInputSource(InputStream streamFile, int threads) throws IOException {
+		// bgzip compressed dumps are inflated in parallel, plain gzip is inflated ahead on separate thread
+		InputStream zis = new ParallelGZIPInputStream(streamFile, threads);
 		Reader reader = new InputStreamReader(zis, "UTF-8");
 		InputSource is = new InputSource(reader);
 		is.setEncoding("UTF-8");
 		return is;
 	}
 
+	/**
+	 * Pages are parsed on SAX thread, articles are rendered by worker pool and written in page order by single db
+	 * writer thread. Db is in WAL mode, writer and lookups of every thread use own connections.
+	 * Ordinal of last written page in dump is committed together with articles, so processing could be resumed.
+	 */
 	public static class WikipediaHandler extends DefaultHandler {
-		long counter = 1;
+		private static final Future<WikiArticle> FINISH = CompletableFuture.completedFuture(null);
 		private final SAXParser saxParser;
 		private boolean page = false;
 		private boolean revision = false;
@@ -1738,60 +1765,183 @@ public class WikiDatabasePreparation {
 		private StringBuilder pageId = new StringBuilder();
 
 		private DBDialect dialect = DBDialect.SQLITE;
+		// lookups on SAX thread, writer thread has own connection
 		private Connection conn;
+		private Connection writeConn;
 		private final WikiImageUrlStorage imageUrlStorage;
 		private PreparedStatement insertPrep;
 		private PreparedStatement selectPrep;
-		private int batch = 0;
+		private PreparedStatement progressPrep;
 		private final static int BATCH_SIZE = 1000;
 		private static final long ARTICLES_BATCH = 1000;
 
-		final ByteArrayOutputStream bous = new ByteArrayOutputStream(64000);
 		private String lang;
 		private FileProgressImplementation progIS;
 		private long cid;
+		private long lastCommittedPage;
+		private volatile long pages;
+
+		private final ExecutorService renderService;
+		private final BlockingQueue<Future<WikiArticle>> writeQueue;
+		private final Thread writerThread;
+		private final WikiArticleWriter writer = new WikiArticleWriter();
+
+		private static class WikiArticle {
+			long pageId;
+			long pageOrdinal;
+			long wikiId;
+			String title;
+			String shortDescr;
+			String redirect;
+			byte[] zipContent;
+			int contentLength;
+		}
 
 		WikipediaHandler(SAXParser saxParser, FileProgressImplementation progIS, String lang, File wikipediaSqlite,
-				long testArticleId) throws SQLException {
+				long testArticleId, int threads, boolean resume) throws SQLException {
 			this.lang = lang;
 			this.saxParser = saxParser;
 			this.progIS = progIS;
-			conn = dialect.getDatabaseConnection(wikipediaSqlite.getAbsolutePath(), log);
+			Connection conn = dialect.getDatabaseConnection(wikipediaSqlite.getAbsolutePath(), log);
 			log.info("Prepare wiki_content table");
 			conn.createStatement().execute(
 					"CREATE TABLE IF NOT EXISTS wiki_content(id long, title text, lang text, shortDescription text, redirect text, zipContent blob)");
 			conn.createStatement().execute("CREATE INDEX IF NOT EXISTS id_wiki_content ON wiki_content(id)");
 			conn.createStatement()
 					.execute("CREATE INDEX IF NOT EXISTS lang_title_wiki_content ON wiki_content (lang, title)");
-			conn.createStatement().execute("DELETE FROM wiki_content WHERE lang = '" + lang + "'");
-			insertPrep = conn.prepareStatement(
+			// page is ordinal of page in dump as page ids are not guaranteed to be ascending
+			conn.createStatement().execute("CREATE TABLE IF NOT EXISTS wiki_content_progress(lang text primary key, page long)");
+			if (resume) {
+				ResultSet rs = conn.createStatement()
+						.executeQuery("SELECT page FROM wiki_content_progress WHERE lang = '" + lang + "'");
+				if (rs.next()) {
+					lastCommittedPage = rs.getLong(1);
+				}
+				rs.close();
+				log.info("Resume after page #" + lastCommittedPage);
+			} else {
+				conn.createStatement().execute("DELETE FROM wiki_content WHERE lang = '" + lang + "'");
+				conn.createStatement().execute("DELETE FROM wiki_content_progress WHERE lang = '" + lang + "'");
+			}
+			imageUrlStorage = new WikiImageUrlStorage(conn, wikipediaSqlite.getParent(), lang);
+			conn.close();
+			// exclusive connection is closed before switching db to WAL
+			writeConn = dialect.getConcurrentDatabaseConnection(wikipediaSqlite.getAbsolutePath(), log);
+			insertPrep = writeConn.prepareStatement(
 					"INSERT INTO wiki_content(id, title, lang, shortDescription, redirect, zipContent) VALUES (?, ?, ?, ?, ?, ?)");
-			selectPrep = conn.prepareStatement(
+			progressPrep = writeConn.prepareStatement("REPLACE INTO wiki_content_progress(lang, page) VALUES (?, ?)");
+			// articles are committed together with progress
+			writeConn.setAutoCommit(false);
+			this.conn = dialect.getConcurrentDatabaseConnection(wikipediaSqlite.getAbsolutePath(), log);
+			selectPrep = this.conn.prepareStatement(
 					"SELECT id FROM wiki_mapping WHERE wiki_mapping.title = ? AND wiki_mapping.lang = ?");
-			imageUrlStorage = new WikiImageUrlStorage(conn, wikipediaSqlite.getParent(), lang);
+			imageUrlStorage.useThreadConnections(wikipediaSqlite);
 			log.info("Tables are prepared");
-		}
+			renderService = Executors.newFixedThreadPool(threads);
+			writeQueue = new ArrayBlockingQueue<>(threads * 4);
+			writerThread = new Thread(writer, "wiki-writer-" + lang);
+			writerThread.start();
+		}
+
+		private class WikiArticleWriter implements Runnable {
+			private volatile Exception error;
+			private long counter;
+			private int batch;
+			private long lastPage;
+			private long bytes;
+			private long zipBytes;
+
+			@Override
+			public void run() {
+				long start = System.currentTimeMillis();
+				try {
+					while (true) {
+						Future<WikiArticle> f = writeQueue.take();
+						if (f == FINISH) {
+							break;
+						}
+						WikiArticle article = f.get();
+						if (article == null) {
+							continue;
+						}
+						insertPrep.setLong(1, article.wikiId);
+						insertPrep.setString(2, article.title);
+						insertPrep.setString(3, lang);
+						insertPrep.setString(4, article.shortDescr);
+						insertPrep.setString(5, article.redirect);
+						insertPrep.setBytes(6, article.zipContent);
+						insertPrep.addBatch();
+						lastPage = article.pageOrdinal;
+						bytes += article.contentLength;
+						zipBytes += article.zipContent.length;
+						if (++batch >= BATCH_SIZE) {
+							commit();
+						}
+						if (++counter % ARTICLES_BATCH == 0) {
+							double sec = Math.max(1, System.currentTimeMillis() - start) / 1000.0;
+							double mb = 1 << 20;
+							log.info(String.format(
+									"Article accepted %d %s - %d articles of %d pages, %.1f articles/s, html %.2f MB/s, zipped %.2f MB/s, %d in queue",
+									article.pageId, article.title, counter, pages, counter / sec, bytes / mb / sec,
+									zipBytes / mb / sec, writeQueue.size()));
+						}
+					}
+					commit();
+				} catch (Exception e) {
+					error = e;
+					log.error("Error writing wiki articles: " + e.getMessage(), e);
+				}
+			}
 
-		public void addBatch() throws SQLException {
-			insertPrep.addBatch();
-			if (batch++ > BATCH_SIZE) {
+			private void commit() throws SQLException {
 				insertPrep.executeBatch();
+				if (lastPage > 0) {
+					progressPrep.setString(1, lang);
+					progressPrep.setLong(2, lastPage);
+					progressPrep.execute();
+				}
+				writeConn.commit();
 				batch = 0;
 			}
 		}
 
-		public void finish() throws SQLException {
-			insertPrep.executeBatch();
-			if (!conn.getAutoCommit()) {
-				conn.commit();
+		private void write(Future<WikiArticle> article) throws SAXException {
+			try {
+				while (!writeQueue.offer(article, 1, TimeUnit.SECONDS)) {
+					if (!writerThread.isAlive()) {
+						throw new SAXException("Writer has stopped", writer.error);
+					}
+				}
+			} catch (InterruptedException e) {
+				throw new SAXException(e);
+			}
+		}
+
+		public void finish() throws SQLException, SAXException {
+			write(FINISH);
+			try {
+				writerThread.join();
+			} catch (InterruptedException e) {
+				throw new SAXException(e);
+			}
+			if (writer.error != null) {
+				throw new SAXException(writer.error);
 			}
 			selectPrep.close();
 			insertPrep.close();
+			progressPrep.close();
+			imageUrlStorage.closeThreadConnections();
 			conn.close();
+			writeConn.close();
+		}
+
+		public void shutdown() {
+			renderService.shutdownNow();
+			writerThread.interrupt();
 		}
 
 		public int getCount() {
-			return (int) (counter - 1);
+			return (int) writer.counter;
 		}
 
 		@Override
@@ -1834,6 +1984,7 @@ public class WikiDatabasePreparation {
 					progIS.update();
 					if (name.equals("page")) {
 						page = false;
+						pages++;
 					} else if (name.equals("title")) {
 						ctext = null;
 					} else if (name.equals("revision")) {
@@ -1846,9 +1997,8 @@ public class WikiDatabasePreparation {
 						cid = Long.parseLong(pageId.toString());
 					} else if (name.equals("text")) {
 						long wikiId = 0;
-						String plainStr = null;
-						String shortDescr = null;
-						if (namespace == 0) {
+						// current page ordinal is pages + 1
+						if (namespace == 0 && pages >= lastCommittedPage) {
 							selectPrep.setString(1, title.toString());
 							selectPrep.setString(2, lang);
 							ResultSet rs = selectPrep.executeQuery();
@@ -1859,50 +2009,48 @@ public class WikiDatabasePreparation {
 							selectPrep.clearParameters();
 						}
 						if (wikiId != 0) {
-							try {
-								CustomWikiModel wikiModel = new CustomWikiModel(
-										"https://" + lang + ".wikipedia.org/wiki/${image}",
-										"https://" + lang + ".wikipedia.org/wiki/${title}", imageUrlStorage, true);
-								String rawWikiText = removeMacroBlocks(ctext, null, new HashMap<>(), null, lang,
-										title.toString(), null);
-								plainStr = generateHtmlArticle(rawWikiText, wikiModel);
-								shortDescr = getShortDescr(rawWikiText, wikiModel);
-							} catch (RuntimeException e) {
-								log.error(String.format("Error with article %d - %s : %s", cid, title, e.getMessage()), e);
-							}
-						}
-						if (plainStr != null) {
-							String redirect = getRedirect(ctext);
-							if (++counter % ARTICLES_BATCH == 0) {
-								log.info("Article accepted " + cid + " " + title.toString());
-//								double GB = (1l << 30); 
-//								log.info(String.format("Memory used : free %.2f GB of %.2f GB",
-//										Runtime.getRuntime().freeMemory() / GB, Runtime.getRuntime().totalMemory() / GB));
-							}
-							try {
-								insertPrep.setLong(1, wikiId);
-								insertPrep.setString(2, title.toString());
-								insertPrep.setString(3, lang);
-								insertPrep.setString(4, shortDescr);
-								insertPrep.setString(5, redirect);
-								insertPrep.setBytes(6, gzip(plainStr));
-								addBatch();
-							} catch (SQLException e) {
-								throw new SAXException(e);
-							}
+							WikiArticle article = new WikiArticle();
+							article.pageId = cid;
+							article.pageOrdinal = pages + 1;
+							article.wikiId = wikiId;
+							article.title = title.toString();
+							StringBuilder content = new StringBuilder(ctext);
+							write(renderService.submit(() -> renderArticle(article, content)));
 						}
 						ctext = null;
 					}
 				}
-			} catch (IOException | SQLException e) {
+			} catch (SQLException e) {
 				throw new SAXException(e);
 			}
 		}
 
-		private byte[] gzip(String plainStr) throws IOException, UnsupportedEncodingException {
-			bous.reset();
+		private WikiArticle renderArticle(WikiArticle article, StringBuilder content) throws IOException {
+			String plainStr = null;
+			try {
+				CustomWikiModel wikiModel = new CustomWikiModel("https://" + lang + ".wikipedia.org/wiki/${image}",
+						"https://" + lang + ".wikipedia.org/wiki/${title}", imageUrlStorage, true);
+				String rawWikiText = removeMacroBlocks(content, null, new HashMap<>(), null, lang, article.title, null);
+				plainStr = generateHtmlArticle(rawWikiText, wikiModel);
+				article.shortDescr = getShortDescr(rawWikiText, wikiModel);
+			} catch (RuntimeException e) {
+				log.error(String.format("Error with article %d - %s : %s", article.pageId, article.title,
+						e.getMessage()), e);
+			}
+			if (plainStr == null) {
+				return null;
+			}
+			article.redirect = getRedirect(content);
+			byte[] html = plainStr.getBytes("UTF-8");
+			article.contentLength = html.length;
+			article.zipContent = gzip(html);
+			return article;
+		}
+
+		private static byte[] gzip(byte[] content) throws IOException {
+			ByteArrayOutputStream bous = new ByteArrayOutputStream(content.length / 4 + 64);
 			GZIPOutputStream gzout = new GZIPOutputStream(bous);
-			gzout.write((plainStr == null ? "" : plainStr).getBytes("UTF-8"));
+			gzout.write(content);
 			gzout.close();
 			return bous.toByteArray();
 		}
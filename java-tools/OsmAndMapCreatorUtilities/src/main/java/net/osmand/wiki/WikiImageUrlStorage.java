@@ -1,14 +1,19 @@
 package net.osmand.wiki;
 
+import net.osmand.PlatformUtil;
+import net.osmand.obf.preparation.DBDialect;
 import net.osmand.util.Algorithms;
 import net.osmand.util.SqlInsertValuesReader;
 import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.logging.Log;
 
 import java.io.*;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
 
 public class WikiImageUrlStorage {
 	public static final int FILE_NAME = 0;
@@ -18,13 +23,18 @@ public class WikiImageUrlStorage {
 	public static final int WIDTH = 2;
 	public static final String LOCALIZED_WIKIPEDIA = "https://upload.wikimedia.org/wikipedia/";
 	public static final String LATEST_IMAGE_SQL_DUMP = "wiki-latest-image.sql.gz";
+	private static final String SELECT_THUMB_URL = "SELECT thumb_url FROM image where name = ? ";
+	private static final Log log = PlatformUtil.getLog(WikiImageUrlStorage.class);
 	private final PreparedStatement urlSelectStat;
 	private final PreparedStatement urlInsertStat;
+	private final ThreadLocal<PreparedStatement> threadSelectStat = new ThreadLocal<>();
+	private final List<Connection> threadConnections = new ArrayList<>();
+	private File dbFile;
 
 	public WikiImageUrlStorage(Connection conn, String workDir, String lang) throws SQLException {
 		conn.createStatement().execute("DROP TABLE IF EXISTS image");
 		conn.createStatement().execute("CREATE TABLE IF NOT EXISTS image(name text unique, thumb_url text)");
-		urlSelectStat = conn.prepareStatement("SELECT thumb_url FROM image where name = ? ");
+		urlSelectStat = conn.prepareStatement(SELECT_THUMB_URL);
 		urlInsertStat = conn.prepareStatement("INSERT INTO image(name, thumb_url) VALUES(?, ?) ");
 		SqlInsertValuesReader.InsertValueProcessor p = vs -> {
 			try {
@@ -49,19 +59,57 @@ public class WikiImageUrlStorage {
 		}
 	}
 
+	/**
+	 * Lookups from several threads (article rendering) use own connection per thread,
+	 * db file is switched to WAL mode, so it could be written at the same time
+	 */
+	public void useThreadConnections(File dbFile) {
+		this.dbFile = dbFile;
+	}
+
 	public String getThumbUrl(String imageFileName) {
 		imageFileName = Algorithms.capitalizeFirstLetter(imageFileName.trim());
 		String url = "";
 		try {
-			urlSelectStat.setString(NAME, imageFileName);
-			ResultSet rs = urlSelectStat.executeQuery(); {
-				if (rs.next()) {
-					url = rs.getString(THUMB_URL_SELECT);
+			if (dbFile == null) {
+				synchronized (this) {
+					url = selectThumbUrl(urlSelectStat, imageFileName);
 				}
+			} else {
+				url = selectThumbUrl(getThreadSelectStat(), imageFileName);
 			}
 		} catch (SQLException e) {
 			e.printStackTrace();
 		}
 		return url;
 	}
+
+	private PreparedStatement getThreadSelectStat() throws SQLException {
+		PreparedStatement stat = threadSelectStat.get();
+		if (stat == null) {
+			Connection conn = DBDialect.SQLITE.getConcurrentDatabaseConnection(dbFile.getAbsolutePath(), log);
+			synchronized (threadConnections) {
+				threadConnections.add(conn);
+			}
+			stat = conn.prepareStatement(SELECT_THUMB_URL);
+			threadSelectStat.set(stat);
+		}
+		return stat;
+	}
+
+	private static String selectThumbUrl(PreparedStatement stat, String imageFileName) throws SQLException {
+		stat.setString(NAME, imageFileName);
+		try (ResultSet rs = stat.executeQuery()) {
+			return rs.next() ? rs.getString(THUMB_URL_SELECT) : "";
+		}
+	}
+
+	public void closeThreadConnections() throws SQLException {
+		synchronized (threadConnections) {
+			for (Connection conn : threadConnections) {
+				conn.close();
+			}
+			threadConnections.clear();
+		}
+	}
 }
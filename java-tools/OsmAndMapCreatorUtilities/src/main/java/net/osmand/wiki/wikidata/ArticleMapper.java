@@ -1,7 +1,11 @@
 package net.osmand.wiki.wikidata;
 
 import com.google.gson.*;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 
+import java.io.IOException;
+import java.io.StringReader;
 import java.lang.reflect.Type;
 import java.util.ArrayList;
 import java.util.List;
@@ -17,7 +21,7 @@ public class ArticleMapper implements JsonDeserializer<ArticleMapper.Article> {
 	private static final Log log = PlatformUtil.getLog(ArticleMapper.class);
 	public static final String[] PROP_IMAGE = {"P18", "P180"};
 	public static final String PROP_COMMON_CAT = "P373";
-	private final String PROP_COMMON_COORDS = "P625";
+	private static final String PROP_COMMON_COORDS = "P625";
 
 	@Override
     public Article deserialize(JsonElement json, Type typeOfT, JsonDeserializationContext context) throws JsonParseException {
@@ -81,17 +85,185 @@ public class ArticleMapper implements JsonDeserializer<ArticleMapper.Article> {
 				article.setSiteLinks(siteLinks);
 			}
 		} catch (Exception e) {
-			errorCount++;
-			if (errorCount == ERROR_BATCH_SIZE) {
-				log.error(e.getMessage(), e);
-			}
-			if (errorCount % ERROR_BATCH_SIZE == 0) {
-				log.error(String.format("Error json pages %s (total %d)", json.toString(), errorCount));
+			logError(e, json);
+		}
+		return article;
+	}
+
+	/**
+	 * Streaming version of {@link #deserialize}: reads only needed claims and sitelinks, other values are skipped
+	 * without building json tree. Thread safe.
+	 */
+	public static Article readArticle(String json) {
+		Article article = new Article();
+		try (JsonReader reader = new JsonReader(new StringReader(json))) {
+			reader.setLenient(true);
+			reader.beginObject();
+			while (reader.hasNext()) {
+				String name = reader.nextName();
+				if (name.equals("claims") && reader.peek() == JsonToken.BEGIN_OBJECT) {
+					readClaims(reader, article);
+				} else if (name.equals("sitelinks") && reader.peek() == JsonToken.BEGIN_OBJECT) {
+					article.setSiteLinks(readSiteLinks(reader));
+				} else if (name.equals("sitelinks") && reader.peek() == JsonToken.BEGIN_ARRAY) {
+					reader.beginArray();
+					if (reader.hasNext()) {
+						throw new IllegalArgumentException();
+					}
+					reader.endArray();
+				} else {
+					reader.skipValue();
+				}
 			}
+		} catch (Exception e) {
+			logError(e, json);
 		}
 		return article;
 	}
 
+	private static void readClaims(JsonReader reader, Article article) throws IOException {
+		String[] images = new String[PROP_IMAGE.length];
+		boolean[] imageProps = new boolean[PROP_IMAGE.length];
+		reader.beginObject();
+		while (reader.hasNext()) {
+			String prop = reader.nextName();
+			int imageInd = -1;
+			for (int i = 0; i < PROP_IMAGE.length; i++) {
+				if (PROP_IMAGE[i].equals(prop)) {
+					imageInd = i;
+				}
+			}
+			if (prop.equals(PROP_COMMON_COORDS)) {
+				// lat / lon are set to article
+				readFirstDataValue(reader, article, true);
+			} else if (imageInd >= 0) {
+				imageProps[imageInd] = true;
+				images[imageInd] = readFirstDataValue(reader, article, false);
+			} else if (prop.equals(PROP_COMMON_CAT)) {
+				String commonCat = readFirstDataValue(reader, article, false);
+				if (commonCat != null) {
+					article.setCommonCat(commonCat);
+				}
+			} else {
+				reader.skipValue();
+			}
+		}
+		reader.endObject();
+		for (int i = 0; i < PROP_IMAGE.length; i++) {
+			if (imageProps[i]) {
+				if (images[i] != null) {
+					article.setImage(images[i]);
+					article.setImageProp(PROP_IMAGE[i]);
+				}
+				break;
+			}
+		}
+	}
+
+	// reads mainsnak.datavalue.value of the first claim: string value or coordinates
+	private static String readFirstDataValue(JsonReader reader, Article article, boolean coordinates)
+			throws IOException {
+		String value = null;
+		reader.beginArray();
+		if (reader.hasNext()) {
+			reader.beginObject();
+			while (reader.hasNext()) {
+				if (reader.nextName().equals("mainsnak") && reader.peek() == JsonToken.BEGIN_OBJECT) {
+					reader.beginObject();
+					while (reader.hasNext()) {
+						if (reader.nextName().equals("datavalue") && reader.peek() == JsonToken.BEGIN_OBJECT) {
+							value = readDataValue(reader, article, coordinates);
+						} else {
+							reader.skipValue();
+						}
+					}
+					reader.endObject();
+				} else {
+					reader.skipValue();
+				}
+			}
+			reader.endObject();
+		}
+		while (reader.hasNext()) {
+			reader.skipValue();
+		}
+		reader.endArray();
+		return value;
+	}
+
+	private static String readDataValue(JsonReader reader, Article article, boolean coordinates) throws IOException {
+		String value = null;
+		reader.beginObject();
+		while (reader.hasNext()) {
+			if (!reader.nextName().equals("value")) {
+				reader.skipValue();
+			} else if (coordinates) {
+				double lat = Double.NaN;
+				double lon = Double.NaN;
+				reader.beginObject();
+				while (reader.hasNext()) {
+					String name = reader.nextName();
+					if (name.equals("latitude")) {
+						lat = reader.nextDouble();
+					} else if (name.equals("longitude")) {
+						lon = reader.nextDouble();
+					} else {
+						reader.skipValue();
+					}
+				}
+				reader.endObject();
+				if (Double.isNaN(lat) || Double.isNaN(lon)) {
+					throw new IllegalArgumentException("Coordinates are missing");
+				}
+				article.setLat(lat);
+				article.setLon(lon);
+				value = "";
+			} else {
+				value = reader.nextString();
+			}
+		}
+		reader.endObject();
+		return value;
+	}
+
+	private static List<SiteLink> readSiteLinks(JsonReader reader) throws IOException {
+		List<SiteLink> siteLinks = new ArrayList<>();
+		reader.beginObject();
+		while (reader.hasNext()) {
+			String lang = reader.nextName().replace("wiki", "");
+			if (lang.equals("commons")) {
+				reader.skipValue();
+				continue;
+			}
+			String title = null;
+			reader.beginObject();
+			while (reader.hasNext()) {
+				if (reader.nextName().equals("title")) {
+					title = reader.nextString();
+				} else {
+					reader.skipValue();
+				}
+			}
+			reader.endObject();
+			if (title == null) {
+				throw new IllegalArgumentException("Sitelink title is missing");
+			}
+			siteLinks.add(new SiteLink(lang, title));
+		}
+		reader.endObject();
+		return siteLinks;
+	}
+
+	private static synchronized void logError(Exception e, Object json) {
+		errorCount++;
+		if (errorCount == ERROR_BATCH_SIZE) {
+			log.error(e.getMessage(), e);
+		}
+		if (errorCount % ERROR_BATCH_SIZE == 0) {
+			log.error(String.format("Error json pages %s (total %d)", json.toString(), errorCount));
+		}
+	}
+
 	public static class Article {
 		private List<SiteLink> siteLinks = new ArrayList<>();
 		private double lat;
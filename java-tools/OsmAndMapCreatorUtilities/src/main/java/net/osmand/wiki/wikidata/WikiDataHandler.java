@@ -1,23 +1,27 @@
 package net.osmand.wiki.wikidata;
 
 import java.io.File;
-import java.io.IOException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import javax.xml.parsers.SAXParser;
 
 import org.apache.commons.lang3.StringEscapeUtils;
 import org.apache.commons.logging.Log;
 import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
 import org.xml.sax.helpers.DefaultHandler;
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-
 import net.osmand.PlatformUtil;
 import net.osmand.impl.FileProgressImplementation;
 import net.osmand.map.OsmandRegions;
@@ -52,21 +56,44 @@ public class WikiDataHandler extends DefaultHandler {
 	private final static int ARTICLE_BATCH_SIZE = 10000;
 	private static final int ERROR_BATCH_SIZE = 200;
 
+	private static final Future<MappedArticle> FINISH = CompletableFuture.completedFuture(null);
+
 	private int count = 0;
 	private int errorCount = 0;
 
-	private Gson gson;
-
 	private OsmandRegions regions;
 	private List<String> keyNames = new ArrayList<>();
 
 	OsmCoordinatesByTag osmWikiCoordinates;
 	private long lastProcessedId;
 
+	// entities are mapped in parallel and written by single thread in dump order
+	private final ExecutorService mapService;
+	private final BlockingQueue<Future<MappedArticle>> writeQueue;
+	private final Thread writerThread;
+	private volatile Exception writerError;
+	private volatile long pages;
+	private volatile long jsonBytes;
+
+	private static class MappedArticle {
+		long id;
+		String title;
+		ArticleMapper.Article article;
+		double wlat;
+		double wlon;
+		OsmLatLonId osmCoordinates;
+		List<String> regions;
+	}
 
 	public WikiDataHandler(SAXParser saxParser, FileProgressImplementation progress, File wikidataSqlite,
 	                       OsmCoordinatesByTag osmWikiCoordinates, OsmandRegions regions, long lastProcessedId)
 			throws SQLException {
+		this(saxParser, progress, wikidataSqlite, osmWikiCoordinates, regions, lastProcessedId, 1);
+	}
+
+	public WikiDataHandler(SAXParser saxParser, FileProgressImplementation progress, File wikidataSqlite,
+	                       OsmCoordinatesByTag osmWikiCoordinates, OsmandRegions regions, long lastProcessedId,
+	                       int threads) throws SQLException {
 		this.saxParser = saxParser;
 		this.osmWikiCoordinates = osmWikiCoordinates;
 		this.regions = regions;
@@ -84,11 +111,11 @@ public class WikiDataHandler extends DefaultHandler {
 		mappingPrep = conn.prepareStatement("INSERT INTO wiki_mapping(id, lang, title) VALUES (?, ?, ?)");
 		wikiRegionPrep = conn.prepareStatement("INSERT OR IGNORE INTO wiki_region(id, regionName) VALUES(?, ? )");
 		wikidataPropPrep = conn.prepareStatement("INSERT INTO wikidata_properties(id, type, value) VALUES(?, ?, ?)");
-		gson = new GsonBuilder().registerTypeAdapter(ArticleMapper.Article.class, new ArticleMapper()).create();
-		
+		mapService = Executors.newFixedThreadPool(Math.max(1, threads));
+		writeQueue = new ArrayBlockingQueue<>(Math.max(1, threads) * 16);
+		writerThread = new Thread(this::writeArticles, "wikidata-writer");
+		writerThread.start();
 	}
-	
-	
 
 	public void addBatch(PreparedStatement prep, int[] bt) throws SQLException {
         prep.addBatch();
@@ -101,6 +128,21 @@ public class WikiDataHandler extends DefaultHandler {
     }
 
     public void finish() throws SQLException {
+        try {
+            while (!writeQueue.offer(FINISH, 1, TimeUnit.SECONDS)) {
+                checkWriter();
+            }
+            writerThread.join();
+        } catch (InterruptedException e) {
+            throw new SQLException(e);
+        } finally {
+            mapService.shutdownNow();
+        }
+        if (writerError instanceof SQLException) {
+            throw (SQLException) writerError;
+        } else if (writerError != null) {
+            throw new SQLException(writerError);
+        }
         log.info("Total accepted: " + count);
         conn.createStatement().execute("CREATE INDEX IF NOT EXISTS map_lang_title_idx ON wiki_mapping(lang, title)");
         conn.createStatement().execute("CREATE INDEX IF NOT EXISTS id_mapping_index on wiki_mapping(id)");
@@ -113,11 +155,15 @@ public class WikiDataHandler extends DefaultHandler {
 
         coordsPrep.executeBatch();
         mappingPrep.executeBatch();
+        wikiRegionPrep.executeBatch();
+        wikidataPropPrep.executeBatch();
         if (!conn.getAutoCommit()) {
             conn.commit();
         }
         mappingPrep.close();
         coordsPrep.close();
+        wikiRegionPrep.close();
+        wikidataPropPrep.close();
         conn.close();
     }
 
@@ -154,12 +200,13 @@ public class WikiDataHandler extends DefaultHandler {
 	}
 
 	@Override
-	public void endElement(String uri, String localName, String qName) {
+	public void endElement(String uri, String localName, String qName) throws SAXException {
 		String name = saxParser.isNamespaceAware() ? localName : qName;
 		if (page) {
 			switch (name) {
 				case "page":
 					page = false;
+					pages++;
 					progress.update();
 					break;
 				case "title":
@@ -179,16 +226,11 @@ public class WikiDataHandler extends DefaultHandler {
 						if (id < lastProcessedId) {
 							return;
 						}
-						processJsonPage(id, ctext.toString());
-					} catch (Exception e) {
-						// Generally means that the field is missing in the json or the incorrect data is supplied
-						errorCount++;
-						if (errorCount == ERROR_BATCH_SIZE) {
-							log.error(e.getMessage(), e);
-						}
-						if (errorCount % ERROR_BATCH_SIZE == 0) {
-							log.error(String.format("Error pages %s (total %d)", title, errorCount));
-						}
+						submit(id, t, ctext.toString());
+					} catch (SQLException e) {
+						throw new SAXException(e);
+					} catch (RuntimeException e) {
+						logPageError(title.toString(), e);
 					}
 					break;
 			}
@@ -197,64 +239,139 @@ public class WikiDataHandler extends DefaultHandler {
 
 
 
-	public void processJsonPage(long id, String json) throws SQLException, IOException {
-		ArticleMapper.Article article = gson.fromJson(json, ArticleMapper.Article.class);
-		OsmLatLonId osmCoordinates = null;
-		double wlat = article.getLat();
-		double wlon = article.getLon();
-		osmCoordinates = getOsmCoordinates(id, article, osmCoordinates);
-		if (osmCoordinates != null) {
-			article.setLat(osmCoordinates.lat);
-			article.setLon(osmCoordinates.lon);
+	public void processJsonPage(long id, String json) throws SQLException {
+		submit(id, title.toString(), json);
+	}
+
+	private void submit(long id, String title, String json) throws SQLException {
+		jsonBytes += json.length();
+		Future<MappedArticle> f = mapService.submit(() -> mapArticle(id, title, json));
+		try {
+			while (!writeQueue.offer(f, 1, TimeUnit.SECONDS)) {
+				checkWriter();
+			}
+		} catch (InterruptedException e) {
+			throw new SQLException(e);
 		}
+	}
 
-		if (article.getLat() != 0 || article.getLon() != 0) {
-			if (++count % ARTICLE_BATCH_SIZE == 0) {
-				log.info(String.format("Article accepted %s (%d)", title, count));
+	private void checkWriter() throws SQLException {
+		if (!writerThread.isAlive()) {
+			throw new SQLException("Wikidata writer has stopped", writerError);
+		}
+	}
+
+	private MappedArticle mapArticle(long id, String title, String json) {
+		try {
+			MappedArticle m = new MappedArticle();
+			m.id = id;
+			m.title = title;
+			m.article = ArticleMapper.readArticle(json);
+			ArticleMapper.Article article = m.article;
+			m.wlat = article.getLat();
+			m.wlon = article.getLon();
+			m.osmCoordinates = getOsmCoordinates(id, article, null);
+			if (m.osmCoordinates != null) {
+				article.setLat(m.osmCoordinates.lat);
+				article.setLon(m.osmCoordinates.lon);
 			}
-			int ind = 0;
-			coordsPrep.setLong(++ind, id);
-			coordsPrep.setString(++ind, title.toString());
-			coordsPrep.setDouble(++ind, article.getLat());
-			coordsPrep.setDouble(++ind, article.getLon());
-			coordsPrep.setDouble(++ind, wlat);
-			coordsPrep.setDouble(++ind, wlon);
-			coordsPrep.setInt(++ind, osmCoordinates != null ? (osmCoordinates.type + 1) : 0);
-			coordsPrep.setLong(++ind, osmCoordinates != null ? osmCoordinates.id : 0);
-			coordsPrep.setString(++ind, osmCoordinates != null &&  osmCoordinates.amenity != null ? osmCoordinates.amenity.getType().getKeyName(): null);
-			coordsPrep.setString(++ind, osmCoordinates != null &&  osmCoordinates.amenity != null ? osmCoordinates.amenity.getSubType() : null );
-
-			addBatch(coordsPrep, coordsBatch);
-			List<String> rgs = regions.getRegionsToDownload(article.getLat(), article.getLon(), keyNames);
-			for (String reg : rgs) {
-				wikiRegionPrep.setLong(1, id);
-				wikiRegionPrep.setString(2, reg);
-				addBatch(wikiRegionPrep, regionBatch);
+			if (article.getLat() == 0 && article.getLon() == 0) {
+				return null;
 			}
-			for (ArticleMapper.SiteLink siteLink : article.getSiteLinks()) {
-				mappingPrep.setLong(1, id);
-				mappingPrep.setString(2, siteLink.lang);
-				mappingPrep.setString(3, siteLink.title);
-				addBatch(mappingPrep, mappingBatch);
+			// regions cache is not thread safe
+			synchronized (regions) {
+				m.regions = regions.getRegionsToDownload(article.getLat(), article.getLon(), keyNames);
 			}
 			if (article.getImage() != null) {
-				String image = StringEscapeUtils.unescapeJava(article.getImage());
-				wikidataPropPrep.setLong(1, id);
-				wikidataPropPrep.setString(2, article.getImageProp());
-				wikidataPropPrep.setString(3, image);
-				addBatch(wikidataPropPrep, wikidataPropBatch);
+				article.setImage(StringEscapeUtils.unescapeJava(article.getImage()));
 			}
 			if (article.getCommonCat() != null) {
-				String commonCat = StringEscapeUtils.unescapeJava(article.getCommonCat());
-				wikidataPropPrep.setLong(1, id);
-				wikidataPropPrep.setString(2, ArticleMapper.PROP_COMMON_CAT);
-				wikidataPropPrep.setString(3, commonCat);
-				addBatch(wikidataPropPrep, wikidataPropBatch);
+				article.setCommonCat(StringEscapeUtils.unescapeJava(article.getCommonCat()));
 			}
+			return m;
+		} catch (Exception e) {
+			logPageError(title, e);
+			return null;
+		}
+	}
+
+	private synchronized void logPageError(String title, Exception e) {
+		// Generally means that the field is missing in the json or the incorrect data is supplied
+		errorCount++;
+		if (errorCount == ERROR_BATCH_SIZE) {
+			log.error(e.getMessage(), e);
+		}
+		if (errorCount % ERROR_BATCH_SIZE == 0) {
+			log.error(String.format("Error pages %s (total %d)", title, errorCount));
 		}
 	}
 
+	private void writeArticles() {
+		long start = System.currentTimeMillis();
+		try {
+			while (true) {
+				Future<MappedArticle> f = writeQueue.take();
+				if (f == FINISH) {
+					break;
+				}
+				MappedArticle m = f.get();
+				if (m == null) {
+					continue;
+				}
+				writeArticle(m);
+				if (++count % ARTICLE_BATCH_SIZE == 0) {
+					double sec = Math.max(1, System.currentTimeMillis() - start) / 1000.0;
+					log.info(String.format("Article accepted %s (%d of %d pages, %.1f articles/s, json %.2f MB/s, %d in queue)",
+							m.title, count, pages, count / sec, jsonBytes / (double) (1 << 20) / sec, writeQueue.size()));
+				}
+			}
+		} catch (Exception e) {
+			writerError = e;
+			log.error("Error writing wikidata: " + e.getMessage(), e);
+		}
+	}
 
+	private void writeArticle(MappedArticle m) throws SQLException {
+		ArticleMapper.Article article = m.article;
+		OsmLatLonId osmCoordinates = m.osmCoordinates;
+		long id = m.id;
+		int ind = 0;
+		coordsPrep.setLong(++ind, id);
+		coordsPrep.setString(++ind, m.title);
+		coordsPrep.setDouble(++ind, article.getLat());
+		coordsPrep.setDouble(++ind, article.getLon());
+		coordsPrep.setDouble(++ind, m.wlat);
+		coordsPrep.setDouble(++ind, m.wlon);
+		coordsPrep.setInt(++ind, osmCoordinates != null ? (osmCoordinates.type + 1) : 0);
+		coordsPrep.setLong(++ind, osmCoordinates != null ? osmCoordinates.id : 0);
+		coordsPrep.setString(++ind, osmCoordinates != null &&  osmCoordinates.amenity != null ? osmCoordinates.amenity.getType().getKeyName(): null);
+		coordsPrep.setString(++ind, osmCoordinates != null &&  osmCoordinates.amenity != null ? osmCoordinates.amenity.getSubType() : null );
+
+		addBatch(coordsPrep, coordsBatch);
+		for (String reg : m.regions) {
+			wikiRegionPrep.setLong(1, id);
+			wikiRegionPrep.setString(2, reg);
+			addBatch(wikiRegionPrep, regionBatch);
+		}
+		for (ArticleMapper.SiteLink siteLink : article.getSiteLinks()) {
+			mappingPrep.setLong(1, id);
+			mappingPrep.setString(2, siteLink.lang);
+			mappingPrep.setString(3, siteLink.title);
+			addBatch(mappingPrep, mappingBatch);
+		}
+		if (article.getImage() != null) {
+			wikidataPropPrep.setLong(1, id);
+			wikidataPropPrep.setString(2, article.getImageProp());
+			wikidataPropPrep.setString(3, article.getImage());
+			addBatch(wikidataPropPrep, wikidataPropBatch);
+		}
+		if (article.getCommonCat() != null) {
+			wikidataPropPrep.setLong(1, id);
+			wikidataPropPrep.setString(2, ArticleMapper.PROP_COMMON_CAT);
+			wikidataPropPrep.setString(3, article.getCommonCat());
+			addBatch(wikidataPropPrep, wikidataPropBatch);
+		}
+	}
 
 	private OsmLatLonId getOsmCoordinates(long wid, ArticleMapper.Article article, OsmLatLonId osmCoordinates) {
 		for (ArticleMapper.SiteLink siteLink : article.getSiteLinks()) {
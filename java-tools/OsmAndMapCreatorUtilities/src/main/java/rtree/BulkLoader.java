@@ -0,0 +1,542 @@
+//BulkLoader.java
+//
+//This library is free software; you can redistribute it and/or
+//modify it under the terms of the GNU Lesser General Public
+//License as published by the Free Software Foundation; either
+//version 2.1 of the License, or (at your option) any later version.
+//
+//This library is distributed in the hope that it will be useful,
+//but WITHOUT ANY WARRANTY; without even the implied warranty of
+//MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//Lesser General Public License for more details.
+package rtree;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+   Builds a packed rtree file from a stream of leaf elements without an intermediate (non packed)
+   rtree file.
+   <br>Elements are kept in primitive arrays and ordered by the Hilbert value of the center of their
+   rectangles. When the buffer is full the sorted run is spilled to a temporary file, runs are merged
+   when the tree is written (external sort), so only the run buffer and the MBRs of the leaves are
+   held in memory.
+   <br>Sorted elements are written to full leaves one by one, upper levels are built from consecutive
+   nodes of the level below. Nodes of a level get consecutive indexes, leaves first and root last,
+   so the parent of every node is known before it is written.
+   <br>The file format is the same as the one written by <code>Pack</code>.
+*/
+public class BulkLoader
+{
+  /**Default number of elements sorted in memory*/
+  public static final int RUN_SIZE = 1 << 21;
+  private static final int HILBERT_ORDER = 31;
+  private static final int IO_BUFFER_SIZE = 1 << 16;
+  /**nodes written at once*/
+  private static final int WRITE_NODES = 64;
+
+  private final File tmpDir;
+  private final int runSize;
+  private final List<File> runs = new ArrayList<File>();
+  private long[] keys;
+  private int[] rects;
+  private long[] ptrs;
+  private int count;
+  private long total;
+
+  /**
+     @param tmpDir directory of temporary run files, <code>null</code> for default temp directory
+  */
+  public BulkLoader(File tmpDir)
+  {
+    this(tmpDir, RUN_SIZE);
+  }
+
+  public BulkLoader(File tmpDir, int runSize)
+  {
+    this.tmpDir = tmpDir;
+    this.runSize = runSize;
+    keys = new long[Math.min(runSize, 1024)];
+    rects = new int[keys.length * 4];
+    ptrs = new long[keys.length];
+  }
+
+  public void insert(Element elmt)
+    throws IOException
+  {
+    Rect r = elmt.getRect();
+    insert(r.getMinX(), r.getMinY(), r.getMaxX(), r.getMaxY(), elmt.getPtr());
+  }
+
+  public synchronized void insert(int minX, int minY, int maxX, int maxY, long ptr)
+    throws IOException
+  {
+    if(count == runSize)
+      spill();
+    if(count == keys.length)
+      grow();
+    keys[count] = hilbert(center(minX, maxX), center(minY, maxY));
+    rects[count * 4] = minX;
+    rects[count * 4 + 1] = minY;
+    rects[count * 4 + 2] = maxX;
+    rects[count * 4 + 3] = maxY;
+    ptrs[count] = ptr;
+    count++;
+    total++;
+  }
+
+  /**total number of inserted elements*/
+  public synchronized long size()
+  {
+    return total;
+  }
+
+  /**
+     Writes the packed tree to <code>packFile</code>, the file is overwritten.
+     The file must not be opened as <code>RTree</code> before.
+     <br>The loader is closed after the call.
+  */
+  public synchronized RTree pack(String packFile)
+    throws RTreeException
+  {
+    File f = new File(packFile);
+    if(f.exists())
+      f.delete();
+    try{
+      RandomAccessFile raf = new RandomAccessFile(f, "rw");
+      try{
+        writeTree(raf.getChannel());
+      }finally{
+        raf.close();
+      }
+    }catch(IOException e){
+      throw new RTreeException("BulkLoader.pack: " + e.getMessage());
+    }finally{
+      close();
+    }
+    return new RTree(packFile);
+  }
+
+  /**Deletes temporary files and drops buffers*/
+  public synchronized void close()
+  {
+    for(File r : runs)
+      r.delete();
+    runs.clear();
+    keys = null;
+    rects = null;
+    ptrs = null;
+    count = 0;
+  }
+
+  private void grow()
+  {
+    int len = (int)Math.min((long)keys.length * 2, runSize);
+    long[] nkeys = new long[len];
+    int[] nrects = new int[len * 4];
+    long[] nptrs = new long[len];
+    System.arraycopy(keys, 0, nkeys, 0, count);
+    System.arraycopy(rects, 0, nrects, 0, count * 4);
+    System.arraycopy(ptrs, 0, nptrs, 0, count);
+    keys = nkeys;
+    rects = nrects;
+    ptrs = nptrs;
+  }
+
+  private void spill()
+    throws IOException
+  {
+    sort(0, count - 1);
+    File run = File.createTempFile("rtree", ".run", tmpDir);
+    runs.add(run);
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run), IO_BUFFER_SIZE));
+    try{
+      for(int i=0; i<count; i++){
+        out.writeLong(keys[i]);
+        out.writeInt(rects[i * 4]);
+        out.writeInt(rects[i * 4 + 1]);
+        out.writeInt(rects[i * 4 + 2]);
+        out.writeInt(rects[i * 4 + 3]);
+        out.writeLong(ptrs[i]);
+      }
+    }finally{
+      out.close();
+    }
+    count = 0;
+  }
+
+  private void writeTree(FileChannel channel)
+    throws IOException
+  {
+    //number of nodes and index of the first node of every level
+    List<long[]> levels = new ArrayList<long[]>();
+    long nodes = Math.max(1, (total + Node.MAX - 1) / Node.MAX);
+    long first = 0;
+    while(true){
+      levels.add(new long[]{first, nodes});
+      first += nodes;
+      if(nodes == 1)
+        break;
+      nodes = (nodes + Node.MAX - 1) / Node.MAX;
+    }
+    long totalNodes = first;
+    if(totalNodes > Integer.MAX_VALUE)
+      throw new IOException("Too many nodes " + totalNodes);
+    NodeWriter writer = new NodeWriter(channel);
+    //leaves
+    int[] mbrs = new int[(int)levels.get(0)[1] * 4];
+    ElementSource src = openSource();
+    try{
+      writeLevel(writer, src, levels, 0, mbrs);
+    }finally{
+      src.close();
+    }
+    //upper levels from the MBRs of the level below
+    for(int l=1; l<levels.size(); l++){
+      long[] lower = levels.get(l - 1);
+      int[] upper = new int[(int)levels.get(l)[1] * 4];
+      writeLevel(writer, new NodeSource(mbrs, lower[0], (int)lower[1]), levels, l, upper);
+      mbrs = upper;
+    }
+    writer.flush();
+    //file header, free node list is empty
+    ByteBuffer hdr = ByteBuffer.allocate(Node.INTEGER_SIZE * 2 + Node.LONG_SIZE);
+    hdr.putInt((int)totalNodes);
+    hdr.putLong(totalNodes - 1);
+    hdr.putInt(Node.NOT_DEFINED);
+    hdr.flip();
+    long pos = 0;
+    while(hdr.hasRemaining())
+      pos += channel.write(hdr, pos);
+  }
+
+  /**
+     Writes all nodes of the level, elements are taken from <code>src</code> in order.
+     MBRs of the written nodes are stored in <code>mbrs</code>.
+  */
+  private void writeLevel(NodeWriter writer, ElementSource src, List<long[]> levels, int level, int[] mbrs)
+    throws IOException
+  {
+    long first = levels.get(level)[0];
+    int nodes = (int)levels.get(level)[1];
+    boolean root = level == levels.size() - 1;
+    int elmtType = level == 0 ? Node.LEAF_NODE : Node.NONLEAF_NODE;
+    int elmtSize = level == 0 ? LeafElement.sizeInBytes() : NonLeafElement.sizeInBytes();
+    for(int n=0; n<nodes; n++){
+      long parent = root ? Node.NOT_DEFINED : levels.get(level + 1)[0] + n / Node.MAX;
+      ByteBuffer bb = writer.next(first + n);
+      int start = bb.position();
+      bb.position(start + Node.NODE_HDR_SIZE);
+      int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE;
+      int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+      int elmts = 0;
+      while(elmts < Node.MAX && src.next()){
+        bb.putInt(src.minX);
+        bb.putInt(src.minY);
+        bb.putInt(src.maxX);
+        bb.putInt(src.maxY);
+        bb.putLong(src.ptr);
+        minX = Math.min(minX, src.minX);
+        minY = Math.min(minY, src.minY);
+        maxX = Math.max(maxX, src.maxX);
+        maxY = Math.max(maxY, src.maxY);
+        elmts++;
+      }
+      bb.putInt(start, elmts);
+      bb.putLong(start + Node.INTEGER_SIZE, parent);
+      bb.putInt(start + Node.INTEGER_SIZE + Node.LONG_SIZE, elmtSize);
+      bb.putInt(start + Node.INTEGER_SIZE * 2 + Node.LONG_SIZE, elmtType);
+      bb.position(start + Node.NODE_SIZE);
+      mbrs[n * 4] = minX;
+      mbrs[n * 4 + 1] = minY;
+      mbrs[n * 4 + 2] = maxX;
+      mbrs[n * 4 + 3] = maxY;
+    }
+  }
+
+  private ElementSource openSource()
+    throws IOException
+  {
+    if(runs.isEmpty()){
+      sort(0, count - 1);
+      return new MemorySource();
+    }
+    if(count > 0)
+      spill();
+    keys = null;
+    rects = null;
+    ptrs = null;
+    return new MergeSource(runs);
+  }
+
+  private static int center(int min, int max)
+  {
+    return (int)(((long)min + max) >> 1);
+  }
+
+  /**Hilbert curve index of the 31 bit point, negative coordinates are clamped to 0*/
+  static long hilbert(int x, int y)
+  {
+    if(x < 0)
+      x = 0;
+    if(y < 0)
+      y = 0;
+    long d = 0;
+    for(int s = 1 << (HILBERT_ORDER - 1); s > 0; s >>= 1){
+      int rx = (x & s) > 0 ? 1 : 0;
+      int ry = (y & s) > 0 ? 1 : 0;
+      d += (long)s * s * ((3 * rx) ^ ry);
+      if(ry == 0){
+        if(rx == 1){
+          x = s - 1 - (x & (s - 1)) + (x & ~(s - 1));
+          y = s - 1 - (y & (s - 1)) + (y & ~(s - 1));
+        }
+        int t = x;
+        x = y;
+        y = t;
+      }
+    }
+    return d;
+  }
+
+  /**quick sort of the buffer by keys*/
+  private void sort(int lo, int hi)
+  {
+    while(hi - lo > 16){
+      int m = (lo + hi) >>> 1;
+      if(keys[m] < keys[lo])
+        swap(m, lo);
+      if(keys[hi] < keys[lo])
+        swap(hi, lo);
+      if(keys[hi] < keys[m])
+        swap(hi, m);
+      long pivot = keys[m];
+      int i = lo, j = hi;
+      while(i <= j){
+        while(keys[i] < pivot)
+          i++;
+        while(keys[j] > pivot)
+          j--;
+        if(i <= j)
+          swap(i++, j--);
+      }
+      //recurse into the smaller part
+      if(j - lo < hi - i){
+        sort(lo, j);
+        lo = i;
+      }else{
+        sort(i, hi);
+        hi = j;
+      }
+    }
+    for(int i=lo+1; i<=hi; i++)
+      for(int j=i; j>lo && keys[j] < keys[j - 1]; j--)
+        swap(j, j - 1);
+  }
+
+  private void swap(int i, int j)
+  {
+    long k = keys[i];
+    keys[i] = keys[j];
+    keys[j] = k;
+    long p = ptrs[i];
+    ptrs[i] = ptrs[j];
+    ptrs[j] = p;
+    for(int c=0; c<4; c++){
+      int r = rects[i * 4 + c];
+      rects[i * 4 + c] = rects[j * 4 + c];
+      rects[j * 4 + c] = r;
+    }
+  }
+
+  /**Writes nodes sequentially through a buffer of several nodes*/
+  private static class NodeWriter
+  {
+    private final FileChannel channel;
+    private final ByteBuffer bb = ByteBuffer.allocateDirect(Node.NODE_SIZE * WRITE_NODES);
+    private long firstNode;
+
+    NodeWriter(FileChannel channel)
+    {
+      this.channel = channel;
+    }
+
+    /**buffer positioned at the start of the node, nodes must be requested in order*/
+    ByteBuffer next(long nodeIdx)
+      throws IOException
+    {
+      if(!bb.hasRemaining())
+        flush();
+      if(bb.position() == 0)
+        firstNode = nodeIdx;
+      //nodes may contain garbage of previous writes after the last element
+      for(int i=bb.position(); i<bb.position() + Node.NODE_SIZE; i+=8)
+        bb.putLong(i, 0);
+      return bb;
+    }
+
+    void flush()
+      throws IOException
+    {
+      bb.flip();
+      long pos = Node.FILE_HDR_SIZE + firstNode * Node.NODE_SIZE;
+      while(bb.hasRemaining())
+        pos += channel.write(bb, pos);
+      bb.clear();
+    }
+  }
+
+  /**Sorted elements*/
+  private abstract static class ElementSource
+  {
+    int minX, minY, maxX, maxY;
+    long ptr;
+
+    abstract boolean next() throws IOException;
+
+    void close() throws IOException
+    {
+    }
+  }
+
+  private class MemorySource extends ElementSource
+  {
+    private int i;
+
+    @Override
+    boolean next()
+    {
+      if(i == count)
+        return false;
+      minX = rects[i * 4];
+      minY = rects[i * 4 + 1];
+      maxX = rects[i * 4 + 2];
+      maxY = rects[i * 4 + 3];
+      ptr = ptrs[i];
+      i++;
+      return true;
+    }
+  }
+
+  /**MBRs of the nodes of the lower level as elements pointing to the nodes*/
+  private static class NodeSource extends ElementSource
+  {
+    private final int[] mbrs;
+    private final long first;
+    private final int nodes;
+    private int i;
+
+    NodeSource(int[] mbrs, long first, int nodes)
+    {
+      this.mbrs = mbrs;
+      this.first = first;
+      this.nodes = nodes;
+    }
+
+    @Override
+    boolean next()
+    {
+      if(i == nodes)
+        return false;
+      minX = mbrs[i * 4];
+      minY = mbrs[i * 4 + 1];
+      maxX = mbrs[i * 4 + 2];
+      maxY = mbrs[i * 4 + 3];
+      ptr = first + i;
+      i++;
+      return true;
+    }
+  }
+
+  private static class RunReader
+  {
+    final DataInputStream in;
+    long key;
+    int minX, minY, maxX, maxY;
+    long ptr;
+
+    RunReader(File run)
+      throws IOException
+    {
+      in = new DataInputStream(new BufferedInputStream(new FileInputStream(run), IO_BUFFER_SIZE));
+    }
+
+    boolean read()
+      throws IOException
+    {
+      try{
+        key = in.readLong();
+      }catch(EOFException e){
+        return false;
+      }
+      minX = in.readInt();
+      minY = in.readInt();
+      maxX = in.readInt();
+      maxY = in.readInt();
+      ptr = in.readLong();
+      return true;
+    }
+  }
+
+  /**k-way merge of the sorted runs*/
+  private static class MergeSource extends ElementSource
+  {
+    private final List<RunReader> readers = new ArrayList<RunReader>();
+    private final PriorityQueue<RunReader> queue;
+
+    MergeSource(List<File> runs)
+      throws IOException
+    {
+      queue = new PriorityQueue<RunReader>(runs.size(), (a, b) -> Long.compare(a.key, b.key));
+      try{
+        for(File run : runs){
+          RunReader r = new RunReader(run);
+          readers.add(r);
+          if(r.read())
+            queue.add(r);
+        }
+      }catch(IOException e){
+        close();
+        throw e;
+      }
+    }
+
+    @Override
+    boolean next()
+      throws IOException
+    {
+      RunReader r = queue.poll();
+      if(r == null)
+        return false;
+      minX = r.minX;
+      minY = r.minY;
+      maxX = r.maxX;
+      maxY = r.maxY;
+      ptr = r.ptr;
+      if(r.read())
+        queue.add(r);
+      return true;
+    }
+
+    @Override
+    void close()
+      throws IOException
+    {
+      for(RunReader r : readers)
+        r.in.close();
+    }
+  }
+}
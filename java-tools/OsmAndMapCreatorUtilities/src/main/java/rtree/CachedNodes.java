@@ -13,13 +13,16 @@ package rtree;
 //package rtree;
 import java.util.*;
 import java.io.*;
+
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.hash.TIntObjectHashMap;
 import rtree.seeded.SdNode;
 /**
-   <b>A circular linked list of cached nodes using hashtable ?!!</b>
+   <b>A linked list of cached nodes in the int keyed hash map</b>
    <p>This class will wrap a list of recently used nodes.
-   If the requested node is in <tt>Hashtable</tt> of the class then the node would
-   be returned from the <tt>Hashtable</tt>, else it would be read from the
-   disk.
+   If the requested node is in the map of the class then the node would
+   be returned from the map, else it would be read from the
+   disk. Access and eviction of the least recently used node are O(1) and do not box keys.
    <br>This will be a static object in the class RTree. Therefore no matter how
    many RTree objects you create they all would have one cache for all the files
    the object handles.
@@ -29,11 +32,11 @@ import rtree.seeded.SdNode;
 */
 class BufferHeader
 {
-  int recent;//the most recently inserted node
-  int last;//the least recently inserted node
+  NodeValue recent;//the most recently used node
+  NodeValue last;//the least recently used node
   int size;//max size of the link list
-  Hashtable cache;
-  BufferHeader(int size,Hashtable ch)
+  TIntObjectHashMap<NodeValue> cache;
+  BufferHeader(int size,TIntObjectHashMap<NodeValue> ch)
   {
     this.cache = ch;
     this.size = size;
@@ -43,160 +46,79 @@ class BufferHeader
     throws NodeWriteException
   {
     //if(!RTree.writeThr){
-    for (Iterator it = cache.values().iterator(); it.hasNext();){
-      NodeValue node = (NodeValue)it.next();
+    for (NodeValue node = last; node != null; node = node.next){
       node.node.flush();
-    } // end of for (Iterator  = .iterator(); .hasNext();)
+    } // end of for
     //}
   }
   /*for a fresh key when the array is not full.This will be called when the
     buffer is not fully warm*/
   void put(int key, Node node)
+    throws NodeWriteException
   {
-    try{
-      //the following two conditions  happens in multithreaded programs
-      if(cache.containsKey(new Integer(key))){
-        update(key);
-        return;
-      }
-      if(cache.size() == size){
-        replace(key,node);
-        return;
-      }
-      if(cache.size() == 0){
-        last = key;
-        cache.put(new Integer(key), new NodeValue(node,key,key));
-      }else{
-        //remove recent
-        NodeValue tmpPrev = (NodeValue)(cache.remove(new Integer(recent)));
-        if(last == recent){//there is only one node in cache
-          cache.put(new Integer(key), new NodeValue(node,tmpPrev.next,tmpPrev.next));
-          cache.put(new Integer(recent), new NodeValue(tmpPrev.node,key,key));
-        }
-        else{
-          //remove next of previous
-          NodeValue tmpPNext = (NodeValue)(cache.remove(new Integer(tmpPrev.next)));
-          cache.put(new Integer(key), new NodeValue(node,tmpPrev.next,recent));
-          cache.put(new Integer(tmpPrev.next), new NodeValue(tmpPNext.node,tmpPNext.next,key));
-          cache.put(new Integer(recent), new NodeValue(tmpPrev.node,key,tmpPrev.prev));
-        }
-      }
-      recent = key;
+    //the following two conditions  happens in multithreaded programs
+    if(cache.containsKey(key)){
+      update(key);
+      return;
     }
-    catch(Exception e){
-      e.printStackTrace();
+    if(cache.size() >= size){
+      replace(key,node);
+      return;
     }
+    NodeValue value = new NodeValue(node,key);
+    cache.put(key, value);
+    link(value);
   }
   /*a new key in a filled array*/
   void replace(int key,Node node)
     throws NodeWriteException
   {
-    try{
-      if(cache.containsKey(new Integer(key))){
-        update(key);
-        return;
-      }
-      if(cache.size() < size){
-        put(key,node);
-        return;
-      }
-      //remove the 'last' node
-      NodeValue lastNode = (NodeValue)(cache.remove(new Integer(last)));
-      lastNode.node.flush();
-      NodeValue pNode = (NodeValue)(cache.remove(new Integer(lastNode.prev)));
-      NodeValue nNode = (NodeValue)(cache.remove(new Integer(lastNode.next)));
-      //put back the three nodes
-      cache.put(new Integer(key), new NodeValue(node,lastNode.next, lastNode.prev));
-      cache.put(new Integer(lastNode.prev), new NodeValue(pNode.node,key,pNode.prev));
-      cache.put(new Integer(lastNode.next), new NodeValue(nNode.node,nNode.next,key));
-      recent = key;//this is the latest node
-      last = lastNode.next;//set the next in chain as the new 'last'
-
+    if(cache.containsKey(key)){
+      update(key);
+      return;
     }
-    catch(Exception e){
-      e.printStackTrace();
+    if(cache.size() < size){
+      put(key,node);
+      return;
     }
+    //remove the 'last' node
+    NodeValue lastNode = last;
+    if(lastNode != null){
+      unlink(lastNode);
+      cache.remove(lastNode.key);
+      lastNode.node.flush();
+    }
+    NodeValue value = new NodeValue(node,key);
+    cache.put(key, value);
+    link(value);
   }
   /**make a node that is present as 'recent'*/
   void update(int key)
   {
-    try{
-      if(key != recent){
-        NodeValue node,nextNode,prevNode,rcntNode,lastNode;//temp variables
-        node = (NodeValue)(cache.remove(new Integer(key)));
-        if(node == null){//will not happen
-          System.out.println("CachedNodes.update: unlikely flow");
-          return;
-        }
-        if(key == last){
-          last = node.next;
-          cache.put(new Integer(key), new NodeValue(node.node, node.next, node.prev));
-        }
-        else{
-          //adjust next node and the recent node
-          nextNode = (NodeValue)(cache.remove(new Integer(node.next)));
-          if(recent != node.next){//if next node is not the recent node
-            rcntNode = (NodeValue)(cache.remove(new Integer(recent)));
-            rcntNode.next = key;
-            cache.put(new Integer(recent), new NodeValue(rcntNode.node, rcntNode.next,rcntNode.prev));
-          }
-          else{//next node is the recent node
-            nextNode.next = key;
-          }
-          cache.put(new Integer(node.next), new NodeValue(nextNode.node, nextNode.next,node.prev));
-
-          //adjust previous node and the last node - if unequal
-          prevNode = (NodeValue)(cache.remove(new Integer(node.prev)));
-          if(last != node.prev){//if last node is not the prev node
-            lastNode = (NodeValue)(cache.remove(new Integer(last)));
-            lastNode.prev = key;
-            cache.put(new Integer(last),new NodeValue(lastNode.node, lastNode.next,lastNode.prev));
-          }
-          else{//if the last node is the prev node.
-            prevNode.prev = key;
-          }
-          cache.put(new Integer(node.prev), new NodeValue(prevNode.node, node.next,prevNode.prev));
-
-          //put the new node
-          cache.put(new Integer(key), new NodeValue(node.node,last,recent));
-        }
-        //update local variables
-      }
-      recent = key;
+    NodeValue node = cache.get(key);
+    if(node == null){//will not happen
+      System.out.println("CachedNodes.update: unlikely flow");
+      return;
     }
-    catch(Exception e){
-      e.printStackTrace();
+    if(node != recent){
+      unlink(node);
+      link(node);
     }
   }
   void remove(int key)
     throws NodeWriteException
   {
-    try{
-      NodeValue node = (NodeValue)(cache.remove(new Integer(key)));
-      if((cache.size() != 0) && (node != null)){
-        //if(!RTree.writeThr)
+    remove(key, true);
+  }
+  void remove(int key, boolean flush)
+    throws NodeWriteException
+  {
+    NodeValue node = cache.remove(key);
+    if(node != null){
+      unlink(node);
+      //if(!RTree.writeThr)
+      if(flush)
         node.node.flush();
-        if(cache.size() == 1){
-          NodeValue oNode = (NodeValue)(cache.remove(new Integer(node.prev)));
-          cache.put(new Integer(node.prev), new NodeValue(oNode.node, node.prev,node.prev));
-          recent = last = node.prev;
-        }
-        else{
-          //if(!RTree.writeThr)
-          node.node.flush();
-          NodeValue pNode = (NodeValue)(cache.remove(new Integer(node.prev)));
-          NodeValue nNode = (NodeValue)(cache.remove(new Integer(node.next)));
-          cache.put(new Integer(node.prev), new NodeValue(pNode.node, node.next,pNode.prev));
-          cache.put(new Integer(node.next), new NodeValue(nNode.node, nNode.next,node.prev));
-          if(key == recent)
-            recent = node.prev;
-          if(key == last)
-            last = node.next;
-        }
-      }
-    }
-    catch(Exception e){
-      e.printStackTrace();
     }
   }
   void reset()
@@ -205,19 +127,43 @@ class BufferHeader
     //if(!RTree.writeThr)
     flush();
     cache.clear();
+    recent = last = null;
+  }
+  /**adds the node as 'recent'*/
+  private void link(NodeValue node)
+  {
+    node.prev = recent;
+    node.next = null;
+    if(recent != null)
+      recent.next = node;
+    recent = node;
+    if(last == null)
+      last = node;
+  }
+  private void unlink(NodeValue node)
+  {
+    if(node.prev != null)
+      node.prev.next = node.next;
+    else
+      last = node.next;
+    if(node.next != null)
+      node.next.prev = node.prev;
+    else
+      recent = node.prev;
+    node.prev = node.next = null;
   }
 }
 public class CachedNodes
 {
   private static final int NODE = 0;
   private static final int SDNODE = 1;
-  Hashtable cache;
+  TIntObjectHashMap<NodeValue> cache;
   BufferHeader buffHeader;
   int size = Node.CACHE_SIZE;
   CachedNodes()
   {
     //System.out.println("CachedNodes : cache called");
-    cache = new Hashtable(Node.CACHE_SIZE+1,1);
+    cache = new TIntObjectHashMap<NodeValue>(Node.CACHE_SIZE+1);
     buffHeader = new BufferHeader(Node.CACHE_SIZE,cache);
     size = Node.CACHE_SIZE;
   }
@@ -228,7 +174,7 @@ public class CachedNodes
   {
     if(size < 0)
       throw new IllegalArgumentException("CachedNodes:: size is less than zero");
-    cache = new Hashtable(size+1,1);
+    cache = new TIntObjectHashMap<NodeValue>(size+1);
     buffHeader = new BufferHeader(size, cache);
     this.size = size;
   }
@@ -238,7 +184,7 @@ public class CachedNodes
     if(size < 0)
       throw new IllegalArgumentException("CachedNodes:: size is less than zero");
     removeAll();
-    cache = new Hashtable(size+1,1);
+    cache = new TIntObjectHashMap<NodeValue>(size+1);
     buffHeader = new BufferHeader(size, cache);
     this.size = size;
   }
@@ -251,7 +197,7 @@ public class CachedNodes
   {
     int ndIndex = (int)lndIndex;
     int key = calKey(fileName,ndIndex);
-    NodeValue node = (NodeValue)(cache.get(new Integer(key)));
+    NodeValue node = cache.get(key);
     Node nNode;
     if(node == null){//Node not in cache
       if(type == NODE){
@@ -262,9 +208,9 @@ public class CachedNodes
       key = calKey(fileName, (int)nNode.getNodeIndex());//this is for the case where index is NOT_DEFINED
       nNode.sweepSort();
       //cache not full
-      if(cache.size() < Node.CACHE_SIZE){
+      if(cache.size() < size){
         buffHeader.put(key,nNode);//(Node)nNode.clone());
-      }else if(cache.size() == Node.CACHE_SIZE){//cache Is full
+      }else{//cache Is full
         buffHeader.replace(key,nNode);//(Node)nNode.clone());
       }
       return nNode;
@@ -288,10 +234,10 @@ public class CachedNodes
     int key = calKey(fileName, (int)nNode.getNodeIndex());
     nNode.sweepSort();
     //cache not full
-    if(cache.size() < Node.CACHE_SIZE)
+    if(cache.size() < size)
       buffHeader.put(key,nNode);
     //cache Is full
-    else if(cache.size() == Node.CACHE_SIZE)
+    else
       buffHeader.replace(key,nNode);
     return nNode;
   }
@@ -380,10 +326,33 @@ public class CachedNodes
     buffHeader.reset();
   }
 
+  /**
+     Removes cached nodes of one file (dirty nodes are written if <code>flush</code>), key of the file
+     is reused by other files after that.
+  */
+  synchronized void removeFile(String fileName, boolean flush)
+    throws NodeWriteException
+  {
+    Integer i = fileNamesMap.remove(fileName);
+    if(i == null)
+      return;
+    for(int key : cache.keys()){
+      if((key & FILE_KEY_MASK) == i)
+        buffHeader.remove(key, flush);
+    }
+    freeFileKeys.add(i);
+  }
+
+  private static final int FILE_KEY_MASK = 1023;
   static Map<String, Integer> fileNamesMap = new LinkedHashMap<String, Integer>();
+  // keys of removed files, so long running processes don't run out of 1024 keys
+  static TIntArrayList freeFileKeys = new TIntArrayList();
+  static int nextFileKey = 0;
 
   static void clearFileNamesMap(){
 	  fileNamesMap.clear();
+	  freeFileKeys.clear();
+	  nextFileKey = 0;
   }
 
   int calKey(String fileName,int idx)
@@ -391,11 +360,14 @@ public class CachedNodes
     if(fileName != null) {
     	Integer i = fileNamesMap.get(fileName);
     	if(i == null){
-    		if(fileNamesMap.size() > 1023){
-    			throw new ArrayIndexOutOfBoundsException();
+    		if(!freeFileKeys.isEmpty()){
+    			i = freeFileKeys.removeAt(freeFileKeys.size() - 1);
+    		}else if(nextFileKey > FILE_KEY_MASK){
+    			throw new ArrayIndexOutOfBoundsException("Too many rtree files are cached " + fileNamesMap.size());
+    		}else{
+    			i = nextFileKey++;
     		}
-    		fileNamesMap.put(fileName, fileNamesMap.size());
-    		i = fileNamesMap.get(fileName);
+    		fileNamesMap.put(fileName, i);
     	}
 //      System.out.println(idx + " " + fileName + " " + ((idx << 5)+ fileName.toLowerCase().hashCode() % 32));
       return ((idx << 10)+ i);
@@ -408,13 +380,13 @@ public class CachedNodes
 class NodeValue
 {
   Node node;
-  int next;//the next node's key
-  int prev;//the prev node's key
-  NodeValue(Node node,int n,int p)
+  int key;
+  NodeValue next;//the more recently used node
+  NodeValue prev;//the less recently used node
+  NodeValue(Node node,int key)
   {
     this.node = node;
-    next = n;
-    prev = p;
+    this.key = key;
   }
 }
 /**
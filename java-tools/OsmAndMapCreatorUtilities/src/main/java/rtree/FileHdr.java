@@ -36,6 +36,8 @@ public class FileHdr
   /**Index of the top most element*/
   private int topIdx;
   private RandomAccessFile file;
+  /**node I/O of the file*/
+  private NodeStorage storage;
   private String fileName;
   private boolean dirty = false;/*Tells whethet this is a dirty filehdr or not*/
   /**If any write thread is interested then increment this. This variable
@@ -67,6 +69,7 @@ public class FileHdr
   {
     try{
       this.file = new RandomAccessFile(fileName,"rw");
+      this.storage = new NodeStorage(file);
       this.fileName = fileName;
       this.writeThr = false;
       this.stkLimit = stkLimit;
@@ -123,6 +126,7 @@ public class FileHdr
     try{
       file.close();
       this.file = new RandomAccessFile(fileName,"rw");
+      this.storage = new NodeStorage(file);
       //file.getFD().sync();
       S = new int[this.stkLimit];
       topIdx = -1;
@@ -166,6 +170,7 @@ public class FileHdr
     S = new int[this.stkLimit];
     topIdx = -1;
     int frNode;
+    storage.reset();
     file.setLength(1);
     file.seek(0);
     file.writeInt(0);
@@ -296,6 +301,10 @@ public class FileHdr
   {
     return this.file;
   }
+  NodeStorage getStorage()
+  {
+    return this.storage;
+  }
   /**
      Will return the total nodes in the tree. This does not include the nodes that are deleted and are
      in the stack.
@@ -11,12 +11,11 @@
 //Lesser General Public License for more details.
 package rtree;
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 /**
@@ -276,7 +275,7 @@ public Object clone()
         int minX,minY,maxX,maxY;
         //create a buffer
         byte[] data = new byte[NODE_SIZE];
-        seekCurrNode();
+        file.seek(nodePos(nodeIndex));
         file.read(data);
         DataInputStream ds = new DataInputStream(new ByteArrayInputStream(data));
         //skip the header - check for error value
@@ -321,37 +320,28 @@ public Object clone()
     int j = -1;
     try{
       nodeMBR = new Rect();//remove
-      ByteArrayOutputStream bs = null;
-      DataOutputStream ds = null;
+      ByteBuffer bb = null;
       if(fileHdr.isWriteThr() || force){
-        bs = new ByteArrayOutputStream(NODE_SIZE);
-        ds =  new DataOutputStream(bs);
+        bb = NodeStorage.acquire();
         if(index < 0)
-          ds.writeInt(totalElements);
+          bb.putInt(totalElements);
         else
-          ds.writeInt(totalElements - 1);
-        ds.writeLong(parent);
-        ds.writeInt(elementSize);
-        ds.writeInt(elementType);
+          bb.putInt(totalElements - 1);
+        bb.putLong(parent);
+        bb.putInt(elementSize);
+        bb.putInt(elementType);
       }
       for(int i=0; i<totalElements; i++){
         if(i != index){
           nodeMBR.expandToInclude(elements[i].getRect());//update the local variable as well - remove
           if(fileHdr.isWriteThr() || force){//same condition of buffer policy again, we wanted the loop
-            ds.writeInt(elements[i].getRect().getMinX());
-            ds.writeInt(elements[i].getRect().getMinY());
-            ds.writeInt(elements[i].getRect().getMaxX());
-            ds.writeInt(elements[i].getRect().getMaxY());
-            ds.writeLong(elements[i].getPtr());//see [2]
+            putElement(bb, elements[i].getRect(), elements[i].getPtr());//see [2]
           }//if
         }else
           j = i;
       }//for
       if(fileHdr.isWriteThr() || force){
-        bs.flush();
-        ds.flush();
-        seekCurrNode();
-        file.write(bs.toByteArray());
+        writeBuffer(nodePos(nodeIndex), bb);
         setDirty(false);
       }else{//if we do not write through
         setDirty(true);
@@ -468,20 +458,10 @@ public Object clone()
         elementType = NONLEAF_NODE;
       }
       if(fileHdr.isWriteThr()){
-        //byte[] data = new byte[elementSize];
-        ByteArrayOutputStream bs = new ByteArrayOutputStream(elementSize);
-        DataOutputStream ds =  new DataOutputStream(bs);
-        ds.writeInt(elmt.getRect().getMinX());
-        ds.writeInt(elmt.getRect().getMinY());
-        ds.writeInt(elmt.getRect().getMaxX());
-        ds.writeInt(elmt.getRect().getMaxY());
-        ds.writeLong(elmt.getPtr());//see [2] - replace elements with elmt
-
-        bs.flush();
-        ds.flush();
+        ByteBuffer bb = NodeStorage.acquire();
+        putElement(bb, elmt.getRect(), elmt.getPtr());//see [2] - replace elements with elmt
         //write to the file
-        seekLastElement();//uses var.
-        file.write(bs.toByteArray());
+        writeBuffer(nodePos(nodeIndex) + NODE_HDR_SIZE + (elementSize * totalElements), bb);//uses var.
         setDirty(false);
       }else
         setDirty(true);
@@ -595,26 +575,20 @@ public Object clone()
         elementSize = NonLeafElement.sizeInBytes();
         elementType = NONLEAF_NODE;
       }
-      ByteArrayOutputStream bs = null;
-      DataOutputStream ds =  null;
+      ByteBuffer bb = null;
 
       //write node header
 
       if(fileHdr.isWriteThr()){
         setDirty(false);
-        bs = new ByteArrayOutputStream(Node.NODE_SIZE);
-        ds =  new DataOutputStream(bs);
-        writeNodeHeader(nodeIndex, totalElements+elmts.length, parent, elementSize, elementType, ds);
+        bb = NodeStorage.acquire();
+        writeNodeHeader(nodeIndex, totalElements+elmts.length, parent, elementSize, elementType, bb);
         //write the existing elements
         for(int i=0; i<oldTotalElements; i++){
-          ds.writeInt(elements[i].getRect().getMinX());
-          ds.writeInt(elements[i].getRect().getMinY());
-          ds.writeInt(elements[i].getRect().getMaxX());
-          ds.writeInt(elements[i].getRect().getMaxY());
-          ds.writeLong(elements[i].getPtr());
+          putElement(bb, elements[i].getRect(), elements[i].getPtr());
         }
       }else{
-        writeNodeHeader(nodeIndex, totalElements+elmts.length, parent, elementSize, elementType, ds);
+        writeNodeHeader(nodeIndex, totalElements+elmts.length, parent, elementSize, elementType, bb);
         setDirty(true);
       }
       //write the new elements
@@ -622,19 +596,12 @@ public Object clone()
         nodeMBR.expandToInclude(elmts[i].getRect());//remove
         elements[oldTotalElements+i] = elmts[i];
         if(fileHdr.isWriteThr()){
-          ds.writeInt(elmts[i].getRect().getMinX());
-          ds.writeInt(elmts[i].getRect().getMinY());
-          ds.writeInt(elmts[i].getRect().getMaxX());
-          ds.writeInt(elmts[i].getRect().getMaxY());
-          ds.writeLong(elmts[i].getPtr());
+          putElement(bb, elmts[i].getRect(), elmts[i].getPtr());
         }
       }
       if(fileHdr.isWriteThr()){
-        bs.flush();
-        ds.flush();
         //write to the file
-        seekNode(nodeIndex);
-        file.write(bs.toByteArray());
+        writeBuffer(nodePos(nodeIndex), bb);
       }
       //local variables
       //isNodeEmpty = false;
@@ -654,37 +621,34 @@ public Object clone()
     }
   }
 
-  /**this function simply places the file pointer, it does not check for any
-     condition like placing the pointer beyond the end of file
-  */
-  private void seekCurrNode() throws IOException
-  {
-    file.seek(FILE_HDR_SIZE + (nodeIndex * NODE_SIZE));
-  }
-  /**seek the specified node*/
-  private void seekNode(long nodeIdx) throws IOException
+  /**position of the node in the file, no checking*/
+  private static long nodePos(long nodeIdx)
   {
-    file.seek(FILE_HDR_SIZE + (nodeIdx * NODE_SIZE));
+    return FILE_HDR_SIZE + (nodeIdx * NODE_SIZE);
   }
-
-  /**Seek the last element of the node. No checking*/
-  private void seekLastElement() throws IOException
+  /**position of the specified element of the current node, no checking*/
+  private long elementPos(int elmtIndex)
   {
-    file.seek(FILE_HDR_SIZE + (nodeIndex * NODE_SIZE)
-              + (NODE_HDR_SIZE) +(elementSize * totalElements));
+    return nodePos(nodeIndex) + (NODE_HDR_SIZE) + (elementSize * elmtIndex);
   }
-  /**seek the specified element.No checking*/
-  private void seekElement(int elmtIndex) throws IOException
+  private static void putElement(ByteBuffer bb, Rect rect, long ptr)
   {
-    file.seek(FILE_HDR_SIZE + (nodeIndex * NODE_SIZE)
-              + (NODE_HDR_SIZE) + (elementSize * elmtIndex));
+    bb.putInt(rect.getMinX());
+    bb.putInt(rect.getMinY());
+    bb.putInt(rect.getMaxX());
+    bb.putInt(rect.getMaxY());
+    bb.putLong(ptr);
   }
-  /**seek the specified element's pointer.No checking*/
-  private void seekElementPtr(int elmtIndex) throws IOException
+  /**writes the buffer at the given position of the file and returns it to the pool*/
+  private void writeBuffer(long pos, ByteBuffer bb)
+    throws IOException
   {
-    file.seek(FILE_HDR_SIZE + (nodeIndex * NODE_SIZE)
-              + (NODE_HDR_SIZE) + (elementSize * elmtIndex)
-              + Rect.sizeInBytes());
+    try{
+      bb.flip();
+      fileHdr.getStorage().write(pos, bb);
+    }finally{
+      NodeStorage.release(bb);
+    }
   }
   public int getElementType()
   {
@@ -699,18 +663,13 @@ public Object clone()
     if(fileHdr.isWriteThr())
       RTree.chdNodes.remove(fileName,nodeIndex);
     if(fileHdr.isWriteThr()){
-      ByteArrayOutputStream bs = new ByteArrayOutputStream(FILE_HDR_SIZE);
-      DataOutputStream ds =  new DataOutputStream(bs);
-      ds.writeInt(totElmt);//total elements
-      ds.writeLong(prnt);//parent
-      ds.writeInt(elmtSz);//element size
-      ds.writeInt(elmtTp);//element type
-
-      bs.flush();
-      ds.flush();
+      ByteBuffer bb = NodeStorage.acquire();
+      bb.putInt(totElmt);//total elements
+      bb.putLong(prnt);//parent
+      bb.putInt(elmtSz);//element size
+      bb.putInt(elmtTp);//element type
       //write to the file
-      seekNode(nodeIdx);
-      file.write(bs.toByteArray());
+      writeBuffer(nodePos(nodeIdx), bb);
       setDirty(false);
     }else
       setDirty(true);
@@ -721,21 +680,20 @@ public Object clone()
     elementType = elmtTp;
   }
   /**
-     This method will write the node header into the <code>ds</code>. Will also update the local variables.
-     It is assumed that the write pointer is correctly set in the o/p stream.
+     This method will write the node header into the <code>bb</code>. Will also update the local variables.
+     It is assumed that the position is correctly set in the buffer.
   */
   private void writeNodeHeader(long nodeIdx, int totElmt,long prnt,int elmtSz,int elmtTp,
-                               DataOutputStream ds)
+                               ByteBuffer bb)
     throws IOException, NodeWriteException
   {
     if(fileHdr.isWriteThr())
       RTree.chdNodes.remove(fileName,nodeIndex);
     if(fileHdr.isWriteThr()){
-      ds.writeInt(totElmt);//total elements
-      ds.writeLong(prnt);//parent
-      ds.writeInt(elmtSz);//element size
-      ds.writeInt(elmtTp);//element type
-      ds.flush();
+      bb.putInt(totElmt);//total elements
+      bb.putLong(prnt);//parent
+      bb.putInt(elmtSz);//element size
+      bb.putInt(elmtTp);//element type
       setDirty(true);
     }else
       setDirty(true);
@@ -755,17 +713,15 @@ public Object clone()
   private void refreshNode()//see wherever it is called from for writethr
     throws IOException
   {
+    ByteBuffer ds = NodeStorage.acquire();
     try{
-      byte[] data = new byte[NODE_SIZE];
-      seekCurrNode();
       //read the whole node
-      file.read(data);
+      fileHdr.getStorage().readNode(nodeIndex, ds);
       //get the header details into the variables
-      DataInputStream ds = new DataInputStream(new ByteArrayInputStream(data));
-      totalElements = ds.readInt();
-      parent = ds.readLong();//ds.readInt();
-      elementSize = ds.readInt();
-      elementType = ds.readInt();
+      totalElements = ds.getInt();
+      parent = ds.getLong();//ds.readInt();
+      elementSize = ds.getInt();
+      elementType = ds.getInt();
       if(totalElements <= 0)//set local variable
         return;
       //  else
@@ -777,25 +733,27 @@ public Object clone()
       int minX,minY,maxX,maxY;
       for(int i=0; i< totalElements; i++){
         //read the points
-        minX = ds.readInt();
-        minY = ds.readInt();
-        maxX = ds.readInt();
-        maxY = ds.readInt();
+        minX = ds.getInt();
+        minY = ds.getInt();
+        maxX = ds.getInt();
+        maxY = ds.getInt();
         Rect rectangle = new Rect(minX,minY,maxX,maxY);
         nodeMBR.expandToInclude(rectangle);//remove
         if(elementType == LEAF_NODE){// modified see [1]
-          long ptr = ds.readLong();
+          long ptr = ds.getLong();
           elements[i] = new LeafElement(rectangle,ptr);
         }else if(elementType == NONLEAF_NODE){//if non leaf type then...
-          long nodePtr = ds.readLong();
+          long nodePtr = ds.getLong();
           elements[i] = new NonLeafElement(rectangle,nodePtr);
         }
       }
-      ds.close();
     }
     catch(Exception e){
       throw new IOException("Node.refreshNode : Can't read from node header " + e.getMessage());
     }
+    finally{
+      NodeStorage.release(ds);
+    }
 
   }
   Rect[] getAllRectangles()
@@ -1235,19 +1193,10 @@ public Object clone()
     if(fileHdr.isWriteThr())
       RTree.chdNodes.remove(fileName,nodeIndex);
     if(fileHdr.isWriteThr()){
-      ByteArrayOutputStream bs = new ByteArrayOutputStream(elementSize);
-      DataOutputStream ds =  new DataOutputStream(bs);
-      ds.writeInt(elmt.getRect().getMinX());
-      ds.writeInt(elmt.getRect().getMinY());
-      ds.writeInt(elmt.getRect().getMaxX());
-      ds.writeInt(elmt.getRect().getMaxY());
-      ds.writeLong(elmt.getPtr());//see [2]
-
-      bs.flush();
-      ds.flush();
+      ByteBuffer bb = NodeStorage.acquire();
+      putElement(bb, elmt.getRect(), elmt.getPtr());//see [2]
       //write to the file
-      seekElement(index);
-      file.write(bs.toByteArray());
+      writeBuffer(elementPos(index), bb);
       setDirty(false);
     }else
       setDirty(true);
@@ -1276,14 +1225,10 @@ public Object clone()
     if(fileHdr.isWriteThr())
       RTree.chdNodes.remove(fileName,nodeIndex);
     if(fileHdr.isWriteThr()){
-      ByteArrayOutputStream bs = new ByteArrayOutputStream(LONG_SIZE);
-      DataOutputStream ds =  new DataOutputStream(bs);
-      ds.writeLong(pointer);//ds.writeInt(pointer);
-      bs.flush();
-      ds.flush();
+      ByteBuffer bb = NodeStorage.acquire();
+      bb.putLong(pointer);//ds.writeInt(pointer);
       //write to the file
-      seekElementPtr(index);
-      file.write(bs.toByteArray());
+      writeBuffer(elementPos(index) + Rect.sizeInBytes(), bb);
       setDirty(false);
     }
     else
@@ -1302,17 +1247,13 @@ public Object clone()
     if(fileHdr.isWriteThr())
       RTree.chdNodes.remove(fileName,nodeIndex);
     if(fileHdr.isWriteThr()){
-      ByteArrayOutputStream bs = new ByteArrayOutputStream(Rect.sizeInBytes());
-      DataOutputStream ds =  new DataOutputStream(bs);
-      ds.writeInt(rect.getMinX());
-      ds.writeInt(rect.getMinY());
-      ds.writeInt(rect.getMaxX());
-      ds.writeInt(rect.getMaxY());
-      bs.flush();
-      ds.flush();
+      ByteBuffer bb = NodeStorage.acquire();
+      bb.putInt(rect.getMinX());
+      bb.putInt(rect.getMinY());
+      bb.putInt(rect.getMaxX());
+      bb.putInt(rect.getMaxY());
       //write to the file
-      seekElement(index);
-      file.write(bs.toByteArray());
+      writeBuffer(elementPos(index), bb);
       setDirty(false);
     }else
       setDirty(true);
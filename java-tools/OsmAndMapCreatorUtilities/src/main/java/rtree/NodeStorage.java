@@ -0,0 +1,121 @@
+//NodeStorage.java
+//
+//This library is free software; you can redistribute it and/or
+//modify it under the terms of the GNU Lesser General Public
+//License as published by the Free Software Foundation; either
+//version 2.1 of the License, or (at your option) any later version.
+//
+//This library is distributed in the hope that it will be useful,
+//but WITHOUT ANY WARRANTY; without even the implied warranty of
+//MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//Lesser General Public License for more details.
+package rtree;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+   Node I/O of one rtree file. Nodes are written with positional writes (no seek, no intermediate
+   streams) and read from memory mapped file. The file format is the same as the one written by
+   <code>RandomAccessFile</code>.
+   <br>Node sized buffers are taken from a fixed size pool of direct buffers.
+   <br>Mapping must be dropped with <code>reset</code> whenever the file is truncated or reopened.
+*/
+class NodeStorage
+{
+  /**Number of pooled node buffers, buffers over the limit are just dropped*/
+  static final int POOL_SIZE = 64;
+  /**Appended nodes are read without mapping until the tail of the file becomes large enough*/
+  private static final long MIN_REMAP_GROWTH = 64L << 20;
+
+  private static final ArrayBlockingQueue<ByteBuffer> pool = new ArrayBlockingQueue<ByteBuffer>(POOL_SIZE);
+
+  private final FileChannel channel;
+  private MappedByteBuffer mapped;
+  private long mappedSize;
+
+  NodeStorage(RandomAccessFile file)
+  {
+    this.channel = file.getChannel();
+  }
+
+  static ByteBuffer acquire()
+  {
+    ByteBuffer bb = pool.poll();
+    if(bb == null)
+      bb = ByteBuffer.allocateDirect(Node.NODE_SIZE);
+    bb.clear();
+    return bb;
+  }
+
+  static void release(ByteBuffer bb)
+  {
+    pool.offer(bb);
+  }
+
+  /**
+     Reads whole node into the <code>dst</code>, dst is flipped after reading.
+  */
+  synchronized void readNode(long nodeIdx, ByteBuffer dst)
+    throws IOException
+  {
+    long pos = Node.FILE_HDR_SIZE + (nodeIdx * Node.NODE_SIZE);
+    dst.clear();
+    if(pos + Node.NODE_SIZE > mappedSize)
+      remap();
+    if(pos + Node.NODE_SIZE <= mappedSize){
+      ByteBuffer src = mapped.duplicate();
+      src.position((int)pos).limit((int)pos + Node.NODE_SIZE);
+      dst.put(src);
+    }else{
+      //last node may be written partially
+      while(dst.hasRemaining()){
+        int r = channel.read(dst, pos + dst.position());
+        if(r < 0)
+          break;
+      }
+      while(dst.hasRemaining())
+        dst.put((byte)0);
+    }
+    dst.flip();
+  }
+
+  /**
+     Writes the remaining bytes of <code>src</code> at <code>pos</code> of the file.
+  */
+  void write(long pos, ByteBuffer src)
+    throws IOException
+  {
+    while(src.hasRemaining())
+      pos += channel.write(src, pos);
+  }
+
+  /**
+     Maps the file again if it has grown enough since last mapping, the tail that is not mapped yet
+     is read with positional reads.
+  */
+  private void remap()
+    throws IOException
+  {
+    //mapped buffer is addressed by int
+    long size = Math.min(channel.size(), Integer.MAX_VALUE);
+    if(mapped != null && size - mappedSize < MIN_REMAP_GROWTH)
+      return;
+    mapped = channel.map(MapMode.READ_ONLY, 0, size);
+    mappedSize = size;
+  }
+
+  /**
+     Drops the mapping, should be called when file was truncated or replaced.
+  */
+  synchronized void reset()
+  {
+    mapped = null;
+    mappedSize = 0;
+  }
+}
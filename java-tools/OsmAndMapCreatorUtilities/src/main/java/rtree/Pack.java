@@ -94,9 +94,10 @@ public class Pack
       if(newFile.equalsIgnoreCase(rtree.getFileName())){//we need a write lock
         rtree.getFileHdr().lockWrite();
       }
-      /*the following is required as we may pack an existing tree.. until we find a way to remove nodes of
-        a particular rtree*/
-      RTree.chdNodes.removeAll();
+      /*the following is required as we may pack an existing tree, only nodes of these files are removed
+        as other trees could be used by other threads*/
+      RTree.chdNodes.removeFile(rtree.getFileName(), true);
+      RTree.chdNodes.removeFile(newFile, true);
       //rtree.getFileHdr().getFile().getFD().sync();
       if(elmts.length <= Node.MAX)//change this for the first method
         return(1);
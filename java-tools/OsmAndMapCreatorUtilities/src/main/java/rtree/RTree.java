@@ -74,6 +74,40 @@ public class RTree //the tree that would be made
 	  CachedNodes.clearFileNamesMap();
   }
 
+  /**
+     Drops cached nodes and headers of all tree files which names start with <code>prefix</code>,
+     so jobs running in parallel could free their files instead of clearing whole cache.
+     Files should not be used after that.
+  */
+  public static void releaseFiles(String prefix)
+    throws RTreeException
+  {
+    if(fileList == null)
+      return;
+    List<String> names = new ArrayList<String>();
+    synchronized(fileList){
+      for(Object name : fileList.keySet()){
+        if(((String)name).startsWith(prefix))
+          names.add((String)name);
+      }
+      for(String name : names){
+        Header h = (Header)fileList.remove(name);
+        try{
+          h.flHdr.getFile().close();
+        }catch(IOException e){
+          // file is already closed
+        }
+      }
+    }
+    try{
+      for(String name : names){
+        chdNodes.removeFile(name, false);
+      }
+    }catch(NodeWriteException e){
+      throw new RTreeException("RTree.releaseFiles: " + e.getMessage());
+    }
+  }
+
   public RTree(String fileName)
     throws  RTreeException
   {
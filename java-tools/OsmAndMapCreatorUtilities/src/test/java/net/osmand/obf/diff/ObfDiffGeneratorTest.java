@@ -0,0 +1,156 @@
+package net.osmand.obf.diff;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.xmlpull.v1.XmlPullParserException;
+
+import gnu.trove.map.hash.TLongObjectHashMap;
+import net.osmand.IProgress;
+import net.osmand.binary.BinaryMapDataObject;
+import net.osmand.binary.MapZooms;
+import net.osmand.binary.MapZooms.MapZoomPair;
+import net.osmand.binary.RouteDataObject;
+import net.osmand.data.Amenity;
+import net.osmand.obf.preparation.IndexCreator;
+import net.osmand.obf.preparation.IndexCreatorSettings;
+import net.osmand.osm.MapRenderingTypesEncoder;
+import net.osmand.util.Algorithms;
+import rtree.RTreeException;
+
+public class ObfDiffGeneratorTest {
+
+	// objects are placed around border of zoom 9 tiles (lon 0.703125) so some of them move between tiles
+	private static final double LAT = 45.0;
+	private static final double LON = 0.70;
+
+	@Test
+	public void testStreamingDiffMatchesInMemoryDiff() throws IOException, SQLException, InterruptedException,
+			XmlPullParserException, RTreeException {
+		File folder = Files.createTempDirectory("obf_diff").toFile();
+		try {
+			File start = createObf(folder, "start", false);
+			File end = createObf(folder, "end", true);
+			File inMemory = new File(folder, "diff_in_memory.obf");
+			File streaming = new File(folder, "diff_streaming.obf");
+			ObfDiffGenerator generator = new ObfDiffGenerator();
+			generator.generateDiff(start, end, inMemory, null);
+			generator.generateDiffStreaming(start, end, streaming, null);
+			Map<String, String> expected = describe(inMemory);
+			Assert.assertFalse(expected.isEmpty());
+			Assert.assertEquals(expected, describe(streaming));
+		} finally {
+			Algorithms.removeAllFiles(folder);
+		}
+	}
+
+	private static Map<String, String> describe(File obf) throws IOException {
+		ObfFileInMemory f = new ObfFileInMemory();
+		f.readObfFiles(Collections.singletonList(obf));
+		Map<String, String> res = new TreeMap<>();
+		for (MapZoomPair mz : f.getZooms()) {
+			for (BinaryMapDataObject o : f.get(mz).valueCollection()) {
+				res.put("map " + mz + " " + o.getId(), o.getMapIndex().decodeType(o.getTypes()[0]).tag + " "
+						+ o.getPointsLength());
+			}
+		}
+		for (RouteDataObject o : f.getRoutingData().valueCollection()) {
+			res.put("route " + o.getId(), o.getPointsLength() + " " + o.getHighway());
+		}
+		TLongObjectHashMap<Map<String, Amenity>> pois = f.getPoiObjects();
+		for (Map<String, Amenity> m : pois.valueCollection()) {
+			for (Amenity a : m.values()) {
+				res.put("poi " + a.getId() + " " + a.getType().getKeyName(), a.getName() + " "
+						+ a.getAdditionalInfo("osmand_change"));
+			}
+		}
+		return res;
+	}
+
+	private static File createObf(File folder, String name, boolean changed) throws IOException, SQLException,
+			InterruptedException, XmlPullParserException {
+		File osm = new File(folder, name + ".osm");
+		writeOsm(osm, changed);
+		IndexCreatorSettings settings = new IndexCreatorSettings();
+		settings.indexMap = true;
+		settings.indexPOI = true;
+		settings.indexRouting = true;
+		settings.indexAddress = false;
+		settings.indexTransport = false;
+		File workDir = new File(folder, name);
+		workDir.mkdirs();
+		IndexCreator creator = new IndexCreator(workDir, settings);
+		creator.setMapFileName(name + ".obf");
+		creator.generateIndexes(osm, IProgress.EMPTY_PROGRESS, null, MapZooms.getDefault(),
+				new MapRenderingTypesEncoder(null, name), null);
+		File obf = new File(folder, name + ".obf");
+		if (!new File(workDir, creator.getMapFileName()).renameTo(obf)) {
+			throw new IOException("Can't move " + name + ".obf");
+		}
+		return obf;
+	}
+
+	private static void writeOsm(File file, boolean changed) throws IOException {
+		try (Writer w = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+			w.write("<?xml version='1.0' encoding='UTF-8'?>\n<osm version=\"0.6\">\n");
+			// cafes: 100 is renamed, 102 is deleted, 103 is added
+			node(w, 100, 0, -0.004, "<tag k=\"amenity\" v=\"cafe\"/><tag k=\"name\" v=\"" + (changed ? "A2" : "A")
+					+ "\"/>");
+			node(w, 101, 0, 0.006, "<tag k=\"amenity\" v=\"cafe\"/><tag k=\"name\" v=\"B\"/>");
+			if (!changed) {
+				node(w, 102, 0.001, 0.001, "<tag k=\"amenity\" v=\"cafe\"/><tag k=\"name\" v=\"C\"/>");
+			} else {
+				node(w, 103, -0.001, 0.004, "<tag k=\"amenity\" v=\"cafe\"/><tag k=\"name\" v=\"D\"/>");
+			}
+			// road across tile border, its middle node is moved
+			node(w, 1, 0.002, -0.01, "");
+			node(w, 2, changed ? 0.003 : 0.002, 0.003, "");
+			node(w, 3, 0.002, 0.01, "");
+			// building, unchanged
+			node(w, 10, -0.002, -0.002, "");
+			node(w, 11, -0.002, -0.001, "");
+			node(w, 12, -0.003, -0.001, "");
+			node(w, 13, -0.003, -0.002, "");
+			// road which is moved to another tile
+			double shift = changed ? 0.008 : 0;
+			node(w, 20, -0.005, -0.006 + shift, "");
+			node(w, 21, -0.006, -0.005 + shift, "");
+			// road which is deleted
+			if (!changed) {
+				node(w, 30, 0.005, -0.002, "");
+				node(w, 31, 0.006, -0.001, "");
+			}
+			way(w, 200, new long[] { 1, 2, 3 }, "<tag k=\"highway\" v=\"residential\"/><tag k=\"name\" v=\"R\"/>");
+			way(w, 201, new long[] { 10, 11, 12, 13, 10 }, "<tag k=\"building\" v=\"yes\"/>");
+			way(w, 204, new long[] { 20, 21 }, "<tag k=\"highway\" v=\"service\"/>");
+			if (!changed) {
+				way(w, 202, new long[] { 30, 31 }, "<tag k=\"highway\" v=\"service\"/>");
+			}
+			w.write("</osm>\n");
+		}
+	}
+
+	private static void node(Writer w, long id, double dlat, double dlon, String tags) throws IOException {
+		w.write(String.format("<node id=\"%d\" version=\"1\" lat=\"%.6f\" lon=\"%.6f\">%s</node>\n", id, LAT + dlat,
+				LON + dlon, tags));
+	}
+
+	private static void way(Writer w, long id, long[] nodes, String tags) throws IOException {
+		w.write(String.format("<way id=\"%d\" version=\"1\">", id));
+		for (long n : nodes) {
+			w.write(String.format("<nd ref=\"%d\"/>", n));
+		}
+		w.write(tags + "</way>\n");
+	}
+}
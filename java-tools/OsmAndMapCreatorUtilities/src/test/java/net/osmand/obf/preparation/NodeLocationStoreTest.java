@@ -0,0 +1,61 @@
+package net.osmand.obf.preparation;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import net.osmand.osm.edit.Node;
+
+public class NodeLocationStoreTest {
+
+	@Test
+	public void testSortedRuns() throws IOException {
+		File file = File.createTempFile("nodes", ".locations");
+		NodeLocationStore store = new NodeLocationStore(file);
+		try {
+			for (long id = 10; id < 100000; id += 3) {
+				Assert.assertTrue(store.put(id, id / 10000d, -id / 1000d));
+			}
+			// second input file starts a new run
+			Assert.assertTrue(store.put(-5, 1.5, 2.5));
+			Assert.assertTrue(store.put(11, 45.1234567, -120.7654321));
+			Assert.assertTrue(store.put(13, 1, 1));
+			// replace last location
+			Assert.assertTrue(store.put(13, 2, 2));
+			Assert.assertEquals(2, store.getRunsCount());
+
+			Node n = store.getNode(100);
+			Assert.assertNotNull(n);
+			Assert.assertEquals(0.01, n.getLatitude(), 1e-7);
+			Assert.assertEquals(-0.1, n.getLongitude(), 1e-7);
+			Assert.assertNull(store.getNode(101));
+			Assert.assertNull(store.getNode(100000));
+
+			n = store.getNode(11);
+			Assert.assertEquals(45.1234567, n.getLatitude(), 1e-7);
+			Assert.assertEquals(-120.7654321, n.getLongitude(), 1e-7);
+			Assert.assertEquals(1.5, store.getNode(-5).getLatitude(), 1e-7);
+			Assert.assertEquals(2, store.getNode(13).getLongitude(), 1e-7);
+
+			// appending after reading remaps file
+			Assert.assertTrue(store.put(20, 3, 3));
+			Assert.assertEquals(3, store.getNode(20).getLatitude(), 1e-7);
+			Assert.assertTrue(store.contains(16));
+
+			// deleted node is hidden until it's stored again
+			store.remove(100);
+			store.remove(11);
+			Assert.assertNull(store.getNode(100));
+			Assert.assertNull(store.getNode(11));
+			Assert.assertTrue(store.contains(103));
+			Assert.assertTrue(store.put(100, 4, 4));
+			Assert.assertEquals(4, store.getNode(100).getLatitude(), 1e-7);
+			Assert.assertNull(store.getNode(11));
+		} finally {
+			store.close();
+			file.delete();
+		}
+	}
+}
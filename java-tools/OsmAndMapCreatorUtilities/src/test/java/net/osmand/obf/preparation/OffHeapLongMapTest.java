@@ -0,0 +1,74 @@
+package net.osmand.obf.preparation;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class OffHeapLongMapTest {
+
+	@Test
+	public void testDirectMap() throws IOException {
+		checkMap(null);
+	}
+
+	@Test
+	public void testMemoryMappedMap() throws IOException {
+		File folder = Files.createTempDirectory("ids").toFile();
+		try {
+			checkMap(folder);
+			Assert.assertEquals(0, folder.listFiles().length);
+		} finally {
+			folder.delete();
+		}
+	}
+
+	private void checkMap(File folder) throws IOException {
+		OffHeapLongMap map = new OffHeapLongMap(folder, 2);
+		try {
+			int cnt = 100000;
+			for (long id = -cnt; id < cnt; id++) {
+				long key = id << 8;
+				map.put(key, 0, id * 3);
+				map.put(key, 1, -id);
+			}
+			Assert.assertEquals(2 * cnt, map.size());
+			if (folder != null) {
+				// file of previous table is deleted on rehash
+				Assert.assertEquals(1, folder.listFiles().length);
+			}
+			for (long id = -cnt; id < cnt; id++) {
+				long key = id << 8;
+				Assert.assertEquals(id * 3, map.get(key, 0));
+				Assert.assertEquals(-id, map.get(key, 1));
+			}
+			// 0 key is stored separately
+			Assert.assertTrue(map.containsKey(0));
+			Assert.assertEquals(0, map.get(0, 0));
+			Assert.assertEquals(OffHeapLongMap.NO_VALUE, map.get(1, 0));
+			Assert.assertEquals(OffHeapLongMap.NO_VALUE, map.get((long) cnt << 8, 1));
+			map.put(5, 1, 7);
+			Assert.assertEquals(0, map.get(5, 0));
+			Assert.assertEquals(7, map.get(5, 1));
+		} finally {
+			map.close();
+		}
+
+		OffHeapLongMap set = new OffHeapLongMap(folder, 0);
+		try {
+			Assert.assertTrue(set.add(0));
+			Assert.assertFalse(set.add(0));
+			for (long id = 1; id < 50000; id++) {
+				Assert.assertTrue(set.add(id * 31));
+			}
+			Assert.assertFalse(set.add(31 * 100));
+			Assert.assertTrue(set.containsKey(31 * 49999));
+			Assert.assertFalse(set.containsKey(30));
+			Assert.assertEquals(50000, set.size());
+		} finally {
+			set.close();
+		}
+	}
+}
@@ -0,0 +1,104 @@
+package net.osmand.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ParallelGZIPInputStreamTest {
+
+	@Test
+	public void testMultiMember() throws IOException {
+		byte[] data = generate(1_000_000);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for (int i = 0; i < data.length; i += 300_000) {
+			GZIPOutputStream gz = new GZIPOutputStream(out);
+			gz.write(data, i, Math.min(300_000, data.length - i));
+			gz.finish();
+		}
+		ParallelGZIPInputStream is = new ParallelGZIPInputStream(new ByteArrayInputStream(out.toByteArray()), 4);
+		Assert.assertArrayEquals(data, readAll(is));
+		Assert.assertEquals(4, is.getMembers());
+		Assert.assertEquals(0, is.getParallelMembers());
+	}
+
+	@Test
+	public void testBgzf() throws IOException {
+		byte[] data = generate(1_000_000);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		int blocks = 0;
+		for (int i = 0; i < data.length; i += 60_000) {
+			writeBgzfBlock(out, data, i, Math.min(60_000, data.length - i));
+			blocks++;
+		}
+		// bgzip end of file marker
+		writeBgzfBlock(out, data, 0, 0);
+		ParallelGZIPInputStream is = new ParallelGZIPInputStream(new ByteArrayInputStream(out.toByteArray()), 4);
+		Assert.assertArrayEquals(data, readAll(is));
+		Assert.assertEquals(blocks + 1, is.getParallelMembers());
+	}
+
+	@Test(expected = IOException.class)
+	public void testCorrupted() throws IOException {
+		byte[] data = generate(100_000);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		writeBgzfBlock(out, data, 0, data.length);
+		byte[] bytes = out.toByteArray();
+		bytes[bytes.length - 6]++;
+		readAll(new ParallelGZIPInputStream(new ByteArrayInputStream(bytes), 2));
+	}
+
+	private static byte[] generate(int size) {
+		Random rnd = new Random(11);
+		byte[] data = new byte[size];
+		for (int i = 0; i < size; i++) {
+			data[i] = (byte) ('a' + rnd.nextInt(8));
+		}
+		return data;
+	}
+
+	private static byte[] readAll(InputStream is) throws IOException {
+		ByteArrayOutputStream res = new ByteArrayOutputStream();
+		byte[] b = new byte[7000];
+		int r;
+		while ((r = is.read(b)) != -1) {
+			res.write(b, 0, r);
+		}
+		is.close();
+		return res.toByteArray();
+	}
+
+	private static void writeBgzfBlock(ByteArrayOutputStream out, byte[] data, int off, int len) {
+		Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		deflater.setInput(data, off, len);
+		deflater.finish();
+		byte[] compressed = new byte[len + 1024];
+		int clen = deflater.deflate(compressed);
+		deflater.end();
+		CRC32 crc = new CRC32();
+		crc.update(data, off, len);
+		int blockSize = 18 + clen + 8;
+		out.write(new byte[] { 0x1f, (byte) 0x8b, 8, 4, 0, 0, 0, 0, 0, (byte) 0xff, 6, 0, 'B', 'C', 2, 0 }, 0, 16);
+		writeShort(out, blockSize - 1);
+		out.write(compressed, 0, clen);
+		writeInt(out, (int) crc.getValue());
+		writeInt(out, len);
+	}
+
+	private static void writeShort(ByteArrayOutputStream out, int v) {
+		out.write(v & 0xff);
+		out.write((v >> 8) & 0xff);
+	}
+
+	private static void writeInt(ByteArrayOutputStream out, int v) {
+		writeShort(out, v & 0xffff);
+		writeShort(out, (v >>> 16) & 0xffff);
+	}
+}
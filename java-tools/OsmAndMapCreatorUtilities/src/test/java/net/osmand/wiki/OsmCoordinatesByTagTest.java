@@ -0,0 +1,97 @@
+package net.osmand.wiki;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.SQLException;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.xmlpull.v1.XmlPullParserException;
+
+import net.osmand.util.Algorithms;
+import net.osmand.wiki.OsmCoordinatesByTag.OsmLatLonId;
+
+public class OsmCoordinatesByTagTest {
+
+	private static final int WAYS = 3000;
+	private static final int SHARED_TAG_STEP = 10;
+
+	@Test
+	public void testParallelIterationMatchesSerial() throws IOException, SQLException, XmlPullParserException,
+			InterruptedException {
+		File folder = Files.createTempDirectory("osm_wiki").toFile();
+		try {
+			File osm = new File(folder, "osm_wiki_test.osm");
+			writeOsm(osm);
+			OsmCoordinatesByTag serial = parse(osm, 1);
+			OsmCoordinatesByTag parallel = parse(osm, 4);
+			for (int i = 0; i < WAYS; i++) {
+				OsmLatLonId expected = serial.getCoordinates("wikidata", "Q" + i);
+				OsmLatLonId actual = parallel.getCoordinates("wikidata", "Q" + i);
+				Assert.assertNotNull(expected);
+				Assert.assertNotNull(actual);
+				Assert.assertEquals(expected.id, actual.id);
+				Assert.assertEquals(expected.lat, actual.lat, 1e-9);
+				Assert.assertEquals(expected.lon, actual.lon, 1e-9);
+			}
+			// chain of entities with same tag has same order as in serial load
+			OsmLatLonId expected = serial.getCoordinates("wikipedia", "en:Shared");
+			OsmLatLonId actual = parallel.getCoordinates("wikipedia", "en:Shared");
+			int chain = 0;
+			while (expected != null) {
+				Assert.assertNotNull(actual);
+				Assert.assertEquals(expected.id, actual.id);
+				if (expected.next != null) {
+					Assert.assertTrue(expected.id > expected.next.id);
+				}
+				expected = expected.next;
+				actual = actual.next;
+				chain++;
+			}
+			Assert.assertNull(actual);
+			Assert.assertEquals(WAYS / SHARED_TAG_STEP, chain);
+			OsmLatLonId rel = parallel.getCoordinates("wikipedia", "en:Relation");
+			Assert.assertNotNull(rel);
+			Assert.assertEquals(serial.getCoordinates("wikipedia", "en:Relation").lat, rel.lat, 1e-9);
+		} finally {
+			Algorithms.removeAllFiles(folder);
+		}
+	}
+
+	private static OsmCoordinatesByTag parse(File osm, int threads) throws IOException, SQLException,
+			XmlPullParserException, InterruptedException {
+		OsmCoordinatesByTag otag = new OsmCoordinatesByTag(new String[] { "wikipedia", "wikidata" },
+				new String[] { "wikipedia:" });
+		otag.setParallelThreads(threads);
+		otag.parseOSMCoordinates(osm, null, true);
+		return otag;
+	}
+
+	private static void writeOsm(File file) throws IOException {
+		try (Writer w = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+			w.write("<?xml version='1.0' encoding='UTF-8'?>\n<osm version=\"0.6\">\n");
+			for (int i = 0; i < WAYS * 3; i++) {
+				w.write(String.format("<node id=\"%d\" lat=\"%.6f\" lon=\"%.6f\"/>\n", i + 1, 40 + i * 1e-4,
+						10 + (i % 3) * 1e-3));
+			}
+			for (int i = 0; i < WAYS; i++) {
+				w.write(String.format("<way id=\"%d\">", i + 1));
+				for (int j = 0; j < 3; j++) {
+					w.write(String.format("<nd ref=\"%d\"/>", i * 3 + j + 1));
+				}
+				if (i % SHARED_TAG_STEP == 0) {
+					w.write("<tag k=\"wikipedia\" v=\"en:Shared\"/>");
+				}
+				w.write(String.format("<tag k=\"wikidata\" v=\"Q%d\"/></way>\n", i));
+			}
+			w.write("<relation id=\"1\"><member type=\"way\" ref=\"1\" role=\"outer\"/>"
+					+ "<member type=\"way\" ref=\"2\" role=\"outer\"/><tag k=\"wikipedia\" v=\"en:Relation\"/></relation>\n");
+			w.write("</osm>\n");
+		}
+	}
+}
@@ -0,0 +1,62 @@
+package rtree;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BulkLoaderTest {
+
+	@Test
+	public void testPackWithRuns() throws IOException, RTreeException, IllegalValueException {
+		File dir = File.createTempFile("bulk", "");
+		dir.delete();
+		dir.mkdirs();
+		int total = 5000;
+		int[][] rects = new int[total][];
+		Random r = new Random(7);
+		// small run size to merge several spilled runs
+		BulkLoader loader = new BulkLoader(dir, 700);
+		for (int i = 0; i < total; i++) {
+			int x = r.nextInt(1 << 24);
+			int y = r.nextInt(1 << 24);
+			rects[i] = new int[] { x, y, x + r.nextInt(50000), y + r.nextInt(50000) };
+			loader.insert(rects[i][0], rects[i][1], rects[i][2], rects[i][3], i);
+		}
+		File packFile = new File(dir, "test.prtree");
+		RTree tree = loader.pack(packFile.getAbsolutePath());
+		try {
+			Assert.assertEquals(total, tree.getAllElements().size());
+			for (int q = 0; q < 50; q++) {
+				int x = r.nextInt(1 << 24);
+				int y = r.nextInt(1 << 24);
+				Rect query = new Rect(x, y, x + 500000, y + 500000);
+				long expected = 0;
+				int expectedCount = 0;
+				for (int i = 0; i < total; i++) {
+					if (rects[i][0] <= query.getMaxX() && rects[i][2] >= query.getMinX()
+							&& rects[i][1] <= query.getMaxY() && rects[i][3] >= query.getMinY()) {
+						expected += i;
+						expectedCount++;
+					}
+				}
+				List<?> res = tree.overlaps(query);
+				long sum = 0;
+				for (Object o : res) {
+					sum += ((LeafElement) o).getPtr();
+				}
+				Assert.assertEquals(expectedCount, res.size());
+				Assert.assertEquals(expected, sum);
+			}
+			// only the packed file is left
+			Assert.assertArrayEquals(new String[] { packFile.getName() }, dir.list());
+		} finally {
+			tree.getFileHdr().getFile().close();
+			packFile.delete();
+			dir.delete();
+		}
+	}
+}
@@ -0,0 +1,40 @@
+package rtree;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RTreeReleaseFilesTest {
+
+	@Test
+	public void testReleasedFileKeysAreReused() throws IOException, RTreeException, RTreeInsertException, IllegalValueException {
+		File dir = File.createTempFile("release", "");
+		dir.delete();
+		dir.mkdirs();
+		RTree.clearCache();
+		try {
+			// tree which stays open while other files are created and released
+			File keep = new File(dir, "keep.rtree");
+			RTree kept = new RTree(keep.getAbsolutePath());
+			kept.insert(new LeafElement(new Rect(0, 0, 10, 10), 7));
+			// more files than cache keys (1024)
+			for (int i = 0; i < 1100; i++) {
+				File f = new File(dir, "job" + i + ".obf.rtree");
+				RTree tree = new RTree(f.getAbsolutePath());
+				tree.insert(new LeafElement(new Rect(i, i, i + 5, i + 5), i));
+				Assert.assertEquals(1, tree.overlaps(new Rect(i, i, i + 1, i + 1)).size());
+				RTree.releaseFiles(new File(dir, "job" + i + ".obf").getAbsolutePath() + ".");
+				f.delete();
+			}
+			Assert.assertEquals(1, kept.overlaps(new Rect(1, 1, 2, 2)).size());
+			Assert.assertEquals(7, ((LeafElement) kept.overlaps(new Rect(1, 1, 2, 2)).get(0)).getPtr());
+			kept.getFileHdr().getFile().close();
+			keep.delete();
+		} finally {
+			RTree.clearCache();
+			dir.delete();
+		}
+	}
+}
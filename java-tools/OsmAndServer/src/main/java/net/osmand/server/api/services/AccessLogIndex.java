@@ -0,0 +1,560 @@
+package net.osmand.server.api.services;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import gnu.trove.list.array.TIntArrayList;
+import nl.basjes.parse.core.Parser;
+import nl.basjes.parse.httpdlog.HttpdLoglineParser;
+import net.osmand.server.api.services.LogsAccessService.LogEntry;
+
+/**
+ * Time bucketed index of nginx access log. Rows of every hour are stored in columnar files (time, uri, status, ip,
+ * aid columns with per file string dictionary) with offsets of every minute, so rows of any time window are read
+ * without parsing log lines. Log is tailed by file key and offset; rotated log is finished before new one is
+ * started and indexed hours stay after logs are rotated away.
+ * Every ingest writes segment files, segments of completed hours are merged into one sorted file.
+ * Queries don't wait for ingest: files are listed under short lock and files replaced or expired meanwhile are
+ * deleted after running queries finish.
+ */
+class AccessLogIndex {
+
+	private static final Log LOGGER = LogFactory.getLog(AccessLogIndex.class);
+
+	private static final int MAGIC = 0x414c4931; // ALI1
+	private static final long HOUR = 60 * 60 * 1000L;
+	private static final long MERGE_DELAY = 10 * 60 * 1000L;
+	private static final String PREFIX = "access-";
+	private static final String SEGMENT_EXT = ".seg";
+	private static final String BUCKET_EXT = ".bin";
+	private static final String STATE_FILE = "state.properties";
+	private static final Pattern AID_PATTERN = Pattern.compile("aid=([a-z,0-9]*)");
+
+	private final File folder;
+	private final String logFormat;
+	private final long retentionMillis;
+	private volatile String fileKey;
+	private long offset;
+	private volatile long lastIngestTime;
+	private long segmentSeq;
+
+	private final Object filesLock = new Object();
+	private final Set<File> pendingDeletes = new HashSet<>();
+	private int activeQueries;
+
+	interface RowVisitor {
+		// returns false to stop reading
+		boolean visit(long time, String uri, String status, String ip, String aid) throws IOException;
+	}
+
+	static class LogBucket {
+		long hour;
+		String[] dict;
+		int size;
+		int[] time;
+		int[] uri;
+		int[] status;
+		int[] ip;
+		int[] aid;
+		// first row of every minute
+		int[] minutes = new int[61];
+
+		String get(int ind) {
+			return ind < 0 ? null : dict[ind];
+		}
+	}
+
+	private static class BucketBuilder {
+		final long hour;
+		final Map<String, Integer> dictIndex = new HashMap<>();
+		final List<String> dict = new ArrayList<>();
+		final TIntArrayList time = new TIntArrayList();
+		final TIntArrayList uri = new TIntArrayList();
+		final TIntArrayList status = new TIntArrayList();
+		final TIntArrayList ip = new TIntArrayList();
+		final TIntArrayList aid = new TIntArrayList();
+
+		BucketBuilder(long hour) {
+			this.hour = hour;
+		}
+
+		int str(String s) {
+			if (s == null) {
+				return -1;
+			}
+			Integer ind = dictIndex.get(s);
+			if (ind == null) {
+				ind = dict.size();
+				dictIndex.put(s, ind);
+				dict.add(s);
+			}
+			return ind;
+		}
+
+		void add(long millis, String u, String st, String i, String a) {
+			time.add((int) ((millis - hour) / 1000));
+			uri.add(str(u));
+			status.add(str(st));
+			ip.add(str(i));
+			aid.add(str(a));
+		}
+
+		void addAll(LogBucket b) {
+			for (int i = 0; i < b.size; i++) {
+				add(b.hour + b.time[i] * 1000L, b.get(b.uri[i]), b.get(b.status[i]), b.get(b.ip[i]), b.get(b.aid[i]));
+			}
+		}
+
+		LogBucket build() {
+			LogBucket b = new LogBucket();
+			b.hour = hour;
+			b.size = time.size();
+			b.dict = dict.toArray(new String[0]);
+			// rows are sorted by time (stable), so log order is kept for equal seconds
+			Integer[] order = new Integer[b.size];
+			for (int i = 0; i < order.length; i++) {
+				order[i] = i;
+			}
+			Arrays.sort(order, (o1, o2) -> Integer.compare(time.get(o1), time.get(o2)));
+			b.time = new int[b.size];
+			b.uri = new int[b.size];
+			b.status = new int[b.size];
+			b.ip = new int[b.size];
+			b.aid = new int[b.size];
+			for (int i = 0; i < b.size; i++) {
+				int o = order[i];
+				b.time[i] = time.get(o);
+				b.uri[i] = uri.get(o);
+				b.status[i] = status.get(o);
+				b.ip[i] = ip.get(o);
+				b.aid[i] = aid.get(o);
+			}
+			int row = 0;
+			for (int m = 0; m <= 60; m++) {
+				while (row < b.size && b.time[row] < m * 60) {
+					row++;
+				}
+				b.minutes[m] = row;
+			}
+			b.minutes[60] = b.size;
+			return b;
+		}
+	}
+
+	AccessLogIndex(File folder, String logFormat, int retentionDays) {
+		this.folder = folder;
+		this.logFormat = logFormat;
+		this.retentionMillis = retentionDays * 24 * HOUR;
+		folder.mkdirs();
+		loadState();
+	}
+
+	boolean isReady() {
+		return fileKey != null;
+	}
+
+	long getLastIngestTime() {
+		return lastIngestTime;
+	}
+
+	/**
+	 * Reads new lines of access.log (and the rest of access.log.1 if log was rotated since last call).
+	 */
+	synchronized void ingest(File logFolder) throws IOException {
+		File current = new File(logFolder, "access.log");
+		File rotated = new File(logFolder, "access.log.1");
+		if (!current.exists()) {
+			return;
+		}
+		TreeMap<Long, BucketBuilder> buckets = new TreeMap<>();
+		long start = System.currentTimeMillis();
+		String currentKey = getFileKey(current);
+		if (fileKey == null) {
+			// first run indexes rotated log too
+			if (rotated.exists()) {
+				readLines(rotated, 0, buckets);
+			}
+			offset = 0;
+		} else if (!fileKey.equals(currentKey)) {
+			if (rotated.exists() && fileKey.equals(getFileKey(rotated))) {
+				readLines(rotated, offset, buckets);
+			}
+			offset = 0;
+		}
+		offset = readLines(current, offset, buckets);
+		fileKey = currentKey;
+		long rows = countRows(buckets);
+		for (BucketBuilder b : buckets.values()) {
+			// queries list files at any time so only complete files get index names
+			File segment = new File(folder, bucketName(b.hour) + "." + (segmentSeq++) + SEGMENT_EXT);
+			File tmp = new File(folder, segment.getName() + ".tmp");
+			writeBucket(b.build(), tmp);
+			Files.move(tmp.toPath(), segment.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+		saveState();
+		mergeCompletedHours();
+		deleteExpired();
+		lastIngestTime = System.currentTimeMillis();
+		if (rows > 0) {
+			LOGGER.info(String.format("Access log index: %d rows ingested in %d ms", rows,
+					lastIngestTime - start));
+		}
+	}
+
+	/**
+	 * Visits rows with start <= time <= end in time order, segments of not merged hours are merged while reading
+	 * (rows of the same second keep order of files).
+	 */
+	void query(long start, long end, RowVisitor visitor) throws IOException {
+		TreeMap<Long, List<File>> files;
+		synchronized (filesLock) {
+			files = listBuckets();
+			activeQueries++;
+		}
+		try {
+			queryFiles(files, start, end, visitor);
+		} finally {
+			synchronized (filesLock) {
+				activeQueries--;
+				if (activeQueries == 0) {
+					for (File f : pendingDeletes) {
+						f.delete();
+					}
+					pendingDeletes.clear();
+				}
+			}
+		}
+	}
+
+	private void queryFiles(TreeMap<Long, List<File>> files, long start, long end, RowVisitor visitor)
+			throws IOException {
+		Long from = files.floorKey(start);
+		for (Map.Entry<Long, List<File>> e : files.tailMap(from == null ? start : from, true).entrySet()) {
+			long hour = e.getKey();
+			if (hour > end) {
+				break;
+			}
+			int minute = (int) Math.max(0, Math.min(60, (start - hour) / 60000));
+			List<File> hourFiles = e.getValue();
+			LogBucket[] buckets = new LogBucket[hourFiles.size()];
+			int[] rows = new int[buckets.length];
+			for (int k = 0; k < buckets.length; k++) {
+				buckets[k] = readBucket(hourFiles.get(k));
+				rows[k] = buckets[k].minutes[minute];
+			}
+			while (true) {
+				int next = -1;
+				for (int k = 0; k < buckets.length; k++) {
+					if (rows[k] < buckets[k].size && (next == -1
+							|| buckets[k].time[rows[k]] < buckets[next].time[rows[next]])) {
+						next = k;
+					}
+				}
+				if (next == -1) {
+					break;
+				}
+				LogBucket b = buckets[next];
+				int i = rows[next]++;
+				long time = hour + b.time[i] * 1000L;
+				if (time < start) {
+					continue;
+				}
+				if (time > end) {
+					break;
+				}
+				if (!visitor.visit(time, b.get(b.uri[i]), b.get(b.status[i]), b.get(b.ip[i]), b.get(b.aid[i]))) {
+					return;
+				}
+			}
+		}
+	}
+
+	private long countRows(TreeMap<Long, BucketBuilder> buckets) {
+		long cnt = 0;
+		for (BucketBuilder b : buckets.values()) {
+			cnt += b.time.size();
+		}
+		return cnt;
+	}
+
+	// returns offset after last complete line
+	private long readLines(File file, long from, TreeMap<Long, BucketBuilder> buckets) throws IOException {
+		Parser<LogEntry> parser = new HttpdLoglineParser<>(LogEntry.class, logFormat);
+		LogEntry l = new LogEntry();
+		if (file.length() < from) {
+			// file was truncated
+			from = 0;
+		}
+		try (FileInputStream is = new FileInputStream(file)) {
+			is.getChannel().position(from);
+			long pos = from;
+			byte[] buf = new byte[1 << 16];
+			int len = 0;
+			int rd;
+			while ((rd = is.read(buf, len, buf.length - len)) != -1) {
+				len += rd;
+				int lineStart = 0;
+				for (int i = 0; i < len; i++) {
+					if (buf[i] == '\n') {
+						addLine(parser, l, new String(buf, lineStart, i - lineStart, StandardCharsets.UTF_8), buckets);
+						lineStart = i + 1;
+					}
+				}
+				pos += lineStart;
+				// incomplete line is kept in buffer
+				System.arraycopy(buf, lineStart, buf, 0, len - lineStart);
+				len -= lineStart;
+				if (len == buf.length) {
+					buf = Arrays.copyOf(buf, buf.length * 2);
+				}
+			}
+			return pos;
+		}
+	}
+
+	private void addLine(Parser<LogEntry> parser, LogEntry l, String ln, TreeMap<Long, BucketBuilder> buckets) {
+		l.clear();
+		try {
+			parser.parse(l, ln);
+		} catch (Exception e) {
+			return;
+		}
+		if (l.date == null) {
+			return;
+		}
+		long time = l.date.getTime();
+		long hour = time - Math.floorMod(time, HOUR);
+		BucketBuilder b = buckets.get(hour);
+		if (b == null) {
+			b = new BucketBuilder(hour);
+			buckets.put(hour, b);
+		}
+		Matcher aidMatcher = AID_PATTERN.matcher(l.uri);
+		String aid = aidMatcher.find() ? aidMatcher.group(1) : null;
+		b.add(time, l.uri, l.status, l.ip, aid);
+	}
+
+	private void mergeCompletedHours() throws IOException {
+		long now = System.currentTimeMillis();
+		TreeMap<Long, List<File>> buckets;
+		synchronized (filesLock) {
+			buckets = listBuckets();
+		}
+		for (Map.Entry<Long, List<File>> e : buckets.entrySet()) {
+			List<File> files = e.getValue();
+			long hour = e.getKey();
+			boolean segments = false;
+			for (File f : files) {
+				segments |= f.getName().endsWith(SEGMENT_EXT);
+			}
+			if (!segments || hour + HOUR + MERGE_DELAY > now) {
+				continue;
+			}
+			BucketBuilder builder = new BucketBuilder(hour);
+			for (File f : files) {
+				builder.addAll(readBucket(f));
+			}
+			// merged file is named by its last segment, so file read by running query is never replaced
+			File merged = new File(folder, bucketName(hour) + "." + segmentNumber(files.get(files.size() - 1))
+					+ BUCKET_EXT);
+			File tmp = new File(folder, merged.getName() + ".tmp");
+			writeBucket(builder.build(), tmp);
+			synchronized (filesLock) {
+				Files.move(tmp.toPath(), merged.toPath(), StandardCopyOption.REPLACE_EXISTING);
+				for (File f : files) {
+					deleteFile(f);
+				}
+			}
+		}
+	}
+
+	// called under files lock
+	private void deleteFile(File f) {
+		if (activeQueries > 0) {
+			pendingDeletes.add(f);
+		} else {
+			f.delete();
+		}
+	}
+
+	private void deleteExpired() {
+		long expired = System.currentTimeMillis() - retentionMillis;
+		synchronized (filesLock) {
+			for (Map.Entry<Long, List<File>> e : listBuckets().headMap(expired - HOUR).entrySet()) {
+				for (File f : e.getValue()) {
+					deleteFile(f);
+				}
+			}
+		}
+	}
+
+	// called under files lock, files waiting for deletion are not listed
+	private TreeMap<Long, List<File>> listBuckets() {
+		TreeMap<Long, List<File>> res = new TreeMap<>();
+		File[] files = folder.listFiles();
+		if (files == null) {
+			return res;
+		}
+		SimpleDateFormat format = bucketFormat();
+		for (File f : files) {
+			String name = f.getName();
+			if (!name.startsWith(PREFIX) || !(name.endsWith(SEGMENT_EXT) || name.endsWith(BUCKET_EXT))
+					|| pendingDeletes.contains(f)) {
+				continue;
+			}
+			try {
+				long hour = format.parse(name.substring(PREFIX.length(), PREFIX.length() + 10)).getTime();
+				res.computeIfAbsent(hour, k -> new ArrayList<>()).add(f);
+			} catch (Exception e) {
+				LOGGER.warn("Unknown access log index file " + name);
+			}
+		}
+		for (List<File> l : res.values()) {
+			// merged file first, then segments in order of writing
+			Collections.sort(l, (o1, o2) -> Long.compare(segmentNumber(o1), segmentNumber(o2)));
+		}
+		return res;
+	}
+
+	// merged file has number of its last segment, so it goes before segments written after merge
+	private static long segmentNumber(File f) {
+		String name = f.getName();
+		String s = name.substring(0, name.length() - (name.endsWith(BUCKET_EXT) ? BUCKET_EXT : SEGMENT_EXT).length());
+		int dot = s.lastIndexOf('.');
+		// merged file of older version has no number
+		return dot == -1 ? -1 : Long.parseLong(s.substring(dot + 1));
+	}
+
+	private static SimpleDateFormat bucketFormat() {
+		SimpleDateFormat format = new SimpleDateFormat("yyyyMMddHH");
+		format.setTimeZone(TimeZone.getTimeZone("UTC"));
+		return format;
+	}
+
+	private static String bucketName(long hour) {
+		return PREFIX + bucketFormat().format(new Date(hour));
+	}
+
+	static void writeBucket(LogBucket b, File file) throws IOException {
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16))) {
+			out.writeInt(MAGIC);
+			out.writeLong(b.hour);
+			out.writeInt(b.size);
+			out.writeInt(b.dict.length);
+			for (String s : b.dict) {
+				byte[] bs = s.getBytes(StandardCharsets.UTF_8);
+				out.writeInt(bs.length);
+				out.write(bs);
+			}
+			writeColumn(out, b.time, b.size);
+			writeColumn(out, b.uri, b.size);
+			writeColumn(out, b.status, b.size);
+			writeColumn(out, b.ip, b.size);
+			writeColumn(out, b.aid, b.size);
+			writeColumn(out, b.minutes, b.minutes.length);
+		}
+	}
+
+	static LogBucket readBucket(File file) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+			if (in.readInt() != MAGIC) {
+				throw new IOException("Not an access log index file " + file.getName());
+			}
+			LogBucket b = new LogBucket();
+			b.hour = in.readLong();
+			b.size = in.readInt();
+			b.dict = new String[in.readInt()];
+			for (int i = 0; i < b.dict.length; i++) {
+				byte[] bs = new byte[in.readInt()];
+				in.readFully(bs);
+				b.dict[i] = new String(bs, StandardCharsets.UTF_8);
+			}
+			b.time = readColumn(in, b.size);
+			b.uri = readColumn(in, b.size);
+			b.status = readColumn(in, b.size);
+			b.ip = readColumn(in, b.size);
+			b.aid = readColumn(in, b.size);
+			b.minutes = readColumn(in, b.minutes.length);
+			return b;
+		}
+	}
+
+	private static void writeColumn(DataOutputStream out, int[] col, int size) throws IOException {
+		for (int i = 0; i < size; i++) {
+			out.writeInt(col[i]);
+		}
+	}
+
+	private static int[] readColumn(DataInputStream in, int size) throws IOException {
+		int[] col = new int[size];
+		for (int i = 0; i < size; i++) {
+			col[i] = in.readInt();
+		}
+		return col;
+	}
+
+	private static String getFileKey(File f) throws IOException {
+		BasicFileAttributes attrs = Files.readAttributes(f.toPath(), BasicFileAttributes.class);
+		Object key = attrs.fileKey();
+		// creation time is used when file system doesn't provide inode
+		return key != null ? key.toString() : String.valueOf(attrs.creationTime().toMillis());
+	}
+
+	private void loadState() {
+		File f = new File(folder, STATE_FILE);
+		if (!f.exists()) {
+			return;
+		}
+		Properties p = new Properties();
+		try (InputStream is = new FileInputStream(f)) {
+			p.load(is);
+			fileKey = p.getProperty("fileKey");
+			offset = Long.parseLong(p.getProperty("offset", "0"));
+			segmentSeq = Long.parseLong(p.getProperty("segment", "0"));
+		} catch (IOException | NumberFormatException e) {
+			LOGGER.error("Can't read access log index state: " + e.getMessage(), e);
+			fileKey = null;
+		}
+	}
+
+	private void saveState() throws IOException {
+		Properties p = new Properties();
+		p.setProperty("fileKey", fileKey);
+		p.setProperty("offset", String.valueOf(offset));
+		p.setProperty("segment", String.valueOf(segmentSeq));
+		File tmp = new File(folder, STATE_FILE + ".tmp");
+		try (FileOutputStream out = new FileOutputStream(tmp)) {
+			p.store(out, null);
+		}
+		Files.move(tmp.toPath(), new File(folder, STATE_FILE).toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+}
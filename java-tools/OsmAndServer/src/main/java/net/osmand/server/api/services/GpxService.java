@@ -1,5 +1,8 @@
 package net.osmand.server.api.services;
 
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
 import net.osmand.obf.preparation.IndexHeightData;
 import net.osmand.server.utils.WebGpxParser;
 import net.osmand.shared.gpx.GpxFile;
@@ -24,6 +27,7 @@ import org.springframework.web.client.RestClientException;
 import org.springframework.web.client.RestTemplate;
 
 import java.io.*;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.zip.GZIPInputStream;
@@ -33,12 +37,17 @@ public class GpxService {
     
     protected static final Log LOGGER = LogFactory.getLog(GpxService.class);
     
+    private final Gson gsonWithNans = new GsonBuilder().serializeSpecialFloatingPointValues().create();
+    
     @Autowired
     WebGpxParser webGpxParser;
     
     @Value("${osmand.srtm.location}")
     String srtmLocation;
     
+    // shared between requests, so loaded srtm tiles are reused
+    private volatile IndexHeightData heightData;
+    
     public WebGpxParser.TrackData getTrackDataByGpxFile(GpxFile gpxFile, File originalSourceGpx, GpxTrackAnalysis analysis) throws IOException {
         WebGpxParser.TrackData gpxData = new WebGpxParser.TrackData();
         
@@ -168,15 +177,33 @@ public class GpxService {
             if (!srtmFolder.exists()) {
                 return null;
             }
-            IndexHeightData hd = new IndexHeightData();
-            hd.setSrtmData(srtmFolder.getAbsolutePath(), srtmFolder);
+            IndexHeightData hd = getHeightData(srtmFolder);
+            int size = 0;
+            for (Track tr : gpxFile.getTracks()) {
+                for (TrkSegment s : tr.getSegments()) {
+                    size += s.getPoints().size();
+                }
+            }
+            double[] lats = new double[size];
+            double[] lons = new double[size];
+            double[] heights = new double[size];
+            int ind = 0;
+            for (Track tr : gpxFile.getTracks()) {
+                for (TrkSegment s : tr.getSegments()) {
+                    for (WptPt wpt : s.getPoints()) {
+                        lats[ind] = wpt.getLat();
+                        lons[ind] = wpt.getLon();
+                        ind++;
+                    }
+                }
+            }
+            hd.getPointHeights(lats, lons, heights, missingFile);
+            ind = 0;
             for (Track tr : gpxFile.getTracks()) {
                 for (TrkSegment s : tr.getSegments()) {
-                    for (int i = 0; i < s.getPoints().size(); i++) {
-                        WptPt wpt = s.getPoints().get(i);
-                        double h = hd.getPointHeight(wpt.getLat(), wpt.getLon(), missingFile);
-                        if (h != IndexHeightData.INEXISTENT_HEIGHT) {
-                            wpt.setEle(h);
+                    for (int i = 0; i < s.getPoints().size(); i++, ind++) {
+                        if (heights[ind] != IndexHeightData.INEXISTENT_HEIGHT) {
+                            s.getPoints().get(i).setEle(heights[ind]);
                         } else if (i == 0) {
                             return null;
                         }
@@ -186,7 +213,79 @@ public class GpxService {
         }
         return gpxFile;
     }
+    
+    /**
+     * Elevation profile of points, NaN for points without srtm data
+     */
+    public double[] getElevations(double[] lats, double[] lons) {
+        double[] heights = new double[lats.length];
+        if (srtmLocation == null) {
+            Arrays.fill(heights, Double.NaN);
+            return heights;
+        }
+        if (srtmLocation.startsWith("http://") || srtmLocation.startsWith("https://")) {
+            try {
+                HttpHeaders headers = new HttpHeaders();
+                headers.setContentType(MediaType.APPLICATION_JSON);
+                String body = gsonWithNans.toJson(new ElevationsData(lats, lons, null));
+                // response has NaN for points without data, it is read by gson as jackson rejects them
+                String json = new RestTemplate().postForObject(srtmLocation + "/gpx/get-elevations",
+                        new HttpEntity<>(body, headers), String.class);
+                ElevationsData res = json == null ? null : gsonWithNans.fromJson(json, ElevationsData.class);
+                if (res != null && res.ele != null && res.ele.length == lats.length) {
+                    return res.ele;
+                }
+            } catch (RestClientException | JsonParseException e) {
+                LOGGER.error(e.getMessage(), e);
+            }
+            Arrays.fill(heights, Double.NaN);
+            return heights;
+        }
+        File srtmFolder = new File(srtmLocation);
+        if (!srtmFolder.exists()) {
+            Arrays.fill(heights, Double.NaN);
+            return heights;
+        }
+        getHeightData(srtmFolder).getPointHeights(lats, lons, heights, null);
+        for (int i = 0; i < heights.length; i++) {
+            if (heights[i] == IndexHeightData.INEXISTENT_HEIGHT) {
+                heights[i] = Double.NaN;
+            }
+        }
+        return heights;
+    }
+    
+    public static class ElevationsData {
+        public double[] lat;
+        public double[] lon;
+        public double[] ele;
+        
+        public ElevationsData() {
+        }
+        
+        public ElevationsData(double[] lat, double[] lon, double[] ele) {
+            this.lat = lat;
+            this.lon = lon;
+            this.ele = ele;
+        }
+    }
 
+    private IndexHeightData getHeightData(File srtmFolder) {
+        IndexHeightData hd = heightData;
+        if (hd == null) {
+            synchronized (this) {
+                hd = heightData;
+                if (hd == null) {
+                    hd = new IndexHeightData();
+                    hd.setSrtmData(srtmFolder.getAbsolutePath(), srtmFolder);
+                    hd.setRawTilesDir(new File(System.getProperty("java.io.tmpdir"), "srtm-raw"));
+                    heightData = hd;
+                }
+            }
+        }
+        return hd;
+    }
+    
     public boolean isGzipStream(InputStream in) throws IOException {
         in.mark(2); // mark the stream to be able to reset it
         byte[] signature = new byte[2];
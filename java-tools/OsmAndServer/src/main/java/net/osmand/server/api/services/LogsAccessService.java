@@ -24,6 +24,7 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -31,6 +32,8 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.util.StopWatch;
 
@@ -50,11 +53,21 @@ public class LogsAccessService {
     protected static final Log LOGGER = LogFactory.getLog(LogsAccessService.class);
     private static final String APACHE_LOG_FORMAT = "%h %l %u %t \"%r\" %>s %O \"%{Referer}i\" \"%{User-Agent}i\"";
     private static final String DEFAULT_LOG_LOCATION = "/var/log/nginx/";
+    private static final long LOG_INDEX_INTERVAL = 60 * 1000L;
+    private static final int LOG_INDEX_RETENTION_DAYS = 180;
+    private static final int REGION_CACHE_SIZE = 100000;
     
     Gson gson = new Gson();
     
     @Autowired
 	private IpLocationService locationService;
+
+	@Value("${osmand.access-logs.index-location:}")
+	private String logIndexLocation;
+
+	private volatile AccessLogIndex logIndex;
+	private boolean logIndexDisabledReported;
+	private final Map<String, String> regionCache = new ConcurrentHashMap<>();
 	
     
     public enum LogsPresentation {
@@ -89,13 +102,19 @@ public class LogsAccessService {
 			r.out.write((LogEntry.toCSVHeader() + "\n").getBytes());
 			r.out.flush();
 		}
-		File logFile = new File(DEFAULT_LOG_LOCATION, "access.log.1");
-		if (logFile.exists()) {
-			readLogFile(logFile, startTime, endTime, parseRegion, limit, uriFilter, logFilter, presentation, r);
-		}
-		if (r.totalRows < limit || limit < 0) {
-			logFile = new File(DEFAULT_LOG_LOCATION, "access.log");
-			readLogFile(logFile, startTime, endTime, parseRegion, limit, uriFilter, logFilter, presentation, r);
+		AccessLogIndex index = logIndex;
+		boolean quickFilter = logFilter != null && logFilter.length() > 0;
+		if (presentation != LogsPresentation.PLAIN && !quickFilter && index != null && index.isReady()) {
+			readLogIndex(index, startTime, endTime, parseRegion, limit, uriFilter, presentation, r);
+		} else {
+			File logFile = new File(DEFAULT_LOG_LOCATION, "access.log.1");
+			if (logFile.exists()) {
+				readLogFile(logFile, startTime, endTime, parseRegion, limit, uriFilter, logFilter, presentation, r);
+			}
+			if (r.totalRows < limit || limit < 0) {
+				logFile = new File(DEFAULT_LOG_LOCATION, "access.log");
+				readLogFile(logFile, startTime, endTime, parseRegion, limit, uriFilter, logFilter, presentation, r);
+			}
 		}
 		
 		
@@ -211,61 +230,9 @@ public class LogsAccessService {
 					r.totalRows--;
 					continue;
 				}
-				if (r.beginDate == null) {
-					r.beginDate = l.date;
-				}
-				r.endDate = l.date;
-				
 				Matcher aidMatcher = aidPattern.matcher(l.uri);
 				String aid = aidMatcher.find() ? aidMatcher.group(1) : null ;
-				if (uriFilter != null && uriFilter.length() > 0) {
-					if (!l.uri.contains(uriFilter) && !r.behaviorMap.containsKey(l.ip) && !r.behaviorMap.containsKey(aid)) {
-						continue;
-					}
-				}
-				r.rows++;
-				UserAccount accountAid = presentation == LogsPresentation.BEHAVIOR ? retrieveUniqueAccount(aid, l,
-						r.behaviorMap) : null;
-				if(parseRegion) {
-					l.region = locationService.getField(l.ip, IpLocationService.COUNTRY_NAME);
-					if(accountAid != null) {
-						accountAid.regions.add(l.region);
-					}
-				}
-				if(presentation == LogsPresentation.BEHAVIOR) {
-					if(l.status.startsWith("4")) {
-						continue;
-					}
-					accountAid.add(l);
-				} else if(presentation == LogsPresentation.STATS) {
-					if(l.status.startsWith("4")) {
-						continue;
-					}
-					String uri = l.uri;
-					int i = uri.indexOf('?');
-					if(i > 0) {
-						uri = uri.substring(0, i);
-					}
-					if(!uri.startsWith("/api") && !uri.startsWith("/subscription")) {
-						i = uri.indexOf('/', 1);
-						if(i > 0) {
-							uri = uri.substring(0, i);
-						}
-					}
-					Stat stat = r.stats.get(uri);
-					if(stat == null) {
-						stat = new Stat();
-						stat.uri = uri;
-						r.stats.put(uri, stat);
-					}
-					stat.add(aid, l);
-				} else {
-					r.out.write((l.toCSVString() + "\n").getBytes());
-				}
-				
-				if(r.rows % 1000 == 0) {
-					r.out.flush();
-				}
+				processEntry(l, aid, parseRegion, uriFilter, presentation, r);
 			}
 		} finally {
 			if (bufferedReader != null) {
@@ -274,6 +241,124 @@ public class LogsAccessService {
 			raf.close();
 		}
 	}
+
+	private void readLogIndex(AccessLogIndex index, Date startTime, Date endTime, boolean parseRegion, long limit,
+			String uriFilter, LogsPresentation presentation, LogParsingResult r) throws IOException {
+		LogEntry l = new LogEntry();
+		long start = startTime == null ? 0 : startTime.getTime();
+		long end = endTime == null ? Long.MAX_VALUE : endTime.getTime();
+		r.readTime.start();
+		index.query(start, end, (time, uri, status, ip, aid) -> {
+			r.totalRows++;
+			if (r.totalRows >= limit && limit != -1) {
+				return false;
+			}
+			l.clear();
+			l.date = new Date(time);
+			l.uri = uri;
+			l.status = status;
+			l.ip = ip;
+			processEntry(l, aid, parseRegion, uriFilter, presentation, r);
+			return true;
+		});
+		r.readTime.stop();
+	}
+
+	private void processEntry(LogEntry l, String aid, boolean parseRegion, String uriFilter,
+			LogsPresentation presentation, LogParsingResult r) throws IOException {
+		if (r.beginDate == null) {
+			r.beginDate = l.date;
+		}
+		r.endDate = l.date;
+		if (uriFilter != null && uriFilter.length() > 0) {
+			if (!l.uri.contains(uriFilter) && !r.behaviorMap.containsKey(l.ip) && !r.behaviorMap.containsKey(aid)) {
+				return;
+			}
+		}
+		r.rows++;
+		UserAccount accountAid = presentation == LogsPresentation.BEHAVIOR ? retrieveUniqueAccount(aid, l,
+				r.behaviorMap) : null;
+		if(parseRegion) {
+			l.region = getRegion(l.ip);
+			if(accountAid != null) {
+				accountAid.regions.add(l.region);
+			}
+		}
+		if(presentation == LogsPresentation.BEHAVIOR) {
+			if(l.status.startsWith("4")) {
+				return;
+			}
+			accountAid.add(l);
+		} else if(presentation == LogsPresentation.STATS) {
+			if(l.status.startsWith("4")) {
+				return;
+			}
+			String uri = l.uri;
+			int i = uri.indexOf('?');
+			if(i > 0) {
+				uri = uri.substring(0, i);
+			}
+			if(!uri.startsWith("/api") && !uri.startsWith("/subscription")) {
+				i = uri.indexOf('/', 1);
+				if(i > 0) {
+					uri = uri.substring(0, i);
+				}
+			}
+			Stat stat = r.stats.get(uri);
+			if(stat == null) {
+				stat = new Stat();
+				stat.uri = uri;
+				r.stats.put(uri, stat);
+			}
+			stat.add(aid, l);
+		} else {
+			r.out.write((l.toCSVString() + "\n").getBytes());
+		}
+		
+		if(r.rows % 1000 == 0) {
+			r.out.flush();
+		}
+	}
+
+	private String getRegion(String ip) {
+		String region = regionCache.get(ip);
+		if (region == null) {
+			region = locationService.getField(ip, IpLocationService.COUNTRY_NAME);
+			if (regionCache.size() > REGION_CACHE_SIZE) {
+				regionCache.clear();
+			}
+			if (region != null) {
+				regionCache.put(ip, region);
+			}
+		}
+		return region;
+	}
+
+	@Scheduled(fixedDelay = LOG_INDEX_INTERVAL)
+	public void ingestAccessLogs() {
+		File logFolder = new File(DEFAULT_LOG_LOCATION);
+		if (!new File(logFolder, "access.log").exists()) {
+			return;
+		}
+		try {
+			AccessLogIndex index = logIndex;
+			if (index == null) {
+				// index keeps months of logs, so it is not created in tmp folder which could be cleaned
+				if (logIndexLocation == null || logIndexLocation.isEmpty()) {
+					if (!logIndexDisabledReported) {
+						LOGGER.warn("Access logs are not indexed: osmand.access-logs.index-location is not set");
+						logIndexDisabledReported = true;
+					}
+					return;
+				}
+				index = new AccessLogIndex(new File(logIndexLocation), APACHE_LOG_FORMAT, LOG_INDEX_RETENTION_DAYS);
+			}
+			index.ingest(logFolder);
+			logIndex = index;
+		} catch (IOException | RuntimeException e) {
+			LOGGER.error("Error indexing access logs: " + e.getMessage(), e);
+		}
+	}
 	
 	private UserAccount retrieveUniqueAccount(String aid, LogEntry l, Map<String, UserAccount> behaviorMap) {
 		UserAccount accountAid = behaviorMap.get(aid);
@@ -500,10 +585,11 @@ public class LogsAccessService {
 		public Date date;
 		public String uri;
 		private String userAgent;
-		private String status;
+		String status;
 		private String referrer;
 		private String region;
-		private static final SimpleDateFormat format = new SimpleDateFormat(TimeStampDissector.DEFAULT_APACHE_DATE_TIME_PATTERN);
+		// not static: logs are parsed by request threads and index ingestion at the same time
+		private final SimpleDateFormat format = new SimpleDateFormat(TimeStampDissector.DEFAULT_APACHE_DATE_TIME_PATTERN);
 		
 	    @Field("IP:connection.client.host")
 	    public void setIP(final String value) {
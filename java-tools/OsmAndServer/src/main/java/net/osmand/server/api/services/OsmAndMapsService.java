@@ -18,15 +18,21 @@ import java.time.ZonedDateTime;
 import java.util.*;
 import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
 import javax.annotation.Nullable;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 
 import net.osmand.router.*;
 import net.osmand.server.tileManager.TileMemoryCache;
 import net.osmand.server.tileManager.VectorMetatile;
-import net.osmand.server.utils.TimezoneMapper;
+import net.osmand.server.utils.TimezoneIndex;
 import net.osmand.shared.gpx.GpxFile;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -40,6 +46,7 @@ import org.springframework.context.annotation.Configuration;
 import org.springframework.core.io.Resource;
 import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
 import org.springframework.core.io.support.ResourcePatternResolver;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.http.client.ClientHttpResponse;
 import org.springframework.scheduling.annotation.Scheduled;
@@ -53,6 +60,9 @@ import org.xmlpull.v1.XmlPullParserException;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
 
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
 import net.osmand.IndexConstants;
 import net.osmand.LocationsHolder;
 import net.osmand.NativeJavaRendering;
@@ -83,6 +93,7 @@ import net.osmand.router.RoutingConfiguration.RoutingMemoryLimits;
 import net.osmand.server.utils.WebGpxParser;
 import net.osmand.util.Algorithms;
 import net.osmand.util.MapUtils;
+import net.osmand.server.tileManager.MetatileRenderScheduler;
 import net.osmand.server.tileManager.TileServerConfig;
 
 @Service
@@ -104,6 +115,9 @@ public class OsmAndMapsService {
 	private static final Map<String, Integer> MAX_SAME_PROFILE = Map.of("car", 2, "bicycle", 2, "pedestrian", 2);
 	private static final long MAX_SAME_PROFILE_WAIT_MS = 6000;
 
+	private interface RoutingTask<T> {
+		T run() throws IOException, InterruptedException;
+	}
 
 	private static final String INTERACTIVE_KEY = "int";
 	private static final String DEFAULT_INTERACTIVE_STYLE = "hd";
@@ -116,6 +130,15 @@ public class OsmAndMapsService {
 
 	List<RoutingCacheContext> routingCaches = new ArrayList<>();
 
+	// bounded number of route calculations running in parallel, others wait in queue
+	Semaphore routingSlots;
+	Semaphore nativeRoutingSlots;
+	final AtomicInteger routingQueueDepth = new AtomicInteger();
+	final AtomicInteger routingActive = new AtomicInteger();
+	final AtomicInteger routingCacheWaiting = new AtomicInteger();
+	final AtomicLong routingQueueTimeouts = new AtomicLong();
+	final AtomicLong routingQueueWaitMs = new AtomicLong();
+
 	NativeJavaRendering nativelib;
 
 	File tempDir;
@@ -123,9 +146,14 @@ public class OsmAndMapsService {
 	@Autowired
 	TileServerConfig tileConfig;
 
+	MetatileRenderScheduler renderScheduler;
+
 	@Autowired
 	RoutingServerConfig routingConfig;
 
+	@Autowired(required = false)
+	MeterRegistry meterRegistry;
+
 	OsmandRegions osmandRegions;
 
 	@Value("${tile-server.routeObf.location}")
@@ -361,6 +389,7 @@ public class OsmAndMapsService {
 					}
 				}
 			}
+			routingCaches.notifyAll();
 		}
 		if (removed.size() > 0) {
 			for (RoutingCacheContext r : removed) {
@@ -405,6 +434,15 @@ public class OsmAndMapsService {
 		@Value("${osmand.routing.hh-only-limit}") // --osmand.routing.hh-only-limit= or $HH_ONLY_LIMIT=
 		public int hhOnlyLimit; // See application.yml, set 100 for production, or 1000 for testing server (km)
 
+		@Value("${osmand.routing.max-parallel:0}")
+		public int maxParallel; // route calculations running at the same time (0 - number of processors)
+
+		@Value("${osmand.routing.max-parallel-native:1}")
+		public int maxParallelNative; // calculations running at the same time in native library
+
+		@Value("${osmand.routing.queue-timeout:30}")
+		public int queueTimeout; // max time (seconds) for request to wait in queue
+
 		public Map<String, RoutingServerConfigEntry> config = new TreeMap<>(new ProfileComparator());
 
 		private class ProfileComparator implements Comparator<String> {
@@ -503,6 +541,74 @@ public class OsmAndMapsService {
 		return routingConfig;
 	}
 
+	@PostConstruct
+	public void initRoutingSlots() {
+		int parallel = routingConfig.maxParallel > 0 ? routingConfig.maxParallel : Runtime.getRuntime().availableProcessors();
+		routingSlots = new Semaphore(parallel, true);
+		nativeRoutingSlots = new Semaphore(Math.max(1, routingConfig.maxParallelNative), true);
+		LOGGER.info(String.format("Routing: %d parallel calculations (%d native), queue timeout %d s", parallel,
+				nativeRoutingSlots.availablePermits(), routingConfig.queueTimeout));
+		if (meterRegistry != null) {
+			Gauge.builder("osmand.routing.queue", routingQueueDepth, AtomicInteger::get).register(meterRegistry);
+			Gauge.builder("osmand.routing.active", routingActive, AtomicInteger::get).register(meterRegistry);
+			Gauge.builder("osmand.routing.cache.waiting", routingCacheWaiting, AtomicInteger::get).register(meterRegistry);
+			Gauge.builder("osmand.routing.queue.timeouts", routingQueueTimeouts, AtomicLong::get).register(meterRegistry);
+			Gauge.builder("osmand.routing.queue.wait", routingQueueWaitMs, AtomicLong::get).baseUnit("milliseconds")
+					.register(meterRegistry);
+			Gauge.builder("osmand.routing.cache.size", routingCaches, List::size).register(meterRegistry);
+		}
+	}
+
+	@PostConstruct
+	public void initRenderScheduler() {
+		renderScheduler = new MetatileRenderScheduler(tileConfig.renderQueueSize,
+				TimeUnit.SECONDS.toMillis(tileConfig.renderTimeout));
+		if (meterRegistry != null) {
+			renderScheduler.registerMetrics(meterRegistry);
+		}
+	}
+
+	@PostConstruct
+	public void initTimezoneIndex() {
+		TimezoneIndex index = TimezoneIndex.getInstance();
+		LOGGER.info(String.format("Timezone index: %d zones, %d boundary cells", index.getZonesCount(),
+				index.getBoundaryCellsCount()));
+	}
+
+	@PreDestroy
+	public void shutdownRenderScheduler() {
+		if (renderScheduler != null) {
+			renderScheduler.shutdown();
+		}
+	}
+
+	private <T> T runRoutingTask(String reason, boolean nativeLib, RoutingTask<T> task)
+			throws IOException, InterruptedException {
+		Semaphore slots = nativeLib ? nativeRoutingSlots : routingSlots;
+		long waitStart = System.currentTimeMillis();
+		boolean acquired;
+		routingQueueDepth.incrementAndGet();
+		try {
+			acquired = slots.tryAcquire(routingConfig.queueTimeout, TimeUnit.SECONDS);
+		} finally {
+			routingQueueDepth.decrementAndGet();
+		}
+		long waited = System.currentTimeMillis() - waitStart;
+		routingQueueWaitMs.addAndGet(waited);
+		if (!acquired) {
+			routingQueueTimeouts.incrementAndGet();
+			throw new IOException(String.format("Routing queue timeout %d ms (%s), %d requests in queue", waited,
+					reason, routingQueueDepth.get()));
+		}
+		routingActive.incrementAndGet();
+		try {
+			return task.run();
+		} finally {
+			routingActive.decrementAndGet();
+			slots.release();
+		}
+	}
+
 	public synchronized boolean validateAndInitConfig() throws IOException {
 		if (nativelib == null && tileConfig.initErrorMessage == null) {
 			if (osmandRegions == null) {
@@ -548,7 +654,12 @@ public class OsmAndMapsService {
 	}
 
 	public ResponseEntity<String> renderMetaTile(VectorMetatile tile, TileMemoryCache<VectorMetatile> tileMemoryCache) throws XmlPullParserException, IOException, SAXException {
-		return tile.renderMetaTile(nativelib, tileMemoryCache);
+		try {
+			return renderScheduler.render(tile, t -> t.renderMetaTile(nativelib, tileMemoryCache));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body("Rendering was interrupted");
+		}
 	}
 
 	public BufferedImage renderGeotiffTile(String tilePath, String outColorFilename, String midColorFilename,
@@ -632,20 +743,12 @@ public class OsmAndMapsService {
 	                                            Map<String, Object> props, List<WptPt> waypoints,
 	                                            boolean useExternalTimestamps)
 			throws IOException, InterruptedException {
-		if (ctx.nativeLib != null || router.isUseNativeApproximation()) {
-			return approximateSyncNative(ctx, router, props, waypoints, useExternalTimestamps);
-		}
-		return approximateInternal(ctx, router, props, waypoints, useExternalTimestamps);
+		boolean nativeLib = ctx.nativeLib != null || router.isUseNativeApproximation();
+		return runRoutingTask("approximate", nativeLib,
+				() -> approximateInternal(ctx, router, props, waypoints, useExternalTimestamps));
 	}
 
-	private synchronized List<RouteSegmentResult> approximateSyncNative(RoutingContext ctx, RoutePlannerFrontEnd router,
-	                                                                    Map<String, Object> props, List<WptPt> waypoints,
-	                                                                    boolean useExternalTimestamps)
-			throws IOException, InterruptedException {
-		return approximateInternal(ctx, router, props, waypoints, useExternalTimestamps);
-	}
-
-	private synchronized List<RouteSegmentResult> approximateInternal(RoutingContext ctx, RoutePlannerFrontEnd router,
+	private List<RouteSegmentResult> approximateInternal(RoutingContext ctx, RoutePlannerFrontEnd router,
 	                                                                  Map<String, Object> props, List<WptPt> waypoints,
 	                                                                  boolean useExternalTimestamps)
 			throws IOException, InterruptedException {
@@ -940,8 +1043,9 @@ public class OsmAndMapsService {
 			if (rp.onlineRouting != null) {
 				routeRes = onlineRouting(rp, ctx, router, props, start, end, intermediates);
 			} else {
-				RouteCalcResult rc = ctx.nativeLib != null ? runRoutingSync(start, end, intermediates, router, ctx)
-						: router.searchRoute(ctx, start, end, intermediates, null);
+				RoutingContext rctx = ctx;
+				RouteCalcResult rc = runRoutingTask("routing " + profile, ctx.nativeLib != null,
+						() -> router.searchRoute(rctx, start, end, intermediates, null));
 				routeRes = rc == null ? null : rc.getList();
 				putResultProps(ctx, routeRes, props);
 			}
@@ -953,9 +1057,11 @@ public class OsmAndMapsService {
 	}
 
 	private static long getLocalTimeMillisByLatLon(double lat, double lon) {
-		String tz = TimezoneMapper.latLngToTimezoneString(lat, lon);
+		String tz = TimezoneIndex.latLngToTimezoneString(lat, lon);
 		ZonedDateTime zonedDateTime = ZonedDateTime.now(ZoneId.of(tz));
-		System.out.printf("TimezoneMapper (%.5f, %.5f) = %s\n", lat, lon, zonedDateTime);
+		if (LOGGER.isDebugEnabled()) {
+			LOGGER.debug(String.format("Timezone (%.5f, %.5f) = %s", lat, lon, zonedDateTime));
+		}
 		return zonedDateTime.toInstant().toEpochMilli();
 	}
 
@@ -986,45 +1092,59 @@ public class OsmAndMapsService {
 
 	private RoutingCacheContext lockRoutingCache(RoutePlannerFrontEnd router, RouteParameters rp) throws IOException, InterruptedException {
 		long waitTime = System.currentTimeMillis();
-		while ((System.currentTimeMillis() - waitTime) < MAX_SAME_PROFILE_WAIT_MS) {
-			RoutingCacheContext best = null;
-			synchronized (routingCaches) {
-				for (RoutingCacheContext c : routingCaches) {
-					if (c.locked == 0 && rp.routeProfile.equals(c.profile)) {
-						if (c.routeParamsStr.equals(rp.routeParams.toString()) || best == null) {
-							best = c;
+		RoutingCacheContext best = null;
+		synchronized (routingCaches) {
+			routingCacheWaiting.incrementAndGet();
+			try {
+				while (true) {
+					int sameProfileSize = 0;
+					for (RoutingCacheContext c : routingCaches) {
+						if (rp.routeProfile.equals(c.profile)) {
+							sameProfileSize++;
+							if (c.locked == 0 && (c.routeParamsStr.equals(rp.routeParams.toString()) || best == null)) {
+								best = c;
+							}
 						}
 					}
+					long left = MAX_SAME_PROFILE_WAIT_MS - (System.currentTimeMillis() - waitTime);
+					boolean canCreate = sameProfileSize < maxProfileMaps(rp.routeProfile)
+							&& routingCaches.size() < MAX_SAME_ROUTING_CONTEXT_OPEN;
+					if (best != null || canCreate || left <= 0) {
+						break;
+					}
+					// wait for context of the same profile to be unlocked
+					routingCaches.wait(left);
 				}
-				if (best != null) {
-					best.used++;
-					best.locked = System.currentTimeMillis();
-					router.setHHRoutingConfig(best.hhConfig);
-				}
+			} finally {
+				routingCacheWaiting.decrementAndGet();
 			}
 			if (best != null) {
-				best.rCtx.unloadAllData();
-				if (!best.routeParamsStr.equals(rp.routeParams.toString())) {
-					best.routeParamsStr = rp.routeParams.toString();
-					GeneralRouter oldRouter = best.rCtx.config.router;
-					oldRouter.clearCaches();
-					GeneralRouter newRouter = new GeneralRouter(oldRouter, rp.routeParams);
-					best.rCtx.setRouter(newRouter);
-					newRouter.clearCaches();
-					if (best.hCtx != null) {
-						best.hCtx.clearSegments(); // segments could be affected by params recalculation
-					}
-				}
-				if (rp.disableHHRouting) {
-					router.disableHHRoutingConfig();
-				} else {
-					router.setHHRouteCpp(rp.useNativeRouting);
-					router.setUseOnlyHHRouting(rp.useOnlyHHRouting);
-					router.setHHRoutingConfig(best.hhConfig); // after prepare
+				best.used++;
+				best.locked = System.currentTimeMillis();
+				router.setHHRoutingConfig(best.hhConfig);
+			}
+		}
+		if (best != null) {
+			best.rCtx.unloadAllData();
+			if (!best.routeParamsStr.equals(rp.routeParams.toString())) {
+				best.routeParamsStr = rp.routeParams.toString();
+				GeneralRouter oldRouter = best.rCtx.config.router;
+				oldRouter.clearCaches();
+				GeneralRouter newRouter = new GeneralRouter(oldRouter, rp.routeParams);
+				best.rCtx.setRouter(newRouter);
+				newRouter.clearCaches();
+				if (best.hCtx != null) {
+					best.hCtx.clearSegments(); // segments could be affected by params recalculation
 				}
-				return best;
 			}
-			Thread.sleep(1000);
+			if (rp.disableHHRouting) {
+				router.disableHHRoutingConfig();
+			} else {
+				router.setHHRouteCpp(rp.useNativeRouting);
+				router.setUseOnlyHHRouting(rp.useOnlyHHRouting);
+				router.setHHRoutingConfig(best.hhConfig); // after prepare
+			}
+			return best;
 		}
 
 		RoutingCacheContext cs = new RoutingCacheContext();
@@ -1070,6 +1190,7 @@ public class OsmAndMapsService {
 				if (c.rCtx == ctx) {
 					c.hCtx = c.hhConfig.cacheCtx;
 					c.locked = 0;
+					routingCaches.notifyAll();
 					return true;
 				}
 			}
@@ -1077,12 +1198,6 @@ public class OsmAndMapsService {
 		return false;
 	}
 
-	private synchronized RouteCalcResult runRoutingSync(LatLon start, LatLon end, List<LatLon> intermediates,
-	                                                    RoutePlannerFrontEnd router, RoutingContext ctx) throws IOException, InterruptedException {
-		return router.searchRoute(ctx, start, end, intermediates, null);
-	}
-
-
 	private void putResultProps(RoutingContext ctx, List<RouteSegmentResult> route, Map<String, Object> props) {
 		float completeTime = 0;
 		float completeDistance = 0;
@@ -69,7 +69,7 @@ public class RoutingService {
         return pointsRes;
     }
 
-    public synchronized List<WebGpxParser.Point> approximateRoute(List<WebGpxParser.Point> points, String routeMode) throws IOException, InterruptedException {
+    public List<WebGpxParser.Point> approximateRoute(List<WebGpxParser.Point> points, String routeMode) throws IOException, InterruptedException {
         List<Location> locations = new ArrayList<>();
         List<RouteSegmentResult> approximateResult = osmAndMapsService.approximateRoute(points, routeMode);
         List<WebGpxParser.Point> gpxPoints = getPoints(approximateResult, locations);
@@ -0,0 +1,206 @@
+package net.osmand.server.api.services;
+
+import java.awt.image.DataBuffer;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import net.osmand.obf.preparation.IndexWeatherData.WeatherTiff;
+
+/**
+ * Keeps weather forecast rasters ready for point queries. Every tiff is decoded once and converted
+ * to raw float file which is memory mapped, so rasters don't occupy heap and survive restarts.
+ * Raster is reloaded when modification time of tiff changes.
+ */
+@Service
+public class WeatherService {
+
+	protected static final Log LOGGER = LogFactory.getLog(WeatherService.class);
+
+	private static final int RAW_MAGIC = 0x57524631; // WRF1
+	private static final int RAW_HEADER_SIZE = 16;
+	private static final String RAW_EXT = ".raw";
+	private static final long CLEANUP_INTERVAL_MILLIS = 60 * 60 * 1000L; // 1 hour
+	private static final long UNUSED_RAW_FILE_AGE_MILLIS = 24 * 60 * 60 * 1000L; // 1 day
+
+	private final File rawFolder = new File(System.getProperty("java.io.tmpdir"), "weather-raw");
+	private final Map<String, WeatherRaster> rasters = new ConcurrentHashMap<>();
+
+	private static class WeatherRaster {
+		final File tiffFile;
+		final File rawFile;
+		volatile long lastModified = -1;
+		volatile WeatherTiff tiff;
+
+		WeatherRaster(File tiffFile, File rawFile) {
+			this.tiffFile = tiffFile;
+			this.rawFile = rawFile;
+		}
+	}
+
+	// getters without bank are overridden too, DataBuffer implements them by int getElem
+	private static class MappedFloatBuffer extends DataBuffer {
+		private final FloatBuffer buffer;
+
+		MappedFloatBuffer(FloatBuffer buffer) {
+			super(DataBuffer.TYPE_FLOAT, buffer.capacity());
+			this.buffer = buffer;
+		}
+
+		@Override
+		public int getElem(int i) {
+			return (int) buffer.get(i);
+		}
+
+		@Override
+		public int getElem(int bank, int i) {
+			return (int) buffer.get(i);
+		}
+
+		@Override
+		public float getElemFloat(int i) {
+			return buffer.get(i);
+		}
+
+		@Override
+		public float getElemFloat(int bank, int i) {
+			return buffer.get(i);
+		}
+
+		@Override
+		public double getElemDouble(int i) {
+			return buffer.get(i);
+		}
+
+		@Override
+		public double getElemDouble(int bank, int i) {
+			return buffer.get(i);
+		}
+
+		@Override
+		public void setElem(int bank, int i, int val) {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	public WeatherTiff getWeatherTiff(String weatherType, File tiffFile) throws IOException {
+		String key = weatherType + '/' + tiffFile.getName();
+		WeatherRaster raster = rasters.computeIfAbsent(key,
+				k -> new WeatherRaster(tiffFile, new File(rawFolder, k.replaceAll("[^\\w/.-]|\\.\\.", "_") + RAW_EXT)));
+		long lastModified = tiffFile.lastModified();
+		if (raster.lastModified == lastModified) {
+			return raster.tiff;
+		}
+		synchronized (raster) {
+			if (raster.lastModified != lastModified) {
+				WeatherTiff tiff = mapRaw(raster.rawFile, tiffFile, lastModified);
+				if (tiff == null) {
+					long time = System.currentTimeMillis();
+					tiff = new WeatherTiff(tiffFile);
+					if (tiff.getData() != null) {
+						writeRaw(tiff, raster.rawFile, lastModified);
+						tiff = mapRaw(raster.rawFile, tiffFile, lastModified);
+					}
+					LOGGER.info(String.format("Convert weather tiff %s: %d ms", key, System.currentTimeMillis() - time));
+				}
+				raster.tiff = tiff;
+				raster.lastModified = lastModified;
+			}
+			return raster.tiff;
+		}
+	}
+
+	WeatherTiff mapRaw(File rawFile, File tiffFile, long lastModified) throws IOException {
+		if (!rawFile.exists() || rawFile.lastModified() != lastModified) {
+			return null;
+		}
+		try (RandomAccessFile raf = new RandomAccessFile(rawFile, "r"); FileChannel channel = raf.getChannel()) {
+			MappedByteBuffer mapped = channel.map(MapMode.READ_ONLY, 0, channel.size());
+			if (channel.size() < RAW_HEADER_SIZE || mapped.getInt(0) != RAW_MAGIC) {
+				return null;
+			}
+			int width = mapped.getInt(4);
+			int height = mapped.getInt(8);
+			int bands = mapped.getInt(12);
+			if ((long) width * height * bands * Float.BYTES + RAW_HEADER_SIZE != channel.size()) {
+				return null;
+			}
+			FloatBuffer data = mapped.slice(RAW_HEADER_SIZE, (int) channel.size() - RAW_HEADER_SIZE).asFloatBuffer();
+			return new WeatherTiff(tiffFile, new MappedFloatBuffer(data), width, height, bands);
+		}
+	}
+
+	void writeRaw(WeatherTiff tiff, File rawFile, long lastModified) throws IOException {
+		rawFile.getParentFile().mkdirs();
+		File tmp = new File(rawFile.getParentFile(), rawFile.getName() + ".tmp");
+		DataBuffer data = tiff.getData();
+		int size = tiff.getWidth() * tiff.getHeight() * tiff.getBands();
+		try (RandomAccessFile raf = new RandomAccessFile(tmp, "rw"); FileChannel channel = raf.getChannel()) {
+			raf.setLength(0);
+			ByteBuffer bb = ByteBuffer.allocate(1 << 20);
+			bb.putInt(RAW_MAGIC).putInt(tiff.getWidth()).putInt(tiff.getHeight()).putInt(tiff.getBands());
+			for (int i = 0; i < size; i++) {
+				if (bb.remaining() < Float.BYTES) {
+					bb.flip();
+					while (bb.hasRemaining()) {
+						channel.write(bb);
+					}
+					bb.clear();
+				}
+				bb.putFloat(data.getElemFloat(i));
+			}
+			bb.flip();
+			while (bb.hasRemaining()) {
+				channel.write(bb);
+			}
+		}
+		if (!tmp.renameTo(rawFile)) {
+			throw new IOException("Can't rename " + tmp + " to " + rawFile);
+		}
+		rawFile.setLastModified(lastModified);
+	}
+
+	@Scheduled(fixedRate = CLEANUP_INTERVAL_MILLIS)
+	public void cleanupRasters() {
+		Iterator<WeatherRaster> it = rasters.values().iterator();
+		while (it.hasNext()) {
+			WeatherRaster raster = it.next();
+			if (!raster.tiffFile.exists()) {
+				it.remove();
+				raster.rawFile.delete();
+			}
+		}
+		// raw files left from previous runs
+		File[] typeFolders = rawFolder.listFiles(File::isDirectory);
+		if (typeFolders != null) {
+			long now = System.currentTimeMillis();
+			for (File folder : typeFolders) {
+				File[] files = folder.listFiles();
+				if (files == null) {
+					continue;
+				}
+				for (File f : files) {
+					String name = f.getName();
+					if (name.endsWith(RAW_EXT) && !rasters.containsKey(folder.getName() + '/'
+							+ name.substring(0, name.length() - RAW_EXT.length()))
+							&& now - f.lastModified() > UNUSED_RAW_FILE_AGE_MILLIS) {
+						f.delete();
+					}
+				}
+			}
+		}
+	}
+}
@@ -7,12 +7,14 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.concurrent.*;
 
+import javax.annotation.PostConstruct;
 import javax.imageio.ImageIO;
 
 import net.osmand.server.Application;
 import net.osmand.server.tileManager.TileMemoryCache;
 import net.osmand.server.tileManager.TileServerConfig;
 import net.osmand.server.tileManager.GeotiffTile;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -52,8 +54,20 @@ public class GeotiffTileController {
 	@Value("${osmand.heightmap.location}")
 	String geotiffTiles;
 
+	@Autowired(required = false)
+	MeterRegistry meterRegistry;
+
 	private final TileMemoryCache<GeotiffTile> tileMemoryCache = new TileMemoryCache<>();
 
+	@PostConstruct
+	public void initCache() {
+		tileMemoryCache.setLimits((long) config.maxMemoryCacheMb << 20, (long) config.maxEncodedCacheMb << 20,
+				config.maxMemoryCacheTiles);
+		if (meterRegistry != null) {
+			tileMemoryCache.registerMetrics(meterRegistry, "heightmap");
+		}
+	}
+
 	private ResponseEntity<?> errorConfig(String msg) {
 		return ResponseEntity.badRequest()
 				.body(msg);
@@ -74,7 +88,6 @@ public class GeotiffTileController {
 		GeotiffTile tile = tileMemoryCache.getTile(tileId, k -> new GeotiffTile(config, tileType, x, y, z));
 		// for testing
 		// GeotiffTile tile = new GeotiffTile(config, tileType, x, y, z);
-		tileMemoryCache.cleanupCache();
 		BufferedImage img = tile.getCacheRuntimeImage();
 		tile.touch();
 
@@ -88,6 +101,7 @@ public class GeotiffTileController {
 		if (img == null) {
 			return ResponseEntity.badRequest().body("Failed to get tile");
 		}
+		tileMemoryCache.touchImage(tile);
 		ByteArrayOutputStream baos = new ByteArrayOutputStream();
 		ImageIO.write(img, "png", baos);
 		return ResponseEntity.ok()
@@ -105,16 +119,17 @@ public class GeotiffTileController {
 		synchronized (lock) {
 			try {
 				GeotiffTile currentTile = tile != null ? tile : tileMemoryCache.getTile(tileId, k -> new GeotiffTile(config, tileType, x, y, z));
-				tileMemoryCache.cleanupCache();
 				BufferedImage cachedImage = currentTile.getCacheRuntimeImage();
 				currentTile.touch();
 
 				if (cachedImage != null) {
+					tileMemoryCache.touchImage(currentTile);
 					return cachedImage;
 				}
 				BufferedImage img = z < UNDERSCALED_BASE_ZOOM ? fetchUpperTiles(tileType, x, y, z) : getTileFromService(currentTile);
 				if (img != null) {
 					saveToCache(currentTile, img);
+					tileMemoryCache.touchImage(currentTile);
 					return img;
 				}
 				return null;
@@ -67,6 +67,7 @@ public class GpxController {
 	
     public static final int MAX_SIZE_FILES = 10;
     public static final int MAX_SIZE_FILES_AUTH = 100;
+    public static final int MAX_ELEVATION_POINTS = 1000000;
 
 	Gson gson = new Gson();
 	
@@ -303,6 +304,19 @@ public class GpxController {
 		return ResponseEntity.ok(gsonWithNans.toJson(Map.of("data", trackData)));
 	}
 	
+	@PostMapping(path = {"/get-elevations"}, produces = "application/json")
+	public ResponseEntity<String> getElevations(@RequestBody String data) {
+		GpxService.ElevationsData req = gson.fromJson(data, GpxService.ElevationsData.class);
+		if (req == null || req.lat == null || req.lon == null || req.lat.length != req.lon.length) {
+			return ResponseEntity.badRequest().body("Arrays lat and lon of the same length are expected");
+		}
+		if (req.lat.length > MAX_ELEVATION_POINTS) {
+			return ResponseEntity.badRequest().body("Too many points, max " + MAX_ELEVATION_POINTS);
+		}
+		double[] ele = gpxService.getElevations(req.lat, req.lon);
+		return ResponseEntity.ok(gsonWithNans.toJson(new GpxService.ElevationsData(null, null, ele)));
+	}
+	
 	@RequestMapping(path = {"/get-analysis"}, produces = "application/json")
 	public ResponseEntity<String> getAnalysis(@RequestBody String data) throws IOException {
 		WebGpxParser.TrackData trackData = gson.fromJson(data, WebGpxParser.TrackData.class);
@@ -1,23 +1,33 @@
 package net.osmand.server.controllers.pub;
 
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import javax.imageio.ImageIO;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 
 import com.google.gson.JsonObject;
 import net.osmand.server.tileManager.TileMemoryCache;
+import net.osmand.server.tileManager.TileMemoryCache.EncodedTile;
+import net.osmand.server.tileManager.TilePackCache;
 import net.osmand.server.tileManager.TileServerConfig;
 import net.osmand.server.tileManager.VectorMetatile;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.core.io.ByteArrayResource;
 import org.springframework.http.*;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.xml.sax.SAXException;
 import org.xmlpull.v1.XmlPullParserException;
@@ -35,14 +45,68 @@ public class VectorTileController {
 
 	protected static final Log LOGGER = LogFactory.getLog(VectorTileController.class);
 
+	private static final String PACKS_FOLDER = "packs";
+	private static final long PACKS_CHECK_INTERVAL_MILLIS = 60 * 60 * 1000L; // 1 hour
+
 	@Autowired
 	OsmAndMapsService osmAndMapsService;
 
 	@Autowired
 	TileServerConfig config;
 
+	@Autowired(required = false)
+	MeterRegistry meterRegistry;
+
 	private final TileMemoryCache<VectorMetatile> tileMemoryCache = new TileMemoryCache<>();
 
+	private TilePackCache tilePackCache;
+
+	private ExecutorService encodeExecutor;
+
+	@PostConstruct
+	public void initCache() {
+		int encodeThreads = config.encodeThreads > 0 ? config.encodeThreads
+				: Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+		AtomicInteger threadNumber = new AtomicInteger();
+		encodeExecutor = Executors.newFixedThreadPool(encodeThreads, r -> {
+			Thread t = new Thread(r, "tile-encode-" + threadNumber.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		});
+		tileMemoryCache.setLimits((long) config.maxMemoryCacheMb << 20, (long) config.maxEncodedCacheMb << 20,
+				config.maxMemoryCacheTiles);
+		if (meterRegistry != null) {
+			tileMemoryCache.registerMetrics(meterRegistry, "vector");
+		}
+		if (!Algorithms.isEmpty(config.cacheLocation)) {
+			tilePackCache = new TilePackCache(new File(config.cacheLocation, PACKS_FOLDER));
+			checkTilePacks();
+		}
+	}
+
+	@PreDestroy
+	public void closeCache() {
+		encodeExecutor.shutdownNow();
+		if (tilePackCache != null) {
+			tilePackCache.close();
+		}
+	}
+
+	@Scheduled(fixedRate = PACKS_CHECK_INTERVAL_MILLIS, initialDelay = PACKS_CHECK_INTERVAL_MILLIS)
+	public void checkTilePacks() {
+		if (tilePackCache == null || Algorithms.isEmpty(config.obfLocation)) {
+			return;
+		}
+		try {
+			if (tilePackCache.checkMapsVersion(new File(config.obfLocation))) {
+				tileMemoryCache.clear();
+			}
+		} catch (IOException e) {
+			LOGGER.error("Error checking obf files for tile packs: " + e.getMessage(), e);
+		}
+		tilePackCache.cleanup(TimeUnit.DAYS.toMillis(config.packsMaxAgeDays), (long) config.packsMaxSizeMb << 20);
+	}
+
 	Gson gson = new Gson();
 
 	private ResponseEntity<?> errorConfig(String msg) {
@@ -66,7 +130,8 @@ public class VectorTileController {
 	}
 
 	@RequestMapping(path = "/{style}/{z}/{x}/{y}.png", produces = MediaType.IMAGE_PNG_VALUE)
-	public ResponseEntity<?> getTile(@PathVariable String style, @PathVariable int z, @PathVariable int x, @PathVariable int y)
+	public ResponseEntity<?> getTile(@PathVariable String style, @PathVariable int z, @PathVariable int x, @PathVariable int y,
+	                                 @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch)
 			throws IOException, XmlPullParserException, SAXException {
 		if (!osmAndMapsService.validateAndInitConfig()) {
 			return errorConfig("Tile service is not initialized: " + (config == null ? "" : config.initErrorMessage));
@@ -83,27 +148,63 @@ public class VectorTileController {
 			return ResponseEntity.badRequest().body("Rendering style is undefined: " + currentStyle);
 		}
 
-		tileMemoryCache.conditionalCleanupCache();
-		VectorMetatile tile = getMetaTile(vectorStyle, z, x, y, interactiveKey);
-		// for local debug :
-		//BufferedImage img = null;
-		BufferedImage img = tile.getCacheRuntimeImage();
-		tile.touch();
-		if (img == null) {
-			ResponseEntity<String> err = osmAndMapsService.renderMetaTile(tile, tileMemoryCache);
-			img = tile.runtimeImage;
-			if (err != null) {
-				return err;
-			} else if (img == null) {
-				return ResponseEntity.badRequest().body("Unexpected error during rendering");
+		String key = interactiveKey != null ? interactiveKey : vectorStyle.key;
+		String subTileId = config.createTileId(key, x, y, z, -1, -1);
+		EncodedTile encoded = tileMemoryCache.getEncoded(subTileId);
+		if (encoded == null && tilePackCache != null) {
+			byte[] data = tilePackCache.get(key, z, x, y);
+			if (data != null) {
+				encoded = new EncodedTile(data);
+				tileMemoryCache.putEncoded(subTileId, encoded);
 			}
 		}
-		BufferedImage subimage = tile.readSubImage(img, x, y);
-		ByteArrayOutputStream baos = new ByteArrayOutputStream();
-		ImageIO.write(subimage, "png", baos);
+		if (encoded == null) {
+			VectorMetatile tile = getMetaTile(vectorStyle, z, x, y, interactiveKey);
+			// for local debug :
+			//BufferedImage img = null;
+			BufferedImage img = tile.getCacheRuntimeImage();
+			tile.touch();
+			if (img == null) {
+				ResponseEntity<String> err = osmAndMapsService.renderMetaTile(tile, tileMemoryCache);
+				img = tile.runtimeImage;
+				if (err != null) {
+					return err;
+				} else if (img == null) {
+					return ResponseEntity.badRequest().body("Unexpected error during rendering");
+				}
+			}
+			tileMemoryCache.touchImage(tile);
+			encoded = tile.encodeSubTiles(img, x, y, tileMemoryCache, tilePackCache, encodeExecutor);
+		}
+		if (matchesETag(ifNoneMatch, encoded.etag)) {
+			return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+					.header("Cache-Control", "public, max-age=2592000")
+					.eTag(encoded.etag).build();
+		}
 		return ResponseEntity.ok()
 				.header("Cache-Control", "public, max-age=2592000")
-				.body(new ByteArrayResource(baos.toByteArray()));
+				.eTag(encoded.etag)
+				.body(new ByteArrayResource(encoded.data));
+	}
+
+	// If-None-Match is a list of quoted (possibly weak) entity tags or *
+	private static boolean matchesETag(String ifNoneMatch, String etag) {
+		if (ifNoneMatch == null) {
+			return false;
+		}
+		for (String tag : ifNoneMatch.split(",")) {
+			tag = tag.trim();
+			if (tag.equals("*")) {
+				return true;
+			}
+			if (tag.startsWith("W/")) {
+				tag = tag.substring(2);
+			}
+			if (tag.equals(etag)) {
+				return true;
+			}
+		}
+		return false;
 	}
 
 	@GetMapping(path = "/info/{style}/{z}/{x}/{y}.json", produces = MediaType.APPLICATION_JSON_VALUE)
@@ -122,7 +223,6 @@ public class VectorTileController {
 		if (tileInfo == null) {
 			return ResponseEntity.badRequest().body("Unexpected error during rendering");
 		}
-		tileMemoryCache.conditionalCleanupCache();
 
 		return ResponseEntity.ok()
 				.header("Cache-Control", "public, max-age=2592000")
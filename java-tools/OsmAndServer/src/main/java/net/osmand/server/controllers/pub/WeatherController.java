@@ -3,7 +3,8 @@ package net.osmand.server.controllers.pub;
 
 import java.io.File;
 import java.io.IOException;
-import java.text.SimpleDateFormat;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
 import java.util.*;
 
 import net.osmand.binary.GeocodingUtilities;
@@ -17,6 +18,7 @@ import net.osmand.search.SearchUICore;
 import net.osmand.search.core.SearchResult;
 import net.osmand.server.api.services.OsmAndMapsService;
 import net.osmand.server.api.services.SearchService;
+import net.osmand.server.api.services.WeatherService;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -30,7 +32,6 @@ import org.springframework.web.bind.annotation.RequestParam;
 
 import com.google.gson.Gson;
 
-import net.osmand.obf.preparation.IndexWeatherData;
 import net.osmand.obf.preparation.IndexWeatherData.WeatherTiff;
 import org.springframework.web.bind.annotation.ResponseBody;
 
@@ -56,14 +57,14 @@ public class WeatherController {
 	
 	@Autowired
 	OsmAndMapsService osmAndMapsService;
+
+	@Autowired
+	WeatherService weatherService;
 	
 	private static final String ECWMF_WEATHER_TYPE = "ecmwf";
 	
 	Gson gson = new Gson();
-	SimpleDateFormat sdf = new SimpleDateFormat("yyyyMMdd_HH");
-	{
-		sdf.setTimeZone(TimeZone.getTimeZone("UTC"));
-	}
+	private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd_HH").withZone(ZoneOffset.UTC);
 
 	@Value("${osmand.weather.location}")
 	String weatherLocation;
@@ -87,13 +88,14 @@ public class WeatherController {
 				c.set(Calendar.HOUR, h - (h % increment));
 			}
 			while (true) {
-				File fl = new File(folder, sdf.format(c.getTime()) + "00.tiff");
+				String date = DATE_FORMAT.format(c.toInstant());
+				File fl = new File(folder, date + "00.tiff");
 				if (fl.exists()) {
 					try {
 						Object[] data = new Object[8];
 						data[0] = c.getTimeInMillis();
-						data[1] = sdf.format(c.getTime()).substring(4).replace('_', ' ') + ":00";
-						WeatherTiff wt = new IndexWeatherData.WeatherTiff(fl);
+						data[1] = date.substring(4).replace('_', ' ') + ":00";
+						WeatherTiff wt = weatherService.getWeatherTiff(weatherType, fl);
 						for (int i = 0; i < wt.getBands() && i < 5; i++) {
 							data[2 + i] = wt.getValue(i, lat, lon, weatherType);
 						}
@@ -0,0 +1,174 @@
+package net.osmand.server.tileManager;
+
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Single flight scheduler of metatile rendering: concurrent requests of any sub tile of the same metatile
+ * wait for one render task. Tasks are rendered by one thread (native rendering is not parallel) from bounded
+ * queue ordered by zoom, so low zoom tiles which are shared by many clients go first.
+ * Tasks all waiting clients of which gave up (timed out) are dropped before rendering.
+ */
+public class MetatileRenderScheduler {
+
+	private static final Log LOGGER = LogFactory.getLog(MetatileRenderScheduler.class);
+
+	private final int maxQueueSize;
+	private final long timeoutMillis;
+	private final Map<String, RenderTask> inFlight = new ConcurrentHashMap<>();
+	private final PriorityBlockingQueue<RenderTask> queue = new PriorityBlockingQueue<>(64,
+			Comparator.comparingInt((RenderTask t) -> t.tile.z).thenComparingLong(t -> t.order));
+	private final AtomicLong order = new AtomicLong();
+	private final Thread worker;
+
+	private final AtomicLong rendered = new AtomicLong();
+	private final AtomicLong coalesced = new AtomicLong();
+	private final AtomicLong rejected = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+	private final AtomicLong timeouts = new AtomicLong();
+
+	public interface Renderer {
+		ResponseEntity<String> render(VectorMetatile tile) throws Exception;
+	}
+
+	private static class RenderTask {
+		final VectorMetatile tile;
+		final Renderer renderer;
+		final long order;
+		final CompletableFuture<ResponseEntity<String>> result = new CompletableFuture<>();
+		// guarded by inFlight.compute of the task key
+		int waiters;
+		boolean started;
+
+		RenderTask(VectorMetatile tile, Renderer renderer, long order) {
+			this.tile = tile;
+			this.renderer = renderer;
+			this.order = order;
+		}
+	}
+
+	public MetatileRenderScheduler(int maxQueueSize, long timeoutMillis) {
+		this.maxQueueSize = maxQueueSize;
+		this.timeoutMillis = timeoutMillis;
+		this.worker = new Thread(this::run, "metatile-render");
+		this.worker.setDaemon(true);
+		this.worker.start();
+	}
+
+	public void registerMetrics(MeterRegistry registry) {
+		Gauge.builder("osmand.render.queue", queue, PriorityBlockingQueue::size).register(registry);
+		Gauge.builder("osmand.render.rendered", rendered, AtomicLong::get).register(registry);
+		Gauge.builder("osmand.render.coalesced", coalesced, AtomicLong::get).register(registry);
+		Gauge.builder("osmand.render.rejected", rejected, AtomicLong::get).register(registry);
+		Gauge.builder("osmand.render.dropped", dropped, AtomicLong::get).register(registry);
+		Gauge.builder("osmand.render.timeouts", timeouts, AtomicLong::get).register(registry);
+	}
+
+	/**
+	 * Renders metatile or waits for rendering of the same metatile requested by another client.
+	 * @return null if image was rendered into tile or error response
+	 */
+	public ResponseEntity<String> render(VectorMetatile tile, Renderer renderer) throws InterruptedException {
+		boolean[] created = new boolean[1];
+		boolean[] full = new boolean[1];
+		RenderTask task = inFlight.compute(tile.key, (k, t) -> {
+			if (t == null) {
+				if (queue.size() >= maxQueueSize) {
+					full[0] = true;
+					return null;
+				}
+				t = new RenderTask(tile, renderer, order.incrementAndGet());
+				created[0] = true;
+			}
+			t.waiters++;
+			return t;
+		});
+		if (full[0]) {
+			rejected.incrementAndGet();
+			return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body("Rendering queue is full, try later");
+		}
+		if (created[0]) {
+			queue.add(task);
+		} else {
+			coalesced.incrementAndGet();
+		}
+		ResponseEntity<String> res;
+		try {
+			res = task.result.get(timeoutMillis, TimeUnit.MILLISECONDS);
+		} catch (TimeoutException | InterruptedException e) {
+			inFlight.computeIfPresent(tile.key, (k, t) -> {
+				if (t == task) {
+					t.waiters--;
+				}
+				return t;
+			});
+			if (e instanceof InterruptedException ie) {
+				throw ie;
+			}
+			timeouts.incrementAndGet();
+			return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body("Rendering timed out, try later");
+		} catch (ExecutionException e) {
+			LOGGER.error("Error rendering metatile " + tile.key + ": " + e.getCause().getMessage(), e.getCause());
+			return ResponseEntity.internalServerError().body("Unexpected error during rendering");
+		}
+		if (res == null && task.tile != tile) {
+			// same metatile was requested through another (evicted) tile object
+			tile.setImg(task.tile.getImg());
+			tile.setInfo(task.tile.getInfo());
+		}
+		return res;
+	}
+
+	private void run() {
+		while (!Thread.currentThread().isInterrupted()) {
+			RenderTask task;
+			try {
+				task = queue.take();
+			} catch (InterruptedException e) {
+				return;
+			}
+			inFlight.compute(task.tile.key, (k, t) -> {
+				if (t != task) {
+					return t;
+				}
+				if (t.waiters <= 0) {
+					return null;
+				}
+				t.started = true;
+				return t;
+			});
+			if (!task.started) {
+				dropped.incrementAndGet();
+				task.result.cancel(false);
+				continue;
+			}
+			try {
+				task.result.complete(task.renderer.render(task.tile));
+				rendered.incrementAndGet();
+			} catch (Throwable e) {
+				task.result.completeExceptionally(e);
+			} finally {
+				inFlight.remove(task.tile.key, task);
+			}
+		}
+	}
+
+	public void shutdown() {
+		worker.interrupt();
+	}
+}
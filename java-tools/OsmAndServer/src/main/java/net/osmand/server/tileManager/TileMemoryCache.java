@@ -1,31 +1,191 @@
 package net.osmand.server.tileManager;
 
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
 
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Runtime cache of tiles bounded by number of tiles and by memory used by runtime images.
+ * Tiles and images are kept in access ordered maps, so eviction of least recently used
+ * entries happens on insert and costs O(1) per evicted entry.
+ * Second tier keeps already encoded tiles which are served without image processing.
+ */
 public class TileMemoryCache<T extends TileCacheProvider> {
+
+	public static final long DEFAULT_MAX_IMAGE_BYTES = 1024L << 20;
+	public static final long DEFAULT_MAX_ENCODED_BYTES = 256L << 20;
+	public static final int DEFAULT_MAX_TILES = 10000;
+
 	private final Map<String, T> cacheMap = new ConcurrentHashMap<>();
 	private final Map<String, Object> lockMap = new ConcurrentHashMap<>();
-	private final AtomicInteger cacheTouch = new AtomicInteger(0);
+	// access ordered, both guarded by tilesLru
+	private final LinkedHashMap<String, T> tilesLru = new LinkedHashMap<>(256, 0.75f, true);
+	private final LinkedHashMap<String, ImageEntry<T>> imagesLru = new LinkedHashMap<>(64, 0.75f, true);
+	private long imageBytes;
+	// access ordered, guarded by itself
+	private final LinkedHashMap<String, EncodedTile> encodedLru = new LinkedHashMap<>(1024, 0.75f, true);
+	private long encodedBytes;
+
+	private volatile long maxImageBytes = DEFAULT_MAX_IMAGE_BYTES;
+	private volatile long maxEncodedBytes = DEFAULT_MAX_ENCODED_BYTES;
+	private volatile int maxTiles = DEFAULT_MAX_TILES;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong tileEvictions = new AtomicLong();
+	private final AtomicLong imageEvictions = new AtomicLong();
+	private final AtomicLong encodedHits = new AtomicLong();
+	private final AtomicLong encodedMisses = new AtomicLong();
+	private final AtomicLong encodedEvictions = new AtomicLong();
+
+	private static class ImageEntry<T> {
+		final T tile;
+		final BufferedImage img;
+		final long bytes;
+
+		ImageEntry(T tile, BufferedImage img, long bytes) {
+			this.tile = tile;
+			this.img = img;
+			this.bytes = bytes;
+		}
+	}
+
+	public static class EncodedTile {
+		public final byte[] data;
+		public final String etag;
+
+		public EncodedTile(byte[] data) {
+			this.data = data;
+			CRC32 crc = new CRC32();
+			crc.update(data);
+			this.etag = "\"" + Long.toHexString(crc.getValue()) + Integer.toHexString(data.length) + "\"";
+		}
+	}
 
-	private static final int MAX_RUNTIME_IMAGE_CACHE_SIZE = 80;
-	private static final int MAX_RUNTIME_TILES_CACHE_SIZE = 10000;
+	public void setLimits(long maxImageBytes, long maxEncodedBytes, int maxTiles) {
+		this.maxImageBytes = maxImageBytes;
+		this.maxEncodedBytes = maxEncodedBytes;
+		this.maxTiles = maxTiles;
+		cleanupCache();
+	}
 
-	private final AtomicLong lastCleanupTime = new AtomicLong(0);
-	private static final long CLEANUP_INTERVAL_MILLIS = 10000;
+	public void registerMetrics(MeterRegistry registry, String cache) {
+		Gauge.builder("osmand.tiles.cache.hits", hits, AtomicLong::get).tag("cache", cache).register(registry);
+		Gauge.builder("osmand.tiles.cache.misses", misses, AtomicLong::get).tag("cache", cache).register(registry);
+		Gauge.builder("osmand.tiles.cache.evictions", tileEvictions, AtomicLong::get).tag("cache", cache)
+				.register(registry);
+		Gauge.builder("osmand.tiles.cache.image.evictions", imageEvictions, AtomicLong::get).tag("cache", cache)
+				.register(registry);
+		Gauge.builder("osmand.tiles.cache.size", cacheMap, Map::size).tag("cache", cache).register(registry);
+		Gauge.builder("osmand.tiles.cache.image.size", this, TileMemoryCache::getImageBytes).tag("cache", cache)
+				.baseUnit("bytes").register(registry);
+		Gauge.builder("osmand.tiles.cache.encoded.hits", encodedHits, AtomicLong::get).tag("cache", cache)
+				.register(registry);
+		Gauge.builder("osmand.tiles.cache.encoded.misses", encodedMisses, AtomicLong::get).tag("cache", cache)
+				.register(registry);
+		Gauge.builder("osmand.tiles.cache.encoded.evictions", encodedEvictions, AtomicLong::get).tag("cache", cache)
+				.register(registry);
+		Gauge.builder("osmand.tiles.cache.encoded.size", this, TileMemoryCache::getEncodedBytes).tag("cache", cache)
+				.baseUnit("bytes").register(registry);
+	}
 
 	public T getTile(String key, TileProvider<T> provider) {
-		return cacheMap.computeIfAbsent(key, provider::createTile);
+		T tile = cacheMap.get(key);
+		if (tile != null) {
+			hits.incrementAndGet();
+			synchronized (tilesLru) {
+				tilesLru.get(key);
+			}
+			return tile;
+		}
+		misses.incrementAndGet();
+		tile = cacheMap.computeIfAbsent(key, provider::createTile);
+		addTile(key, tile);
+		return tile;
 	}
 
 	public void put(String key, T tile) {
 		cacheMap.put(key, tile);
+		addTile(key, tile);
 	}
 
 	public T get(String key) {
-		return cacheMap.get(key);
+		T tile = cacheMap.get(key);
+		if (tile == null) {
+			misses.incrementAndGet();
+			return null;
+		}
+		hits.incrementAndGet();
+		synchronized (tilesLru) {
+			tilesLru.get(key);
+		}
+		return tile;
+	}
+
+	/**
+	 * Marks tile image as recently used and accounts its memory, should be called once tile image is loaded or rendered
+	 */
+	public void touchImage(T tile) {
+		String key = tile.getTileId();
+		BufferedImage img = tile.getImg();
+		synchronized (tilesLru) {
+			ImageEntry<T> entry = imagesLru.get(key);
+			if (entry != null && entry.img == img) {
+				return;
+			}
+			if (entry != null) {
+				imagesLru.remove(key);
+				imageBytes -= entry.bytes;
+			}
+			if (img != null && cacheMap.get(key) == tile) {
+				entry = new ImageEntry<>(tile, img, getRasterBytes(img));
+				imagesLru.put(key, entry);
+				imageBytes += entry.bytes;
+				evictImages();
+			}
+		}
+	}
+
+	public EncodedTile getEncoded(String key) {
+		EncodedTile tile;
+		synchronized (encodedLru) {
+			tile = encodedLru.get(key);
+		}
+		if (tile == null) {
+			encodedMisses.incrementAndGet();
+		} else {
+			encodedHits.incrementAndGet();
+		}
+		return tile;
+	}
+
+	public void putEncoded(String key, EncodedTile tile) {
+		synchronized (encodedLru) {
+			EncodedTile prev = encodedLru.put(key, tile);
+			if (prev != null) {
+				encodedBytes -= prev.data.length;
+			}
+			encodedBytes += tile.data.length;
+			evictEncoded();
+		}
+	}
+
+	public long getEncodedBytes() {
+		synchronized (encodedLru) {
+			return encodedBytes;
+		}
+	}
+
+	public long getImageBytes() {
+		synchronized (tilesLru) {
+			return imageBytes;
+		}
 	}
 
 	public Object getLock(String tileId) {
@@ -36,42 +196,93 @@ public class TileMemoryCache<T extends TileCacheProvider> {
 		lockMap.remove(tileId);
 	}
 
-	public void conditionalCleanupCache() {
-		long currentTime = System.currentTimeMillis();
-		long lastTime = lastCleanupTime.get();
-		if (currentTime - lastTime >= CLEANUP_INTERVAL_MILLIS && lastCleanupTime.compareAndSet(lastTime, currentTime)) {
-			cleanupCache();
+	public void cleanupCache() {
+		synchronized (tilesLru) {
+			evictTiles();
+			evictImages();
+		}
+		synchronized (encodedLru) {
+			evictEncoded();
 		}
 	}
 
-	public void cleanupCache() {
-		int version = cacheTouch.incrementAndGet();
-		// so with atomic only 1 thread will get % X == 0
-		if (version % MAX_RUNTIME_IMAGE_CACHE_SIZE == 0 && version > 0) {
-			cacheTouch.set(0);
-			SortedSet<T> sortedCache = Collections.synchronizedSortedSet(new TreeSet<>(cacheMap.values()));
-			List<T> imageTiles = new ArrayList<>();
-			for (T tile : sortedCache) {
-				if (tile.getImg() != null) {
-					imageTiles.add(tile);
+	/**
+	 * Drops all tiles, images and encoded sub tiles, e.g. when maps used for rendering changed
+	 */
+	public void clear() {
+		synchronized (tilesLru) {
+			for (ImageEntry<T> e : imagesLru.values()) {
+				if (e.tile.getImg() == e.img) {
+					e.tile.setImg(null);
 				}
 			}
-			if (imageTiles.size() >= MAX_RUNTIME_IMAGE_CACHE_SIZE) {
-				for (int i = 0; i < MAX_RUNTIME_IMAGE_CACHE_SIZE / 2; i++) {
-					T tile = imageTiles.get(i);
-					tile.setImg(null);
-				}
+			imagesLru.clear();
+			imageBytes = 0;
+			tilesLru.clear();
+			cacheMap.clear();
+		}
+		synchronized (encodedLru) {
+			encodedLru.clear();
+			encodedBytes = 0;
+		}
+	}
+
+	private void addTile(String key, T tile) {
+		synchronized (tilesLru) {
+			T prev = tilesLru.put(key, tile);
+			if (prev != null && prev != tile) {
+				removeImage(key);
 			}
-			if (cacheMap.size() >= MAX_RUNTIME_TILES_CACHE_SIZE) {
-				Iterator<T> it = sortedCache.iterator();
-				while (cacheMap.size() >= MAX_RUNTIME_TILES_CACHE_SIZE / 2 && it.hasNext()) {
-					T tile = it.next();
-					cacheMap.remove(tile.getTileId());
-				}
+			evictTiles();
+		}
+	}
+
+	private void evictTiles() {
+		Iterator<Map.Entry<String, T>> it = tilesLru.entrySet().iterator();
+		while (tilesLru.size() > maxTiles && it.hasNext()) {
+			Map.Entry<String, T> e = it.next();
+			it.remove();
+			cacheMap.remove(e.getKey(), e.getValue());
+			removeImage(e.getKey());
+			tileEvictions.incrementAndGet();
+		}
+	}
+
+	private void evictImages() {
+		Iterator<ImageEntry<T>> it = imagesLru.values().iterator();
+		// keep at least most recent image even if it exceeds budget
+		while (imageBytes > maxImageBytes && imagesLru.size() > 1 && it.hasNext()) {
+			ImageEntry<T> e = it.next();
+			it.remove();
+			imageBytes -= e.bytes;
+			if (e.tile.getImg() == e.img) {
+				e.tile.setImg(null);
 			}
+			imageEvictions.incrementAndGet();
 		}
 	}
 
+	private void evictEncoded() {
+		Iterator<EncodedTile> it = encodedLru.values().iterator();
+		while (encodedBytes > maxEncodedBytes && it.hasNext()) {
+			encodedBytes -= it.next().data.length;
+			it.remove();
+			encodedEvictions.incrementAndGet();
+		}
+	}
+
+	private void removeImage(String key) {
+		ImageEntry<T> e = imagesLru.remove(key);
+		if (e != null) {
+			imageBytes -= e.bytes;
+		}
+	}
+
+	public static long getRasterBytes(BufferedImage img) {
+		DataBuffer db = img.getRaster().getDataBuffer();
+		return (long) db.getSize() * db.getNumBanks() * DataBuffer.getDataTypeSize(db.getDataType()) / 8;
+	}
+
 	public interface TileProvider<T> {
 		T createTile(String key);
 	}
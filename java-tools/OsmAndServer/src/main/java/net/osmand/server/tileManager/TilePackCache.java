@@ -0,0 +1,420 @@
+package net.osmand.server.tileManager;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import gnu.trove.impl.Constants;
+import gnu.trove.map.hash.TLongLongHashMap;
+
+/**
+ * Disk cache of encoded tiles packed into append only files per style, zoom and region of 64x64 tiles.
+ * Pack file is a sequence of records (int x, int y, int length, data), index of the pack is built
+ * by scanning the file on first access and tiles are read from memory mapped chunks of the file.
+ * Pack is compacted once half of it is taken by replaced records.
+ * Whole cache is dropped when obf files used for rendering change.
+ */
+public class TilePackCache implements Closeable {
+
+	private static final Log LOGGER = LogFactory.getLog(TilePackCache.class);
+
+	private static final int REGION_SHIFT = 6;
+	private static final int RECORD_HEADER_SIZE = 12;
+	private static final int MAX_TILE_SIZE = 16 << 20;
+	private static final int MAX_OPEN_PACKS = 512;
+	private static final String PACK_EXT = ".pack";
+	private static final String COMPACT_EXT = ".compact";
+	// 64 MB per mapped buffer
+	private static final int CHUNK_SIZE = 1 << 26;
+	private static final long MIN_COMPACT_GARBAGE = 1 << 20;
+	private static final String MAPS_VERSION_FILE = "maps.version";
+
+	private final File root;
+	// access ordered, guarded by itself
+	private final LinkedHashMap<String, Pack> packs = new LinkedHashMap<>(MAX_OPEN_PACKS, 0.75f, true);
+
+	private static class Pack {
+		final File file;
+		FileChannel channel;
+		// (x << 32 | y) -> record offset
+		final TLongLongHashMap index = new TLongLongHashMap(Constants.DEFAULT_CAPACITY,
+				Constants.DEFAULT_LOAD_FACTOR, 0, -1);
+		long size;
+		// bytes of records replaced by newer records of the same tile
+		long garbage;
+		// only completely written chunks are mapped, so appends don't remap anything
+		final List<MappedByteBuffer> chunks = new ArrayList<>();
+		long lastAccess;
+		boolean closed;
+
+		Pack(File file) throws IOException {
+			this.file = file;
+			file.getParentFile().mkdirs();
+			getCompactFile().delete();
+			this.channel = openChannel(file);
+			readIndex();
+		}
+
+		private static FileChannel openChannel(File file) throws IOException {
+			return new RandomAccessFile(file, "rw").getChannel();
+		}
+
+		private File getCompactFile() {
+			return new File(file.getParentFile(), file.getName() + COMPACT_EXT);
+		}
+
+		private void readIndex() throws IOException {
+			long fileSize = channel.size();
+			ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+			long pos = 0;
+			while (pos + RECORD_HEADER_SIZE <= fileSize) {
+				header.clear();
+				channel.read(header, pos);
+				int x = header.getInt(0);
+				int y = header.getInt(4);
+				int len = header.getInt(8);
+				if (len < 0 || len > MAX_TILE_SIZE || pos + RECORD_HEADER_SIZE + len > fileSize) {
+					break;
+				}
+				long prev = index.put(tileKey(x, y), pos);
+				if (prev != index.getNoEntryValue()) {
+					garbage += RECORD_HEADER_SIZE + readHeader(prev).getInt(8);
+				}
+				pos += RECORD_HEADER_SIZE + len;
+			}
+			if (pos != fileSize) {
+				LOGGER.warn(String.format("Truncate broken tile pack %s at %d (%d)", file, pos, fileSize));
+				channel.truncate(pos);
+			}
+			size = pos;
+		}
+
+		byte[] get(int x, int y) throws IOException {
+			long offset = index.get(tileKey(x, y));
+			if (offset == index.getNoEntryValue()) {
+				return null;
+			}
+			byte[] data = new byte[readHeader(offset).getInt(8)];
+			read(offset + RECORD_HEADER_SIZE, data);
+			return data;
+		}
+
+		void put(int x, int y, byte[] data) throws IOException {
+			ByteBuffer bb = ByteBuffer.allocate(RECORD_HEADER_SIZE + data.length);
+			bb.putInt(x).putInt(y).putInt(data.length).put(data);
+			bb.flip();
+			long pos = size;
+			while (bb.hasRemaining()) {
+				pos += channel.write(bb, pos);
+			}
+			long prev = index.put(tileKey(x, y), size);
+			if (prev != index.getNoEntryValue()) {
+				garbage += RECORD_HEADER_SIZE + readHeader(prev).getInt(8);
+			}
+			size = pos;
+			if (garbage > MIN_COMPACT_GARBAGE && garbage * 2 > size) {
+				compact();
+			}
+		}
+
+		/**
+		 * Rewrites pack with only the latest record of every tile
+		 */
+		void compact() throws IOException {
+			long[] offsets = index.values();
+			Arrays.sort(offsets);
+			File tmp = getCompactFile();
+			TLongLongHashMap newIndex = new TLongLongHashMap(offsets.length, Constants.DEFAULT_LOAD_FACTOR, 0, -1);
+			long pos = 0;
+			try (FileChannel out = openChannel(tmp)) {
+				out.truncate(0);
+				for (long offset : offsets) {
+					ByteBuffer header = readHeader(offset);
+					long len = RECORD_HEADER_SIZE + header.getInt(8);
+					long transferred = 0;
+					while (transferred < len) {
+						transferred += channel.transferTo(offset + transferred, len - transferred, out);
+					}
+					newIndex.put(tileKey(header.getInt(0), header.getInt(4)), pos);
+					pos += len;
+				}
+				out.force(false);
+			}
+			long oldSize = size;
+			chunks.clear();
+			channel.close();
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+			channel = openChannel(file);
+			index.clear();
+			index.putAll(newIndex);
+			size = pos;
+			garbage = 0;
+			LOGGER.info(String.format("Compacted tile pack %s: %d KB -> %d KB", file, oldSize >> 10, size >> 10));
+		}
+
+		private ByteBuffer readHeader(long offset) throws IOException {
+			byte[] header = new byte[RECORD_HEADER_SIZE];
+			read(offset, header);
+			return ByteBuffer.wrap(header);
+		}
+
+		private void read(long pos, byte[] dst) throws IOException {
+			int chunk = (int) (pos / CHUNK_SIZE);
+			int offset = (int) (pos % CHUNK_SIZE);
+			if (offset + dst.length <= CHUNK_SIZE && mapChunk(chunk)) {
+				chunks.get(chunk).get(offset, dst);
+				return;
+			}
+			// record in the tail of file or crossing chunks border
+			ByteBuffer bb = ByteBuffer.wrap(dst);
+			while (bb.hasRemaining()) {
+				if (channel.read(bb, pos + bb.position()) < 0) {
+					throw new EOFException("Unexpected end of tile pack " + file);
+				}
+			}
+		}
+
+		private boolean mapChunk(int chunk) throws IOException {
+			if ((long) (chunk + 1) * CHUNK_SIZE > size) {
+				return false;
+			}
+			while (chunks.size() <= chunk) {
+				chunks.add(channel.map(MapMode.READ_ONLY, (long) chunks.size() * CHUNK_SIZE, CHUNK_SIZE));
+			}
+			return true;
+		}
+
+		void close() throws IOException {
+			closed = true;
+			chunks.clear();
+			channel.close();
+		}
+	}
+
+	public TilePackCache(File root) {
+		this.root = root;
+	}
+
+	private static long tileKey(int x, int y) {
+		return ((long) x << 32) | (y & 0xffffffffL);
+	}
+
+	private Pack getPack(String style, int z, int x, int y, boolean create) throws IOException {
+		String name = style + '/' + z + '/' + (x >> REGION_SHIFT) + '-' + (y >> REGION_SHIFT) + PACK_EXT;
+		Pack pack;
+		synchronized (packs) {
+			pack = packs.get(name);
+		}
+		if (pack != null) {
+			return pack;
+		}
+		File file = new File(root, name);
+		if (!create && !file.exists()) {
+			return null;
+		}
+		synchronized (packs) {
+			pack = packs.get(name);
+			if (pack == null) {
+				pack = new Pack(file);
+				packs.put(name, pack);
+				Iterator<Pack> it = packs.values().iterator();
+				while (packs.size() > MAX_OPEN_PACKS && it.hasNext()) {
+					closePack(it.next());
+					it.remove();
+				}
+			}
+		}
+		return pack;
+	}
+
+	public byte[] get(String style, int z, int x, int y) {
+		try {
+			Pack pack = getPack(style, z, x, y, false);
+			if (pack == null) {
+				return null;
+			}
+			synchronized (pack) {
+				if (pack.closed) {
+					return null;
+				}
+				pack.lastAccess = System.currentTimeMillis();
+				return pack.get(x, y);
+			}
+		} catch (IOException e) {
+			LOGGER.error(String.format("Error reading tile %s %d/%d/%d from pack: %s", style, z, x, y, e.getMessage()), e);
+			return null;
+		}
+	}
+
+	/**
+	 * Stores square of size x size tiles starting from (minX, minY), tiles are stored row by row
+	 */
+	public void put(String style, int z, int minX, int minY, int size, byte[][] tiles) {
+		for (int i = 0; i < tiles.length; i++) {
+			int x = minX + i % size;
+			int y = minY + i / size;
+			put(style, z, x, y, tiles[i]);
+		}
+	}
+
+	public void put(String style, int z, int x, int y, byte[] data) {
+		try {
+			Pack pack = getPack(style, z, x, y, true);
+			synchronized (pack) {
+				if (!pack.closed) {
+					pack.lastAccess = System.currentTimeMillis();
+					pack.put(x, y, data);
+				}
+			}
+		} catch (IOException e) {
+			LOGGER.error(String.format("Error writing tile %s %d/%d/%d to pack: %s", style, z, x, y, e.getMessage()), e);
+		}
+	}
+
+	/**
+	 * Drops whole cache if obf files (name, size, modification time) differ from the ones cache was created with
+	 */
+	public synchronized boolean checkMapsVersion(File obfFolder) throws IOException {
+		File[] files = obfFolder.listFiles((dir, name) -> name.endsWith(".obf"));
+		if (files == null) {
+			return false;
+		}
+		Arrays.sort(files);
+		CRC32 crc = new CRC32();
+		for (File f : files) {
+			crc.update((f.getName() + ':' + f.length() + ':' + f.lastModified() + '\n').getBytes(StandardCharsets.UTF_8));
+		}
+		String version = Long.toHexString(crc.getValue());
+		File versionFile = new File(root, MAPS_VERSION_FILE);
+		if (versionFile.exists() && version.equals(Files.readString(versionFile.toPath()).trim())) {
+			return false;
+		}
+		if (versionFile.exists()) {
+			LOGGER.info("Obf files changed, clear tile packs " + root);
+		}
+		closePacks();
+		removeFiles(root);
+		root.mkdirs();
+		Files.writeString(versionFile.toPath(), version);
+		return true;
+	}
+
+	/**
+	 * Removes packs not accessed for maxAge and least recently used packs exceeding maxSize
+	 */
+	public synchronized void cleanup(long maxAge, long maxSize) {
+		List<File> files = new ArrayList<>();
+		collectPacks(root, files);
+		long now = System.currentTimeMillis();
+		long[] access = new long[files.size()];
+		Integer[] order = new Integer[files.size()];
+		long totalSize = 0;
+		for (int i = 0; i < files.size(); i++) {
+			File f = files.get(i);
+			Pack pack;
+			synchronized (packs) {
+				pack = packs.get(getPackName(f));
+			}
+			access[i] = Math.max(f.lastModified(), pack == null ? 0 : pack.lastAccess);
+			order[i] = i;
+			totalSize += f.length();
+		}
+		Arrays.sort(order, Comparator.comparingLong(i -> access[i]));
+		int removed = 0;
+		for (int i : order) {
+			File f = files.get(i);
+			if (now - access[i] < maxAge && totalSize <= maxSize) {
+				break;
+			}
+			totalSize -= f.length();
+			removePack(f);
+			removed++;
+		}
+		if (removed > 0) {
+			LOGGER.info(String.format("Removed %d tile packs, %d MB left", removed, totalSize >> 20));
+		}
+	}
+
+	private String getPackName(File f) {
+		return root.toPath().relativize(f.toPath()).toString().replace(File.separatorChar, '/');
+	}
+
+	private void removePack(File f) {
+		synchronized (packs) {
+			Pack pack = packs.remove(getPackName(f));
+			if (pack != null) {
+				closePack(pack);
+			}
+		}
+		f.delete();
+	}
+
+	private void closePack(Pack pack) {
+		synchronized (pack) {
+			try {
+				pack.close();
+			} catch (IOException e) {
+				LOGGER.warn("Error closing tile pack " + pack.file + ": " + e.getMessage());
+			}
+		}
+	}
+
+	private void collectPacks(File dir, List<File> files) {
+		File[] list = dir.listFiles();
+		if (list != null) {
+			for (File f : list) {
+				if (f.isDirectory()) {
+					collectPacks(f, files);
+				} else if (f.getName().endsWith(PACK_EXT)) {
+					files.add(f);
+				}
+			}
+		}
+	}
+
+	private void removeFiles(File dir) {
+		File[] list = dir.listFiles();
+		if (list != null) {
+			for (File f : list) {
+				if (f.isDirectory()) {
+					removeFiles(f);
+				}
+				f.delete();
+			}
+		}
+	}
+
+	private void closePacks() {
+		synchronized (packs) {
+			for (Pack pack : packs.values()) {
+				closePack(pack);
+			}
+			packs.clear();
+		}
+	}
+
+	@Override
+	public synchronized void close() {
+		closePacks();
+	}
+}
@@ -34,6 +34,31 @@ public class TileServerConfig {
 	@Value("${tile-server.cache.max-zoom}")
 	int maxZoomCache = 16;
 
+	@Value("${tile-server.cache.max-memory-mb:1024}")
+	public int maxMemoryCacheMb;
+
+	@Value("${tile-server.cache.max-encoded-mb:256}")
+	public int maxEncodedCacheMb;
+
+	@Value("${tile-server.cache.packs-max-size-mb:20480}")
+	public int packsMaxSizeMb;
+
+	@Value("${tile-server.cache.packs-max-age-days:30}")
+	public int packsMaxAgeDays;
+
+	@Value("${tile-server.cache.max-tiles:10000}")
+	public int maxMemoryCacheTiles;
+
+	@Value("${tile-server.render.queue-size:256}")
+	public int renderQueueSize;
+
+	@Value("${tile-server.render.timeout:60}")
+	public int renderTimeout;
+
+	// 0 - half of available processors
+	@Value("${tile-server.render.encode-threads:0}")
+	public int encodeThreads;
+
 	@Value("${tile-server.metatile-size}")
 	int metatileSize;
 
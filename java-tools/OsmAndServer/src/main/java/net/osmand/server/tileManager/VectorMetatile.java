@@ -3,6 +3,7 @@ package net.osmand.server.tileManager;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 import net.osmand.NativeJavaRendering;
+import net.osmand.server.tileManager.TileMemoryCache.EncodedTile;
 import net.osmand.server.tileManager.TileServerConfig.VectorStyle;
 import org.springframework.http.ResponseEntity;
 import org.xml.sax.SAXException;
@@ -12,6 +13,13 @@ import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
 import java.io.*;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
@@ -29,6 +37,7 @@ public class VectorMetatile implements TileCacheProvider, Comparable<VectorMetat
 	private final TileServerConfig cfg;
 	private JsonObject info;
 	private final String interactiveKey;
+	private final AtomicBoolean subTilesEncoded = new AtomicBoolean();
 
 	public VectorMetatile(TileServerConfig cfg, String tileId, VectorStyle style, int z, int x, int y,
 	                      int metaSizeLog, int tileSizeLog, String interactiveKey) {
@@ -88,6 +97,75 @@ public class VectorMetatile implements TileCacheProvider, Comparable<VectorMetat
 		return img.getSubimage(subl * tilesize, subt * tilesize, tilesize, tilesize);
 	}
 
+	public String getStyleKey() {
+		return interactiveKey != null ? interactiveKey : style.key;
+	}
+
+	public String getSubTileId(int x, int y) {
+		return cfg.createTileId(getStyleKey(), x, y, z, -1, -1);
+	}
+
+	/**
+	 * First call encodes all sub tiles of metatile by encode executor and puts them into cache (and disk packs if
+	 * provided), later calls (sub tile was evicted) encode only requested tile.
+	 */
+	public EncodedTile encodeSubTiles(BufferedImage img, int x, int y, TileMemoryCache<VectorMetatile> tileCache,
+	                                  TilePackCache packCache, ExecutorService encodeExecutor) throws IOException {
+		boolean storePacks = packCache != null && z <= style.maxZoomCache;
+		if (!subTilesEncoded.compareAndSet(false, true)) {
+			EncodedTile encoded = new EncodedTile(encodePng(readSubImage(img, x, y)));
+			tileCache.putEncoded(getSubTileId(x, y), encoded);
+			if (storePacks) {
+				packCache.put(getStyleKey(), z, x, y, encoded.data);
+			}
+			return encoded;
+		}
+		int size = 1 << metaSizeLog;
+		int minX = (x >> metaSizeLog) << metaSizeLog;
+		int minY = (y >> metaSizeLog) << metaSizeLog;
+		EncodedTile[] tiles = new EncodedTile[size * size];
+		List<Callable<Void>> tasks = new ArrayList<>(tiles.length);
+		for (int i = 0; i < tiles.length; i++) {
+			int ind = i;
+			tasks.add(() -> {
+				int sx = minX + ind % size;
+				int sy = minY + ind / size;
+				tiles[ind] = new EncodedTile(encodePng(readSubImage(img, sx, sy)));
+				tileCache.putEncoded(getSubTileId(sx, sy), tiles[ind]);
+				return null;
+			});
+		}
+		try {
+			for (Future<Void> f : encodeExecutor.invokeAll(tasks)) {
+				f.get();
+			}
+		} catch (InterruptedException e) {
+			subTilesEncoded.set(false);
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Tile encoding is interrupted");
+		} catch (ExecutionException e) {
+			subTilesEncoded.set(false);
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		}
+		if (storePacks) {
+			byte[][] data = new byte[tiles.length][];
+			for (int i = 0; i < tiles.length; i++) {
+				data[i] = tiles[i].data;
+			}
+			packCache.put(getStyleKey(), z, minX, minY, size, data);
+		}
+		return tiles[(y - minY) * size + (x - minX)];
+	}
+
+	private static byte[] encodePng(BufferedImage img) throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		ImageIO.write(img, "png", baos);
+		return baos.toByteArray();
+	}
+
 	public BufferedImage getCacheRuntimeImage() throws IOException {
 		BufferedImage img = runtimeImage;
 		if (img != null) {
@@ -0,0 +1,237 @@
+package net.osmand.server.utils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Timezone lookup by precomputed grid. Cell of grid keeps timezone id if whole cell belongs to one timezone,
+ * otherwise it keeps node of kd-tree (splits by lat / lon with polygon tests in leaves) which covers the cell,
+ * so only boundary cells need a few tree levels and exact point in polygon checks.
+ * Index is created by TimezoneIndexGenerator (test sources) and loaded from {@link #RESOURCE}. Thread safe.
+ */
+public class TimezoneIndex {
+
+	public static final String RESOURCE = "/timezones.bin.gz";
+	public static final String UNKNOWN = "unknown";
+
+	static final int MAGIC = 0x545a4958;
+	static final int VERSION = 1;
+	static final byte SPLIT_LAT = 0;
+	static final byte SPLIT_LON = 1;
+	static final byte LEAF = 2;
+
+	final String[] zones;
+	// polygon i is stored as lat, lon pairs in coords[polyOffsets[i] .. polyOffsets[i + 1])
+	final int[] polyOffsets;
+	final float[] coords;
+	// split node: points with coordinate < nodeValue go to nodeLeft, others to nodeRight
+	// leaf node: nodeLeft is offset in leafData - count of tests, (polygon, zone) pairs, default zone
+	final byte[] nodeType;
+	final float[] nodeValue;
+	final int[] nodeLeft;
+	final int[] nodeRight;
+	final int[] leafData;
+	// zone id or -(node + 1)
+	final float cellSize;
+	final int cols;
+	final int rows;
+	final int[] cells;
+
+	TimezoneIndex(String[] zones, int[] polyOffsets, float[] coords, byte[] nodeType, float[] nodeValue,
+			int[] nodeLeft, int[] nodeRight, int[] leafData, float cellSize, int[] cells) {
+		this.zones = zones;
+		this.polyOffsets = polyOffsets;
+		this.coords = coords;
+		this.nodeType = nodeType;
+		this.nodeValue = nodeValue;
+		this.nodeLeft = nodeLeft;
+		this.nodeRight = nodeRight;
+		this.leafData = leafData;
+		this.cellSize = cellSize;
+		this.cols = getCols(cellSize);
+		this.rows = getRows(cellSize);
+		this.cells = cells;
+	}
+
+	private static class Holder {
+		private static final TimezoneIndex INSTANCE = loadResource();
+	}
+
+	public static TimezoneIndex getInstance() {
+		return Holder.INSTANCE;
+	}
+
+	public static String latLngToTimezoneString(double lat, double lng) {
+		return getInstance().getTimezone(lat, lng);
+	}
+
+	private static TimezoneIndex loadResource() {
+		InputStream is = TimezoneIndex.class.getResourceAsStream(RESOURCE);
+		if (is == null) {
+			throw new IllegalStateException("Timezone index " + RESOURCE + " is not found");
+		}
+		try (InputStream in = is) {
+			return read(in);
+		} catch (IOException e) {
+			throw new IllegalStateException("Timezone index " + RESOURCE + " can't be read", e);
+		}
+	}
+
+	public String getTimezone(double latitude, double longitude) {
+		return zones[getZone((float) latitude, (float) longitude)];
+	}
+
+	public int getZonesCount() {
+		return zones.length;
+	}
+
+	public int getBoundaryCellsCount() {
+		int cnt = 0;
+		for (int c : cells) {
+			if (c < 0) {
+				cnt++;
+			}
+		}
+		return cnt;
+	}
+
+	int getZone(float lat, float lon) {
+		int col = (int) ((lon + 180) / cellSize);
+		int row = (int) ((lat + 90) / cellSize);
+		col = col < 0 ? 0 : (col >= cols ? cols - 1 : col);
+		row = row < 0 ? 0 : (row >= rows ? rows - 1 : row);
+		int cell = cells[row * cols + col];
+		return cell >= 0 ? cell : searchTree(-cell - 1, lat, lon);
+	}
+
+	int searchTree(int node, float lat, float lon) {
+		while (nodeType[node] != LEAF) {
+			float v = nodeType[node] == SPLIT_LAT ? lat : lon;
+			node = v < nodeValue[node] ? nodeLeft[node] : nodeRight[node];
+		}
+		int ind = nodeLeft[node];
+		int tests = leafData[ind++];
+		for (int i = 0; i < tests; i++, ind += 2) {
+			if (contains(leafData[ind], lat, lon)) {
+				return leafData[ind + 1];
+			}
+		}
+		return leafData[ind];
+	}
+
+	// same arithmetic as in original generated code, so results are identical
+	private boolean contains(int poly, float testy, float testx) {
+		boolean inside = false;
+		int start = polyOffsets[poly];
+		int end = polyOffsets[poly + 1];
+		float yj = coords[end - 2];
+		float xj = coords[end - 1];
+		for (int i = start; i < end; ) {
+			float yi = coords[i++];
+			float xi = coords[i++];
+			if (((yi > testy) != (yj > testy)) && (testx < (xj - xi) * (testy - yi) / (yj - yi) + xi - 0.0001f)) {
+				inside = !inside;
+			}
+			xj = xi;
+			yj = yi;
+		}
+		return inside;
+	}
+
+	static int getCols(float cellSize) {
+		return (int) Math.ceil(360 / cellSize);
+	}
+
+	static int getRows(float cellSize) {
+		return (int) Math.ceil(180 / cellSize);
+	}
+
+	public static TimezoneIndex read(InputStream is) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(is), 1 << 16));
+		if (in.readInt() != MAGIC) {
+			throw new IOException("Not a timezone index");
+		}
+		int version = in.readInt();
+		if (version != VERSION) {
+			throw new IOException("Unsupported timezone index version " + version);
+		}
+		String[] zones = new String[in.readInt()];
+		for (int i = 0; i < zones.length; i++) {
+			zones[i] = in.readUTF();
+		}
+		int[] polyOffsets = readInts(in);
+		float[] coords = new float[in.readInt()];
+		for (int i = 0; i < coords.length; i++) {
+			coords[i] = in.readFloat();
+		}
+		int nodes = in.readInt();
+		byte[] nodeType = new byte[nodes];
+		float[] nodeValue = new float[nodes];
+		int[] nodeLeft = new int[nodes];
+		int[] nodeRight = new int[nodes];
+		for (int i = 0; i < nodes; i++) {
+			nodeType[i] = in.readByte();
+			nodeValue[i] = in.readFloat();
+			nodeLeft[i] = in.readInt();
+			nodeRight[i] = in.readInt();
+		}
+		int[] leafData = readInts(in);
+		float cellSize = in.readFloat();
+		int[] cells = readInts(in);
+		if (cells.length != getCols(cellSize) * getRows(cellSize)) {
+			throw new IOException("Corrupted timezone index grid");
+		}
+		return new TimezoneIndex(zones, polyOffsets, coords, nodeType, nodeValue, nodeLeft, nodeRight, leafData,
+				cellSize, cells);
+	}
+
+	public void write(OutputStream os) throws IOException {
+		GZIPOutputStream gz = new GZIPOutputStream(os, 1 << 16);
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(gz, 1 << 16));
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(zones.length);
+		for (String zone : zones) {
+			out.writeUTF(zone);
+		}
+		writeInts(out, polyOffsets);
+		out.writeInt(coords.length);
+		for (float c : coords) {
+			out.writeFloat(c);
+		}
+		out.writeInt(nodeType.length);
+		for (int i = 0; i < nodeType.length; i++) {
+			out.writeByte(nodeType[i]);
+			out.writeFloat(nodeValue[i]);
+			out.writeInt(nodeLeft[i]);
+			out.writeInt(nodeRight[i]);
+		}
+		writeInts(out, leafData);
+		out.writeFloat(cellSize);
+		writeInts(out, cells);
+		out.flush();
+		gz.finish();
+	}
+
+	private static int[] readInts(DataInputStream in) throws IOException {
+		int[] res = new int[in.readInt()];
+		for (int i = 0; i < res.length; i++) {
+			res[i] = in.readInt();
+		}
+		return res;
+	}
+
+	private static void writeInts(DataOutputStream out, int[] ar) throws IOException {
+		out.writeInt(ar.length);
+		for (int v : ar) {
+			out.writeInt(v);
+		}
+	}
+}
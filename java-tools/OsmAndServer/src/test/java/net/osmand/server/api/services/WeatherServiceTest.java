@@ -0,0 +1,54 @@
+package net.osmand.server.api.services;
+
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferFloat;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import net.osmand.obf.preparation.IndexWeatherData.WeatherTiff;
+
+public class WeatherServiceTest {
+
+	private static final int WIDTH = 4;
+	private static final int HEIGHT = 3;
+	private static final int BANDS = 2;
+
+	@Test
+	public void testMappedRasterKeepsFractionalValues() throws IOException {
+		File folder = Files.createTempDirectory("weather_raw").toFile();
+		try {
+			float[] values = new float[WIDTH * HEIGHT * BANDS];
+			for (int i = 0; i < values.length; i++) {
+				values[i] = 12.75f + i * 0.5f;
+			}
+			File tiffFile = new File(folder, "test.tiff");
+			File rawFile = new File(folder, "test.tiff.raw");
+			long lastModified = 1_600_000_000_000L;
+			WeatherService service = new WeatherService();
+			service.writeRaw(new WeatherTiff(tiffFile, new DataBufferFloat(values, values.length), WIDTH, HEIGHT,
+					BANDS), rawFile, lastModified);
+			WeatherTiff tiff = service.mapRaw(rawFile, tiffFile, lastModified);
+			Assert.assertNotNull(tiff);
+			Assert.assertEquals(WIDTH, tiff.getWidth());
+			Assert.assertEquals(HEIGHT, tiff.getHeight());
+			Assert.assertEquals(BANDS, tiff.getBands());
+			DataBuffer data = tiff.getData();
+			for (int i = 0; i < values.length; i++) {
+				Assert.assertEquals(values[i], data.getElemDouble(i), 0);
+				Assert.assertEquals(values[i], data.getElemFloat(i), 0);
+				Assert.assertEquals((int) values[i], data.getElem(i));
+			}
+			// pixel (1, 1) of band 1, interpolation at exact pixel gives its value
+			Assert.assertEquals(values[(1 + WIDTH) * BANDS + 1], tiff.getInterpolationValue(1, 1, 1, null), 1e-6);
+		} finally {
+			for (File f : folder.listFiles()) {
+				f.delete();
+			}
+			folder.delete();
+		}
+	}
+}
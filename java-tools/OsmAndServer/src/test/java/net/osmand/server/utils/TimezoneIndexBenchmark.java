@@ -0,0 +1,151 @@
+package net.osmand.server.utils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+/**
+ * Compares {@link TimezoneIndex} with generated TimezoneMapper which it replaced (take TimezoneMapper.java from
+ * git history or https://github.com/drtimcooper/LatLongToTimezone). Mapper is compiled and loaded at runtime,
+ * both implementations are called through same interface and checked to give same zones on all points,
+ * then rounds are timed alternately after warm up rounds, so both are measured with JIT compiled code.
+ * Usage: TimezoneIndexBenchmark TimezoneMapper.java [timezones.bin.gz]
+ */
+public class TimezoneIndexBenchmark {
+
+	private static final int POINTS = 1_000_000;
+	private static final int WARMUP_ROUNDS = 5;
+	private static final int ROUNDS = 10;
+	// jitter of points around polygon vertices, so boundary cells are well covered
+	private static final double BORDER_JITTER = 0.05;
+	private static final String ADAPTER = "TimezoneMapperLookup";
+
+	public interface Lookup {
+		String getTimezone(double lat, double lon);
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 1) {
+			System.out.println("Usage: TimezoneIndexBenchmark TimezoneMapper.java [timezones.bin.gz]");
+			return;
+		}
+		long time = System.nanoTime();
+		TimezoneIndex index;
+		if (args.length > 1) {
+			try (InputStream is = new FileInputStream(args[1])) {
+				index = TimezoneIndex.read(is);
+			}
+		} else {
+			index = TimezoneIndex.getInstance();
+		}
+		System.out.printf("TimezoneIndex loaded in %d ms%n", (System.nanoTime() - time) / 1_000_000);
+		Path classes = Files.createTempDirectory("tzmapper");
+		try {
+			Lookup mapper = loadMapper(new File(args[0]), classes);
+			time = System.nanoTime();
+			mapper.getTimezone(0, 0);
+			System.out.printf("TimezoneMapper initialized in %d ms%n", (System.nanoTime() - time) / 1_000_000);
+			run(mapper, index::getTimezone, index);
+		} finally {
+			try (Stream<Path> files = Files.walk(classes)) {
+				files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+			}
+		}
+	}
+
+	private static Lookup loadMapper(File source, Path classes) throws Exception {
+		JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+		if (compiler == null) {
+			throw new IllegalStateException("Java compiler is not available, run with JDK");
+		}
+		// adapter calls mapper directly, so it is invoked same way as the index without reflection overhead
+		File adapter = classes.resolve(ADAPTER + ".java").toFile();
+		Files.write(adapter.toPath(), ("package net.osmand.server.utils;\n"
+				+ "public class " + ADAPTER + " implements TimezoneIndexBenchmark.Lookup {\n"
+				+ "\tpublic String getTimezone(double lat, double lon) {\n"
+				+ "\t\treturn TimezoneMapper.latLngToTimezoneString(lat, lon);\n"
+				+ "\t}\n}\n").getBytes(StandardCharsets.UTF_8));
+		if (compiler.run(null, null, null, "-nowarn", "-cp", System.getProperty("java.class.path"), "-d",
+				classes.toString(), source.getAbsolutePath(), adapter.getAbsolutePath()) != 0) {
+			throw new IllegalStateException("Can't compile " + source);
+		}
+		URLClassLoader loader = new URLClassLoader(new URL[] { classes.toUri().toURL() },
+				TimezoneIndexBenchmark.class.getClassLoader());
+		return (Lookup) loader.loadClass("net.osmand.server.utils." + ADAPTER).getDeclaredConstructor().newInstance();
+	}
+
+	private static void run(Lookup mapper, Lookup index, TimezoneIndex tzIndex) {
+		double[] lats = new double[POINTS];
+		double[] lons = new double[POINTS];
+		Random rnd = new Random(7);
+		int vertices = tzIndex.coords.length / 2;
+		for (int i = 0; i < POINTS; i++) {
+			if (i % 2 == 0) {
+				lats[i] = rnd.nextDouble() * 180 - 90;
+				lons[i] = rnd.nextDouble() * 360 - 180;
+			} else {
+				int v = rnd.nextInt(vertices) * 2;
+				lats[i] = tzIndex.coords[v] + (rnd.nextDouble() * 2 - 1) * BORDER_JITTER;
+				lons[i] = tzIndex.coords[v + 1] + (rnd.nextDouble() * 2 - 1) * BORDER_JITTER;
+			}
+		}
+		int mismatches = 0;
+		for (int i = 0; i < POINTS; i++) {
+			String expected = mapper.getTimezone(lats[i], lons[i]);
+			String zone = index.getTimezone(lats[i], lons[i]);
+			if (!expected.equals(zone)) {
+				if (mismatches++ < 10) {
+					System.out.printf("Mismatch at %f, %f: %s != %s%n", lats[i], lons[i], zone, expected);
+				}
+			}
+		}
+		System.out.printf("%d points checked, %d mismatches%n", POINTS, mismatches);
+		long sink = 0;
+		double[] mapperTime = new double[ROUNDS];
+		double[] indexTime = new double[ROUNDS];
+		for (int r = 0; r < WARMUP_ROUNDS + ROUNDS; r++) {
+			long time = System.nanoTime();
+			sink += lookup(mapper, lats, lons);
+			double mapperNs = (double) (System.nanoTime() - time) / POINTS;
+			time = System.nanoTime();
+			sink += lookup(index, lats, lons);
+			double indexNs = (double) (System.nanoTime() - time) / POINTS;
+			if (r >= WARMUP_ROUNDS) {
+				mapperTime[r - WARMUP_ROUNDS] = mapperNs;
+				indexTime[r - WARMUP_ROUNDS] = indexNs;
+			}
+		}
+		System.out.printf("TimezoneMapper: %s%n", stats(mapperTime));
+		System.out.printf("TimezoneIndex: %s%n", stats(indexTime));
+		System.out.printf("(%d)%n", sink);
+	}
+
+	private static long lookup(Lookup lookup, double[] lats, double[] lons) {
+		long h = 0;
+		for (int i = 0; i < lats.length; i++) {
+			h += lookup.getTimezone(lats[i], lons[i]).length();
+		}
+		return h;
+	}
+
+	private static String stats(double[] times) {
+		double sum = 0;
+		double min = Double.MAX_VALUE;
+		for (double t : times) {
+			sum += t;
+			min = Math.min(min, t);
+		}
+		return String.format("%.1f ns / lookup avg, %.1f ns min of %d rounds", sum / times.length, min, times.length);
+	}
+}
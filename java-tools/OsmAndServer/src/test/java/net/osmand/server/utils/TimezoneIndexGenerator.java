@@ -0,0 +1,343 @@
+package net.osmand.server.utils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import gnu.trove.list.array.TByteArrayList;
+import gnu.trove.list.array.TFloatArrayList;
+import gnu.trove.list.array.TIntArrayList;
+
+/**
+ * Creates {@link TimezoneIndex} from generated TimezoneMapper.java (https://github.com/drtimcooper/LatLongToTimezone):
+ * decision code is parsed to kd-tree, polygons and zone names are copied as is. Grid lookups of created index are
+ * checked against the parsed tree on random points, speed is measured by {@link TimezoneIndexBenchmark}.
+ * Usage: TimezoneIndexGenerator TimezoneMapper.java timezones.bin.gz [cellSize]
+ */
+public class TimezoneIndexGenerator {
+
+	private static final float DEFAULT_CELL_SIZE = 0.25f;
+	// cell is extended to cover float rounding of cell index calculation
+	private static final double CELL_EPS = 1e-3;
+	// bound of edge cells, covers any split value
+	private static final double OUTSIDE = 1000;
+
+	private static final Pattern METHOD = Pattern.compile("static int (\\w+)\\(float lat, float lng\\)");
+	private static final Pattern SPLIT = Pattern.compile("if \\((lat|lng) < (-?[0-9.]+)f\\)");
+	private static final Pattern RETURN = Pattern.compile("(?:else )?return (\\d+);");
+	private static final Pattern CALL = Pattern.compile("return (\\w+)\\(lat,lng\\);");
+	private static final Pattern TEST = Pattern.compile("if \\(poly\\[(\\d+)\\]\\.contains\\(lat,lng\\)\\) return (\\d+);");
+	private static final Pattern POLYGON = Pattern.compile("poly\\[(\\d+)\\] = new TzPolygon\\(([^)]*)\\);");
+	private static final Pattern ZONES = Pattern.compile("timezoneStrings = \\{([^}]*)\\};");
+	private static final Pattern QUOTED = Pattern.compile("\"([^\"]*)\"");
+
+	private final Map<String, List<String>> methods = new HashMap<>();
+	private final TByteArrayList nodeType = new TByteArrayList();
+	private final TFloatArrayList nodeValue = new TFloatArrayList();
+	private final TIntArrayList nodeLeft = new TIntArrayList();
+	private final TIntArrayList nodeRight = new TIntArrayList();
+	private final TIntArrayList leafData = new TIntArrayList();
+	private String[] zones;
+	private int[] polyOffsets;
+	private float[] coords;
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.out.println("Usage: TimezoneIndexGenerator TimezoneMapper.java timezones.bin.gz [cellSize]");
+			return;
+		}
+		float cellSize = args.length > 2 ? Float.parseFloat(args[2]) : DEFAULT_CELL_SIZE;
+		TimezoneIndexGenerator generator = new TimezoneIndexGenerator();
+		generator.parse(new String(Files.readAllBytes(new File(args[0]).toPath()), StandardCharsets.UTF_8));
+		TimezoneIndex index = generator.createIndex(cellSize);
+		try (OutputStream os = new FileOutputStream(args[1])) {
+			index.write(os);
+		}
+		System.out.printf("Timezone index: %d zones, %d polygons, %d nodes, %d of %d cells are boundary, %d bytes%n",
+				index.zones.length, index.polyOffsets.length - 1, index.nodeType.length,
+				index.getBoundaryCellsCount(), index.cells.length, new File(args[1]).length());
+		verify(index, 2_000_000);
+	}
+
+	public void parse(String source) {
+		Matcher zm = ZONES.matcher(source);
+		if (!zm.find()) {
+			throw new IllegalArgumentException("timezoneStrings are not found");
+		}
+		List<String> zoneList = new ArrayList<>();
+		Matcher qm = QUOTED.matcher(zm.group(1));
+		while (qm.find()) {
+			zoneList.add(qm.group(1));
+		}
+		zones = zoneList.toArray(new String[0]);
+		parsePolygons(source);
+		String[] lines = source.split("\n");
+		List<String> body = null;
+		for (String l : lines) {
+			String line = l.trim();
+			Matcher mm = METHOD.matcher(line);
+			if (mm.find()) {
+				body = new ArrayList<>();
+				methods.put(mm.group(1), body);
+			} else if (body != null && !line.isEmpty()) {
+				body.add(line);
+				if (line.equals("}") && depth(body) == 0) {
+					body = null;
+				}
+			}
+		}
+		if (!methods.containsKey("getTzInt")) {
+			throw new IllegalArgumentException("getTzInt is not found");
+		}
+		int[] pos = new int[] { 0 };
+		List<String> root = methods.get("getTzInt");
+		expect(root, pos, "{");
+		parseNode(root, pos);
+		expect(root, pos, "}");
+	}
+
+	private static int depth(List<String> body) {
+		int d = 0;
+		for (String s : body) {
+			if (s.equals("{")) {
+				d++;
+			} else if (s.equals("}")) {
+				d--;
+			}
+		}
+		return d;
+	}
+
+	private void parsePolygons(String source) {
+		List<float[]> polygons = new ArrayList<>();
+		Matcher pm = POLYGON.matcher(source);
+		while (pm.find()) {
+			int ind = Integer.parseInt(pm.group(1));
+			String[] values = pm.group(2).split(",");
+			float[] pts = new float[values.length];
+			for (int i = 0; i < values.length; i++) {
+				pts[i] = Float.parseFloat(values[i].trim().replace("f", ""));
+			}
+			while (polygons.size() <= ind) {
+				polygons.add(null);
+			}
+			polygons.set(ind, pts);
+		}
+		polyOffsets = new int[polygons.size() + 1];
+		TFloatArrayList allCoords = new TFloatArrayList();
+		for (int i = 0; i < polygons.size(); i++) {
+			if (polygons.get(i) == null) {
+				throw new IllegalArgumentException("Polygon " + i + " is not found");
+			}
+			allCoords.add(polygons.get(i));
+			polyOffsets[i + 1] = allCoords.size();
+		}
+		coords = allCoords.toArray();
+	}
+
+	private int parseNode(List<String> lines, int[] pos) {
+		String line = lines.get(pos[0]++);
+		Matcher m;
+		if ((m = SPLIT.matcher(line)).matches()) {
+			int node = addNode(m.group(1).equals("lat") ? TimezoneIndex.SPLIT_LAT : TimezoneIndex.SPLIT_LON,
+					Float.parseFloat(m.group(2)));
+			nodeLeft.set(node, parseNode(lines, pos));
+			expect(lines, pos, "else");
+			nodeRight.set(node, parseNode(lines, pos));
+			return node;
+		} else if ((m = RETURN.matcher(line)).matches()) {
+			int node = addNode(TimezoneIndex.LEAF, 0);
+			nodeLeft.set(node, leafData.size());
+			leafData.add(0);
+			leafData.add(zone(m.group(1)));
+			return node;
+		} else if ((m = CALL.matcher(line)).matches()) {
+			List<String> method = methods.get(m.group(1));
+			if (method == null) {
+				throw new IllegalArgumentException("Method " + m.group(1) + " is not found");
+			}
+			int[] mpos = new int[] { 0 };
+			expect(method, mpos, "{");
+			int node = parseNode(method, mpos);
+			expect(method, mpos, "}");
+			return node;
+		} else if (line.equals("{")) {
+			int node = addNode(TimezoneIndex.LEAF, 0);
+			int start = leafData.size();
+			nodeLeft.set(node, start);
+			leafData.add(0);
+			while ((m = TEST.matcher(lines.get(pos[0]))).matches()) {
+				int poly = Integer.parseInt(m.group(1));
+				if (poly >= polyOffsets.length - 1) {
+					throw new IllegalArgumentException("Polygon " + poly + " is not found");
+				}
+				leafData.add(poly);
+				leafData.add(zone(m.group(2)));
+				leafData.set(start, leafData.get(start) + 1);
+				pos[0]++;
+			}
+			m = RETURN.matcher(lines.get(pos[0]++));
+			if (!m.matches()) {
+				throw new IllegalArgumentException("Unexpected line " + lines.get(pos[0] - 1));
+			}
+			leafData.add(zone(m.group(1)));
+			expect(lines, pos, "}");
+			return node;
+		}
+		throw new IllegalArgumentException("Unexpected line " + line);
+	}
+
+	private int zone(String s) {
+		int zone = Integer.parseInt(s);
+		if (zone >= zones.length) {
+			throw new IllegalArgumentException("Zone " + zone + " is not found");
+		}
+		return zone;
+	}
+
+	private int addNode(byte type, float value) {
+		nodeType.add(type);
+		nodeValue.add(value);
+		nodeLeft.add(-1);
+		nodeRight.add(-1);
+		return nodeType.size() - 1;
+	}
+
+	private static void expect(List<String> lines, int[] pos, String expected) {
+		String line = lines.get(pos[0]++);
+		if (!line.equals(expected)) {
+			throw new IllegalArgumentException("Expected '" + expected + "' but found '" + line + "'");
+		}
+	}
+
+	public TimezoneIndex createIndex(float cellSize) {
+		int cols = TimezoneIndex.getCols(cellSize);
+		int rows = TimezoneIndex.getRows(cellSize);
+		int[] cells = new int[cols * rows];
+		TimezoneIndex index = new TimezoneIndex(zones, polyOffsets, coords, nodeType.toArray(), nodeValue.toArray(),
+				nodeLeft.toArray(), nodeRight.toArray(), leafData.toArray(), cellSize, cells);
+		for (int row = 0; row < rows; row++) {
+			double minLat = row == 0 ? -OUTSIDE : row * cellSize - 90 - CELL_EPS;
+			double maxLat = row == rows - 1 ? OUTSIDE : (row + 1) * cellSize - 90 + CELL_EPS;
+			float centerLat = (row + 0.5f) * cellSize - 90;
+			for (int col = 0; col < cols; col++) {
+				double minLon = col == 0 ? -OUTSIDE : col * cellSize - 180 - CELL_EPS;
+				double maxLon = col == cols - 1 ? OUTSIDE : (col + 1) * cellSize - 180 + CELL_EPS;
+				float centerLon = (col + 0.5f) * cellSize - 180;
+				double[] rect = new double[] { minLat, maxLat, minLon, maxLon };
+				int zone = getUniformZone(index, 0, rect, centerLat, centerLon);
+				cells[row * cols + col] = zone >= 0 ? zone : -getCoveringNode(rect) - 1;
+			}
+		}
+		return index;
+	}
+
+	// zone if all points of rectangle have same zone, otherwise -1
+	private int getUniformZone(TimezoneIndex index, int node, double[] rect, float centerLat, float centerLon) {
+		byte type = nodeType.get(node);
+		if (type == TimezoneIndex.LEAF) {
+			int ind = nodeLeft.get(node);
+			int tests = leafData.get(ind);
+			for (int i = 0; i < tests; i++) {
+				if (intersects(leafData.get(ind + 1 + 2 * i), rect)) {
+					return -1;
+				}
+			}
+			// no polygon border inside rectangle so any point of it gives same result
+			return index.searchTree(node, centerLat, centerLon);
+		}
+		double min = type == TimezoneIndex.SPLIT_LAT ? rect[0] : rect[2];
+		double max = type == TimezoneIndex.SPLIT_LAT ? rect[1] : rect[3];
+		float v = nodeValue.get(node);
+		if (max < v) {
+			return getUniformZone(index, nodeLeft.get(node), rect, centerLat, centerLon);
+		} else if (min >= v) {
+			return getUniformZone(index, nodeRight.get(node), rect, centerLat, centerLon);
+		}
+		int left = getUniformZone(index, nodeLeft.get(node), rect, centerLat, centerLon);
+		if (left < 0) {
+			return -1;
+		}
+		return left == getUniformZone(index, nodeRight.get(node), rect, centerLat, centerLon) ? left : -1;
+	}
+
+	private boolean intersects(int poly, double[] rect) {
+		int start = polyOffsets[poly];
+		int end = polyOffsets[poly + 1];
+		double yj = coords[end - 2];
+		double xj = coords[end - 1];
+		for (int i = start; i < end; i += 2) {
+			double yi = coords[i];
+			double xi = coords[i + 1];
+			if (segmentIntersects(yj, xj, yi, xi, rect)) {
+				return true;
+			}
+			yj = yi;
+			xj = xi;
+		}
+		return false;
+	}
+
+	private static boolean segmentIntersects(double y1, double x1, double y2, double x2, double[] rect) {
+		if (Math.max(y1, y2) < rect[0] || Math.min(y1, y2) > rect[1] || Math.max(x1, x2) < rect[2]
+				|| Math.min(x1, x2) > rect[3]) {
+			return false;
+		}
+		// segment bbox overlaps rectangle, so it intersects unless all corners are on one side of the line
+		int sides = 0;
+		for (int k = 0; k < 4; k++) {
+			double y = k < 2 ? rect[0] : rect[1];
+			double x = k % 2 == 0 ? rect[2] : rect[3];
+			double cross = (x2 - x1) * (y - y1) - (y2 - y1) * (x - x1);
+			sides |= cross > 0 ? 1 : (cross < 0 ? 2 : 3);
+		}
+		return sides == 3;
+	}
+
+	private int getCoveringNode(double[] rect) {
+		int node = 0;
+		while (nodeType.get(node) != TimezoneIndex.LEAF) {
+			boolean lat = nodeType.get(node) == TimezoneIndex.SPLIT_LAT;
+			float v = nodeValue.get(node);
+			if ((lat ? rect[1] : rect[3]) < v) {
+				node = nodeLeft.get(node);
+			} else if ((lat ? rect[0] : rect[2]) >= v) {
+				node = nodeRight.get(node);
+			} else {
+				break;
+			}
+		}
+		return node;
+	}
+
+	// checks grid lookup against full tree search (original decision code)
+	private static void verify(TimezoneIndex index, int points) {
+		Random rnd = new Random(7);
+		for (int i = 0; i < points; i++) {
+			float lat = (float) (rnd.nextDouble() * 180 - 90);
+			float lon = (float) (rnd.nextDouble() * 360 - 180);
+			if (i % 4 == 0) {
+				// points on grid lines
+				lat = Math.round(lat / index.cellSize) * index.cellSize;
+				lon = Math.round(lon / index.cellSize) * index.cellSize;
+			}
+			int expected = index.searchTree(0, lat, lon);
+			int zone = index.getZone(lat, lon);
+			if (zone != expected) {
+				throw new IllegalStateException(String.format("Mismatch at %f, %f: %s != %s", lat, lon,
+						index.zones[zone], index.zones[expected]));
+			}
+		}
+		System.out.printf("%d points match full tree search%n", points);
+	}
+}